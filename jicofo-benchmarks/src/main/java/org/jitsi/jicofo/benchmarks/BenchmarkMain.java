@@ -0,0 +1,44 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.benchmarks;
+
+import org.openjdk.jmh.profile.*;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * Runs the benchmarks with the GC profiler enabled, so that allocation rates are reported together with the
+ * timings. Accepts the same command line options as the JMH runner, e.g.:
+ * <pre>
+ * java -jar jicofo-benchmarks/target/benchmarks.jar BridgeSelectorBenchmark -p numBridges=2000
+ * </pre>
+ */
+public class BenchmarkMain
+{
+    public static void main(String[] args)
+        throws Exception
+    {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        Options options = new OptionsBuilder()
+            .parent(commandLineOptions)
+            .addProfiler(GCProfiler.class)
+            .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.benchmarks;
+
+import org.jitsi.jicofo.bridge.*;
+import org.jitsi.xmpp.extensions.colibri.*;
+import org.jxmpp.jid.impl.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Benchmarks {@link BridgeSelector#selectBridge} with different numbers of bridges, spread over a few regions and
+ * with random stress levels.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BridgeSelectorBenchmark
+{
+    private static final int NUM_REGIONS = 5;
+
+    @Param({"10", "100", "500", "2000"})
+    public int numBridges;
+
+    private BridgeSelector bridgeSelector;
+
+    private final ParticipantProperties participantProperties = new ParticipantProperties("region-0", false);
+
+    /** The bridges of an existing conference, with one bridge in another region. */
+    private Map<Bridge, ConferenceBridgeProperties> conferenceBridges;
+
+    @Setup
+    public void setup()
+        throws Exception
+    {
+        bridgeSelector = new BridgeSelector();
+        Random random = new Random(42);
+        List<Bridge> bridges = new ArrayList<>();
+        for (int i = 0; i < numBridges; i++)
+        {
+            String region = "region-" + (i % NUM_REGIONS);
+            ColibriStatsExtension stats = new ColibriStatsExtension();
+            stats.addStat(new ColibriStatsExtension.Stat("stress_level", random.nextDouble() * 0.8));
+            stats.addStat(new ColibriStatsExtension.Stat(ColibriStatsExtension.REGION, region));
+            stats.addStat(new ColibriStatsExtension.Stat(ColibriStatsExtension.RELAY_ID, "relay-" + i));
+            stats.addStat(new ColibriStatsExtension.Stat("version", "1.0"));
+            stats.addStat(new ColibriStatsExtension.Stat("colibri2", "true"));
+            stats.addStat(new ColibriStatsExtension.Stat(ColibriStatsExtension.DRAIN, "false"));
+            bridges.add(bridgeSelector.addJvbAddress(JidCreate.from("jvb-" + i + "@example.com/jvb"), stats));
+        }
+
+        conferenceBridges = new HashMap<>();
+        conferenceBridges.put(bridges.get(1 % numBridges), new ConferenceBridgeProperties(10, false));
+    }
+
+    /** Select a bridge for the first participant in a conference. */
+    @Benchmark
+    public Bridge selectBridgeForNewConference()
+    {
+        return bridgeSelector.selectBridge(Collections.emptyMap(), participantProperties);
+    }
+
+    /** Select a bridge for a participant joining an existing conference. */
+    @Benchmark
+    public Bridge selectBridgeForExistingConference()
+    {
+        return bridgeSelector.selectBridge(conferenceBridges, participantProperties);
+    }
+}
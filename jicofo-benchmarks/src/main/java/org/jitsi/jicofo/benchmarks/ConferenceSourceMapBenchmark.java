@@ -0,0 +1,63 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.benchmarks;
+
+import org.jitsi.jicofo.conference.source.*;
+import org.jitsi.xmpp.extensions.jingle.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.jitsi.jicofo.benchmarks.SourceFixtures.*;
+
+/**
+ * Benchmarks the encoding of a {@link ConferenceSourceMap} (used for session-initiate and source-add) as Jingle and as
+ * compact JSON.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConferenceSourceMapBenchmark
+{
+    @Param({"1", "10", "100", "1000"})
+    public int numEndpoints;
+
+    private ConferenceSourceMap conferenceSources;
+
+    @Setup
+    public void setup()
+    {
+        conferenceSources = createConferenceSourceMap(numEndpoints);
+    }
+
+    @Benchmark
+    public List<ContentPacketExtension> toJingle()
+    {
+        return conferenceSources.toJingle();
+    }
+
+    @Benchmark
+    public String compactJson()
+    {
+        return conferenceSources.compactJson();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.benchmarks;
+
+import org.jitsi.jicofo.conference.source.*;
+import org.jitsi.xmpp.extensions.jingle.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.jitsi.jicofo.benchmarks.SourceFixtures.*;
+
+/**
+ * Benchmarks parsing the sources signaled by an endpoint (in session-accept and source-add) with
+ * {@link EndpointSourceSet#fromJingle}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EndpointSourceSetBenchmark
+{
+    private List<ContentPacketExtension> contents;
+
+    @Setup
+    public void setup()
+    {
+        String endpointId = endpointId(0);
+        contents = createEndpointSourceSet(endpointId, 1).toJingle(endpointId);
+    }
+
+    @Benchmark
+    public EndpointSourceSet fromJingle()
+    {
+        return EndpointSourceSet.fromJingle(contents);
+    }
+}
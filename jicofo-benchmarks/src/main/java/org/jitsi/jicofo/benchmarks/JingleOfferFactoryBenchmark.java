@@ -0,0 +1,54 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.benchmarks;
+
+import org.jitsi.jicofo.codec.*;
+import org.jitsi.xmpp.extensions.jingle.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Benchmarks creating the offer sent to each participant with {@link JingleOfferFactory#createOffer}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JingleOfferFactoryBenchmark
+{
+    private final OfferOptions defaultOptions = new OfferOptions();
+
+    /** Options for an endpoint without data channels, RTX or RED. */
+    private final OfferOptions minimalOptions = new OfferOptions(true, true, false, true, false, false, false);
+
+    @Benchmark
+    public List<ContentPacketExtension> createOffer()
+    {
+        return JingleOfferFactory.INSTANCE.createOffer(defaultOptions);
+    }
+
+    @Benchmark
+    public List<ContentPacketExtension> createMinimalOffer()
+    {
+        return JingleOfferFactory.INSTANCE.createOffer(minimalOptions);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.benchmarks;
+
+import org.jitsi.jicofo.conference.source.*;
+import org.jitsi.utils.*;
+
+import java.util.*;
+
+/**
+ * Creates the sources used by the benchmarks.
+ */
+class SourceFixtures
+{
+    /**
+     * The number of SSRCs used by each endpoint created with {@link #createEndpointSourceSet(String, long)}.
+     */
+    static final int SSRCS_PER_ENDPOINT = 7;
+
+    /**
+     * The SSRC and SSRC group limits to use for {@link ValidatingConferenceSourceMap}.
+     */
+    static final int MAX_SSRCS_PER_USER = 20;
+    static final int MAX_SSRC_GROUPS_PER_USER = 20;
+
+    private SourceFixtures()
+    {
+    }
+
+    /**
+     * Creates the sources of a typical endpoint: an audio source and a video source with 3 simulcast layers and RTX.
+     */
+    static EndpointSourceSet createEndpointSourceSet(String endpointId, long ssrcBase)
+    {
+        String msid = "msid-" + endpointId;
+        String videoName = endpointId + "-v0";
+        Set<Source> sources = new HashSet<>();
+        for (int i = 0; i < 6; i++)
+        {
+            sources.add(new Source(ssrcBase + i, MediaType.VIDEO, videoName, msid, VideoType.Camera));
+        }
+        sources.add(new Source(ssrcBase + 6, MediaType.AUDIO, endpointId + "-a0", msid, null));
+
+        Set<SsrcGroup> groups = new HashSet<>();
+        groups.add(
+            new SsrcGroup(
+                SsrcGroupSemantics.Sim,
+                Arrays.asList(ssrcBase, ssrcBase + 1, ssrcBase + 2),
+                MediaType.VIDEO));
+        for (int i = 0; i < 3; i++)
+        {
+            groups.add(
+                new SsrcGroup(SsrcGroupSemantics.Fid, Arrays.asList(ssrcBase + i, ssrcBase + 3 + i), MediaType.VIDEO));
+        }
+
+        return new EndpointSourceSet(sources, groups);
+    }
+
+    /**
+     * Creates a {@link ConferenceSourceMap} with the sources of {@code numEndpoints} endpoints, using SSRCs starting
+     * at 1.
+     */
+    static ConferenceSourceMap createConferenceSourceMap(int numEndpoints)
+    {
+        ConferenceSourceMap conferenceSourceMap = new ConferenceSourceMap();
+        for (int i = 0; i < numEndpoints; i++)
+        {
+            String endpointId = endpointId(i);
+            conferenceSourceMap.add(endpointId, createEndpointSourceSet(endpointId, 1 + (long) i * SSRCS_PER_ENDPOINT));
+        }
+        return conferenceSourceMap;
+    }
+
+    static String endpointId(int i)
+    {
+        return "endpoint-" + i;
+    }
+}
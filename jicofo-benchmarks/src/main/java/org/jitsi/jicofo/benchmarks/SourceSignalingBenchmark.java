@@ -0,0 +1,81 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.benchmarks;
+
+import org.jitsi.jicofo.conference.*;
+import org.jitsi.jicofo.conference.source.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+import java.util.concurrent.*;
+
+import static org.jitsi.jicofo.benchmarks.SourceFixtures.*;
+
+/**
+ * Benchmarks {@link SourceSignaling#update()} for a participant in conferences of different sizes, when a single
+ * remote endpoint joins and then leaves.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SourceSignalingBenchmark
+{
+    @Param({"10", "100", "1000"})
+    public int numEndpoints;
+
+    @Param({"true", "false"})
+    public boolean trackDeltas;
+
+    /** Whether the participant has a shared cache of filtered sources (as in a conference). */
+    @Param({"true", "false"})
+    public boolean filterCache;
+
+    private SourceSignaling sourceSignaling;
+
+    private ConferenceSourceMap newEndpointSources;
+
+    @Setup
+    public void setup()
+    {
+        sourceSignaling = new SourceSignaling(
+            true,
+            true,
+            true,
+            true,
+            trackDeltas,
+            filterCache ? new FilteredSourcesCache() : null);
+        sourceSignaling.reset(createConferenceSourceMap(numEndpoints));
+
+        String newEndpointId = endpointId(numEndpoints);
+        newEndpointSources = new ConferenceSourceMap(
+            newEndpointId,
+            createEndpointSourceSet(newEndpointId, 1 + (long) numEndpoints * SSRCS_PER_ENDPOINT));
+    }
+
+    @Benchmark
+    public void addAndRemoveEndpoint(Blackhole blackhole)
+    {
+        sourceSignaling.addSources(newEndpointSources);
+        blackhole.consume(sourceSignaling.update());
+        sourceSignaling.removeSources(newEndpointSources);
+        blackhole.consume(sourceSignaling.update());
+    }
+}
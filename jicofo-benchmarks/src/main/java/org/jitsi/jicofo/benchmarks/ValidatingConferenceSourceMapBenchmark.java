@@ -0,0 +1,91 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.benchmarks;
+
+import org.jitsi.jicofo.conference.source.*;
+import org.jitsi.utils.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+import java.util.concurrent.*;
+
+import static org.jitsi.jicofo.benchmarks.SourceFixtures.*;
+
+/**
+ * Benchmarks {@link ValidatingConferenceSourceMap#tryToAdd} and {@link ValidatingConferenceSourceMap#tryToRemove}
+ * in conferences of different sizes. Each invocation adds sources and then removes them, so that the state of the
+ * conference is the same for all invocations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValidatingConferenceSourceMapBenchmark
+{
+    @Param({"10", "100", "1000"})
+    public int numEndpoints;
+
+    private ValidatingConferenceSourceMap conferenceSources;
+
+    /** The sources of an endpoint which is not in the conference. */
+    private EndpointSourceSet newEndpointSources;
+    private String newEndpointId;
+
+    /** An existing endpoint, and an additional source for it. */
+    private String existingEndpointId;
+    private EndpointSourceSet additionalSource;
+
+    @Setup
+    public void setup()
+    {
+        conferenceSources = new ValidatingConferenceSourceMap(MAX_SSRCS_PER_USER, MAX_SSRC_GROUPS_PER_USER);
+        long ssrc = 1;
+        for (int i = 0; i < numEndpoints; i++)
+        {
+            String endpointId = endpointId(i);
+            conferenceSources.tryToAdd(endpointId, createEndpointSourceSet(endpointId, ssrc));
+            ssrc += SSRCS_PER_ENDPOINT;
+        }
+
+        newEndpointId = endpointId(numEndpoints);
+        newEndpointSources = createEndpointSourceSet(newEndpointId, ssrc);
+        ssrc += SSRCS_PER_ENDPOINT;
+
+        existingEndpointId = endpointId(numEndpoints / 2);
+        additionalSource = new EndpointSourceSet(
+            new Source(ssrc, MediaType.AUDIO, existingEndpointId + "-a1", "msid-" + existingEndpointId + "-1", null));
+    }
+
+    /** A new endpoint joins and leaves. */
+    @Benchmark
+    public void addAndRemoveEndpoint(Blackhole blackhole)
+    {
+        blackhole.consume(conferenceSources.tryToAdd(newEndpointId, newEndpointSources));
+        blackhole.consume(conferenceSources.tryToRemove(newEndpointId, newEndpointSources));
+    }
+
+    /** An existing endpoint adds and removes a single source. */
+    @Benchmark
+    public void addAndRemoveSource(Blackhole blackhole)
+    {
+        blackhole.consume(conferenceSources.tryToAdd(existingEndpointId, additionalSource));
+        blackhole.consume(conferenceSources.tryToRemove(existingEndpointId, additionalSource));
+    }
+}
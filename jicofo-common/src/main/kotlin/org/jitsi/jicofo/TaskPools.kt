@@ -18,7 +18,10 @@
 package org.jitsi.jicofo
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings
+import org.jitsi.jicofo.util.DispatchingScheduledExecutor
+import org.jitsi.jicofo.util.VirtualThreads
 import org.jitsi.utils.concurrent.CustomizableThreadFactory
+import org.jitsi.utils.logging2.createLogger
 import java.util.concurrent.ExecutorService
 import java.util.concurrent.Executors
 import java.util.concurrent.ScheduledExecutorService
@@ -26,18 +29,38 @@ import java.util.concurrent.ScheduledExecutorService
 @SuppressFBWarnings("NP_NONNULL_FIELD_NOT_INITIALIZED_IN_CONSTRUCTOR")
 class TaskPools {
     companion object {
+        private val logger = createLogger()
+
+        /**
+         * Whether the default pools use virtual threads. Enabled with `jicofo.task-pools.virtual-threads` when the
+         * JVM supports it.
+         */
+        @JvmStatic
+        val virtualThreads: Boolean = TaskPoolsConfig.config.virtualThreads.also {
+            if (it && !VirtualThreads.supported) {
+                logger.warn("Virtual threads are enabled, but not supported by the JVM. Using platform threads.")
+            }
+        } && VirtualThreads.supported
+
+        /**
+         * With virtual threads every task gets its own thread, so tasks blocking for an IQ response do not hold on to
+         * an OS thread.
+         */
         private val defaultIoPool: ExecutorService =
-            Executors.newCachedThreadPool(CustomizableThreadFactory("Jicofo Global IO Pool", false))
+            (if (virtualThreads) VirtualThreads.newThreadPerTaskExecutor("Jicofo Global IO Pool") else null)
+                ?: Executors.newCachedThreadPool(CustomizableThreadFactory("Jicofo Global IO Pool", false))
 
         @JvmStatic
         var ioPool: ExecutorService = defaultIoPool
 
         fun resetIoPool() { ioPool = defaultIoPool }
 
-        private val defaultScheduledPool: ScheduledExecutorService = Executors.newScheduledThreadPool(
-            3,
-            CustomizableThreadFactory("Jicofo Global Scheduled Pool", true)
-        )
+        /**
+         * With virtual threads the scheduler's threads only do the timing, and each task runs in its own virtual
+         * thread (see [DispatchingScheduledExecutor]). Otherwise a scheduled task which blocks holds one of the pool's
+         * threads.
+         */
+        private val defaultScheduledPool: ScheduledExecutorService = createScheduledPool()
 
         @JvmStatic
         var scheduledPool: ScheduledExecutorService = defaultScheduledPool
@@ -49,5 +72,19 @@ class TaskPools {
             ioPool.shutdown()
             scheduledPool.shutdown()
         }
+
+        private fun createScheduledPool(): ScheduledExecutorService {
+            if (virtualThreads) {
+                VirtualThreads.newThreadPerTaskExecutor("Jicofo Global Scheduled Pool")?.let {
+                    val scheduler = CustomizableThreadFactory("Jicofo Global Scheduler", true)
+                    return DispatchingScheduledExecutor(1, scheduler, it)
+                }
+            }
+            return Executors.newScheduledThreadPool(3, CustomizableThreadFactory("Jicofo Global Scheduled Pool", true))
+        }
+
+        init {
+            logger.info("Using ${if (virtualThreads) "virtual" else "platform"} threads for the task pools.")
+        }
     }
 }
@@ -0,0 +1,41 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo
+
+import org.jitsi.config.JitsiConfig.Companion.newConfig
+import org.jitsi.metaconfig.config
+import java.time.Duration
+
+class TaskPoolsConfig private constructor() {
+    /** Whether to run the IO and scheduled pools on virtual threads (when supported by the JVM). */
+    val virtualThreads: Boolean by config {
+        "$BASE.virtual-threads".from(newConfig)
+    }
+
+    /** Blocking while pinned for longer than this is counted in the pinned virtual threads metric. */
+    val pinnedThreshold: Duration by config {
+        "$BASE.pinned-threshold".from(newConfig)
+    }
+
+    companion object {
+        const val BASE = "jicofo.task-pools"
+
+        @JvmField
+        val config = TaskPoolsConfig()
+    }
+}
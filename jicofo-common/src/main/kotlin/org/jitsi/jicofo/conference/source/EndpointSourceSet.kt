@@ -67,6 +67,11 @@ data class EndpointSourceSet(
      */
     override fun toString() = "[audio=$audioSsrcs, video=$videoSsrcs, groups=$ssrcGroups]"
 
+    /** The sets are immutable, so the hash code (as generated for the data class) is only computed once. */
+    private val cachedHashCode: Int by lazy { 31 * sources.hashCode() + ssrcGroups.hashCode() }
+
+    override fun hashCode() = cachedHashCode
+
     /**
      * Get a new [EndpointSourceSet] by stripping all simulcast-related SSRCs and groups except for the first SSRC in
      * a simulcast group. This assumes that the first SSRC in the simulcast group and its associated RTX SSRC are the only
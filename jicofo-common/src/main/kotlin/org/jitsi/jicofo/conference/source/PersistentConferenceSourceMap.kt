@@ -0,0 +1,91 @@
+/*
+ * Copyright @ 2024 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.conference.source
+
+import org.jitsi.jicofo.util.PersistentHashMap
+import org.jitsi.utils.OrderedJsonObject
+
+/**
+ * An immutable variant of [ConferenceSourceMap] backed by a [PersistentHashMap]. Operations return a new instance
+ * which shares structure with the original, so "copying" is free and adding or removing the sources of one endpoint
+ * only costs O(log n). Instances derived from one another can be compared efficiently with [forEachDifference].
+ *
+ * Use [ConferenceSourceMap] when a mutable map is needed (e.g. [ValidatingConferenceSourceMap]).
+ */
+class PersistentConferenceSourceMap private constructor(
+    private val endpointSourceSets: PersistentHashMap<String, EndpointSourceSet>
+) : Map<String, EndpointSourceSet> by endpointSourceSets {
+
+    /** Constructs a new [PersistentConferenceSourceMap] with the entries in [map]. */
+    constructor(map: Map<String, EndpointSourceSet>) : this(
+        if (map is PersistentConferenceSourceMap) map.endpointSourceSets else PersistentHashMap.of(map)
+    )
+
+    /** Return a map with the sources of [other] added to this one. */
+    operator fun plus(other: Map<String, EndpointSourceSet>): PersistentConferenceSourceMap =
+        wrap(
+            other.entries.fold(endpointSourceSets) { acc, (owner, endpointSourceSet) ->
+                acc.put(owner, acc[owner] + endpointSourceSet)
+            }
+        )
+
+    /** Return a map with the sources of [other] removed from this one. Entries which become empty are removed. */
+    operator fun minus(other: Map<String, EndpointSourceSet>): PersistentConferenceSourceMap =
+        wrap(
+            other.entries.fold(endpointSourceSets) { acc, (owner, endpointSourceSet) ->
+                val existing = acc[owner] ?: return@fold acc
+                val result = existing - endpointSourceSet
+                if (result.isEmpty()) acc.remove(owner) else acc.put(owner, result)
+            }
+        )
+
+    /** Return a map with [endpointSourceSet] added to the sources owned by [owner]. */
+    fun plus(owner: String, endpointSourceSet: EndpointSourceSet) = plus(mapOf(owner to endpointSourceSet))
+
+    /** Return a map without the entry for [owner]. */
+    fun without(owner: String) = wrap(endpointSourceSets.remove(owner))
+
+    /**
+     * Call [action] for each owner whose sources differ between this map and [other] (with null for a missing
+     * entry). This only visits the parts of the maps which are not shared.
+     */
+    fun forEachDifference(
+        other: PersistentConferenceSourceMap,
+        action: (String, EndpointSourceSet?, EndpointSourceSet?) -> Unit
+    ) = endpointSourceSets.forEachDifference(other.endpointSourceSets, action)
+
+    /** Create a mutable [ConferenceSourceMap] with the same entries. */
+    fun toConferenceSourceMap() = ConferenceSourceMap(endpointSourceSets)
+
+    /** Expanded JSON format used for debugging */
+    fun toJson() = OrderedJsonObject().apply {
+        endpointSourceSets.forEach { (owner, sourceSet) -> put(owner, sourceSet.toJson()) }
+    }
+
+    override fun toString(): String = endpointSourceSets.toString()
+
+    override fun equals(other: Any?) = endpointSourceSets == other
+
+    override fun hashCode() = endpointSourceSets.hashCode()
+
+    private fun wrap(map: PersistentHashMap<String, EndpointSourceSet>) =
+        if (map === endpointSourceSets) this else PersistentConferenceSourceMap(map)
+
+    companion object {
+        @JvmField
+        val EMPTY = PersistentConferenceSourceMap(PersistentHashMap.empty())
+    }
+}
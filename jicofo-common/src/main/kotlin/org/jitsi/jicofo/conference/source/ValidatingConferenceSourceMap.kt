@@ -17,6 +17,7 @@
  */
 package org.jitsi.jicofo.conference.source
 
+import org.jitsi.jicofo.util.LongObjectHashMap
 import org.jitsi.utils.MediaType
 import org.jitsi.utils.logging2.createLogger
 import java.lang.IllegalStateException
@@ -41,10 +42,14 @@ class ValidatingConferenceSourceMap(
 
     /**
      * Maps an SSRC to the JID of the endpoint that owns it. Used to detect cross-endpoint conflicts efficiently.
-     *
-     * Note that since the value is nullable [Map.containsKey] must be used when checking for the existence of an entry.
      */
-    private val ssrcToOwnerMap = mutableMapOf<Long, String>()
+    private val ssrcToOwnerMap = LongObjectHashMap<String>()
+
+    /** Maps an SSRC to its [Source]. */
+    private val ssrcToSourceMap = LongObjectHashMap<Source>()
+
+    /** Maps an SSRC to the groups which contain it. */
+    private val ssrcToGroupsMap = LongObjectHashMap<List<SsrcGroup>>()
 
     /**
      * Maps an MSID to the JID of the endpoint that owns it. Used to detect cross-endpoint conflicts efficiently.
@@ -95,7 +100,9 @@ class ValidatingConferenceSourceMap(
         // If we rejected any of the SSRCs we'd throw above. We accepted them all.
         val acceptedSources = sourcesToAdd.sources
         val resultingSources = existingSourceSet.sources + acceptedSources
-        val resultingSsrcs = resultingSources.map { it.ssrc }.toSet()
+        val acceptedSsrcs = LongObjectHashMap<Source>(acceptedSources.size)
+        acceptedSources.forEach { acceptedSsrcs[it.ssrc] = it }
+        fun isKnown(ssrc: Long) = acceptedSsrcs.containsKey(ssrc) || ssrcToOwnerMap[ssrc] == owner
 
         val acceptedGroups = mutableSetOf<SsrcGroup>()
         sourcesToAdd.ssrcGroups.forEach {
@@ -103,7 +110,7 @@ class ValidatingConferenceSourceMap(
             when {
                 it.ssrcs.isEmpty() -> logger.info("Empty group signaled, ignoring.")
                 existingSourceSet.ssrcGroups.contains(it) -> logger.info("Duplicate group signaled, ignoring.")
-                !resultingSsrcs.containsAll(it.ssrcs) -> throw GroupContainsUnknownSourceException(it.ssrcs)
+                !it.ssrcs.all(::isKnown) -> throw GroupContainsUnknownSourceException(it.ssrcs)
                 else -> acceptedGroups.add(it)
             }
         }
@@ -149,11 +156,12 @@ class ValidatingConferenceSourceMap(
         val sourcesAcceptedToBeRemoved = mutableSetOf<Source>()
         sourcesToRemove.sources.forEach { source ->
             // Be lenient and allow sources to be removed without matching the original parameters (media type, msid).
-            val existingSource = existingSources.sources.find { it.ssrc == source.ssrc }
+            val existingSource = ssrcToSourceMap[source.ssrc]?.takeIf { ssrcToOwnerMap[source.ssrc] == owner }
+                // The indexes are only authoritative for sources added with validation.
+                ?: existingSources.sources.find { it.ssrc == source.ssrc }
                 ?: throw SourceDoesNotExistException(source.ssrc)
             sourcesAcceptedToBeRemoved.add(existingSource)
         }
-        val ssrcsAcceptedToRemove = sourcesAcceptedToBeRemoved.map { it.ssrc }
 
         if (!existingSources.ssrcGroups.containsAll(sourcesToRemove.ssrcGroups)) {
             throw SourceGroupDoesNotExistException()
@@ -161,9 +169,9 @@ class ValidatingConferenceSourceMap(
         val groupsAcceptedToBeRemoved = mutableSetOf(*sourcesToRemove.ssrcGroups.toTypedArray())
 
         // Also automatically remove groups some of whose sources are removed.
-        existingSources.ssrcGroups.forEach { existingGroup ->
-            if (existingGroup.ssrcs.any { ssrcsAcceptedToRemove.contains(it) }) {
-                groupsAcceptedToBeRemoved.add(existingGroup)
+        sourcesAcceptedToBeRemoved.forEach { source ->
+            ssrcToGroupsMap[source.ssrc]?.forEach {
+                if (existingSources.ssrcGroups.contains(it)) groupsAcceptedToBeRemoved.add(it)
             }
         }
 
@@ -178,14 +186,14 @@ class ValidatingConferenceSourceMap(
         return acceptedSourceSet
     }
 
-    /** Override [add] to keep the additional [ssrcToOwnerMap] and [msidToOwnerMap] maps updated. */
+    /** Override [add] to keep the additional indexes ([ssrcToOwnerMap], [msidToOwnerMap], etc.) updated. */
     override fun add(other: ConferenceSourceMap) = synchronized(syncRoot) {
         super.add(other).also {
             other.forEach { (owner, endpointSourceSet) -> sourceSetAdded(owner, endpointSourceSet) }
         }
     }
 
-    /** Override [add] to keep the additional [ssrcToOwnerMap] and [msidToOwnerMap] maps updated. */
+    /** Override [add] to keep the additional indexes ([ssrcToOwnerMap], [msidToOwnerMap], etc.) updated. */
     override fun add(owner: String, endpointSourceSet: EndpointSourceSet) = synchronized(syncRoot) {
         super.add(owner, endpointSourceSet).also {
             sourceSetAdded(owner, endpointSourceSet)
@@ -195,20 +203,31 @@ class ValidatingConferenceSourceMap(
     private fun sourceSetAdded(owner: String, endpointSourceSet: EndpointSourceSet) = synchronized(syncRoot) {
         endpointSourceSet.sources.forEach { source ->
             ssrcToOwnerMap[source.ssrc] = owner
+            ssrcToSourceMap[source.ssrc] = source
             source.msid?.let {
                 msidToOwnerMap[it] = owner
             }
         }
+        endpointSourceSet.ssrcGroups.forEach { group ->
+            group.ssrcs.forEach { ssrc ->
+                val groups = ssrcToGroupsMap[ssrc]
+                if (groups == null) {
+                    ssrcToGroupsMap[ssrc] = listOf(group)
+                } else if (!groups.contains(group)) {
+                    ssrcToGroupsMap[ssrc] = groups + group
+                }
+            }
+        }
     }
 
-    /** Override [remove] to keep the additional [ssrcToOwnerMap] and [msidToOwnerMap] maps updated. */
+    /** Override [remove] to keep the additional indexes ([ssrcToOwnerMap], [msidToOwnerMap], etc.) updated. */
     override fun remove(other: ConferenceSourceMap) = synchronized(syncRoot) {
         super.remove(other).also {
             other.forEach { (owner, ownerRemovedSourceSet) -> sourceSetRemoved(owner, ownerRemovedSourceSet) }
         }
     }
 
-    /** Override [remove] to keep the additional [ssrcToOwnerMap] and [msidToOwnerMap] maps updated. */
+    /** Override [remove] to keep the additional indexes ([ssrcToOwnerMap], [msidToOwnerMap], etc.) updated. */
     override fun remove(owner: String): EndpointSourceSet? = synchronized(syncRoot) {
         val ownerRemovedSourceSet = super.remove(owner)
         ownerRemovedSourceSet?.let {
@@ -218,7 +237,7 @@ class ValidatingConferenceSourceMap(
     }
 
     /**
-     * Update the local maps ([ssrcToOwnerMap] and [msidToOwnerMap] after the removal of a source set.
+     * Update the local indexes ([ssrcToOwnerMap], [msidToOwnerMap], etc.) after the removal of a source set.
      * @param owner the owner of the removed source set.
      * @param endpointSourceSet the source set which has already been removed.
      */
@@ -226,6 +245,7 @@ class ValidatingConferenceSourceMap(
         val ownerRemainingSourceSet = this[owner]
         endpointSourceSet.sources.forEach { source ->
             ssrcToOwnerMap.remove(source.ssrc)
+            ssrcToSourceMap.remove(source.ssrc)
             source.msid?.let { sourceMsid ->
                 if (ownerRemainingSourceSet == null ||
                     ownerRemainingSourceSet.sources.none { it.msid == sourceMsid }
@@ -234,6 +254,14 @@ class ValidatingConferenceSourceMap(
                 }
             }
         }
+        endpointSourceSet.ssrcGroups.forEach { group ->
+            group.ssrcs.forEach { ssrc ->
+                ssrcToGroupsMap[ssrc]?.let { groups ->
+                    val remaining = groups - group
+                    if (remaining.isEmpty()) ssrcToGroupsMap.remove(ssrc) else ssrcToGroupsMap[ssrc] = remaining
+                }
+            }
+        }
     }
 
     companion object {
@@ -247,15 +275,18 @@ class ValidatingConferenceSourceMap(
          */
         @Throws(ValidationFailedException::class)
         private fun validateEndpointSourceSet(endpointSourceSet: EndpointSourceSet) {
+            val sourcesBySsrc = LongObjectHashMap<Source>(endpointSourceSet.sources.size)
+            endpointSourceSet.sources.forEach { sourcesBySsrc[it.ssrc] = it }
+            val groupIndex = GroupIndex()
+
             endpointSourceSet.ssrcGroups.forEach { group ->
                 if (group.ssrcs.isEmpty()) {
                     throw IllegalStateException("Empty group should have been filtered out.")
                 }
+                groupIndex.add(group)
                 var groupMsid: String? = null
                 group.ssrcs.forEach { ssrc ->
-                    // We are doing a linear search in a list, but the list only has sources for one endpoint, so
-                    // its size is limited to [maxSsrcsPerUser].
-                    val source = endpointSourceSet.sources.find { it.ssrc == ssrc }
+                    val source = sourcesBySsrc[ssrc]
                         ?: throw IllegalStateException(
                             "Groups with SSRCs that have no corresponding source should have been filtered out."
                         )
@@ -289,13 +320,10 @@ class ValidatingConferenceSourceMap(
                 // FID(111, 222)
                 // And non-grouped source 333 this will associate the SIM group with sources 1..6, the lonely FID group
                 // with sources 111 and 222, and a dummy single-source group with source 333.
-                //
-                // This is technically O(s*g^2) where s is the number of sources and g is the number of groups. But in
-                // practice both s and g are very small (at most 20 and 4 respectively).
                 val grouped: Map<SsrcGroup, List<Source>> =
                     endpointSourceSet.sources
                         .filter { it.mediaType == mediaType && it.msid != null }
-                        .groupBy { groupBySimulcastGroup(it.ssrc, endpointSourceSet.ssrcGroups) }
+                        .groupBy { groupIndex.groupBySimulcastGroup(it.ssrc) }
 
                 // Here we check for MSID conflicts, i.e. we make sure that each group has a unique MSID.
                 val msidsSeen = mutableSetOf<String?>()
@@ -305,27 +333,30 @@ class ValidatingConferenceSourceMap(
                 }
             }
         }
+    }
 
-        /** Returns the extended group to which an SSRC belongs. See [validateEndpointSourceSet]. */
-        private fun groupBySimulcastGroup(ssrc: Long, ssrcGroups: Set<SsrcGroup>): SsrcGroup {
-            val simGroup = ssrcGroups.find {
-                it.semantics == SsrcGroupSemantics.Sim && it.ssrcs.contains(ssrc)
-            }
-            if (simGroup != null) {
-                return simGroup
-            }
+    /** Indexes the SIM and FID groups of an endpoint by SSRC. */
+    private class GroupIndex {
+        private val simGroups = LongObjectHashMap<SsrcGroup>()
+        private val fidGroups = LongObjectHashMap<SsrcGroup>()
 
-            val fidGroup = ssrcGroups.find {
-                it.semantics == SsrcGroupSemantics.Fid && it.ssrcs.contains(ssrc)
+        fun add(group: SsrcGroup) {
+            val index = when (group.semantics) {
+                SsrcGroupSemantics.Sim -> simGroups
+                SsrcGroupSemantics.Fid -> fidGroups
             }
+            // Keep the first group found for an SSRC.
+            group.ssrcs.forEach { if (!index.containsKey(it)) index[it] = group }
+        }
+
+        /** Returns the extended group to which an SSRC belongs. See [validateEndpointSourceSet]. */
+        fun groupBySimulcastGroup(ssrc: Long): SsrcGroup {
+            simGroups[ssrc]?.let { return it }
+
+            val fidGroup = fidGroups[ssrc]
             if (fidGroup != null) {
                 if (ssrc == fidGroup.ssrcs[1]) {
-                    val simGroup2 = ssrcGroups.find {
-                        it.semantics == SsrcGroupSemantics.Sim && it.ssrcs.contains(fidGroup.ssrcs[0])
-                    }
-                    if (simGroup2 != null) {
-                        return simGroup2
-                    }
+                    simGroups[fidGroup.ssrcs[0]]?.let { return it }
                 }
                 return fidGroup
             }
@@ -17,6 +17,9 @@
  */
 package org.jitsi.jicofo.metrics
 
+import org.jitsi.jicofo.TaskPools
+import org.jitsi.jicofo.TaskPoolsConfig
+import org.jitsi.jicofo.util.VirtualThreads
 import java.lang.management.ManagementFactory
 import org.jitsi.jicofo.metrics.JicofoMetricsContainer.Companion.instance as metricsContainer
 
@@ -28,8 +31,37 @@ class GlobalMetrics {
             "The current number of JVM threads"
         )
 
+        @JvmField
+        val peakThreadsMetrics = metricsContainer.registerLongGauge(
+            "threads_peak",
+            "The peak number of live JVM threads since startup"
+        )
+
+        @JvmField
+        val virtualThreadsEnabled = metricsContainer.registerBooleanMetric(
+            "virtual_threads_enabled",
+            "Whether the task pools use virtual threads",
+            TaskPools.virtualThreads
+        )
+
+        @JvmField
+        val virtualThreadsPinned = metricsContainer.registerCounter(
+            "virtual_threads_pinned",
+            "Number of times a virtual thread blocked while pinned to its carrier thread"
+        )
+
+        /** Start counting pinned virtual threads, if the task pools use virtual threads. */
+        fun startPinningMonitor() {
+            if (TaskPools.virtualThreads) {
+                VirtualThreads.monitorPinning(TaskPoolsConfig.config.pinnedThreshold) { virtualThreadsPinned.inc() }
+            }
+        }
+
         fun update() {
-            threadsMetrics.set(ManagementFactory.getThreadMXBean().threadCount.toLong())
+            val threadMxBean = ManagementFactory.getThreadMXBean()
+            // The MXBean only reports platform threads.
+            threadsMetrics.set(threadMxBean.threadCount.toLong())
+            peakThreadsMetrics.set(threadMxBean.peakThreadCount.toLong())
         }
     }
 }
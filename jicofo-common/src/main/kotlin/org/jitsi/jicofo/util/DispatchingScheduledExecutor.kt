@@ -0,0 +1,73 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.util
+
+import org.jitsi.utils.logging2.createLogger
+import java.util.concurrent.Callable
+import java.util.concurrent.Delayed
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.RunnableScheduledFuture
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.ThreadFactory
+
+/**
+ * A [ScheduledThreadPoolExecutor] whose threads only do the timing: when a task is due it is handed to [executor],
+ * which runs it. With an [executor] which starts a virtual thread per task, a scheduled task which blocks does not
+ * hold one of the (few) scheduler threads, and so does not delay the other scheduled tasks.
+ *
+ * Periodic tasks are rescheduled when they complete, so like with a plain [ScheduledThreadPoolExecutor] executions of
+ * the same task do not overlap. [executor] is shut down when this executor terminates.
+ */
+class DispatchingScheduledExecutor(
+    corePoolSize: Int,
+    threadFactory: ThreadFactory,
+    private val executor: ExecutorService
+) : ScheduledThreadPoolExecutor(corePoolSize, threadFactory) {
+    private val logger = createLogger()
+
+    override fun <V> decorateTask(runnable: Runnable, task: RunnableScheduledFuture<V>): RunnableScheduledFuture<V> =
+        DispatchingTask(task)
+
+    override fun <V> decorateTask(callable: Callable<V>, task: RunnableScheduledFuture<V>): RunnableScheduledFuture<V> =
+        DispatchingTask(task)
+
+    override fun terminated() {
+        super.terminated()
+        executor.shutdown()
+    }
+
+    private inner class DispatchingTask<V>(
+        val task: RunnableScheduledFuture<V>
+    ) : RunnableScheduledFuture<V> by task {
+        /** Called in a scheduler thread when the task is due. */
+        override fun run() {
+            if (task.isCancelled) return
+            try {
+                executor.execute(task)
+            } catch (e: RejectedExecutionException) {
+                logger.warn("Failed to dispatch a scheduled task, cancelling it: ${e.message}")
+                task.cancel(false)
+            }
+        }
+
+        // Compare the underlying tasks, which keeps the FIFO order of tasks due at the same time.
+        override fun compareTo(other: Delayed): Int =
+            task.compareTo(if (other is DispatchingScheduledExecutor.DispatchingTask<*>) other.task else other)
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.util
+
+/**
+ * A hash map with primitive `long` keys (open addressing with linear probing), which avoids boxing the keys. Used to
+ * index sources by SSRC. Null values are not supported (a null value means the key is absent).
+ *
+ * This class is not thread safe.
+ */
+class LongObjectHashMap<V : Any>(initialCapacity: Int = 16) {
+    private var keys: LongArray
+    private var values: Array<Any?>
+    private var mask: Int
+
+    var size = 0
+        private set
+
+    init {
+        val capacity = Integer.highestOneBit(maxOf(4, initialCapacity * 2 - 1))
+        keys = LongArray(capacity)
+        values = arrayOfNulls(capacity)
+        mask = capacity - 1
+    }
+
+    fun isEmpty() = size == 0
+
+    operator fun get(key: Long): V? {
+        var i = index(key)
+        while (true) {
+            @Suppress("UNCHECKED_CAST")
+            val value = values[i] as V? ?: return null
+            if (keys[i] == key) return value
+            i = (i + 1) and mask
+        }
+    }
+
+    fun containsKey(key: Long) = get(key) != null
+
+    /** Map [key] to [value]. Returns the previous value, if any. */
+    fun put(key: Long, value: V): V? {
+        var i = index(key)
+        while (true) {
+            val existing = values[i]
+            if (existing == null) {
+                keys[i] = key
+                values[i] = value
+                if (++size * 4 > values.size * 3) {
+                    resize(values.size * 2)
+                }
+                return null
+            }
+            if (keys[i] == key) {
+                values[i] = value
+                @Suppress("UNCHECKED_CAST")
+                return existing as V
+            }
+            i = (i + 1) and mask
+        }
+    }
+
+    operator fun set(key: Long, value: V) {
+        put(key, value)
+    }
+
+    /** Remove the mapping for [key]. Returns the removed value, if any. */
+    fun remove(key: Long): V? {
+        var i = index(key)
+        while (true) {
+            val existing = values[i] ?: return null
+            if (keys[i] == key) {
+                size--
+                shiftBack(i)
+                @Suppress("UNCHECKED_CAST")
+                return existing as V
+            }
+            i = (i + 1) and mask
+        }
+    }
+
+    fun clear() {
+        values.fill(null)
+        size = 0
+    }
+
+    fun forEach(action: (Long, V) -> Unit) {
+        for (i in values.indices) {
+            @Suppress("UNCHECKED_CAST")
+            values[i]?.let { action(keys[i], it as V) }
+        }
+    }
+
+    /**
+     * Fill the slot at [start] which was just vacated, by moving back the following entries of the probe sequence
+     * that would no longer be reachable (so that no tombstones are needed).
+     */
+    private fun shiftBack(start: Int) {
+        var gap = start
+        var i = start
+        while (true) {
+            i = (i + 1) and mask
+            if (values[i] == null) break
+            val ideal = index(keys[i])
+            // Move the entry to the gap unless its ideal slot is cyclically in (gap, i].
+            if (((i - ideal) and mask) >= ((i - gap) and mask)) {
+                keys[gap] = keys[i]
+                values[gap] = values[i]
+                gap = i
+            }
+        }
+        values[gap] = null
+    }
+
+    private fun resize(capacity: Int) {
+        val oldKeys = keys
+        val oldValues = values
+        keys = LongArray(capacity)
+        values = arrayOfNulls(capacity)
+        mask = capacity - 1
+        for (j in oldValues.indices) {
+            val value = oldValues[j] ?: continue
+            var i = index(oldKeys[j])
+            while (values[i] != null) i = (i + 1) and mask
+            keys[i] = oldKeys[j]
+            values[i] = value
+        }
+    }
+
+    private fun index(key: Long): Int {
+        // Mix the bits, since SSRCs are often sequential.
+        val h = key * -0x61c8864680b583ebL
+        return (h xor (h ushr 32)).toInt() and mask
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.util
+
+/**
+ * An immutable hash map with structural sharing (a hash array mapped trie). [put] and [remove] return a new map which
+ * shares all but O(log n) nodes with the original, and the differences between two maps derived from one another can
+ * be found without visiting the shared parts (see [forEachDifference]).
+ */
+class PersistentHashMap<K : Any, V : Any> private constructor(
+    private val root: Any?,
+    override val size: Int
+) : AbstractMap<K, V>() {
+
+    override fun get(key: K): V? = root?.let { lookup(it, spread(key.hashCode()), key, 0) }
+
+    override fun containsKey(key: K) = get(key) != null
+
+    /** Return a map with [key] mapped to [value]. Returns this instance if the mapping already exists. */
+    fun put(key: K, value: V): PersistentHashMap<K, V> {
+        val hash = spread(key.hashCode())
+        val leaf = Leaf(hash, key, value)
+        if (root == null) return PersistentHashMap(leaf, 1)
+
+        val added = BooleanArray(1)
+        val newRoot = insert(root, leaf, 0, added)
+        return if (newRoot === root) this else PersistentHashMap(newRoot, if (added[0]) size + 1 else size)
+    }
+
+    /** Return a map without [key]. Returns this instance if [key] is not present. */
+    fun remove(key: K): PersistentHashMap<K, V> {
+        if (root == null) return this
+        val newRoot = delete(root, spread(key.hashCode()), key, 0)
+        return if (newRoot === root) this else PersistentHashMap(newRoot, size - 1)
+    }
+
+    /**
+     * Call [action] for each key that maps to different values in this map and [other] (with null for a missing
+     * mapping). Sub-trees shared between the two maps are skipped, so when [other] was derived from this map (or vice
+     * versa) this runs in time proportional to the number of changes.
+     */
+    fun forEachDifference(other: PersistentHashMap<K, V>, action: (K, V?, V?) -> Unit) {
+        diff(root, other.root, action)
+    }
+
+    override val entries: Set<Map.Entry<K, V>> by lazy {
+        val list = ArrayList<Map.Entry<K, V>>(size)
+        root?.let { collect(it, list) }
+        object : AbstractSet<Map.Entry<K, V>>() {
+            override val size = list.size
+            override fun iterator() = list.iterator()
+        }
+    }
+
+    private class Leaf<K, V>(val hash: Int, override val key: K, override val value: V) : Map.Entry<K, V> {
+        /** As specified by [java.util.Map.Entry.equals], so that [entries] can be compared with those of other maps. */
+        override fun equals(other: Any?) = other is Map.Entry<*, *> && key == other.key && value == other.value
+
+        override fun hashCode() = key.hashCode() xor value.hashCode()
+
+        override fun toString() = "$key=$value"
+    }
+
+    /** Leaves with colliding hashes. */
+    private class Collision<K, V>(val hash: Int, val leaves: List<Leaf<K, V>>)
+
+    /** An inner node. [children] are [Leaf], [Collision] or [Branch] instances indexed by the bits set in [bitmap]. */
+    private class Branch(val bitmap: Int, val children: Array<Any>) {
+        fun index(bit: Int) = Integer.bitCount(bitmap and (bit - 1))
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun lookup(node: Any, hash: Int, key: K, shift: Int): V? = when (node) {
+        is Leaf<*, *> -> if (node.key == key) node.value as V else null
+        is Collision<*, *> -> node.leaves.find { it.key == key }?.value as V?
+        else -> {
+            node as Branch
+            val bit = bit(hash, shift)
+            if (node.bitmap and bit == 0) null else lookup(node.children[node.index(bit)], hash, key, shift + BITS)
+        }
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun insert(node: Any, leaf: Leaf<K, V>, shift: Int, added: BooleanArray): Any = when (node) {
+        is Leaf<*, *> -> when {
+            node.key != leaf.key -> {
+                added[0] = true
+                merge(node, node.hash, leaf, leaf.hash, shift)
+            }
+            node.value === leaf.value -> node
+            else -> leaf
+        }
+        is Collision<*, *> -> {
+            node as Collision<K, V>
+            if (node.hash == leaf.hash) {
+                val i = node.leaves.indexOfFirst { it.key == leaf.key }
+                when {
+                    i < 0 -> {
+                        added[0] = true
+                        Collision(node.hash, node.leaves + leaf)
+                    }
+                    node.leaves[i].value === leaf.value -> node
+                    else -> Collision(node.hash, node.leaves.toMutableList().apply { set(i, leaf) })
+                }
+            } else {
+                added[0] = true
+                merge(node, node.hash, leaf, leaf.hash, shift)
+            }
+        }
+        else -> {
+            node as Branch
+            val bit = bit(leaf.hash, shift)
+            val i = node.index(bit)
+            if (node.bitmap and bit == 0) {
+                added[0] = true
+                val children = arrayOfNulls<Any>(node.children.size + 1)
+                System.arraycopy(node.children, 0, children, 0, i)
+                children[i] = leaf
+                System.arraycopy(node.children, i, children, i + 1, node.children.size - i)
+                Branch(node.bitmap or bit, children as Array<Any>)
+            } else {
+                val child = node.children[i]
+                val newChild = insert(child, leaf, shift + BITS, added)
+                if (newChild === child) node else Branch(node.bitmap, node.children.clone().apply { set(i, newChild) })
+            }
+        }
+    }
+
+    /** Create a node containing both [a] and [b] (each a [Leaf] or [Collision]) which have different keys. */
+    private fun merge(a: Any, hashA: Int, b: Any, hashB: Int, shift: Int): Any {
+        if (hashA == hashB) {
+            @Suppress("UNCHECKED_CAST")
+            return Collision(hashA, listOf(a as Leaf<K, V>, b as Leaf<K, V>))
+        }
+        val bitA = bit(hashA, shift)
+        val bitB = bit(hashB, shift)
+        return when {
+            bitA == bitB -> Branch(bitA, arrayOf(merge(a, hashA, b, hashB, shift + BITS)))
+            // Keep the children ordered by their bit index.
+            Integer.compareUnsigned(bitA, bitB) < 0 -> Branch(bitA or bitB, arrayOf(a, b))
+            else -> Branch(bitA or bitB, arrayOf(b, a))
+        }
+    }
+
+    /** Returns the new node, or null if it's empty, or [node] itself if [key] was not found. */
+    private fun delete(node: Any, hash: Int, key: K, shift: Int): Any? = when (node) {
+        is Leaf<*, *> -> if (node.key == key) null else node
+        is Collision<*, *> -> {
+            val remaining = node.leaves.filter { it.key != key }
+            when {
+                remaining.size == node.leaves.size -> node
+                remaining.size == 1 -> remaining[0]
+                else -> Collision(node.hash, remaining)
+            }
+        }
+        else -> {
+            node as Branch
+            val bit = bit(hash, shift)
+            if (node.bitmap and bit == 0) {
+                node
+            } else {
+                val i = node.index(bit)
+                val child = node.children[i]
+                val newChild = delete(child, hash, key, shift + BITS)
+                when {
+                    newChild === child -> node
+                    newChild == null -> {
+                        if (node.children.size == 1) {
+                            null
+                        } else {
+                            val remaining = node.children.filterIndexed { j, _ -> j != i }
+                            // Pull a single remaining leaf (or collision) up, so the trie stays canonical.
+                            if (remaining.size == 1 && remaining[0] !is Branch) {
+                                remaining[0]
+                            } else {
+                                Branch(node.bitmap and bit.inv(), remaining.toTypedArray())
+                            }
+                        }
+                    }
+                    node.children.size == 1 && newChild !is Branch -> newChild
+                    else -> Branch(node.bitmap, node.children.clone().apply { set(i, newChild) })
+                }
+            }
+        }
+    }
+
+    private fun diff(a: Any?, b: Any?, action: (K, V?, V?) -> Unit) {
+        if (a === b) return
+        if (a is Branch && b is Branch) {
+            var bits = a.bitmap or b.bitmap
+            while (bits != 0) {
+                val bit = Integer.lowestOneBit(bits)
+                bits = bits and bit.inv()
+                diff(
+                    if (a.bitmap and bit != 0) a.children[a.index(bit)] else null,
+                    if (b.bitmap and bit != 0) b.children[b.index(bit)] else null,
+                    action
+                )
+            }
+            return
+        }
+
+        // The structure differs, compare the entries directly.
+        val entriesA = LinkedHashMap<K, V>().apply { a?.let { collect(it, this) } }
+        val entriesB = LinkedHashMap<K, V>().apply { b?.let { collect(it, this) } }
+        entriesA.forEach { (key, valueA) ->
+            val valueB = entriesB[key]
+            if (valueA !== valueB && valueA != valueB) action(key, valueA, valueB)
+        }
+        entriesB.forEach { (key, valueB) ->
+            if (!entriesA.containsKey(key)) action(key, null, valueB)
+        }
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun collect(node: Any, into: MutableList<Map.Entry<K, V>>) {
+        when (node) {
+            is Leaf<*, *> -> into.add(node as Leaf<K, V>)
+            is Collision<*, *> -> into.addAll(node.leaves as List<Leaf<K, V>>)
+            else -> (node as Branch).children.forEach { collect(it, into) }
+        }
+    }
+
+    private fun collect(node: Any, into: MutableMap<K, V>) {
+        val list = ArrayList<Map.Entry<K, V>>()
+        collect(node, list)
+        list.forEach { into[it.key] = it.value }
+    }
+
+    companion object {
+        private const val BITS = 5
+        private val EMPTY = PersistentHashMap<Any, Any>(null, 0)
+
+        @Suppress("UNCHECKED_CAST")
+        fun <K : Any, V : Any> empty(): PersistentHashMap<K, V> = EMPTY as PersistentHashMap<K, V>
+
+        fun <K : Any, V : Any> of(map: Map<K, V>): PersistentHashMap<K, V> =
+            map.entries.fold(empty()) { acc, (key, value) -> acc.put(key, value) }
+
+        /** Spread the higher bits of the hash code, since only the lower bits are used at the top of the trie. */
+        private fun spread(h: Int) = h xor (h ushr 16)
+
+        private fun bit(hash: Int, shift: Int) = 1 shl ((hash ushr shift) and 0x1f)
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.util
+
+import org.jitsi.utils.logging2.createLogger
+import java.time.Duration
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.function.Consumer
+
+/**
+ * Access to virtual threads (JEP 444). We compile for java 11, so everything is accessed via reflection and callers
+ * need to handle the case where the JVM doesn't support virtual threads.
+ */
+object VirtualThreads {
+    private val logger = createLogger()
+
+    /** Whether the running JVM supports virtual threads. */
+    val supported: Boolean by lazy { newThreadFactory("probe") != null }
+
+    /**
+     * Create a [ThreadFactory] for virtual threads with names starting with [namePrefix], or return null if virtual
+     * threads are not supported.
+     */
+    fun newThreadFactory(namePrefix: String): ThreadFactory? = newThreadFactory(namePrefix, Thread::class.java)
+
+    /** Create the [ThreadFactory] with `ofVirtual` from [threadClass] (which tests use to simulate an older JVM). */
+    internal fun newThreadFactory(namePrefix: String, threadClass: Class<*>): ThreadFactory? = try {
+        val builderClass = Class.forName("java.lang.Thread\$Builder")
+        val builder = threadClass.getMethod("ofVirtual").invoke(null)
+        builderClass.getMethod("name", String::class.java, Long::class.javaPrimitiveType)
+            .invoke(builder, "$namePrefix-", 0L)
+        builderClass.getMethod("factory").invoke(builder) as ThreadFactory
+    } catch (e: Exception) {
+        logger.debug { "Virtual threads not available: $e" }
+        null
+    }
+
+    /**
+     * Create an executor which starts a new virtual thread for each task, or return null if virtual threads are not
+     * supported.
+     */
+    fun newThreadPerTaskExecutor(namePrefix: String): ExecutorService? =
+        newThreadPerTaskExecutor(namePrefix, Thread::class.java)
+
+    internal fun newThreadPerTaskExecutor(namePrefix: String, threadClass: Class<*>): ExecutorService? {
+        val threadFactory = newThreadFactory(namePrefix, threadClass) ?: return null
+        return try {
+            Executors::class.java.getMethod("newThreadPerTaskExecutor", ThreadFactory::class.java)
+                .invoke(null, threadFactory) as ExecutorService
+        } catch (e: Exception) {
+            logger.warn("Failed to create a virtual thread executor", e)
+            null
+        }
+    }
+
+    /**
+     * Subscribe to the JFR "jdk.VirtualThreadPinned" event and invoke [onPinned] every time a virtual thread blocks
+     * while pinned to its carrier for longer than [threshold]. Returns false if the JVM doesn't support JFR event
+     * streaming or virtual threads.
+     */
+    fun monitorPinning(threshold: Duration, onPinned: () -> Unit): Boolean {
+        if (!supported) return false
+        return try {
+            val streamClass = Class.forName("jdk.jfr.consumer.RecordingStream")
+            val stream = streamClass.getConstructor().newInstance()
+            val settings = streamClass.getMethod("enable", String::class.java).invoke(stream, PINNED_EVENT)
+            Class.forName("jdk.jfr.EventSettings").getMethod("withThreshold", Duration::class.java)
+                .invoke(settings, threshold)
+            streamClass.getMethod("onEvent", String::class.java, Consumer::class.java)
+                .invoke(stream, PINNED_EVENT, Consumer<Any> { onPinned() })
+            streamClass.getMethod("startAsync").invoke(stream)
+            true
+        } catch (e: Exception) {
+            logger.warn("Failed to start monitoring for pinned virtual threads", e)
+            false
+        }
+    }
+
+    private const val PINNED_EVENT = "jdk.VirtualThreadPinned"
+}
@@ -40,6 +40,14 @@ class XmppCapsStats {
                 }
             }
 
+        /**
+         * The features of the most common nodeVer, or null if none are known. Used as a guess for the features of a
+         * member before they are discovered.
+         */
+        @JvmStatic
+        val mostCommonFeatures: Set<Features>?
+            get() = synchronized(map) { map.values.maxByOrNull { it.count }?.features }
+
         fun update(nodeVer: String, features: Set<Features>) {
             synchronized(map) {
                 if (map.size < MAX_ENTRIES) {
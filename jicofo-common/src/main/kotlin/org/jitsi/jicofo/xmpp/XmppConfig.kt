@@ -37,6 +37,19 @@ class XmppConfig private constructor() {
             .convertFrom<List<String>> { l -> l.map { JidCreate.domainBareFrom(it) } }
     }
 
+    /** Whether to use the features cached by caps (XEP-0115) instead of sending a disco#info to each member. */
+    val capsCacheEnabled: Boolean by config {
+        "jicofo.xmpp.caps-cache.enabled".from(newConfig)
+    }
+
+    /**
+     * The minimum interval between updates of our presence in a MUC. Changes made sooner are coalesced and sent
+     * together, unless they are marked as priority.
+     */
+    val presenceMinInterval: Duration by config {
+        "jicofo.xmpp.presence-min-interval".from(newConfig)
+    }
+
     companion object {
         @JvmField
         val service = XmppServiceConnectionConfig()
@@ -280,6 +293,14 @@ class XmppClientConnectionConfig : XmppConnectionConfig {
         }
     }
 
+    /**
+     * The number of client connections to use. Conferences are sharded over the connections by the JID of their room.
+     * The additional connections use the same credentials, with "-N" appended to [resource].
+     */
+    val connectionCount: Int by config {
+        "jicofo.xmpp.client.connection-count".from(newConfig)
+    }
+
     override fun toString(): String = "XmppClientConnectionConfig[hostname=$hostname, port=$port, username=$username]"
 
     override val name = "client"
@@ -19,6 +19,7 @@ package org.jitsi.jicofo.xmpp
 
 import org.jitsi.impl.protocol.xmpp.log.PacketDebugger
 import org.jitsi.jicofo.TaskPools
+import org.jitsi.jicofo.metrics.JicofoMetricsContainer
 import org.jitsi.jicofo.xmpp.XmppProvider.RoomExistsException
 import org.jitsi.jicofo.xmpp.muc.ChatRoom
 import org.jitsi.jicofo.xmpp.muc.ChatRoomImpl
@@ -38,7 +39,9 @@ import org.jivesoftware.smack.XMPPConnection
 import org.jivesoftware.smack.tcp.XMPPTCPConnection
 import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration
 import org.jivesoftware.smackx.caps.EntityCapsManager
+import org.jivesoftware.smackx.caps.packet.CapsExtension
 import org.jivesoftware.smackx.disco.ServiceDiscoveryManager
+import org.jivesoftware.smackx.disco.packet.DiscoverInfo
 import org.jxmpp.jid.DomainBareJid
 import org.jxmpp.jid.EntityBareJid
 import org.jxmpp.jid.EntityFullJid
@@ -222,7 +225,33 @@ class XmppProvider(val config: XmppConnectionConfig, parentLogger: Logger) {
     fun createRoom(name: EntityBareJid): ChatRoom = muc.createChatRoom(name)
     fun findOrCreateRoom(name: EntityBareJid): ChatRoom = muc.findOrCreateRoom(name)
 
-    fun discoverFeatures(jid: EntityFullJid): Set<Features> {
+    /**
+     * Get the [DiscoverInfo] for [caps] from Smack's entity caps cache (see [EntityCapsManager]), or null if it is not
+     * known. Smack only caches a [DiscoverInfo] after verifying the "ver" attribute against it.
+     */
+    private fun getCachedDiscoverInfo(caps: CapsExtension?): DiscoverInfo? =
+        if (caps != null && XmppConfig.config.capsCacheEnabled) {
+            EntityCapsManager.getDiscoveryInfoByNodeVer(caps.nodeVer)
+        } else {
+            null
+        }
+
+    /** Whether [discoverFeatures] can find the features for [caps] in the caps cache. */
+    fun hasCachedFeatures(caps: CapsExtension?): Boolean = getCachedDiscoverInfo(caps) != null
+
+    /**
+     * Discover the features of [jid]. If [caps] advertised by [jid] are known, the features are taken from the caps
+     * cache without sending a disco#info request.
+     */
+    fun discoverFeatures(jid: EntityFullJid, caps: CapsExtension? = null): Set<Features> {
+        getCachedDiscoverInfo(caps)?.let {
+            capsCacheHits.inc()
+            logger.debug { "Found features for $jid in the caps cache (${caps?.nodeVer})." }
+            return parseFeatures(jid, it)
+        }
+        if (caps != null && XmppConfig.config.capsCacheEnabled) {
+            capsCacheMisses.inc()
+        }
         if (!xmppConnection.isConnected) {
             logger.error("Can not discover features, not connected.")
             return Features.defaultFeatures
@@ -234,14 +263,25 @@ class XmppProvider(val config: XmppConnectionConfig, parentLogger: Logger) {
         }
 
         val start = System.currentTimeMillis()
-        val featureStrings: List<String> = try {
-            discoveryManager.discoverInfo(jid)?.features?.map { it.`var` }?.toList() ?: emptyList()
+        val discoverInfo: DiscoverInfo? = try {
+            if (XmppConfig.config.capsCacheEnabled) {
+                // Goes through EntityCapsManager, which queries the advertised node#ver and caches the response once
+                // it is verified.
+                discoveryManager.discoverInfo(jid)
+            } else {
+                discoveryManager.discoverInfo(jid, null)
+            }
         } catch (e: Exception) {
             logger.warn("Failed to discover features for $jid: ${e.message}, assuming default feature set.", e)
             return Features.defaultFeatures
         }
 
         logger.info("Discovered features for $jid in ${System.currentTimeMillis() - start} ms.")
+        return parseFeatures(jid, discoverInfo)
+    }
+
+    private fun parseFeatures(jid: EntityFullJid, discoverInfo: DiscoverInfo?): Set<Features> {
+        val featureStrings: List<String> = discoverInfo?.features?.map { it.`var` }?.toList() ?: emptyList()
         val features = featureStrings.mapNotNull { Features.parseString(it) }.toSet()
         if (features.size != featureStrings.size) {
             val unrecognizedFeatures = featureStrings - features.map { it.value }.toSet()
@@ -280,6 +320,15 @@ class XmppProvider(val config: XmppConnectionConfig, parentLogger: Logger) {
             XMPPTCPConnection.setUseStreamManagementResumptionDefault(false)
             XMPPTCPConnection.setUseStreamManagementDefault(false)
         }
+
+        private val capsCacheHits = JicofoMetricsContainer.instance.registerCounter(
+            "xmpp_caps_cache_hits",
+            "Number of times the features of a member were found in the caps cache"
+        )
+        private val capsCacheMisses = JicofoMetricsContainer.instance.registerCounter(
+            "xmpp_caps_cache_misses",
+            "Number of times the features of a member were not found in the caps cache"
+        )
     }
 
     class RoomExistsException(message: String) : Exception(message)
@@ -354,3 +403,7 @@ private class Muc(val xmppProvider: XmppProvider) {
         rooms.remove(chatRoom.roomJid)
     }
 }
+
+/** The "node" and "ver" attributes joined by "#", as used in XEP-0115. */
+val CapsExtension.nodeVer: String
+    get() = "$node#$ver"
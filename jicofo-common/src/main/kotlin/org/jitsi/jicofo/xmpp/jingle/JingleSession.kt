@@ -57,7 +57,9 @@ class JingleSession(
     private val jingleIqRequestHandler: JingleIqRequestHandler,
     private val connection: AbstractXMPPConnection,
     private val requestHandler: JingleRequestHandler,
-    private val encodeSourcesAsJson: Boolean
+    private val encodeSourcesAsJson: Boolean,
+    /** A cache of encoded sources shared with the other sessions in the conference, if any. */
+    private val sourcePayloadCache: SourcePayloadCache? = null
 ) {
     private var state = State.PENDING
     fun isActive() = state == State.ACTIVE
@@ -222,7 +224,7 @@ class JingleSession(
         }
 
         if (encodeSourcesAsJson) {
-            removeSourceIq.addExtension(sourcesToRemove.toJsonMessageExtension())
+            removeSourceIq.addExtension(sourcesToRemove.toJsonMessageExtension(sourcePayloadCache))
         } else {
             sourcesToRemove.toJingle().forEach { removeSourceIq.addContent(it) }
         }
@@ -276,7 +278,7 @@ class JingleSession(
         type = IQ.Type.set
         to = remoteJid
         if (encodeSourcesAsJson) {
-            addExtension(sources.toJsonMessageExtension())
+            addExtension(sources.toJsonMessageExtension(sourcePayloadCache))
         } else {
             sources.toJingle().forEach { addContent(it) }
         }
@@ -298,6 +300,9 @@ class JingleSession(
  */
 fun ConferenceSourceMap.toJsonMessageExtension() = JsonMessageExtension("{\"sources\":${compactJson()}}")
 
+private fun ConferenceSourceMap.toJsonMessageExtension(cache: SourcePayloadCache?) =
+    cache?.getJson(this) ?: toJsonMessageExtension()
+
 /**
  * Encodes the sources described in `sources` in the list of Jingle contents. If necessary, new
  * [ContentPacketExtension]s are created. Returns the resulting list of [ContentPacketExtension] which
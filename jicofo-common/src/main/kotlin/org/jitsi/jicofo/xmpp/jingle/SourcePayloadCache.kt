@@ -0,0 +1,101 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.xmpp.jingle
+
+import org.jitsi.jicofo.conference.source.ConferenceSourceMap
+import org.jitsi.jicofo.conference.source.EndpointSourceSet
+import org.jitsi.jicofo.metrics.JicofoMetricsContainer
+import org.jitsi.xmpp.extensions.jitsimeet.JsonMessageExtension
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Caches the JSON encoding of the sources in source-add and source-remove IQs for a conference. When sources change
+ * in a conference the same set of sources (after filtering) is usually signaled to many participants, so we encode it
+ * once and share the encoded string between all participants with the same filter profile (the filter profile is
+ * implied by the content of the filtered sources).
+ *
+ * Only the (immutable) encoded string is shared, each IQ gets its own extension element.
+ */
+class SourcePayloadCache(
+    /** The maximum number of payloads to keep. Only recent payloads are useful, since the deltas keep changing. */
+    private val maxSize: Int = DEFAULT_MAX_SIZE
+) {
+    private val lock = ReentrantLock()
+
+    private val cache = object : LinkedHashMap<Key, String>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Key, String>?) = size > maxSize
+    }
+
+    /** Get a new [JsonMessageExtension] encoding [sources]. */
+    fun getJson(sources: ConferenceSourceMap) = JsonMessageExtension(getEncoded(sources))
+
+    private fun getEncoded(sources: ConferenceSourceMap): String {
+        // Look up using the live map, and only take a snapshot of it when inserting.
+        val key = Key(sources)
+        lock.withLock { cache[key] }?.let {
+            hits.inc()
+            return it
+        }
+        misses.inc()
+        // Encode outside the lock. Concurrent misses for the same key may both encode, which is harmless.
+        val encoded = sources.encode()
+        lock.withLock { cache[key.snapshot()] = encoded }
+        return encoded
+    }
+
+    val size: Int
+        get() = lock.withLock { cache.size }
+
+    fun clear() = lock.withLock { cache.clear() }
+
+    /**
+     * A key for the content of a map of sources. The hash code is computed once, and [EndpointSourceSet] caches its
+     * own hash code, so a lookup hashes each owner once.
+     */
+    private class Key(val sources: Map<String, EndpointSourceSet>) {
+        // Same as Map.hashCode, which ConferenceSourceMap does not implement.
+        private val hashCode: Int = sources.entries.sumOf { (owner, ess) -> owner.hashCode() xor ess.hashCode() }
+
+        /** A key with the current content of [sources], which is not affected by later changes to [sources]. */
+        fun snapshot() = Key(sources.toMap())
+
+        override fun hashCode() = hashCode
+        override fun equals(other: Any?): Boolean {
+            if (this === other) return true
+            if (other !is Key || hashCode != other.hashCode || sources.size != other.sources.size) return false
+            // Compare the contents, since ConferenceSourceMap does not implement equals.
+            return sources.all { (owner, endpointSourceSet) -> other.sources[owner] == endpointSourceSet }
+        }
+    }
+
+    companion object {
+        const val DEFAULT_MAX_SIZE = 64
+
+        private val hits = JicofoMetricsContainer.instance.registerCounter(
+            "jingle_source_payload_cache_hits",
+            "Number of source-add/source-remove payloads that were reused from the cache"
+        )
+        private val misses = JicofoMetricsContainer.instance.registerCounter(
+            "jingle_source_payload_cache_misses",
+            "Number of source-add/source-remove payloads that had to be encoded"
+        )
+    }
+}
+
+private fun ConferenceSourceMap.encode() = "{\"sources\":${compactJson()}}"
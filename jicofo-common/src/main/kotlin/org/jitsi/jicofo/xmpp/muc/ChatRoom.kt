@@ -91,22 +91,28 @@ interface ChatRoom {
      */
     fun getChatMember(occupantJid: EntityFullJid): ChatRoomMember?
 
-    /** Add all of [extensions] to our presence. */
-    fun addPresenceExtensions(extensions: Collection<ExtensionElement>)
+    /** Add all of [extensions] to our presence. See [setPresenceExtension] for [priority]. */
+    fun addPresenceExtensions(extensions: Collection<ExtensionElement>, priority: Boolean = false)
 
-    /** Add [extension] to our presence, no-op if we already have an extension with the same QName. */
-    fun addPresenceExtensionIfMissing(extension: ExtensionElement)
+    /**
+     * Add [extension] to our presence, no-op if we already have an extension with the same QName. See
+     * [setPresenceExtension] for [priority].
+     */
+    fun addPresenceExtensionIfMissing(extension: ExtensionElement, priority: Boolean = false)
 
-    /** Remove presence extensions matching the predicate [pred]. */
-    fun removePresenceExtensions(pred: (ExtensionElement) -> Boolean)
+    /** Remove presence extensions matching the predicate [pred]. See [setPresenceExtension] for [priority]. */
+    fun removePresenceExtensions(pred: (ExtensionElement) -> Boolean, priority: Boolean = false)
 
     /**
      * Add [extension] to presence and remove any previous extensions with the same QName.
      *
      * Note that this always sends a presence stanza. If the intention is to only send a packet if the extension was
      * modified use [addPresenceExtensionIfMissing].
+     *
+     * Presence updates are broadcast to all occupants, so unless [priority] is set the stanza may be delayed and
+     * coalesced with other changes (see [org.jitsi.jicofo.xmpp.XmppConfig.presenceMinInterval]).
      */
-    fun setPresenceExtension(extension: ExtensionElement)
+    fun setPresenceExtension(extension: ExtensionElement, priority: Boolean = false)
 
     /** Add a [ChatRoomListener] to the list of listeners to be notified of events from this [ChatRoom]. */
     fun addListener(listener: ChatRoomListener)
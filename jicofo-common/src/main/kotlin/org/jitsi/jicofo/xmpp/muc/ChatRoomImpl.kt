@@ -20,7 +20,10 @@ package org.jitsi.jicofo.xmpp.muc
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings
 import org.jitsi.jicofo.JicofoConfig
 import org.jitsi.jicofo.TaskPools.Companion.ioPool
+import org.jitsi.jicofo.TaskPools.Companion.scheduledPool
+import org.jitsi.jicofo.metrics.JicofoMetricsContainer
 import org.jitsi.jicofo.util.PendingCount
+import org.jitsi.jicofo.xmpp.XmppConfig
 import org.jitsi.jicofo.xmpp.XmppProvider
 import org.jitsi.jicofo.xmpp.muc.MemberRole.Companion.fromSmack
 import org.jitsi.jicofo.xmpp.sendIqAndGetResponse
@@ -31,6 +34,7 @@ import org.jitsi.utils.event.EventEmitter
 import org.jitsi.utils.event.SyncEventEmitter
 import org.jitsi.utils.logging2.createLogger
 import org.jitsi.utils.observableWhenChanged
+import org.jitsi.utils.queue.PacketQueue
 import org.jivesoftware.smack.PresenceListener
 import org.jivesoftware.smack.SmackException
 import org.jivesoftware.smack.XMPPConnection
@@ -59,6 +63,8 @@ import org.jxmpp.jid.Jid
 import org.jxmpp.jid.impl.JidCreate
 import org.jxmpp.jid.parts.Resourcepart
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
 
 @SuppressFBWarnings(
     value = ["JLM_JSR166_UTILCONCURRENT_MONITORENTER"],
@@ -97,9 +103,41 @@ class ChatRoomImpl(
 
     /** Stores our last MUC presence packet for future update. */
     private var lastPresenceSent: PresenceBuilder? = null
+
+    /** When we last sent an update of our presence (with [System.nanoTime]). */
+    private var lastPresenceSentNanos: Long? = null
+
+    /** The task which will send the changes to our presence coalesced by [presenceChanged], if any. */
+    private var presenceFlushTask: ScheduledFuture<*>? = null
     private val memberListener: MemberListener = MemberListener()
     private val userListener = LocalUserStatusListener()
 
+    /**
+     * The MUC events (presence, members leaving, the room being destroyed) are processed in this queue, in the order
+     * in which they were received, and not in the Smack thread which delivers them. This way a slow listener only
+     * delays the events of its own room, and the events of different rooms are processed in parallel.
+     */
+    private val eventQueue = PacketQueue<QueuedEvent>(
+        Integer.MAX_VALUE,
+        true,
+        "chat-room-event-queue",
+        {
+            eventQueueDelay.observe((System.nanoTime() - it.queuedNanos) / 1_000_000.0)
+            try {
+                it.runnable.run()
+            } catch (e: Throwable) {
+                logger.error("Failed to process an event", e)
+            }
+            return@PacketQueue true
+        },
+        ioPool
+    )
+
+    private fun queueEvent(runnable: Runnable) {
+        eventQueueDepth.observe(eventQueue.size().toDouble())
+        eventQueue.add(QueuedEvent(runnable))
+    }
+
     /** Listener for presence that smack sends on our behalf. */
     private var presenceInterceptor = Consumer<PresenceBuilder> { presenceBuilder ->
         // The initial presence sent by smack contains an empty "x"
@@ -170,6 +208,8 @@ class ChatRoomImpl(
             this["av_moderation"] = OrderedJsonObject().apply {
                 avModerationByMediaType.forEach { (k, v) -> this[k.toString()] = v.debugState }
             }
+            this["event_queue_size"] = eventQueue.size()
+            this["presence_flush_pending"] = synchronized(this@ChatRoomImpl) { presenceFlushTask != null }
         }
 
     override fun addListener(listener: ChatRoomListener) = eventEmitter.addHandler(listener)
@@ -220,6 +260,9 @@ class ChatRoomImpl(
         }
         synchronized(this) {
             lastPresenceSent = null
+            lastPresenceSentNanos = null
+            presenceFlushTask?.cancel(false)
+            presenceFlushTask = null
             logger.addContext("meeting_id", "")
             avModerationByMediaType.values.forEach { it.reset() }
         }
@@ -268,6 +311,12 @@ class ChatRoomImpl(
         muc.removeParticipantStatusListener(memberListener)
         muc.removeUserStatusListener(userListener)
         muc.removeParticipantListener(this)
+        // Events received after leaving are of no interest.
+        eventQueue.close()
+        synchronized(this) {
+            presenceFlushTask?.cancel(false)
+            presenceFlushTask = null
+        }
         leaveCallback(this)
 
         // Call MultiUserChat.leave() in an IO thread, because it now (with Smack 4.4.3) blocks waiting for a response
@@ -318,8 +367,8 @@ class ChatRoomImpl(
 
     fun getOccupant(chatMember: ChatRoomMemberImpl): Occupant? = muc.getOccupant(chatMember.occupantJid)
 
-    override fun setPresenceExtension(extension: ExtensionElement) {
-        val presenceToSend = synchronized(this) {
+    override fun setPresenceExtension(extension: ExtensionElement, priority: Boolean) {
+        synchronized(this) {
             val presence = lastPresenceSent ?: run {
                 logger.error("No presence packet obtained yet")
                 return
@@ -329,52 +378,46 @@ class ChatRoomImpl(
                 presence.removeExtension(existingExtension)
             }
             presence.addExtension(extension)
-
-            presence.build()
         }
-        presenceToSend?.let { xmppProvider.xmppConnection.tryToSendStanza(it) }
+        presenceChanged(priority)
     }
 
-    override fun addPresenceExtensionIfMissing(extension: ExtensionElement) {
-        val presenceToSend = synchronized(this) {
+    override fun addPresenceExtensionIfMissing(extension: ExtensionElement, priority: Boolean) {
+        synchronized(this) {
             val presence = lastPresenceSent ?: run {
                 logger.error("No presence packet obtained yet")
                 return
             }
 
             if (presence.extensions?.any { it.qName == extension.qName } == true) {
-                null
-            } else {
-                presence.addExtension(extension).build()
+                return
             }
+            presence.addExtension(extension)
         }
-        presenceToSend?.let { xmppProvider.xmppConnection.tryToSendStanza(it) }
+        presenceChanged(priority)
     }
 
-    override fun removePresenceExtensions(pred: (ExtensionElement) -> Boolean) {
-        val presenceToSend = synchronized(this) {
+    override fun removePresenceExtensions(pred: (ExtensionElement) -> Boolean, priority: Boolean) {
+        val changed = synchronized(this) {
             lastPresenceSent?.extensions?.filter { pred(it) }?.let {
                 modifyPresenceExtensions(toRemove = it)
-            }
+            } ?: false
         }
-        presenceToSend?.let { xmppProvider.xmppConnection.tryToSendStanza(it) }
+        if (changed) presenceChanged(priority)
     }
 
-    override fun addPresenceExtensions(extensions: Collection<ExtensionElement>) {
-        val presenceToSend = synchronized(this) {
-            modifyPresenceExtensions(toAdd = extensions)
-        }
-        presenceToSend?.let { xmppProvider.xmppConnection.tryToSendStanza(it) }
+    override fun addPresenceExtensions(extensions: Collection<ExtensionElement>, priority: Boolean) {
+        if (modifyPresenceExtensions(toAdd = extensions)) presenceChanged(priority)
     }
 
-    /** Add/remove extensions to/from our presence and return the updated presence or null if it wasn't modified. */
+    /** Add/remove extensions to/from our presence and return true if it was modified. */
     private fun modifyPresenceExtensions(
         toRemove: Collection<ExtensionElement> = emptyList(),
         toAdd: Collection<ExtensionElement> = emptyList()
-    ): Presence? = synchronized(this) {
+    ): Boolean = synchronized(this) {
         val presence = lastPresenceSent ?: run {
             logger.error("No presence packet obtained yet")
-            return null
+            return false
         }
         var changed = false
         toRemove.forEach {
@@ -386,7 +429,49 @@ class ChatRoomImpl(
             presence.addExtension(it)
             changed = true
         }
-        return if (changed) presence.build() else null
+        return changed
+    }
+
+    /**
+     * Send our updated presence. Unless [priority] is set, changes made less than
+     * [XmppConfig.presenceMinInterval] after the last presence was sent are coalesced, and sent together when the
+     * interval expires. Every presence we send is broadcast to all occupants, so this limits the load in large rooms.
+     */
+    private fun presenceChanged(priority: Boolean) {
+        val presenceToSend = synchronized(this) {
+            val minIntervalNanos = XmppConfig.config.presenceMinInterval.toNanos()
+            val sinceLastSent = lastPresenceSentNanos?.let { System.nanoTime() - it }
+            if (priority || sinceLastSent == null || sinceLastSent >= minIntervalNanos) {
+                takePresenceToSend()
+            } else {
+                presencesCoalesced.inc()
+                if (presenceFlushTask == null) {
+                    presenceFlushTask = scheduledPool.schedule(
+                        { flushPresence() },
+                        minIntervalNanos - sinceLastSent,
+                        TimeUnit.NANOSECONDS
+                    )
+                }
+                null
+            }
+        }
+        presenceToSend?.let { xmppProvider.xmppConnection.tryToSendStanza(it) }
+    }
+
+    /** Send the changes to our presence which were delayed by [presenceChanged]. */
+    private fun flushPresence() {
+        val presenceToSend = synchronized(this) {
+            presenceFlushTask = null
+            takePresenceToSend()
+        }
+        presenceToSend?.let { xmppProvider.xmppConnection.tryToSendStanza(it) }
+    }
+
+    /** Build the presence to send now, which includes any pending changes. Must be called with the lock held. */
+    private fun takePresenceToSend(): Presence? {
+        presenceFlushTask?.cancel(false)
+        presenceFlushTask = null
+        return lastPresenceSent?.build()?.also { lastPresenceSentNanos = System.nanoTime() }
     }
 
     /**
@@ -490,7 +575,7 @@ class ChatRoomImpl(
             } else if (memberLeft) {
                 // In some cases smack fails to call left(). We'll call it here
                 // any time we receive presence unavailable
-                memberListener.left(jid)
+                memberListener.processLeft(jid)
             }
             if (!memberLeft) {
                 eventEmitter.fireEvent { memberPresenceChanged(member) }
@@ -499,11 +584,13 @@ class ChatRoomImpl(
     }
 
     /**
-     * Processes an incoming presence packet.
+     * Queues an incoming presence packet to be processed in [eventQueue].
      *
      * @param presence the incoming presence.
      */
-    override fun processPresence(presence: Presence?) {
+    override fun processPresence(presence: Presence?) = queueEvent { doProcessPresence(presence) }
+
+    private fun doProcessPresence(presence: Presence?) {
         if (presence == null || presence.error != null) {
             logger.warn("Unable to handle packet: ${presence?.toXML()}")
             return
@@ -565,10 +652,12 @@ class ChatRoomImpl(
             }
         }
 
+        override fun left(occupantJid: EntityFullJid?) = queueEvent { processLeft(occupantJid) }
+
         /**
          * This needs to be prepared to run twice for the same member.
          */
-        override fun left(occupantJid: EntityFullJid?) {
+        fun processLeft(occupantJid: EntityFullJid?) {
             logger.debug { "Left $occupantJid room: $roomJid" }
 
             val member = synchronized(membersMap) { removeMember(occupantJid) }
@@ -576,7 +665,7 @@ class ChatRoomImpl(
                 ?: logger.info("Member left event for non-existing member: $occupantJid")
         }
 
-        override fun kicked(occupantJid: EntityFullJid?, actor: Jid?, reason: String?) {
+        override fun kicked(occupantJid: EntityFullJid?, actor: Jid?, reason: String?) = queueEvent {
             logger.debug { "Kicked: $occupantJid, $actor, $reason" }
 
             val member = synchronized(membersMap) { removeMember(occupantJid) }
@@ -593,7 +682,7 @@ class ChatRoomImpl(
      * Listens for room destroyed and pass it to the conference.
      */
     private inner class LocalUserStatusListener : UserStatusListener {
-        override fun roomDestroyed(alternateMUC: MultiUserChat?, reason: String?) {
+        override fun roomDestroyed(alternateMUC: MultiUserChat?, reason: String?) = queueEvent {
             eventEmitter.fireEvent { roomDestroyed(reason) }
         }
     }
@@ -620,4 +709,25 @@ class ChatRoomImpl(
             whitelist = emptyList()
         }
     }
+
+    private class QueuedEvent(val runnable: Runnable) {
+        val queuedNanos = System.nanoTime()
+    }
+
+    companion object {
+        private val eventQueueDepth = JicofoMetricsContainer.instance.registerHistogram(
+            "muc_event_queue_depth",
+            "The number of events already queued for a room when a new MUC event is queued",
+            0.0, 1.0, 2.0, 5.0, 10.0, 20.0, 50.0, 100.0, 500.0
+        )
+        private val eventQueueDelay = JicofoMetricsContainer.instance.registerHistogram(
+            "muc_event_queue_delay_ms",
+            "The time MUC events spend queued before they are processed, in milliseconds",
+            1.0, 5.0, 10.0, 50.0, 100.0, 500.0, 1000.0, 5000.0
+        )
+        private val presencesCoalesced = JicofoMetricsContainer.instance.registerCounter(
+            "muc_presences_coalesced",
+            "Number of updates to our MUC presence which were delayed and merged with others"
+        )
+    }
 }
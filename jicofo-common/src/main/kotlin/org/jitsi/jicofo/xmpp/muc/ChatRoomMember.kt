@@ -72,5 +72,12 @@ interface ChatRoomMember {
      */
     val features: Set<Features>
 
+    /**
+     * The [features] if they are available without sending a disco#info request (i.e. they have already been
+     * discovered, or are known from the caps cache), otherwise null.
+     */
+    val cachedFeatures: Set<Features>?
+        get() = null
+
     val debugState: OrderedJsonObject
 }
@@ -21,6 +21,7 @@ import org.jitsi.jicofo.xmpp.Features
 import org.jitsi.jicofo.xmpp.XmppCapsStats
 import org.jitsi.jicofo.xmpp.XmppConfig
 import org.jitsi.jicofo.xmpp.muc.MemberRole.Companion.fromSmack
+import org.jitsi.jicofo.xmpp.nodeVer
 import org.jitsi.utils.OrderedJsonObject
 import org.jitsi.utils.logging2.Logger
 import org.jitsi.utils.logging2.createChildLogger
@@ -74,8 +75,12 @@ class ChatRoomMemberImpl(
     override var sourceInfos = emptySet<SourceInfo>()
         private set
 
+    /** The Caps extension advertised in presence. */
+    private var caps: CapsExtension? = null
+
     /** The node#ver advertised in a Caps extension. */
-    private var capsNodeVer: String? = null
+    private val capsNodeVer: String?
+        get() = caps?.nodeVer
 
     override var role: MemberRole =
         chatRoom.getOccupant(this)?.let { fromSmack(it.role, it.affiliation) } ?: MemberRole.VISITOR
@@ -130,7 +135,7 @@ class ChatRoomMemberImpl(
         }
 
         presence.getExtension(CapsExtension::class.java)?.let {
-            capsNodeVer = "${it.node}#${it.ver}"
+            caps = it
         }
 
         val sourceInfo = presence.getExtension<StandardExtensionElement>("SourceInfo", "jabber:client")
@@ -208,8 +213,8 @@ class ChatRoomMemberImpl(
      */
     override fun toString() = "ChatMember[id=$name role=$role]"
 
-    override val features: Set<Features> by lazy {
-        val features = chatRoom.xmppProvider.discoverFeatures(occupantJid)
+    private val lazyFeatures = lazy {
+        val features = chatRoom.xmppProvider.discoverFeatures(occupantJid, caps)
         // Update the stats once when the features are discovered.
         capsNodeVer?.let {
             XmppCapsStats.update(it, features)
@@ -218,6 +223,11 @@ class ChatRoomMemberImpl(
         features
     }
 
+    override val features: Set<Features> by lazyFeatures
+
+    override val cachedFeatures: Set<Features>?
+        get() = if (lazyFeatures.isInitialized() || chatRoom.xmppProvider.hasCachedFeatures(caps)) features else null
+
     override val debugState: OrderedJsonObject
         get() = OrderedJsonObject().apply {
             this["region"] = region.toString()
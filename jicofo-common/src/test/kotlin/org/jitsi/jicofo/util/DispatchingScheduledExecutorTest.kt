@@ -0,0 +1,86 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024-Present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.util
+
+import io.kotest.core.spec.IsolationMode
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.ints.shouldBeGreaterThan
+import io.kotest.matchers.shouldBe
+import org.jitsi.utils.concurrent.CustomizableThreadFactory
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class DispatchingScheduledExecutorTest : ShouldSpec() {
+    override fun isolationMode() = IsolationMode.InstancePerLeaf
+
+    init {
+        val executor = Executors.newCachedThreadPool()
+        // A single scheduler thread, so any task running in it would block all others.
+        val scheduler = DispatchingScheduledExecutor(1, CustomizableThreadFactory("test-scheduler", true), executor)
+
+        should("Not delay other tasks when a task blocks") {
+            val release = CountDownLatch(1)
+            val otherTaskRan = CountDownLatch(1)
+            scheduler.schedule({ release.await(5, TimeUnit.SECONDS) }, 0, TimeUnit.MILLISECONDS)
+            scheduler.schedule({ otherTaskRan.countDown() }, 10, TimeUnit.MILLISECONDS)
+
+            otherTaskRan.await(5, TimeUnit.SECONDS) shouldBe true
+            release.countDown()
+        }
+        should("Complete the future with the result of the task") {
+            scheduler.schedule<String>({ "result" }, 1, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS) shouldBe
+                "result"
+        }
+        should("Not overlap the executions of a periodic task") {
+            val running = AtomicInteger()
+            val maxRunning = AtomicInteger()
+            val runs = AtomicInteger()
+            val future = scheduler.scheduleAtFixedRate(
+                {
+                    maxRunning.accumulateAndGet(running.incrementAndGet()) { a, b -> maxOf(a, b) }
+                    Thread.sleep(5)
+                    runs.incrementAndGet()
+                    running.decrementAndGet()
+                },
+                0,
+                1,
+                TimeUnit.MILLISECONDS
+            )
+            Thread.sleep(100)
+            future.cancel(false)
+
+            runs.get() shouldBeGreaterThan 1
+            maxRunning.get() shouldBe 1
+        }
+        should("Not run cancelled tasks") {
+            val runs = AtomicInteger()
+            scheduler.schedule({ runs.incrementAndGet() }, 20, TimeUnit.MILLISECONDS).cancel(false)
+            Thread.sleep(50)
+            runs.get() shouldBe 0
+        }
+        should("Shut down the executor when terminated") {
+            scheduler.shutdown()
+            scheduler.awaitTermination(5, TimeUnit.SECONDS) shouldBe true
+            executor.isShutdown shouldBe true
+        }
+
+        afterTest { scheduler.shutdownNow() }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024-Present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.util
+
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.shouldBe
+import kotlin.random.Random
+
+class LongObjectHashMapTest : ShouldSpec() {
+    init {
+        should("Behave like a HashMap") {
+            val random = Random(42)
+            val expected = HashMap<Long, String>()
+            val map = LongObjectHashMap<String>()
+            repeat(50000) {
+                // Use a small range of keys so that there are many removals of existing keys, and sequential keys like
+                // SSRCs often are.
+                val key = 1_000_000L + random.nextInt(2000)
+                if (random.nextInt(3) > 0) {
+                    val value = random.nextInt().toString()
+                    map.put(key, value) shouldBe expected.put(key, value)
+                } else {
+                    map.remove(key) shouldBe expected.remove(key)
+                }
+                map.size shouldBe expected.size
+            }
+            expected.forEach { (key, value) -> map[key] shouldBe value }
+            val entries = HashMap<Long, String>()
+            map.forEach { key, value -> entries[key] = value }
+            entries shouldBe expected
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024-Present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.util
+
+import io.kotest.core.spec.IsolationMode
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.types.shouldBeSameInstanceAs
+import kotlin.random.Random
+
+class PersistentHashMapTest : ShouldSpec() {
+    override fun isolationMode(): IsolationMode = IsolationMode.InstancePerLeaf
+
+    /** A key with a configurable hash code, to exercise collisions. */
+    private data class Key(val id: Int, val hash: Int) {
+        override fun hashCode() = hash
+    }
+
+    init {
+        context("Put and remove") {
+            should("Behave like a HashMap") {
+                val random = Random(42)
+                val expected = HashMap<Key, Int>()
+                var map = PersistentHashMap.empty<Key, Int>()
+                repeat(20000) {
+                    val id = random.nextInt(500)
+                    // Only use a few distinct hashes for some keys, so that there are collisions.
+                    val key = Key(id, if (id % 3 == 0) id % 7 else id * 31)
+                    if (random.nextBoolean()) {
+                        val value = random.nextInt(10)
+                        expected[key] = value
+                        map = map.put(key, value)
+                    } else {
+                        expected.remove(key)
+                        map = map.remove(key)
+                    }
+                    map.size shouldBe expected.size
+                }
+                map shouldBe expected
+                expected.keys.forEach { map[it] shouldBe expected[it] }
+            }
+            should("Not modify the original") {
+                val map = PersistentHashMap.empty<String, Int>().put("a", 1).put("b", 2)
+                map.put("c", 3).remove("a")
+                map shouldBe mapOf("a" to 1, "b" to 2)
+            }
+            should("Return the same instance when nothing changes") {
+                val value = "v"
+                val map = PersistentHashMap.empty<String, String>().put("a", value)
+                map.put("a", value) shouldBeSameInstanceAs map
+                map.remove("b") shouldBeSameInstanceAs map
+            }
+        }
+        context("forEachDifference") {
+            val original = PersistentHashMap.of((0 until 1000).associateWith { it })
+            val modified = original.put(5, 50).remove(6).put(2000, 2000).put(7, 7)
+
+            should("Find exactly the differences") {
+                val differences = mutableMapOf<Int, Pair<Int?, Int?>>()
+                original.forEachDifference(modified) { k, before, after -> differences[k] = Pair(before, after) }
+                differences shouldBe mapOf(
+                    5 to Pair(5, 50),
+                    6 to Pair(6, null),
+                    2000 to Pair(null, 2000)
+                )
+            }
+            should("Work for maps which do not share structure") {
+                val differences = mutableSetOf<Int>()
+                PersistentHashMap.of(modified).forEachDifference(original) { k, _, _ -> differences.add(k) }
+                differences shouldBe setOf(5, 6, 2000)
+            }
+        }
+        context("Equality") {
+            // Include colliding keys, which are stored differently.
+            val expected = HashMap<Any, Int>().apply {
+                (0 until 100).forEach { put(it, it) }
+                (0 until 5).forEach { put(Key(it, 7), it) }
+            }
+            val map = PersistentHashMap.of<Any, Int>(expected)
+
+            should("Be equal to a HashMap with the same entries, in both directions") {
+                (map == expected) shouldBe true
+                (expected == map) shouldBe true
+                (map.entries == expected.entries) shouldBe true
+                (expected.entries == map.entries) shouldBe true
+            }
+            should("Have the same hashCode as a HashMap with the same entries") {
+                map.hashCode() shouldBe expected.hashCode()
+                map.entries.hashCode() shouldBe expected.entries.hashCode()
+                map.entries.forEach { entry ->
+                    entry.hashCode() shouldBe (entry.key.hashCode() xor entry.value.hashCode())
+                }
+            }
+            should("Be equal to a map built differently") {
+                var other = PersistentHashMap.empty<Any, Int>()
+                (0 until 5).forEach { other = other.put(Key(it, 7), it) }
+                (0 until 100).forEach { other = other.put(it, it) }
+                (map == other) shouldBe true
+                map.hashCode() shouldBe other.hashCode()
+            }
+            should("Not be equal to a map with a different value") {
+                val other = HashMap(expected).apply { put(3, 4) }
+                (map == other) shouldBe false
+                (map.entries == other.entries) shouldBe false
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024-Present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.util
+
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.shouldNotBe
+import io.kotest.matchers.string.shouldStartWith
+import java.time.Duration
+import java.util.concurrent.Callable
+import java.util.concurrent.TimeUnit
+
+class VirtualThreadsTest : ShouldSpec() {
+    init {
+        context("On this JVM") {
+            should("Be supported if and only if the JVM has virtual threads (java 21+)") {
+                VirtualThreads.supported shouldBe (Runtime.version().feature() >= 21)
+            }
+            should("Create virtual threads").config(enabled = VirtualThreads.supported) {
+                val thread = VirtualThreads.newThreadFactory("test")!!.newThread { }
+                thread.isVirtualThread() shouldBe true
+                thread.name shouldStartWith "test-"
+
+                val executor = VirtualThreads.newThreadPerTaskExecutor("test-executor")!!
+                val taskThread = executor.submit(Callable { Thread.currentThread() }).get(5, TimeUnit.SECONDS)
+                taskThread.isVirtualThread() shouldBe true
+                taskThread shouldNotBe executor.submit(Callable { Thread.currentThread() }).get(5, TimeUnit.SECONDS)
+                executor.shutdown()
+            }
+            should("Fall back to null without virtual threads").config(enabled = !VirtualThreads.supported) {
+                VirtualThreads.newThreadFactory("test") shouldBe null
+                VirtualThreads.newThreadPerTaskExecutor("test") shouldBe null
+                VirtualThreads.monitorPinning(Duration.ofMillis(20)) { } shouldBe false
+            }
+        }
+        context("Without Thread.ofVirtual") {
+            // Simulates a JVM without virtual threads, regardless of the JVM running the test.
+            VirtualThreads.newThreadFactory("test", NoVirtualThreads::class.java) shouldBe null
+            VirtualThreads.newThreadPerTaskExecutor("test", NoVirtualThreads::class.java) shouldBe null
+        }
+    }
+}
+
+private fun Thread.isVirtualThread(): Boolean = Thread::class.java.getMethod("isVirtual").invoke(this) as Boolean
+
+private class NoVirtualThreads
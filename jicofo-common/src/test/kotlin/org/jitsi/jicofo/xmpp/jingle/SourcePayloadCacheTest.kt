@@ -0,0 +1,85 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024-Present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.xmpp.jingle
+
+import io.kotest.core.spec.IsolationMode
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.shouldNotBe
+import io.kotest.matchers.types.shouldBeSameInstanceAs
+import io.kotest.matchers.types.shouldNotBeSameInstanceAs
+import org.jitsi.jicofo.conference.source.ConferenceSourceMap
+import org.jitsi.jicofo.conference.source.EndpointSourceSet
+import org.jitsi.jicofo.conference.source.Source
+import org.jitsi.utils.MediaType
+
+class SourcePayloadCacheTest : ShouldSpec() {
+    override fun isolationMode() = IsolationMode.InstancePerLeaf
+
+    init {
+        val cache = SourcePayloadCache(maxSize = 2)
+        // A new map for each call, like each participant's SourceSignaling produces.
+        fun s1() = ConferenceSourceMap("e1" to EndpointSourceSet(Source(1, MediaType.AUDIO)))
+        fun s2() = ConferenceSourceMap("e2" to EndpointSourceSet(Source(2, MediaType.AUDIO)))
+        fun s3() = ConferenceSourceMap("e3" to EndpointSourceSet(Source(3, MediaType.AUDIO)))
+
+        val json1 = cache.getJson(s1())
+
+        should("Encode the sources") {
+            json1.json shouldBe s1().toJsonMessageExtension().json
+            cache.size shouldBe 1
+        }
+        should("Reuse the encoding for the same sources") {
+            val json1again = cache.getJson(s1())
+            json1again.json shouldBeSameInstanceAs json1.json
+            // Each IQ gets its own extension element.
+            json1again shouldNotBeSameInstanceAs json1
+            cache.size shouldBe 1
+        }
+        should("Encode different sources separately") {
+            val json2 = cache.getJson(s2())
+            json2.json shouldBe s2().toJsonMessageExtension().json
+            json2.json shouldNotBe json1.json
+            cache.size shouldBe 2
+        }
+        should("Evict the least recently used payload") {
+            val json2 = cache.getJson(s2())
+            // Use s1 again, so s2 is the least recently used.
+            cache.getJson(s1())
+            cache.getJson(s3())
+            cache.size shouldBe 2
+
+            cache.getJson(s1()).json shouldBeSameInstanceAs json1.json
+            cache.getJson(s2()).json shouldNotBeSameInstanceAs json2.json
+        }
+        should("Not change a cached payload when the sources change later") {
+            val sources = s1()
+            val before = cache.getJson(sources)
+            sources.add(s2())
+
+            before.json shouldBe json1.json
+            cache.getJson(s1()).json shouldBeSameInstanceAs json1.json
+            cache.getJson(sources).json shouldBe (s1() + s2()).toJsonMessageExtension().json
+        }
+        should("Clear") {
+            cache.clear()
+            cache.size shouldBe 0
+            cache.getJson(s1()).json shouldNotBeSameInstanceAs json1.json
+        }
+    }
+}
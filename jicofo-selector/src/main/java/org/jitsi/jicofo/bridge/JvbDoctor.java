@@ -26,11 +26,12 @@
 import org.jivesoftware.smack.*;
 import org.jivesoftware.smack.packet.*;
 
+import java.time.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import static org.jitsi.jicofo.bridge.BridgeConfig.config;
-import static org.jitsi.jicofo.xmpp.UtilKt.sendIqAndGetResponse;
 
 /**
  * The class is responsible for doing health checks of currently known
@@ -103,7 +104,7 @@ public void bridgeRemoved(Bridge bridge)
 
         logger.info("Stopping health-check task for: " + bridge);
 
-        healthTask.cancel(true);
+        healthTask.cancel(false);
     }
 
     @Override
@@ -119,10 +120,13 @@ public void bridgeAdded(Bridge bridge)
                 ? new HealthCheckPresenceTask(bridge)
                 : new HealthCheckTask(bridge);
 
+        // Use a random phase for each bridge, so that the health checks of many bridges are spread over the interval
+        // instead of running at the same time.
+        long initialDelay = 1 + ThreadLocalRandom.current().nextLong(healthCheckInterval);
         ScheduledFuture<?> healthTask
             = TaskPools.getScheduledPool().scheduleAtFixedRate(
                 task,
-                healthCheckInterval,
+                initialDelay,
                 healthCheckInterval,
                 TimeUnit.MILLISECONDS);
 
@@ -138,6 +142,12 @@ public void bridgeIsShuttingDown(@NotNull Bridge bridge)
 
     private class HealthCheckTask extends AbstractHealthCheckTask
     {
+        /**
+         * Whether a health check (including its retry) is in progress. Health checks are asynchronous, so a slow
+         * bridge could otherwise have several in progress at the same time.
+         */
+        private final AtomicBoolean inProgress = new AtomicBoolean(false);
+
         private HealthCheckTask(Bridge bridge)
         {
             super(bridge);
@@ -152,13 +162,10 @@ private HealthCheckIQ newHealthCheckIQ(Bridge bridge)
         }
 
         /**
-         * Performs a health check.
-         * @throws org.jivesoftware.smack.SmackException.NotConnectedException when XMPP is not connected,
-         * the task should terminate.
+         * Starts a health check. It does not block waiting for the response, which is handled in a callback.
          */
         @Override
         protected void doHealthCheck()
-            throws SmackException.NotConnectedException
         {
             AbstractXMPPConnection connection = getConnection();
             // If XMPP is currently not connected skip the health-check
@@ -173,34 +180,75 @@ protected void doHealthCheck()
                 return;
             }
 
-            logger.debug("Sending health-check request to: " + bridge);
-
-            IQ response = sendIqAndGetResponse(connection, newHealthCheckIQ(bridge));
-
-            // On timeout we'll give it one more try
-            if (response == null && secondChanceDelay > 0)
+            if (!inProgress.compareAndSet(false, true))
             {
-                try
-                {
-                    if (taskInvalid())
-                        return;
-
-                    logger.warn(bridge + " health-check timed out,"
-                            + " but will give it another try after: "
-                            + secondChanceDelay);
+                logger.warn("The previous health check is still in progress, skipping health check for: " + bridge);
+                return;
+            }
 
-                    Thread.sleep(secondChanceDelay);
+            sendHealthCheck(connection, true);
+        }
 
-                    if (taskInvalid())
-                        return;
+        private void sendHealthCheck(AbstractXMPPConnection connection, boolean firstAttempt)
+        {
+            logger.debug("Sending health-check request to: " + bridge);
 
-                    response = sendIqAndGetResponse(connection, newHealthCheckIQ(bridge));
+            long start = System.nanoTime();
+            connection.sendIqRequestAsync(newHealthCheckIQ(bridge)).onSuccess(response ->
+            {
+                bridge.getHealthCheckRtt().observe(Duration.ofNanos(System.nanoTime() - start));
+                healthCheckDone(null, false);
+            }).onError(exception ->
+            {
+                if (exception instanceof XMPPException.XMPPErrorException)
+                {
+                    bridge.getHealthCheckRtt().observe(Duration.ofNanos(System.nanoTime() - start));
+                    healthCheckDone(((XMPPException.XMPPErrorException) exception).getStanzaError(), false);
+                }
+                else if (exception instanceof SmackException.NoResponseException)
+                {
+                    // On timeout we'll give it one more try
+                    if (firstAttempt && secondChanceDelay > 0 && !taskInvalid())
+                    {
+                        logger.warn(bridge + " health-check timed out,"
+                                + " but will give it another try after: "
+                                + secondChanceDelay);
+                        TaskPools.getScheduledPool().schedule(
+                                () -> retry(connection),
+                                secondChanceDelay,
+                                TimeUnit.MILLISECONDS);
+                    }
+                    else
+                    {
+                        healthCheckDone(null, true);
+                    }
                 }
-                catch (InterruptedException e)
+                else
                 {
-                    logger.error(bridge + " second chance delay wait interrupted", e);
+                    inProgress.set(false);
+                    logger.error("Error when doing health-check on: " + bridge, exception);
                 }
+            });
+        }
+
+        private void retry(AbstractXMPPConnection connection)
+        {
+            if (taskInvalid())
+            {
+                inProgress.set(false);
+                return;
             }
+            sendHealthCheck(connection, false);
+        }
+
+        /**
+         * Handles the result of a health check.
+         * @param error the error returned by the bridge, or {@code null} if it returned a result or timed out.
+         * @param timedOut whether the health check (including the retry) timed out.
+         */
+        private void healthCheckDone(StanzaError error, boolean timedOut)
+        {
+            inProgress.set(false);
 
             // Sync on start/stop and bridges state
             synchronized (JvbDoctor.this)
@@ -208,15 +256,14 @@ protected void doHealthCheck()
                 if (taskInvalid())
                     return;
 
-                if (response == null)
+                if (timedOut)
                 {
                     logger.warn("Health check timed out for: " + bridge);
                     listener.healthCheckTimedOut(bridge.getJid());
                     return;
                 }
 
-                IQ.Type responseType = response.getType();
-                if (IQ.Type.result.equals(responseType))
+                if (error == null)
                 {
                     // OK
                     if (logger.isDebugEnabled())
@@ -227,23 +274,17 @@ protected void doHealthCheck()
                     return;
                 }
 
-                if (IQ.Type.error.equals(responseType))
+                StanzaError.Condition condition = error.getCondition();
+                if (StanzaError.Condition.internal_server_error.equals(condition)
+                    || StanzaError.Condition.service_unavailable.equals(condition))
                 {
-                    StanzaError error = response.getError();
-                    StanzaError.Condition condition = error.getCondition();
-
-                    if (StanzaError.Condition.internal_server_error.equals(condition)
-                        || StanzaError.Condition.service_unavailable.equals(condition))
-                    {
-                        // Health check failure
-                        logger.warn("Health check failed for: " + bridge + ": " + error.toXML().toString());
-                        listener.healthCheckFailed(bridge.getJid());
-                    }
-                    else
-                    {
-                        logger.error(
-                                "Unexpected error returned by the bridge: " + bridge + ", err: " + response.toXML());
-                    }
+                    // Health check failure
+                    logger.warn("Health check failed for: " + bridge + ": " + error.toXML().toString());
+                    listener.healthCheckFailed(bridge.getJid());
+                }
+                else
+                {
+                    logger.error("Unexpected error returned by the bridge: " + bridge + ", err: " + error.toXML());
                 }
             }
         }
@@ -256,8 +297,7 @@ private abstract class AbstractHealthCheckTask implements Runnable
         {
             this.bridge = bridge;
         }
-        protected abstract void doHealthCheck()
-                throws SmackException.NotConnectedException, InterruptedException;
+        protected abstract void doHealthCheck();
 
         @Override
         public void run()
@@ -268,15 +308,7 @@ public void run()
             }
             catch (Exception e)
             {
-                // If the task was canceled while running it will throw InterruptedException, ignore it.
-                if (taskInvalid() && e instanceof InterruptedException)
-                {
-                    logger.debug("The task has been canceled.");
-                }
-                else
-                {
-                    logger.error("Error when doing health-check on: " + bridge, e);
-                }
+                logger.error("Error when doing health-check on: " + bridge, e);
             }
         }
 
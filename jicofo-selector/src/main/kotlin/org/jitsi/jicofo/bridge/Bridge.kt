@@ -21,12 +21,12 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings
 import org.jitsi.utils.OrderedJsonObject
 import org.jitsi.utils.logging2.Logger
 import org.jitsi.utils.logging2.LoggerImpl
-import org.jitsi.utils.stats.RateTracker
 import org.jitsi.xmpp.extensions.colibri.ColibriStatsExtension
 import org.jxmpp.jid.Jid
 import java.time.Clock
 import java.time.Duration
 import java.time.Instant
+import java.util.concurrent.atomic.AtomicReference
 
 /**
  * Represents a jitsi-videobridge instance, reachable at a certain JID, which
@@ -44,40 +44,37 @@ class Bridge @JvmOverloads internal constructor(
      * The XMPP address of the bridge.
      */
     val jid: Jid,
-    private val clock: Clock = Clock.systemUTC()
-) : Comparable<Bridge> {
-
+    private val clock: Clock = Clock.systemUTC(),
     /**
-     * Keep track of the recently added endpoints.
+     * Estimates the stress of the bridge between the reports in its presence.
      */
-    private val newEndpointsRate = RateTracker(
-        BridgeConfig.config.participantRampupInterval(),
-        Duration.ofMillis(100),
-        clock
-    )
+    private val stressEstimator: StressEstimator =
+        StressEstimator.create(BridgeConfig.config.stressEstimatorType, clock)
+) : Comparable<Bridge> {
 
     /**
-     * The last report stress level
+     * The latest stats of the bridge. Updated atomically as a whole, so that readers (e.g. threads selecting a bridge)
+     * see a consistent view without locking.
      */
-    var lastReportedStressLevel = 0.0
-        private set
+    private val statsRef = AtomicReference(BridgeStats())
 
     /**
-     * Holds bridge version (if known - not all bridge version are capable of
-     * reporting it).
+     * A snapshot of the latest stats of the bridge.
      */
-    private var version: String? = null
+    val stats: BridgeStats
+        get() = statsRef.get()
 
     /**
-     * Whether the last received presence indicated the bridge is healthy.
+     * The last report stress level
      */
-    var isHealthy = true
-        private set
+    val lastReportedStressLevel: Double
+        get() = stats.stressLevel
 
     /**
-     * Holds bridge release ID, or null if not known.
+     * Whether the last received presence indicated the bridge is healthy.
      */
-    private var releaseId: String? = null
+    val isHealthy: Boolean
+        get() = stats.healthy
 
     /**
      * Stores the `operational` status of the bridge, which is
@@ -89,68 +86,85 @@ class Bridge @JvmOverloads internal constructor(
      */
     @Volatile
     var isOperational = true
-        get() =
+        get() {
             // To filter out intermittent failures, do not return operational
             // until past the reset threshold since the last failure.
-            if (failureInstant != null &&
+            val failureInstant = failureInstant
+            return if (failureInstant != null &&
                 Duration.between(failureInstant, clock.instant()).compareTo(failureResetThreshold) < 0
             ) {
                 false
             } else {
                 field
             }
+        }
         set(isOperational) {
-            field = isOperational
             if (!isOperational) {
                 // Remember when the bridge has last failed
                 failureInstant = clock.instant()
             }
+            field = isOperational
+            stateChanged()
         }
 
     /**
-     * Start out with the configured value, update if the bridge reports a value.
-     */
-    private var averageParticipantStress = BridgeConfig.config.averageParticipantStress()
-
-    /**
-     * Stores a boolean that indicates whether the bridge is in graceful shutdown mode.
+     * Whether the bridge is in graceful shutdown mode.
      */
-    var isInGracefulShutdown = false // we assume it is not shutting down
+    var isInGracefulShutdown: Boolean
+        get() = stats.inGracefulShutdown
+        set(value) {
+            statsRef.updateAndGet { it.copy(inGracefulShutdown = value) }
+            stateChanged()
+        }
 
     /**
      * Whether the bridge is in SHUTTING_DOWN mode.
      */
-    var isShuttingDown = false
-        private set
+    val isShuttingDown: Boolean
+        get() = stats.shuttingDown
 
     /**
-     * @return true if the bridge is currently in drain mode
+     * Whether the bridge is in drain mode.
      */
-    /**
-     * Stores a boolean that indicates whether the bridge is in drain mode.
-     */
-    var isDraining = true // Default to true to prevent unwanted selection before reading actual state
-        private set
+    val isDraining: Boolean
+        get() = stats.draining
 
     /**
      * The time when this instance has failed.
      *
      * Use `null` to represent "never" because calculating the duration from [Instant.MIN] is slow.
      */
+    @Volatile
     private var failureInstant: Instant? = null
 
+    /**
+     * The time at which the "failed" state of the bridge expires (see [failureResetThreshold]), or `null` if the
+     * bridge never failed.
+     */
+    internal val failureExpiration: Instant?
+        get() = failureInstant?.plus(failureResetThreshold)
+
+    /**
+     * Invoked when the state of the bridge used for selection (other than the stress from recently added endpoints)
+     * changes. Used by [BridgeSelector] to keep its index up to date.
+     */
+    @Volatile
+    internal var stateChangedListener: ((Bridge) -> Unit)? = null
+
+    private fun stateChanged() = stateChangedListener?.invoke(this)
+
     /**
      * @return the region of this [Bridge].
      */
-    var region: String? = null
-        private set
+    val region: String?
+        get() = stats.region
 
     /**
      * @return the relay ID advertised by the bridge, or `null` if
      * none was advertised.
      */
-    var relayId: String? = null
-        private set
+    val relayId: String?
+        get() = stats.relayId
 
     private val logger: Logger = LoggerImpl(Bridge::class.java.name)
 
@@ -158,10 +172,8 @@ class Bridge @JvmOverloads internal constructor(
         logger.addContext("jid", jid.toString())
     }
 
-    private var lastPresenceReceived = Instant.MIN
-
     val timeSinceLastPresence: Duration
-        get() = Duration.between(lastPresenceReceived, clock.instant())
+        get() = Duration.between(stats.lastPresenceReceived, clock.instant())
 
     /**
      * Notifies this instance that a new [ColibriStatsExtension] was
@@ -173,55 +185,45 @@ class Bridge @JvmOverloads internal constructor(
         if (stats == null) {
             return
         }
-        lastPresenceReceived = clock.instant()
-        val stressLevel = stats.getDouble("stress_level")
-        if (stressLevel != null) {
-            lastReportedStressLevel = stressLevel
-        }
-        val averageParticipantStress = stats.getDouble("average_participant_stress")
-        if (averageParticipantStress != null) {
-            this.averageParticipantStress = averageParticipantStress
-        }
-        if (java.lang.Boolean.parseBoolean(
-                stats.getValueAsString(
-                    ColibriStatsExtension.SHUTDOWN_IN_PROGRESS
-                )
+        val now = clock.instant()
+        val healthy = stats.getValueAsString("healthy")
+        if (healthy == null && BridgeConfig.config.usePresenceForHealth) {
+            logger.warn(
+                "Presence-based health checks are enabled, but presence did not include health status. Health " +
+                    "checks for this bridge are effectively disabled."
             )
-        ) {
-            isInGracefulShutdown = true
-        }
-        if (java.lang.Boolean.parseBoolean(stats.getValueAsString("shutting_down"))) {
-            isShuttingDown = true
         }
+        // Parse outside of updateAndGet, which may run the function more than once.
+        val stressLevel = stats.getDouble("stress_level")
+        val averageParticipantStress = stats.getDouble("average_participant_stress")
+        val gracefulShutdown = java.lang.Boolean.parseBoolean(
+            stats.getValueAsString(ColibriStatsExtension.SHUTDOWN_IN_PROGRESS)
+        )
+        val shuttingDown = java.lang.Boolean.parseBoolean(stats.getValueAsString("shutting_down"))
         val drainStr = stats.getValueAsString(ColibriStatsExtension.DRAIN)
-        if (drainStr != null) {
-            isDraining = java.lang.Boolean.parseBoolean(drainStr)
-        }
         val newVersion = stats.getValueAsString(ColibriStatsExtension.VERSION)
-        if (newVersion != null) {
-            version = newVersion
-        }
         val newReleaseId = stats.getValueAsString(ColibriStatsExtension.RELEASE)
-        if (newReleaseId != null) {
-            releaseId = newReleaseId
-        }
-        val region = stats.getValueAsString(ColibriStatsExtension.REGION)
-        if (region != null) {
-            this.region = region
-        }
-        val relayId = stats.getValueAsString(ColibriStatsExtension.RELAY_ID)
-        if (relayId != null) {
-            this.relayId = relayId
-        }
-        val healthy = stats.getValueAsString("healthy")
-        if (healthy != null) {
-            isHealthy = java.lang.Boolean.parseBoolean(healthy)
-        } else if (BridgeConfig.config.usePresenceForHealth) {
-            logger.warn(
-                "Presence-based health checks are enabled, but presence did not include health status. Health " +
-                    "checks for this bridge are effectively disabled."
+        val newRegion = stats.getValueAsString(ColibriStatsExtension.REGION)
+        val newRelayId = stats.getValueAsString(ColibriStatsExtension.RELAY_ID)
+
+        statsRef.updateAndGet {
+            BridgeStats(
+                stressLevel = stressLevel ?: it.stressLevel,
+                averageParticipantStress = averageParticipantStress ?: it.averageParticipantStress,
+                // These are never reset.
+                inGracefulShutdown = it.inGracefulShutdown || gracefulShutdown,
+                shuttingDown = it.shuttingDown || shuttingDown,
+                draining = if (drainStr != null) java.lang.Boolean.parseBoolean(drainStr) else it.draining,
+                version = newVersion ?: it.version,
+                releaseId = newReleaseId ?: it.releaseId,
+                region = newRegion ?: it.region,
+                relayId = newRelayId ?: it.relayId,
+                healthy = if (healthy != null) java.lang.Boolean.parseBoolean(healthy) else it.healthy,
+                lastPresenceReceived = now
             )
         }
+        stressLevel?.let { stressEstimator.stressReported(it) }
+        stateChanged()
     }
 
     /**
@@ -240,33 +242,39 @@ class Bridge @JvmOverloads internal constructor(
      * Notifies this [Bridge] that it was used for a new endpoint.
      */
     fun endpointAdded() {
-        newEndpointsRate.update(1)
+        stressEstimator.endpointAdded()
+    }
+
+    /**
+     * Notifies this [Bridge] that an endpoint was expired.
+     */
+    fun endpointRemoved() {
+        stressEstimator.endpointRemoved()
     }
 
     /**
-     * Returns the net number of video channels recently allocated or removed
-     * from this bridge.
+     * The round trip times of the health checks sent to this bridge.
      */
-    private val recentlyAddedEndpointCount: Long
-        get() = newEndpointsRate.getAccumulatedCount()
+    val healthCheckRtt = HealthCheckRttHistogram()
 
     /**
      * The version of this bridge (with embedded release ID, if available).
      */
     val fullVersion: String?
-        get() = if (version != null && releaseId != null) "$version-$releaseId" else version
+        get() = stats.fullVersion
 
     /**
      * {@inheritDoc}
      */
     override fun toString(): String {
+        val stats = stats
         return String.format(
             "Bridge[jid=%s, version=%s, relayId=%s, region=%s, stress=%.2f]",
             jid.toString(),
-            fullVersion,
-            relayId,
-            region,
-            stress
+            stats.fullVersion,
+            stats.relayId,
+            stats.region,
+            getStress(stats)
         )
     }
 
@@ -276,11 +284,9 @@ class Bridge @JvmOverloads internal constructor(
      * @return this bridge's stress level
      */
     val stress: Double
-        get() =
-            // While a stress of 1 indicates a bridge is fully loaded, we allow
-            // larger values to keep sorting correctly.
-            lastReportedStressLevel +
-                recentlyAddedEndpointCount.coerceAtLeast(0) * averageParticipantStress
+        get() = getStress(stats)
+
+    private fun getStress(stats: BridgeStats) = stressEstimator.getStress(stats)
 
     /**
      * @return true if the stress of the bridge is greater-than-or-equal to the threshold.
@@ -290,18 +296,22 @@ class Bridge @JvmOverloads internal constructor(
 
     val debugState: OrderedJsonObject
         get() {
+            val stats = stats
+            val stress = getStress(stats)
             val o = OrderedJsonObject()
-            o["version"] = version.toString()
-            o["release"] = releaseId.toString()
+            o["version"] = stats.version.toString()
+            o["release"] = stats.releaseId.toString()
             o["stress"] = stress
             o["operational"] = isOperational
-            o["region"] = region.toString()
-            o["drain"] = isDraining
-            o["graceful-shutdown"] = isInGracefulShutdown
-            o["shutting-down"] = isShuttingDown
-            o["overloaded"] = isOverloaded
-            o["relay-id"] = relayId.toString()
-            o["healthy"] = isHealthy
+            o["region"] = stats.region.toString()
+            o["drain"] = stats.draining
+            o["graceful-shutdown"] = stats.inGracefulShutdown
+            o["shutting-down"] = stats.shuttingDown
+            o["overloaded"] = stress >= BridgeConfig.config.stressThreshold()
+            o["relay-id"] = stats.relayId.toString()
+            o["healthy"] = stats.healthy
+            o["stress-estimator"] = stressEstimator.debugState
+            o["health-check-rtt"] = healthCheckRtt.debugState
             return o
         }
 
@@ -341,3 +351,32 @@ class Bridge @JvmOverloads internal constructor(
         }
     }
 }
+
+/**
+ * An immutable snapshot of the stats reported by a bridge.
+ */
+data class BridgeStats(
+    /** The last reported stress level. */
+    val stressLevel: Double = 0.0,
+    /** Start out with the configured value, update if the bridge reports a value. */
+    val averageParticipantStress: Double = BridgeConfig.config.averageParticipantStress(),
+    /** We assume the bridge is not shutting down. */
+    val inGracefulShutdown: Boolean = false,
+    val shuttingDown: Boolean = false,
+    /** Default to true to prevent unwanted selection before reading actual state. */
+    val draining: Boolean = true,
+    /** The version, if known (not all bridge versions are capable of reporting it). */
+    val version: String? = null,
+    /** The release ID, or null if not known. */
+    val releaseId: String? = null,
+    val region: String? = null,
+    /** The relay ID advertised by the bridge, or `null` if none was advertised. */
+    val relayId: String? = null,
+    /** Whether the last received presence indicated the bridge is healthy. */
+    val healthy: Boolean = true,
+    val lastPresenceReceived: Instant = Instant.MIN
+) {
+    /** The version with embedded release ID, if available. */
+    val fullVersion: String?
+        get() = if (version != null && releaseId != null) "$version-$releaseId" else version
+}
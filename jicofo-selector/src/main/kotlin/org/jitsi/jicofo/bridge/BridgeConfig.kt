@@ -71,6 +71,15 @@ class BridgeConfig private constructor() {
     }
     fun participantRampupInterval() = participantRampupInterval
 
+    val stressEstimatorType: StressEstimatorType by config {
+        "$BASE.stress-estimator.type".from(JitsiConfig.newConfig)
+            .convertFrom<String> { StressEstimatorType.valueOf(it) }
+    }
+
+    val stressEstimatorAlpha: Double by config {
+        "$BASE.stress-estimator.alpha".from(JitsiConfig.newConfig)
+    }
+
     val selectionStrategy: BridgeSelectionStrategy by config {
         "org.jitsi.jicofo.BridgeSelector.BRIDGE_SELECTION_STRATEGY".from(JitsiConfig.legacyConfig)
             .convertFrom<String> { createSelectionStrategy(it) }
@@ -109,6 +118,42 @@ class BridgeConfig private constructor() {
     private fun createTopologyStrategy(className: String): TopologySelectionStrategy =
         createClassInstance(className)
 
+    /**
+     * The time to wait for further updates to a colibri2 session before sending them in a single request. When zero,
+     * each update is sent immediately.
+     */
+    val colibriCoalescingWindow: Duration by config {
+        "$BASE.colibri-coalescing-window".from(JitsiConfig.newConfig)
+    }
+
+    val selectionTraceSize: Int by config {
+        "$BASE.selection-trace.size".from(JitsiConfig.newConfig)
+    }
+
+    val selectionTraceSampleRate: Double by config {
+        "$BASE.selection-trace.sample-rate".from(JitsiConfig.newConfig)
+    }
+
+    val migrationRate: Double by config {
+        "$BASE.migration.rate".from(JitsiConfig.newConfig)
+    }
+
+    val migrationBurst: Int by config {
+        "$BASE.migration.burst".from(JitsiConfig.newConfig)
+    }
+
+    val drainPlannerEnabled: Boolean by config {
+        "$BASE.drain-planner.enabled".from(JitsiConfig.newConfig)
+    }
+
+    val drainPlannerInterval: Duration by config {
+        "$BASE.drain-planner.interval".from(JitsiConfig.newConfig)
+    }
+
+    val drainPlannerParticipantsPerInterval: Int by config {
+        "$BASE.drain-planner.participants-per-interval".from(JitsiConfig.newConfig)
+    }
+
     val healthChecksEnabled: Boolean by config {
         "org.jitsi.jicofo.HEALTH_CHECK_INTERVAL".from(JitsiConfig.legacyConfig)
             .convertFrom<Int> { it > 0 }
@@ -0,0 +1,246 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.bridge
+
+import org.jitsi.utils.OrderedJsonObject
+import java.time.Clock
+import java.time.Instant
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * An index of the bridges known to a [BridgeSelector], which is updated when the state of a bridge changes (rather
+ * than recomputed for every selection).
+ *
+ * Bridges are partitioned by the state which determines whether they are candidates for selection (operational,
+ * shutting down, draining, in graceful shutdown and version). The candidate list for a requested version is computed
+ * once and reused until a bridge moves to another partition. It is kept ordered by stress: since the stress of a
+ * bridge also depends on the endpoints recently added to it, each lookup reads the current stress of the candidates
+ * and only moves the ones whose stress changed. Lookups return a read-only view of the ordered list, which is replaced
+ * rather than modified when the order changes.
+ */
+internal class BridgeIndex(private val clock: Clock) {
+    private val lock = ReentrantLock()
+
+    private val entries = HashMap<Bridge, Entry>()
+
+    /** The bridges partitioned by [Partition]. Empty partitions are removed. */
+    private val partitions = HashMap<Partition, LinkedHashSet<Entry>>()
+
+    /** Used to break ties between bridges with the same stress, so that the bridges added first are preferred. */
+    private var nextSeq = 0L
+
+    /** The cached candidates, by requested version (or `null` for any version). */
+    private val candidatesCache = HashMap<String?, CachedCandidates>()
+
+    /**
+     * Bridges which are not operational because they failed recently, and will become operational without any state
+     * change once their failure expires (see [Bridge.isOperational]).
+     */
+    private val recovering = HashSet<Bridge>()
+
+    fun add(bridge: Bridge) = lock.withLock {
+        if (!entries.containsKey(bridge)) {
+            insert(createEntry(bridge, nextSeq++))
+            candidatesCache.clear()
+        }
+    }
+
+    fun remove(bridge: Bridge) = lock.withLock {
+        entries.remove(bridge)?.let {
+            removeFromPartition(it)
+            recovering.remove(bridge)
+            candidatesCache.clear()
+        }
+    }
+
+    /** Update the index after the state of [bridge] changed. */
+    fun refresh(bridge: Bridge) = lock.withLock {
+        val old = entries[bridge] ?: return@withLock
+        val new = createEntry(bridge, old.seq)
+        // A change in stress alone does not change the set of candidates, the order is updated in [getCandidates].
+        if (new.partition == old.partition && new.recoversAt == old.recoversAt) {
+            return@withLock
+        }
+        removeFromPartition(old)
+        insert(new)
+        if (new.partition != old.partition) {
+            candidatesCache.clear()
+        }
+    }
+
+    /**
+     * Get the bridges which are candidates for selection, ordered by their current stress (least loaded first). If
+     * [version] is not null only bridges with that version are considered.
+     */
+    fun getCandidates(version: String?): Candidates = lock.withLock {
+        refreshRecovered()
+        val candidates = candidatesCache.getOrPut(version) { computeCandidates(version) }
+        candidates.updateOrder()
+        Candidates(candidates.bridges, candidates.failureReason)
+    }
+
+    val debugState: OrderedJsonObject
+        get() = lock.withLock {
+            OrderedJsonObject().apply {
+                this["bridges"] = entries.size
+                this["recovering"] = recovering.size
+                this["cached_candidate_lists"] = candidatesCache.size
+                this["partitions"] = OrderedJsonObject().apply {
+                    partitions.forEach { (partition, bridges) -> put(partition.toString(), bridges.size) }
+                }
+            }
+        }
+
+    private fun computeCandidates(version: String?): CachedCandidates {
+        var candidates = partitions.filterKeys { it.operational }
+        if (candidates.isEmpty()) {
+            return CachedCandidates(emptyList(), "There are no operational bridges.")
+        }
+
+        candidates = candidates.filterKeys { !it.shuttingDown }
+        if (candidates.isEmpty()) {
+            return CachedCandidates(emptyList(), "All operational bridges are SHUTTING_DOWN")
+        }
+
+        if (version != null) {
+            candidates = candidates.filterKeys { it.version == version }
+            if (candidates.isEmpty()) {
+                return CachedCandidates(emptyList(), "There are no bridges with the required version: $version")
+            }
+        }
+
+        // If there are active bridges, prefer those.
+        candidates.filterKeys { !it.draining }.let { if (it.isNotEmpty()) candidates = it }
+        // If there are bridges not shutting down, prefer those.
+        candidates.filterKeys { !it.inGracefulShutdown }.let { if (it.isNotEmpty()) candidates = it }
+
+        return CachedCandidates(candidates.values.flatten(), null)
+    }
+
+    /** Re-index bridges whose failure has expired since they were indexed. */
+    private fun refreshRecovered() {
+        if (recovering.isEmpty()) return
+        val now = clock.instant()
+        recovering.filter { entries[it]?.recoversAt?.isAfter(now) != true }.forEach {
+            recovering.remove(it)
+            refresh(it)
+        }
+    }
+
+    private fun createEntry(bridge: Bridge, seq: Long): Entry {
+        val stats = bridge.stats
+        val partition = Partition(
+            operational = bridge.isOperational,
+            shuttingDown = stats.shuttingDown,
+            draining = stats.draining,
+            inGracefulShutdown = stats.inGracefulShutdown,
+            version = stats.fullVersion
+        )
+        val recoversAt = if (partition.operational) null else bridge.failureExpiration?.takeIf {
+            it.isAfter(clock.instant())
+        }
+        return Entry(bridge, seq, partition, recoversAt)
+    }
+
+    private fun insert(entry: Entry) {
+        entries[entry.bridge] = entry
+        partitions.computeIfAbsent(entry.partition) { LinkedHashSet() }.add(entry)
+        if (entry.recoversAt != null) {
+            recovering.add(entry.bridge)
+        } else {
+            recovering.remove(entry.bridge)
+        }
+    }
+
+    private fun removeFromPartition(entry: Entry) {
+        partitions[entry.partition]?.let {
+            it.remove(entry)
+            if (it.isEmpty()) {
+                partitions.remove(entry.partition)
+            }
+        }
+    }
+
+    /** The state of a bridge which determines whether it is a candidate for selection. */
+    private data class Partition(
+        val operational: Boolean,
+        val shuttingDown: Boolean,
+        val draining: Boolean,
+        val inGracefulShutdown: Boolean,
+        val version: String?
+    )
+
+    /** The indexed state of a bridge. Immutable, so that it can be found in its partition after the bridge changes. */
+    private class Entry(
+        val bridge: Bridge,
+        val seq: Long,
+        val partition: Partition,
+        /** The time at which the bridge becomes operational without a state change, if any. */
+        val recoversAt: Instant?
+    )
+
+    /** A candidate and the stress by which it is currently ordered. */
+    private class RankedEntry(val entry: Entry, val stress: Double)
+
+    private class CachedCandidates(entries: List<Entry>, val failureReason: String?) {
+        /** The candidates ordered by [RankedEntry.stress]. Never modified, replaced when the order changes. */
+        private var ranked: List<RankedEntry> =
+            entries.map { RankedEntry(it, it.bridge.stress) }.sortedWith(rankedEntryComparator)
+
+        /** A read-only view of [ranked]. */
+        var bridges: List<Bridge> = BridgeListView(ranked)
+            private set
+
+        /** Read the current stress of the candidates, and move the ones whose stress changed. */
+        fun updateOrder() {
+            var changed: MutableList<RankedEntry>? = null
+            ranked.forEach { candidate ->
+                val stress = candidate.entry.bridge.stress
+                if (stress != candidate.stress) {
+                    val list = changed ?: mutableListOf<RankedEntry>().also { changed = it }
+                    list.add(RankedEntry(candidate.entry, stress))
+                }
+            }
+            val moved = changed ?: return
+
+            val movedEntries = moved.mapTo(HashSet()) { it.entry }
+            val updated = ranked.filterTo(ArrayList(ranked.size)) { it.entry !in movedEntries }
+            moved.forEach {
+                // The seq is unique, so the entry is never found and the result is the (inverted) insertion point.
+                updated.add(-updated.binarySearch(it, rankedEntryComparator) - 1, it)
+            }
+            ranked = updated
+            bridges = BridgeListView(updated)
+        }
+    }
+
+    private class BridgeListView(private val ranked: List<RankedEntry>) : AbstractList<Bridge>(), RandomAccess {
+        override val size: Int
+            get() = ranked.size
+
+        override fun get(index: Int): Bridge = ranked[index].entry.bridge
+    }
+
+    /** The result of a lookup: the candidate bridges, or the reason why there are none. */
+    class Candidates(val bridges: List<Bridge>, val failureReason: String?)
+
+    companion object {
+        private val rankedEntryComparator = compareBy<RankedEntry>({ it.stress }, { it.entry.seq })
+    }
+}
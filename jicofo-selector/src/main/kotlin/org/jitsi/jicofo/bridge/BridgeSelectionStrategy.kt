@@ -15,75 +15,23 @@
  */
 package org.jitsi.jicofo.bridge
 
+import org.jitsi.jicofo.metrics.JicofoMetricsContainer
+import org.jitsi.metrics.HistogramMetric
 import org.jitsi.utils.logging2.Logger
 import org.jitsi.utils.logging2.LoggerImpl
 import org.json.simple.JSONObject
+import java.time.Instant
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLongArray
 
 /**
  * Represents an algorithm for bridge selection.
  */
 abstract class BridgeSelectionStrategy {
     /**
-     * Total number of times selection succeeded because there was a bridge
-     * already in the conference, in the desired region that was not
-     * overloaded.
-     */
-    private var totalNotLoadedAlreadyInConferenceInRegion = 0
-
-    /**
-     * Total number of times selection succeeded because there was a bridge
-     * already in the conference, in the desired region group that was not
-     * overloaded.
-     */
-    private var totalNotLoadedAlreadyInConferenceInRegionGroup = 0
-
-    /**
-     * Total number of times selection succeeded because there was a bridge
-     * in the desired region that was not overloaded.
-     */
-    private var totalNotLoadedInRegion = 0
-
-    /**
-     * Total number of times selection succeeded because there was a bridge
-     * in the desired region group that was not overloaded.
-     */
-    private var totalNotLoadedInRegionGroup = 0
-
-    /**
-     * Total number of times selection succeeded because there was a bridge
-     * already in the conference, in the desired region.
-     */
-    private var totalLeastLoadedAlreadyInConferenceInRegion = 0
-
-    /**
-     * Total number of times selection succeeded because there was a bridge
-     * already in the conference, in the desired region group.
-     */
-    private var totalLeastLoadedAlreadyInConferenceInRegionGroup = 0
-
-    /**
-     * Total number of times selection succeeded because there was a bridge
-     * in the desired region.
-     */
-    private var totalLeastLoadedInRegion = 0
-
-    /**
-     * Total number of times selection succeeded because there was a bridge
-     * in the desired region group.
-     */
-    private var totalLeastLoadedInRegionGroup = 0
-
-    /**
-     * Total number of times selection succeeded because there was a bridge
-     * already in the conference.
-     */
-    private var totalLeastLoadedAlreadyInConference = 0
-
-    /**
-     * Total number of times selection succeeded because there was any bridge
-     * available.
+     * The number of times a bridge was selected (or not) for each [SelectionReason].
      */
-    private var totalLeastLoaded = 0
+    private val selectionCounts = AtomicLongArray(SelectionReason.values().size)
 
     /**
      * Maximum participants per bridge in one conference, or `-1` for no maximum.
@@ -107,6 +55,28 @@ abstract class BridgeSelectionStrategy {
         conferenceBridges: Map<Bridge, ConferenceBridgeProperties>,
         participantProperties: ParticipantProperties,
         allowMultiBridge: Boolean
+    ): Bridge? {
+        val start = System.nanoTime()
+        lastReason.remove()
+        val bridge = doSelectAndLog(bridges, conferenceBridges, participantProperties, allowMultiBridge)
+        val reason = lastReason.get() ?: if (bridge == null) {
+            recordSelection(SelectionReason.NoBridge, null, conferenceBridges, participantProperties)
+        } else {
+            recordSelection(SelectionReason.Other, bridge, conferenceBridges, participantProperties)
+        }
+        lastReason.remove()
+
+        val latencyMs = (System.nanoTime() - start) / 1_000_000.0
+        getStrategyLatencyHistogram(javaClass.simpleName).observe(latencyMs)
+        reasonLatencyHistograms[reason.ordinal].observe(latencyMs)
+        return bridge
+    }
+
+    private fun doSelectAndLog(
+        bridges: List<Bridge>,
+        conferenceBridges: Map<Bridge, ConferenceBridgeProperties>,
+        participantProperties: ParticipantProperties,
+        allowMultiBridge: Boolean
     ): Bridge? {
         return if (conferenceBridges.isEmpty()) {
             val bridge = doSelect(bridges, conferenceBridges, participantProperties)
@@ -125,6 +95,12 @@ abstract class BridgeSelectionStrategy {
             val existingBridge = conferenceBridges.keys.first()
             if (!allowMultiBridge || existingBridge.relayId == null) {
                 logger.info("Existing bridge does not have a relay, will not consider other bridges.")
+                recordSelection(
+                    SelectionReason.ExistingBridgeWithoutRelay,
+                    existingBridge,
+                    conferenceBridges,
+                    participantProperties
+                )
                 return existingBridge
             }
             val bridge = doSelect(bridges, conferenceBridges, participantProperties)
@@ -164,8 +140,13 @@ abstract class BridgeSelectionStrategy {
             .intersect(conferenceBridges.keys)
             .firstOrNull { desiredRegion != null && it.region.equals(desiredRegion) }
         if (result != null) {
-            totalNotLoadedAlreadyInConferenceInRegion++
-            logSelection(result, conferenceBridges, participantProperties, desiredRegion)
+            recordSelection(
+                SelectionReason.NotLoadedAlreadyInConferenceInRegion,
+                result,
+                conferenceBridges,
+                participantProperties,
+                desiredRegion
+            )
         }
         return result
     }
@@ -182,24 +163,49 @@ abstract class BridgeSelectionStrategy {
             .intersect(conferenceBridges.keys)
             .firstOrNull { regionGroup.contains(it.region) }
         if (result != null) {
-            totalNotLoadedAlreadyInConferenceInRegionGroup++
-            logSelection(result, conferenceBridges, participantProperties, desiredRegion)
+            recordSelection(
+                SelectionReason.NotLoadedAlreadyInConferenceInRegionGroup,
+                result,
+                conferenceBridges,
+                participantProperties,
+                desiredRegion
+            )
         }
         return result
     }
 
-    private fun logSelection(
-        bridge: Bridge,
+    /**
+     * Record that [bridge] was selected (or no bridge was selected, if [bridge] is null) for [reason].
+     */
+    private fun recordSelection(
+        reason: SelectionReason,
+        bridge: Bridge?,
         conferenceBridges: Map<Bridge, ConferenceBridgeProperties>,
         participantProperties: ParticipantProperties,
         desiredRegion: String? = null
-    ) {
-        val method = Thread.currentThread().stackTrace[2].methodName
+    ): SelectionReason {
+        selectionCounts.incrementAndGet(reason.ordinal)
+        lastReason.set(reason)
+        if (trace.shouldSample()) {
+            trace.record(
+                SelectionDecision(
+                    Instant.now(),
+                    javaClass.simpleName,
+                    reason,
+                    bridge,
+                    bridge?.stress,
+                    desiredRegion,
+                    participantProperties,
+                    conferenceBridges.size
+                )
+            )
+        }
         logger.debug {
-            "Bridge selected: method=$method, desiredRegion=$desiredRegion, " +
+            "Bridge selected: reason=$reason, desiredRegion=$desiredRegion, " +
                 "participantProperties=$participantProperties, bridge=$bridge, " +
                 "conference_bridges=${conferenceBridges.keys.joinToString()}"
         }
+        return reason
     }
 
     /**
@@ -222,8 +228,13 @@ abstract class BridgeSelectionStrategy {
             .filterNot { isOverloaded(it, conferenceBridges) }
             .firstOrNull { desiredRegion != null && it.region.equals(desiredRegion) }
         if (result != null) {
-            totalNotLoadedInRegion++
-            logSelection(result, conferenceBridges, participantProperties, desiredRegion)
+            recordSelection(
+                SelectionReason.NotLoadedInRegion,
+                result,
+                conferenceBridges,
+                participantProperties,
+                desiredRegion
+            )
         }
         return result
     }
@@ -239,8 +250,13 @@ abstract class BridgeSelectionStrategy {
             .filterNot { isOverloaded(it, conferenceBridges) }
             .firstOrNull { regionGroup.contains(it.region) }
         if (result != null) {
-            totalNotLoadedInRegionGroup++
-            logSelection(result, conferenceBridges, participantProperties, desiredRegion)
+            recordSelection(
+                SelectionReason.NotLoadedInRegionGroup,
+                result,
+                conferenceBridges,
+                participantProperties,
+                desiredRegion
+            )
         }
         return result
     }
@@ -267,8 +283,13 @@ abstract class BridgeSelectionStrategy {
             .intersect(conferenceBridges.keys)
             .firstOrNull { desiredRegion != null && it.region.equals(desiredRegion) }
         if (result != null) {
-            totalLeastLoadedAlreadyInConferenceInRegion++
-            logSelection(result, conferenceBridges, participantProperties, desiredRegion)
+            recordSelection(
+                SelectionReason.LeastLoadedAlreadyInConferenceInRegion,
+                result,
+                conferenceBridges,
+                participantProperties,
+                desiredRegion
+            )
         }
         return result
     }
@@ -284,8 +305,13 @@ abstract class BridgeSelectionStrategy {
             .intersect(conferenceBridges.keys)
             .firstOrNull { regionGroup.contains(it.region) }
         if (result != null) {
-            totalLeastLoadedAlreadyInConferenceInRegionGroup++
-            logSelection(result, conferenceBridges, participantProperties, desiredRegion)
+            recordSelection(
+                SelectionReason.LeastLoadedAlreadyInConferenceInRegionGroup,
+                result,
+                conferenceBridges,
+                participantProperties,
+                desiredRegion
+            )
         }
         return result
     }
@@ -308,8 +334,13 @@ abstract class BridgeSelectionStrategy {
         val result = bridges
             .firstOrNull { desiredRegion != null && it.region.equals(desiredRegion) }
         if (result != null) {
-            totalLeastLoadedInRegion++
-            logSelection(result, conferenceBridges, participantProperties, desiredRegion)
+            recordSelection(
+                SelectionReason.LeastLoadedInRegion,
+                result,
+                conferenceBridges,
+                participantProperties,
+                desiredRegion
+            )
         }
         return result
     }
@@ -324,8 +355,13 @@ abstract class BridgeSelectionStrategy {
         val result = bridges
             .firstOrNull { regionGroup.contains(it.region) }
         if (result != null) {
-            totalLeastLoadedInRegionGroup++
-            logSelection(result, conferenceBridges, participantProperties, desiredRegion)
+            recordSelection(
+                SelectionReason.LeastLoadedInRegionGroup,
+                result,
+                conferenceBridges,
+                participantProperties,
+                desiredRegion
+            )
         }
         return result
     }
@@ -349,8 +385,12 @@ abstract class BridgeSelectionStrategy {
             .intersect(conferenceBridges.keys)
             .firstOrNull()
         if (result != null) {
-            totalLeastLoadedAlreadyInConference++
-            logSelection(result, conferenceBridges, participantProperties)
+            recordSelection(
+                SelectionReason.LeastLoadedAlreadyInConference,
+                result,
+                conferenceBridges,
+                participantProperties
+            )
         }
         return result
     }
@@ -369,8 +409,7 @@ abstract class BridgeSelectionStrategy {
     ): Bridge? {
         val result = bridges.firstOrNull()
         if (result != null) {
-            totalLeastLoaded++
-            logSelection(result, conferenceBridges, participantProperties)
+            recordSelection(SelectionReason.LeastLoaded, result, conferenceBridges, participantProperties)
         }
         return result
     }
@@ -429,16 +468,7 @@ abstract class BridgeSelectionStrategy {
     val stats: JSONObject
         get() {
             val json = JSONObject()
-            json["total_not_loaded_in_region_in_conference"] = totalNotLoadedAlreadyInConferenceInRegion
-            json["total_not_loaded_in_region_group_in_conference"] = totalNotLoadedAlreadyInConferenceInRegionGroup
-            json["total_not_loaded_in_region"] = totalNotLoadedInRegion
-            json["total_not_loaded_in_region_group"] = totalNotLoadedInRegionGroup
-            json["total_least_loaded_in_region_in_conference"] = totalLeastLoadedAlreadyInConferenceInRegion
-            json["total_least_loaded_in_region_group_in_conference"] = totalLeastLoadedAlreadyInConferenceInRegionGroup
-            json["total_least_loaded_in_region"] = totalLeastLoadedInRegion
-            json["total_least_loaded_in_region_group"] = totalLeastLoadedInRegionGroup
-            json["total_least_loaded_in_conference"] = totalLeastLoadedAlreadyInConference
-            json["total_least_loaded"] = totalLeastLoaded
+            SelectionReason.values().forEach { json[it.statName] = selectionCounts.get(it.ordinal) }
             return json
         }
 
@@ -449,5 +479,40 @@ abstract class BridgeSelectionStrategy {
         private val logger: Logger = LoggerImpl(
             BridgeSelectionStrategy::class.java.name
         )
+
+        /**
+         * A sample of recent selection decisions (of all strategies), exposed in the debug state.
+         */
+        @JvmStatic
+        val trace = SelectionTrace(BridgeConfig.config.selectionTraceSize, BridgeConfig.config.selectionTraceSampleRate)
+
+        /**
+         * The reason for the last selection in the current thread. Used to attribute the latency of [select] to a
+         * reason, including when a strategy delegates to another strategy's [doSelect].
+         */
+        private val lastReason = ThreadLocal<SelectionReason>()
+
+        private val latencyBuckets = doubleArrayOf(0.01, 0.05, 0.1, 0.5, 1.0, 5.0, 10.0, 50.0)
+
+        private val reasonLatencyHistograms = SelectionReason.values().map {
+            JicofoMetricsContainer.instance.registerHistogram(
+                "bridge_selection_${it.metricName}_latency_ms",
+                "Latency of bridge selections with reason ${it.name}, in milliseconds",
+                *latencyBuckets
+            )
+        }
+
+        private val strategyLatencyHistograms = ConcurrentHashMap<String, HistogramMetric>()
+
+        private fun getStrategyLatencyHistogram(strategy: String): HistogramMetric =
+            strategyLatencyHistograms.computeIfAbsent(strategy) {
+                JicofoMetricsContainer.instance.registerHistogram(
+                    "bridge_selection_strategy_${strategy.toSnakeCase()}_latency_ms",
+                    "Latency of bridge selections with $strategy, in milliseconds",
+                    *latencyBuckets
+                )
+            }
+
+        private fun String.toSnakeCase() = replace(Regex("([a-z0-9])([A-Z])"), "$1_$2").lowercase()
     }
 }
@@ -27,7 +27,10 @@ import org.jitsi.xmpp.extensions.colibri.ColibriStatsExtension
 import org.json.simple.JSONObject
 import org.jxmpp.jid.Jid
 import java.time.Clock
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.Executors
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
 
 /**
  * Class exposes methods for selecting best videobridge from all currently
@@ -58,9 +61,45 @@ class BridgeSelector @JvmOverloads constructor(
     }
 
     /**
-     * The map of bridge JID to <tt>Bridge</tt>.
+     * The map of bridge JID to <tt>Bridge</tt>. Modified with the lock held, but can be read without it.
      */
-    private val bridges: MutableMap<Jid, Bridge> = mutableMapOf()
+    private val bridges: MutableMap<Jid, Bridge> = ConcurrentHashMap()
+
+    /**
+     * Protects [bridgeSelectionStrategy], which is not thread safe. This is separate from the selector's monitor, so
+     * that selection is not blocked by bridges being added or updated.
+     */
+    private val selectionLock = ReentrantLock()
+
+    /**
+     * Index of the bridges by the state relevant for selection, maintained as the bridges change.
+     */
+    private val index = BridgeIndex(clock)
+
+    /**
+     * The handlers of the conferences which use each bridge, by bridge JID. Events about a bridge being removed or
+     * shutting down are delivered only to these (and to the handlers added with [addHandler]), not to every
+     * conference. Maintained by the conferences' colibri session managers.
+     */
+    private val conferenceHandlers = ConcurrentHashMap<Jid, MutableSet<EventHandler>>()
+
+    /**
+     * The handlers of the conferences which use no bridge, notified when a bridge is added so that they can retry.
+     */
+    private val bridgeWaiters: MutableSet<EventHandler> = ConcurrentHashMap.newKeySet()
+
+    /**
+     * Spreads the migration of conferences away from failed bridges over time.
+     */
+    val migrationScheduler = MigrationScheduler(clock)
+
+    /**
+     * Moves conferences away from draining bridges. Not started by default.
+     */
+    val drainPlanner = DrainPlanner(
+        { bridges.values },
+        { conferenceHandlers[it.jid]?.filterIsInstance<DrainableConference>() ?: emptyList() }
+    )
 
     init {
         JicofoMetricsContainer.instance.addUpdateTask { updateMetrics() }
@@ -80,23 +119,89 @@ class BridgeSelector @JvmOverloads constructor(
      * @return the [Bridge] instance for the given JID.
      */
     @JvmOverloads
-    @Synchronized
-    fun addJvbAddress(bridgeJid: Jid, stats: ColibriStatsExtension? = null): Bridge = bridges[bridgeJid]?.let {
-        val wasShutingDown = it.isShuttingDown
-        it.setStats(stats)
-        if (!wasShutingDown && it.isShuttingDown) {
-            logger.info("${it.jid} entered SHUTTING_DOWN")
-            eventEmitter.fireEvent { bridgeIsShuttingDown(it) }
+    fun addJvbAddress(bridgeJid: Jid, stats: ColibriStatsExtension? = null): Bridge {
+        // Updating the stats of a known bridge (the common case) does not need the lock. The bridge publishes its new
+        // stats atomically.
+        bridges[bridgeJid]?.let { return updateStats(it, stats) }
+
+        synchronized(this) {
+            bridges[bridgeJid]?.let { return updateStats(it, stats) }
+
+            return Bridge(bridgeJid, clock).also { newBridge ->
+                if (stats != null) {
+                    newBridge.setStats(stats)
+                }
+                logger.info("Added new videobridge: $newBridge")
+                // Listen before adding to the index, so that no changes are missed.
+                newBridge.stateChangedListener = index::refresh
+                index.add(newBridge)
+                bridges[bridgeJid] = newBridge
+                bridgeCount.inc()
+                eventEmitter.fireEvent { bridgeAdded(newBridge) }
+                fireEvent(bridgeWaiters.toList()) { bridgeAdded(newBridge) }
+            }
         }
-        return it
-    } ?: Bridge(bridgeJid, clock).also { newBridge ->
-        if (stats != null) {
-            newBridge.setStats(stats)
+    }
+
+    private fun updateStats(bridge: Bridge, stats: ColibriStatsExtension?): Bridge {
+        val wasShutingDown = bridge.isShuttingDown
+        bridge.setStats(stats)
+        if (!wasShutingDown && bridge.isShuttingDown) {
+            logger.info("${bridge.jid} entered SHUTTING_DOWN")
+            fireBridgeEvent(bridge) { bridgeIsShuttingDown(bridge) }
+        }
+        return bridge
+    }
+
+    /**
+     * Register [handler] to receive events about [bridge], because its conference uses the bridge.
+     */
+    fun addConferenceBridge(bridge: Bridge, handler: EventHandler) {
+        conferenceHandlers.compute(bridge.jid) { _, handlers ->
+            (handlers ?: ConcurrentHashMap.newKeySet()).apply { add(handler) }
+        }
+    }
+
+    /**
+     * Stop delivering events about [bridge] to [handler], because its conference no longer uses the bridge.
+     */
+    fun removeConferenceBridge(bridge: Bridge, handler: EventHandler) {
+        conferenceHandlers.computeIfPresent(bridge.jid) { _, handlers ->
+            handlers.remove(handler)
+            handlers.ifEmpty { null }
+        }
+    }
+
+    /**
+     * Register [handler] to be notified when a bridge is added, because its conference has no bridges.
+     */
+    fun addBridgeWaiter(handler: EventHandler) = bridgeWaiters.add(handler)
+
+    fun removeBridgeWaiter(handler: EventHandler) = bridgeWaiters.remove(handler)
+
+    /**
+     * Fire an event about [bridge] to the handlers added with [addHandler] and to the conferences which use the
+     * bridge.
+     */
+    private fun fireBridgeEvent(bridge: Bridge, event: EventHandler.() -> Unit) {
+        eventEmitter.fireEvent(event)
+        conferenceHandlers[bridge.jid]?.toList()?.let { fireEvent(it, event) }
+    }
+
+    /**
+     * Fire an event to specific [handlers], on the same thread as the events fired to all handlers.
+     */
+    private fun fireEvent(handlers: List<EventHandler>, event: EventHandler.() -> Unit) {
+        if (handlers.isEmpty()) return
+        eventEmitterExecutor.execute {
+            handlers.forEach {
+                try {
+                    it.event()
+                } catch (e: Exception) {
+                    logger.warn("Event handler failed", e)
+                }
+            }
         }
-        logger.info("Added new videobridge: $newBridge")
-        bridges[bridgeJid] = newBridge
-        bridgeCount.inc()
-        eventEmitter.fireEvent { bridgeAdded(newBridge) }
     }
 
     /**
@@ -108,12 +213,14 @@ class BridgeSelector @JvmOverloads constructor(
     fun removeJvbAddress(bridgeJid: Jid) {
         logger.info("Removing JVB: $bridgeJid")
         bridges.remove(bridgeJid)?.let {
+            it.stateChangedListener = null
+            index.remove(it)
             if (!it.isInGracefulShutdown && !it.isShuttingDown) {
                 logger.warn("Lost a bridge: $bridgeJid")
                 lostBridges.inc()
             }
             bridgeCount.dec()
-            eventEmitter.fireEvent { bridgeRemoved(it) }
+            fireBridgeEvent(it) { bridgeRemoved(it) }
         }
     }
 
@@ -125,7 +232,7 @@ class BridgeSelector @JvmOverloads constructor(
         // When a bridge returns a non-healthy status, we mark it as non-operational AND we move all conferences
         // away from it.
         it.isOperational = false
-        eventEmitter.fireEvent { bridgeRemoved(it) }
+        fireBridgeEvent(it) { bridgeRemoved(it) }
     } ?: Unit
 
     override fun healthCheckTimedOut(bridgeJid: Jid) = bridges[bridgeJid]?.let {
@@ -154,7 +261,6 @@ class BridgeSelector @JvmOverloads constructor(
      * @param participantRegion the region of the participant for which a
      * bridge is to be selected.
      */
-    @Synchronized
     @JvmOverloads
     fun selectBridge(
         conferenceBridges: Map<Bridge, ConferenceBridgeProperties> = emptyMap(),
@@ -173,56 +279,27 @@ class BridgeSelector @JvmOverloads constructor(
             return null
         }
 
-        // the list of all known videobridges JIDs ordered by load and *operational* status.
-        val prioritizedBridges = synchronized(this) { ArrayList(bridges.values) }
-        prioritizedBridges.sort()
-
-        var candidateBridges = prioritizedBridges.filter { it.isOperational }.toList()
-        if (candidateBridges.isEmpty()) {
-            logger.warn("There are no operational bridges.")
-            return null
-        }
-
-        candidateBridges = candidateBridges.filter { !it.isShuttingDown }.toList()
-        if (candidateBridges.isEmpty()) {
-            logger.warn("All operational bridges are SHUTTING_DOWN")
+        // The operational bridges (preferring ones not draining and not in graceful shutdown) ordered by load. This
+        // is a lookup in the index, and reads the bridges' stats snapshots without locking.
+        val candidates = index.getCandidates(if (OctoConfig.config.allowMixedVersions) null else v)
+        candidates.failureReason?.let {
+            logger.warn(it)
             return null
         }
 
-        if (v != null && !OctoConfig.config.allowMixedVersions) {
-            candidateBridges = candidateBridges.filter { it.fullVersion == v }
-            if (candidateBridges.isEmpty()) {
-                logger.warn("There are no bridges with the required version: $v")
-                return null
-            }
-        }
-
-        // If there are active bridges, prefer those.
-        val activeBridges = candidateBridges.filter { !it.isDraining }.toList()
-        if (!activeBridges.isEmpty()) {
-            candidateBridges = activeBridges
-        }
-
-        // If there are bridges not shutting down, prefer those.
-        val runningBridges = candidateBridges.filter { !it.isInGracefulShutdown }.toList()
-        if (!runningBridges.isEmpty()) {
-            candidateBridges = runningBridges
-        }
-
-        return bridgeSelectionStrategy.select(
-            candidateBridges,
-            conferenceBridges,
-            participantProperties,
-            OctoConfig.config.enabled
-        ).also {
-            // The bridge was selected for an endpoint, increment its counter.
-            it?.endpointAdded()
+        return selectionLock.withLock {
+            // The endpoint is counted by the caller once it is added to the bridge (see [Bridge.endpointAdded]).
+            bridgeSelectionStrategy.select(
+                candidates.bridges,
+                conferenceBridges,
+                participantProperties,
+                OctoConfig.config.enabled
+            )
         }
     }
 
     val stats: JSONObject
-        @Synchronized
-        get() = bridgeSelectionStrategy.stats.apply {
+        get() = selectionLock.withLock { bridgeSelectionStrategy.stats }.apply {
             // We want to avoid exposing unnecessary hierarchy levels in the stats,
             // so we'll merge stats from different "child" objects here.
             this["bridge_count"] = bridgeCount.get()
@@ -236,6 +313,12 @@ class BridgeSelector @JvmOverloads constructor(
         @Synchronized
         get() = OrderedJsonObject().apply {
             this["strategy"] = bridgeSelectionStrategy.javaClass.simpleName
+            this["index"] = index.debugState
+            this["selection_trace"] = BridgeSelectionStrategy.trace.debugState
+            this["bridges_with_conferences"] = conferenceHandlers.size
+            this["conferences_waiting_for_bridge"] = bridgeWaiters.size
+            this["migration"] = migrationScheduler.debugState
+            this["drain_planner"] = drainPlanner.debugState
             this["bridge"] = OrderedJsonObject().apply {
                 bridges.values.forEach { put(it.jid.toString(), it.debugState) }
             }
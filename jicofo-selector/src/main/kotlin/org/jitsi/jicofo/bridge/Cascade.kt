@@ -27,6 +27,13 @@ interface Cascade<N : CascadeNode<N, L>, L : CascadeLink> {
     val sessions: MutableMap<String?, N>
     fun addLinkBetween(session: N, otherSession: N, meshId: String)
     fun removeLinkTo(session: N, otherSession: N)
+
+    /**
+     * A cache of the paths between the nodes, used by [getPathsFrom] and [getDistanceFrom] instead of traversing the
+     * cascade each time. Null if the cascade does not use one.
+     */
+    val pathCache: CascadePathCache<N, L>?
+        get() = null
 }
 
 /**
@@ -67,6 +74,15 @@ fun <N : CascadeNode<N, L>, L : CascadeLink> Cascade<N, L>.addNodeToMesh(
     newNode: N,
     meshId: String,
     existingNode: N? = null
+) {
+    linkNewNode(newNode, meshId, existingNode)
+    pathCache?.nodeAdded(this, newNode)
+}
+
+private fun <N : CascadeNode<N, L>, L : CascadeLink> Cascade<N, L>.linkNewNode(
+    newNode: N,
+    meshId: String,
+    existingNode: N?
 ) {
     require(!containsNode(newNode)) {
         "Cascade $this already contains node $newNode"
@@ -147,6 +163,7 @@ fun <C : Cascade<N, L>, N : CascadeNode<N, L>, L : CascadeLink> C.removeNode(
         }
         /* TODO: validate that the newly-added links have left us with a valid cascade? */
     }
+    pathCache?.nodeRemoved(this, node, meshes.size)
 }
 
 /** Return a set of all nodes "behind" a given node link. */
@@ -195,21 +212,34 @@ fun <C : Cascade<N, L>, N : CascadeNode<N, L>, L : CascadeLink> C.getPathsFrom(
     node: N,
     pathFn: (C, N, N?) -> Unit
 ) {
-    pathFn(this, node, null)
+    val pathCache = pathCache
+    if (pathCache != null) {
+        pathCache.getPaths(this, node).toList().forEach { pathFn(this, it.node, it.from) }
+    } else {
+        traversePathsFrom(node) { n, from -> pathFn(this, n, from) }
+    }
+}
+
+/* Like [getPathsFrom], but always traversing the graph. */
+internal fun <N : CascadeNode<N, L>, L : CascadeLink> Cascade<N, L>.traversePathsFrom(
+    node: N,
+    pathFn: (N, N?) -> Unit
+) {
+    pathFn(node, null)
     node.relays.values.forEach {
-        getPathsFrom(it, node, pathFn)
+        traversePathsFrom(it, node, pathFn)
     }
 }
 
-private fun <C : Cascade<N, L>, N : CascadeNode<N, L>, L : CascadeLink> C.getPathsFrom(
+private fun <N : CascadeNode<N, L>, L : CascadeLink> Cascade<N, L>.traversePathsFrom(
     link: L,
     from: N,
-    pathFn: (C, N, N?) -> Unit
+    pathFn: (N, N?) -> Unit
 ) {
     val node = checkNotNull(sessions[link.relayId])
-    pathFn(this, node, from)
+    pathFn(node, from)
     node.relays.values.filter { it.meshId != link.meshId }.forEach {
-        getPathsFrom(it, node, pathFn)
+        traversePathsFrom(it, node, pathFn)
     }
 }
 
@@ -308,6 +338,10 @@ fun <N : CascadeNode<N, L>, L : CascadeLink> Cascade<N, L>.validate() {
  * the predicate.
  */
 fun <N : CascadeNode<N, L>, L : CascadeLink> Cascade<N, L>.getDistanceFrom(node: N, pred: (N) -> Boolean): Int {
+    pathCache?.let { cache ->
+        // With the cache the shortest path is found.
+        return cache.getPaths(this, node).filter { pred(it.node) }.minOfOrNull { it.distance } ?: Int.MAX_VALUE
+    }
     if (pred(node)) return 0
 
     node.relays.values.forEach {
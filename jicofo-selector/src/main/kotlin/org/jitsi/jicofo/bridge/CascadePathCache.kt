@@ -0,0 +1,121 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.bridge
+
+/**
+ * A routing table for a [Cascade]: for each pair of nodes, the node from which the second one is reached on the path
+ * from the first one (i.e. the previous hop), and the distance between them. It is updated incrementally when a node is
+ * added with [addNodeToMesh] or a node which is not linked to more than one mesh is removed with [removeNode].
+ * Otherwise (or if the cascade was modified without going through these) it is recomputed when it is next used.
+ *
+ * Not thread safe, it is expected to be protected by the same lock as the cascade.
+ */
+class CascadePathCache<N : CascadeNode<N, L>, L : CascadeLink> {
+    /**
+     * The paths from each node (by relay ID) to every node in the cascade, by relay ID, starting with the path to
+     * itself.
+     */
+    private val paths = HashMap<String?, LinkedHashMap<String?, Path<N>>>()
+
+    private var valid = true
+
+    class Path<N>(
+        val node: N,
+        /** The node from which [node] is reached, or null for the path from a node to itself. */
+        val from: N?,
+        val distance: Int
+    )
+
+    /** Recompute the paths when they are next used. */
+    fun invalidate() {
+        valid = false
+        paths.clear()
+    }
+
+    /** The paths from [node] to every node in [cascade], starting with [node] itself. */
+    fun getPaths(cascade: Cascade<N, L>, node: N): Collection<Path<N>> {
+        // Cheap check that the cascade was not modified without going through addNodeToMesh and removeNode (e.g.
+        // cleared).
+        if (!valid || paths.size != cascade.sessions.size || paths[node.relayId]?.get(node.relayId)?.node !== node) {
+            rebuild(cascade)
+        }
+        return paths[node.relayId]?.values ?: emptyList()
+    }
+
+    /** Update the paths after [node] was added to [cascade] and linked to its neighbours. */
+    internal fun nodeAdded(cascade: Cascade<N, L>, node: N) {
+        if (!valid || !matches(cascade, node)) {
+            invalidate()
+            return
+        }
+        val neighbours = node.relays.keys.map { checkNotNull(cascade.sessions[it]) }
+        if (neighbours.isEmpty() && paths.isNotEmpty()) {
+            invalidate()
+            return
+        }
+
+        val fromNode = LinkedHashMap<String?, Path<N>>()
+        fromNode[node.relayId] = Path(node, null, 0)
+        paths.forEach { (sourceId, fromSource) ->
+            // The path from a source enters the new node's mesh at the neighbour closest to the source.
+            val entry = neighbours.minByOrNull { fromSource.getValue(it.relayId).distance }!!
+            fromSource[node.relayId] = Path(node, entry, fromSource.getValue(entry.relayId).distance + 1)
+
+            // The reverse path leaves the new node's mesh at the neighbour closest to the source.
+            val exit = neighbours.minByOrNull { paths.getValue(it.relayId).getValue(sourceId).distance }!!
+            val fromExit = paths.getValue(exit.relayId).getValue(sourceId)
+            fromNode[sourceId] = Path(fromExit.node, fromExit.from ?: node, fromExit.distance + 1)
+        }
+        paths[node.relayId] = fromNode
+    }
+
+    /** Update the paths after [node] was removed from [cascade]. */
+    internal fun nodeRemoved(cascade: Cascade<N, L>, node: N, meshes: Int) {
+        if (!valid || meshes > 1) {
+            // The node may have been on the path between other nodes, and the cascade has been repaired.
+            invalidate()
+            return
+        }
+        // A node linked to a single mesh is not on the path between any other nodes.
+        paths.remove(node.relayId)
+        paths.values.forEach { it.remove(node.relayId) }
+        if (!matches(cascade, null)) {
+            invalidate()
+        }
+    }
+
+    /** Whether the cached paths are for the nodes of [cascade], except for [except]. */
+    private fun matches(cascade: Cascade<N, L>, except: N?): Boolean {
+        val expectedSize = if (except == null) cascade.sessions.size else cascade.sessions.size - 1
+        return paths.size == expectedSize &&
+            cascade.sessions.values.all { it === except || paths[it.relayId]?.get(it.relayId)?.node === it }
+    }
+
+    private fun rebuild(cascade: Cascade<N, L>) {
+        paths.clear()
+        cascade.sessions.values.forEach { source ->
+            val fromSource = LinkedHashMap<String?, Path<N>>()
+            cascade.traversePathsFrom(source) { node, from ->
+                val distance = if (from == null) 0 else fromSource.getValue(from.relayId).distance + 1
+                fromSource[node.relayId] = Path(node, from, distance)
+            }
+            paths[source.relayId] = fromSource
+        }
+        valid = true
+    }
+}
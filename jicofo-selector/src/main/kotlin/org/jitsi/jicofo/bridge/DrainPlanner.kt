@@ -0,0 +1,160 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.bridge
+
+import org.jitsi.jicofo.TaskPools
+import org.jitsi.jicofo.metrics.JicofoMetricsContainer
+import org.jitsi.utils.OrderedJsonObject
+import org.jitsi.utils.logging2.createLogger
+import java.time.Duration
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * A conference which can be moved away from a draining bridge.
+ */
+interface DrainableConference {
+    /** The number of participants this conference has on [bridge]. */
+    fun getParticipantCount(bridge: Bridge): Int
+
+    /** Move this conference's participants on [bridge] to other bridges. */
+    fun moveFrom(bridge: Bridge)
+}
+
+/**
+ * Gradually moves conferences away from bridges which are draining or in graceful shutdown, which otherwise only stop
+ * receiving new conferences and keep the existing ones until they end.
+ *
+ * Every [interval] at most [participantsPerInterval] participants are moved, across all bridges. The smallest
+ * conferences are moved first. A larger conference waits until it fits in a round, so it is likely to be moved when it
+ * has fewer participants (and only gets a round to itself if it is larger than a whole round).
+ */
+class DrainPlanner(
+    /** All bridges. */
+    private val getBridges: () -> Collection<Bridge>,
+    /** The conferences which use a bridge. */
+    private val getConferences: (Bridge) -> Collection<DrainableConference>,
+    private val interval: Duration = BridgeConfig.config.drainPlannerInterval,
+    private val participantsPerInterval: Int = BridgeConfig.config.drainPlannerParticipantsPerInterval
+) {
+    private val logger = createLogger()
+
+    private var task: ScheduledFuture<*>? = null
+
+    @Synchronized
+    fun start() {
+        if (task != null) return
+        logger.info("Starting with interval=$interval, participantsPerInterval=$participantsPerInterval")
+        task = TaskPools.scheduledPool.scheduleAtFixedRate(
+            {
+                try {
+                    runRound()
+                } catch (e: Exception) {
+                    logger.error("Failed to run a drain round", e)
+                }
+            },
+            interval.toMillis(),
+            interval.toMillis(),
+            TimeUnit.MILLISECONDS
+        )
+    }
+
+    @Synchronized
+    fun stop() {
+        task?.cancel(false)
+        task = null
+    }
+
+    /**
+     * Move the conferences planned for the first round.
+     * @return the number of conferences moved.
+     */
+    fun runRound(): Int {
+        val moves = plan().filter { it.round == 1 }
+        moves.forEach { move ->
+            logger.info("Moving ${move.participants} participants away from draining ${move.bridge.jid}")
+            TaskPools.ioPool.execute {
+                try {
+                    move.conference.moveFrom(move.bridge)
+                } catch (e: Exception) {
+                    logger.error("Failed to move a conference away from ${move.bridge.jid}", e)
+                }
+            }
+            conferencesMoved.inc()
+            participantsMoved.addAndGet(move.participants.toLong())
+        }
+        return moves.size
+    }
+
+    /**
+     * Plan the moves of all conferences on draining bridges, smallest first, assigning each to the round in which it
+     * would be moved if the conferences did not change.
+     */
+    private fun plan(): List<Move> {
+        val bridges = getBridges()
+        if (bridges.none { it.isOperational && !it.isDraining && !it.isInGracefulShutdown }) {
+            // There is nowhere to move the conferences to.
+            return emptyList()
+        }
+
+        var round = 1
+        var budget = participantsPerInterval
+        return bridges.filter { it.isDraining || it.isInGracefulShutdown }.flatMap { bridge ->
+            getConferences(bridge).map { Move(bridge, it, it.getParticipantCount(bridge)) }
+        }.filter { it.participants > 0 }.sortedBy { it.participants }.onEach {
+            if (it.participants > budget && budget < participantsPerInterval) {
+                round++
+                budget = participantsPerInterval
+            }
+            budget -= it.participants
+            it.round = round
+        }
+    }
+
+    val debugState: OrderedJsonObject
+        get() = OrderedJsonObject().apply {
+            this["running"] = synchronized(this@DrainPlanner) { task != null }
+            this["interval_ms"] = interval.toMillis()
+            this["participants_per_interval"] = participantsPerInterval
+            val bridges = OrderedJsonObject()
+            plan().groupBy { it.bridge }.forEach { (bridge, moves) ->
+                bridges[bridge.jid.toString()] = OrderedJsonObject().apply {
+                    this["conferences"] = moves.size
+                    this["participants"] = moves.sumOf { it.participants }
+                    // Assuming no conferences end, and no participants join or leave.
+                    this["time_to_empty_ms"] = interval.multipliedBy(moves.maxOf { it.round }.toLong()).toMillis()
+                }
+            }
+            this["bridges"] = bridges
+        }
+
+    private class Move(val bridge: Bridge, val conference: DrainableConference, val participants: Int) {
+        var round = 0
+    }
+
+    companion object {
+        val conferencesMoved = JicofoMetricsContainer.instance.registerCounter(
+            "bridge_drain_conferences_moved",
+            "The number of conferences moved away from draining bridges"
+        )
+        val participantsMoved = JicofoMetricsContainer.instance.registerCounter(
+            "bridge_drain_participants_moved",
+            "The number of participants moved away from draining bridges"
+        )
+    }
+}
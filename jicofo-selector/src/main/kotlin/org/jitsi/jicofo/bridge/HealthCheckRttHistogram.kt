@@ -0,0 +1,68 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.bridge
+
+import org.jitsi.jicofo.metrics.JicofoMetricsContainer
+import org.jitsi.utils.OrderedJsonObject
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * The round trip times of the health checks of a bridge. They are kept per bridge in memory (for the debug state),
+ * and added to a histogram for all bridges (for the metrics), to avoid a metric with a label per bridge.
+ */
+class HealthCheckRttHistogram {
+    /** The number of RTTs in each bucket, with the last one for RTTs above the largest bucket. */
+    private val counts = AtomicLongArray(BUCKETS_MS.size + 1)
+    private val sumMs = AtomicLong()
+    private val lastMs = AtomicLong(-1)
+
+    fun observe(rtt: Duration) {
+        val ms = rtt.toMillis()
+        val bucket = BUCKETS_MS.indexOfFirst { ms <= it }.let { if (it == -1) BUCKETS_MS.size else it }
+        counts.incrementAndGet(bucket)
+        sumMs.addAndGet(ms)
+        lastMs.set(ms)
+        allBridges.observe(ms.toDouble())
+    }
+
+    val debugState: OrderedJsonObject
+        get() = OrderedJsonObject().apply {
+            var count = 0L
+            BUCKETS_MS.forEachIndexed { i, le ->
+                count += counts.get(i)
+                this["le_$le"] = count
+            }
+            count += counts.get(BUCKETS_MS.size)
+            this["le_inf"] = count
+            this["count"] = count
+            this["sum_ms"] = sumMs.get()
+            this["last_ms"] = lastMs.get()
+        }
+
+    companion object {
+        private val BUCKETS_MS = longArrayOf(5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000)
+
+        val allBridges = JicofoMetricsContainer.instance.registerHistogram(
+            "bridge_health_check_rtt_ms",
+            "The round trip time of health checks to the bridges, in milliseconds",
+            *BUCKETS_MS.map { it.toDouble() }.toDoubleArray()
+        )
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.bridge
+
+import org.jitsi.jicofo.TaskPools
+import org.jitsi.jicofo.metrics.JicofoMetricsContainer
+import org.jitsi.utils.OrderedJsonObject
+import org.jitsi.utils.logging2.createLogger
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.util.PriorityQueue
+import java.util.concurrent.Executor
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+import kotlin.math.ceil
+import kotlin.math.min
+
+/**
+ * Spreads the migration of conferences away from failed (or shutting down) bridges over time. Without it, all
+ * conferences on a failed bridge re-invite their participants at the same time, and the resulting allocations hit
+ * the remaining bridges before their stress is reported.
+ *
+ * Migrations are run in order of priority (see [Migration]) as long as a global token bucket, refilled at [rate]
+ * participants per second up to [burst], has enough tokens for the participants of the conference. The scheduled
+ * executor is only used for timing, the migrations which become ready in a tick are run in the IO pool.
+ */
+class MigrationScheduler @JvmOverloads constructor(
+    private val clock: Clock = Clock.systemUTC(),
+    /** The number of participants to migrate per second. When zero or negative migrations run immediately. */
+    private val rate: Double = BridgeConfig.config.migrationRate,
+    /** The capacity of the token bucket, i.e. the number of participants that can be migrated at once. */
+    private val burst: Int = BridgeConfig.config.migrationBurst,
+    /** The executor in which to run the migrations which become ready in a tick. */
+    private val ioExecutor: () -> Executor = { TaskPools.ioPool },
+    private val executor: () -> ScheduledExecutorService = { TaskPools.scheduledPool }
+) {
+    private val logger = createLogger()
+
+    /** Protects the state below. Migrations are run without holding it. */
+    private val lock = ReentrantLock()
+
+    private val pending = PriorityQueue<Migration>()
+
+    private var tokens = burst.toDouble()
+    private var lastRefill: Instant = clock.instant()
+
+    /** The task scheduled to run when enough tokens are available for the next migration. */
+    private var tick: ScheduledFuture<*>? = null
+
+    /** When the queue last became non-empty, i.e. the start of the current recovery. */
+    private var recoveryStart: Instant? = null
+
+    /**
+     * Schedule a migration. It runs in the calling thread if tokens are available and no migrations with a higher
+     * priority are pending.
+     */
+    fun schedule(migration: Migration) {
+        lock.withLock {
+            if (pending.isEmpty()) {
+                recoveryStart = clock.instant()
+            }
+            pending.add(migration)
+            conferencesScheduled.inc()
+        }
+        runReady { it.run() }
+    }
+
+    /** Discard the pending migrations of [conferenceId] (e.g. because the conference ended). */
+    fun cancel(conferenceId: String) = lock.withLock {
+        if (pending.removeIf { it.conferenceId == conferenceId }) {
+            updateRecovery()
+        }
+    }
+
+    val pendingCount: Int
+        get() = lock.withLock { pending.size }
+
+    /**
+     * The estimated time until all pending migrations have run, based on the number of tokens they need.
+     */
+    val estimatedTimeToRecovery: Duration
+        get() = lock.withLock {
+            if (rate <= 0) return Duration.ZERO
+            refill()
+            val needed = pending.sumOf { cost(it) } - tokens
+            if (needed <= 0) Duration.ZERO else Duration.ofMillis(ceil(needed * 1000 / rate).toLong())
+        }
+
+    val debugState: OrderedJsonObject
+        get() = OrderedJsonObject().apply {
+            this["rate"] = rate
+            this["burst"] = burst
+            lock.withLock {
+                refill()
+                this["tokens"] = tokens
+                this["pending"] = pending.sorted().map { it.conferenceId }
+                recoveryStart?.let { this["recovery_start"] = it.toString() }
+            }
+            this["estimated_time_to_recovery_ms"] = estimatedTimeToRecovery.toMillis()
+        }
+
+    /**
+     * Run the migrations for which there are enough tokens, in order of priority (using [dispatch]), and schedule the
+     * rest.
+     */
+    private fun runReady(dispatch: (Runnable) -> Unit) {
+        val ready = mutableListOf<Migration>()
+        lock.withLock {
+            refill()
+            while (pending.isNotEmpty()) {
+                val next = pending.peek()
+                if (rate > 0 && tokens < cost(next)) break
+                tokens -= cost(next)
+                ready.add(pending.poll())
+            }
+            updateRecovery()
+            scheduleTick()
+        }
+
+        ready.forEach { migration ->
+            logger.info("Migrating ${migration.participants} participants of ${migration.conferenceId}")
+            conferencesMigrated.inc()
+            participantsMigrated.addAndGet(migration.participants.toLong())
+            dispatch(
+                Runnable {
+                    try {
+                        migration.migrate.run()
+                    } catch (e: Exception) {
+                        logger.error("Failed to migrate ${migration.conferenceId}", e)
+                    }
+                }
+            )
+        }
+    }
+
+    /** Schedule a tick for when the next pending migration will have enough tokens. Must hold [lock]. */
+    private fun scheduleTick() {
+        if (tick != null || pending.isEmpty()) return
+        val delayMs = ceil((cost(pending.peek()) - tokens) * 1000 / rate).toLong().coerceAtLeast(1)
+        tick = executor().schedule(
+            Runnable {
+                lock.withLock { tick = null }
+                // Re-inviting participants blocks, so only do the timing in the scheduler thread.
+                runReady { ioExecutor().execute(it) }
+            },
+            delayMs,
+            TimeUnit.MILLISECONDS
+        )
+    }
+
+    /** Must hold [lock]. */
+    private fun refill() {
+        val now = clock.instant()
+        if (rate > 0) {
+            val elapsedMs = Duration.between(lastRefill, now).toMillis()
+            tokens = min(burst.toDouble(), tokens + elapsedMs * rate / 1000)
+        }
+        lastRefill = now
+    }
+
+    /** Record the end of a recovery if the queue became empty. Must hold [lock]. */
+    private fun updateRecovery() {
+        pendingConferences.set(pending.size.toLong())
+        if (pending.isEmpty()) {
+            recoveryStart?.let { recoveryTime.observe(Duration.between(it, clock.instant()).toMillis().toDouble()) }
+            recoveryStart = null
+        }
+    }
+
+    /** A conference larger than the bucket takes all of it, so that it is not starved. */
+    private fun cost(migration: Migration) = min(migration.participants, burst).toDouble()
+
+    /**
+     * The migration of the participants of a conference. Conferences with a moderator come first, then larger
+     * conferences, then older ones.
+     */
+    class Migration(
+        val conferenceId: String,
+        val participants: Int,
+        val hasModerator: Boolean,
+        val created: Instant,
+        val migrate: Runnable
+    ) : Comparable<Migration> {
+        override fun compareTo(other: Migration): Int = compareValuesBy(
+            this,
+            other,
+            { !it.hasModerator },
+            { -it.participants },
+            { it.created }
+        )
+    }
+
+    companion object {
+        val pendingConferences = JicofoMetricsContainer.instance.registerLongGauge(
+            "bridge_migration_conferences_pending",
+            "The number of conferences waiting to be migrated away from a failed bridge"
+        )
+        val conferencesScheduled = JicofoMetricsContainer.instance.registerCounter(
+            "bridge_migration_conferences_scheduled",
+            "The number of conference migrations scheduled"
+        )
+        val conferencesMigrated = JicofoMetricsContainer.instance.registerCounter(
+            "bridge_migration_conferences_migrated",
+            "The number of conferences migrated away from a failed bridge"
+        )
+        val participantsMigrated = JicofoMetricsContainer.instance.registerCounter(
+            "bridge_migration_participants_migrated",
+            "The number of participants re-invited because of a failed bridge"
+        )
+        val recoveryTime = JicofoMetricsContainer.instance.registerHistogram(
+            "bridge_migration_recovery_time_ms",
+            "The time from a migration being scheduled with no others pending, until all pending migrations had run",
+            10.0, 100.0, 1000.0, 5000.0, 10000.0, 30000.0, 60000.0, 300000.0
+        )
+    }
+}
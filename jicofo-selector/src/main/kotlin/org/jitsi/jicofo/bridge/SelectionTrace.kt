@@ -0,0 +1,143 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.bridge
+
+import org.jitsi.utils.OrderedJsonObject
+import org.json.simple.JSONArray
+import java.time.Instant
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * The reason a [BridgeSelectionStrategy] selected a bridge.
+ */
+enum class SelectionReason(
+    /** The name used in the strategy's stats. */
+    val statName: String
+) {
+    /** There was a non-overloaded bridge already in the conference, in the desired region. */
+    NotLoadedAlreadyInConferenceInRegion("total_not_loaded_in_region_in_conference"),
+
+    /** There was a non-overloaded bridge already in the conference, in the desired region group. */
+    NotLoadedAlreadyInConferenceInRegionGroup("total_not_loaded_in_region_group_in_conference"),
+
+    /** There was a non-overloaded bridge in the desired region. */
+    NotLoadedInRegion("total_not_loaded_in_region"),
+
+    /** There was a non-overloaded bridge in the desired region group. */
+    NotLoadedInRegionGroup("total_not_loaded_in_region_group"),
+
+    /** There was a bridge already in the conference, in the desired region. */
+    LeastLoadedAlreadyInConferenceInRegion("total_least_loaded_in_region_in_conference"),
+
+    /** There was a bridge already in the conference, in the desired region group. */
+    LeastLoadedAlreadyInConferenceInRegionGroup("total_least_loaded_in_region_group_in_conference"),
+
+    /** There was a bridge in the desired region. */
+    LeastLoadedInRegion("total_least_loaded_in_region"),
+
+    /** There was a bridge in the desired region group. */
+    LeastLoadedInRegionGroup("total_least_loaded_in_region_group"),
+
+    /** There was a non-overloaded bridge already in the conference. */
+    LeastLoadedAlreadyInConference("total_least_loaded_in_conference"),
+
+    /** There was any bridge available. */
+    LeastLoaded("total_least_loaded"),
+
+    /** The conference's existing bridge was used because it has no relay, so the conference can not use Octo. */
+    ExistingBridgeWithoutRelay("total_existing_bridge_without_relay"),
+
+    /** The bridge was selected by logic specific to the strategy. */
+    Other("total_other"),
+
+    /** No bridge was selected. */
+    NoBridge("total_no_bridge");
+
+    /** The name used in metrics. */
+    val metricName: String = statName.removePrefix("total_")
+}
+
+/**
+ * A record of a single bridge selection decision.
+ */
+class SelectionDecision(
+    val timestamp: Instant,
+    val strategy: String,
+    val reason: SelectionReason,
+    val bridge: Bridge?,
+    val stress: Double?,
+    val desiredRegion: String?,
+    val participantProperties: ParticipantProperties,
+    val conferenceBridgeCount: Int
+) {
+    fun toJson() = OrderedJsonObject().apply {
+        put("timestamp", timestamp.toString())
+        put("strategy", strategy)
+        put("reason", reason.name)
+        put("bridge", bridge?.jid?.toString())
+        put("bridge_region", bridge?.region)
+        put("stress", stress)
+        put("desired_region", desiredRegion)
+        put("participant_region", participantProperties.region)
+        put("visitor", participantProperties.visitor)
+        put("conference_bridge_count", conferenceBridgeCount)
+    }
+}
+
+/**
+ * Keeps a sample of recent [SelectionDecision]s in a ring buffer, to be exposed in the debug state. Recording does
+ * not lock: concurrent writers claim distinct slots (a slow writer may be overwritten by a faster one once the buffer
+ * wraps, which is fine for debugging purposes).
+ */
+class SelectionTrace(
+    /** The number of decisions to keep. Use 0 to disable. */
+    private val size: Int,
+    /** The fraction of decisions to record, between 0 and 1. */
+    private val sampleRate: Double
+) {
+    private val decisions: AtomicReferenceArray<SelectionDecision?> = AtomicReferenceArray(size)
+    private val nextIndex = AtomicLong()
+
+    val enabled = size > 0 && sampleRate > 0
+
+    /** Whether the next decision should be recorded. Used to avoid creating a [SelectionDecision] otherwise. */
+    fun shouldSample(): Boolean = enabled && (sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate)
+
+    fun record(decision: SelectionDecision) {
+        if (!enabled) return
+        decisions.set((nextIndex.getAndIncrement() % size).toInt(), decision)
+    }
+
+    /** The recorded decisions, oldest first. */
+    fun getDecisions(): List<SelectionDecision> {
+        if (!enabled) return emptyList()
+        val end = nextIndex.get()
+        val start = maxOf(0, end - size)
+        return (start until end).mapNotNull { decisions.get((it % size).toInt()) }
+    }
+
+    val debugState: OrderedJsonObject
+        get() = OrderedJsonObject().apply {
+            put("size", size)
+            put("sample_rate", sampleRate)
+            put("recorded", nextIndex.get())
+            put("decisions", JSONArray().apply { getDecisions().forEach { add(it.toJson()) } })
+        }
+}
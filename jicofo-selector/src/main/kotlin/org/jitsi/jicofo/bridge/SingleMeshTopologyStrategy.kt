@@ -15,22 +15,18 @@
  */
 package org.jitsi.jicofo.bridge
 
-import org.jitsi.jicofo.bridge.colibri.Colibri2CascadeRepair
-import org.jitsi.jicofo.bridge.colibri.Colibri2Session
-import org.jitsi.jicofo.bridge.colibri.ColibriV2SessionManager
-
 /** Put all bridge nodes into a single mesh, named "0". */
 class SingleMeshTopologyStrategy : TopologySelectionStrategy() {
-    override fun connectNode(
-        cascade: ColibriV2SessionManager,
-        node: Colibri2Session
-    ): TopologySelectionResult =
+    override fun <N : BridgeCascadeNode<N, L>, L : CascadeLink> connectNode(
+        cascade: Cascade<N, L>,
+        node: N
+    ): TopologySelectionResult<N> =
         TopologySelectionResult(cascade.sessions.values.firstOrNull(), "0")
 
-    override fun repairMesh(
-        cascade: ColibriV2SessionManager,
-        disconnected: Set<Set<Colibri2Session>>
-    ): Set<Colibri2CascadeRepair> {
+    override fun <N : BridgeCascadeNode<N, L>, L : CascadeLink> repairMesh(
+        cascade: Cascade<N, L>,
+        disconnected: Set<Set<N>>
+    ): Set<CascadeRepair<N, L>> {
         assert(false) {
             "Single Mesh policy should never result in disconnected meshes"
         }
@@ -0,0 +1,221 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.bridge
+
+import org.jitsi.utils.OrderedJsonObject
+import org.jitsi.utils.stats.RateTracker
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+import kotlin.math.abs
+import kotlin.math.exp
+
+/**
+ * Estimates the stress of a bridge. The bridge reports its stress in presence, which is only sent every few seconds
+ * and does not reflect endpoints which were allocated recently (they take a while to start contributing fully to the
+ * load of the bridge). An estimator combines the reported stress with the allocations and expirations observed
+ * locally, so that a burst of new endpoints is not all allocated to the same bridge.
+ */
+interface StressEstimator {
+    /** An endpoint was allocated on the bridge. */
+    fun endpointAdded()
+
+    /** An endpoint was expired on the bridge. */
+    fun endpointRemoved()
+
+    /** The bridge reported [stress] in its presence. */
+    fun stressReported(stress: Double)
+
+    /** Get the estimated stress of the bridge, given its latest [stats]. */
+    fun getStress(stats: BridgeStats): Double
+
+    val debugState: OrderedJsonObject
+
+    companion object {
+        fun create(type: StressEstimatorType, clock: Clock): StressEstimator = when (type) {
+            StressEstimatorType.RecentEndpoints -> RecentEndpointsStressEstimator(clock)
+            StressEstimatorType.Ewma -> EwmaStressEstimator(clock)
+        }
+    }
+}
+
+enum class StressEstimatorType {
+    /** See [RecentEndpointsStressEstimator]. */
+    RecentEndpoints,
+
+    /** See [EwmaStressEstimator]. */
+    Ewma
+}
+
+/**
+ * Adds the number of endpoints allocated in the last [rampupInterval], multiplied by the bridge's average participant
+ * stress, to the reported stress. Expired endpoints are not taken into account.
+ */
+class RecentEndpointsStressEstimator @JvmOverloads constructor(
+    clock: Clock,
+    rampupInterval: Duration = BridgeConfig.config.participantRampupInterval()
+) : StressEstimator {
+    /**
+     * Keep track of the recently added endpoints.
+     */
+    private val newEndpointsRate = RateTracker(rampupInterval, Duration.ofMillis(100), clock)
+
+    override fun endpointAdded() {
+        newEndpointsRate.update(1)
+    }
+
+    override fun endpointRemoved() {}
+
+    override fun stressReported(stress: Double) {}
+
+    override fun getStress(stats: BridgeStats) =
+        // While a stress of 1 indicates a bridge is fully loaded, we allow
+        // larger values to keep sorting correctly.
+        stats.stressLevel + newEndpointsRate.getAccumulatedCount().coerceAtLeast(0) * stats.averageParticipantStress
+
+    override val debugState: OrderedJsonObject
+        get() = OrderedJsonObject().apply {
+            this["type"] = StressEstimatorType.RecentEndpoints.name
+            this["recent_endpoints"] = newEndpointsRate.getAccumulatedCount()
+        }
+}
+
+/**
+ * Predicts the stress that the bridge will report once the endpoints allocated locally have ramped up.
+ *
+ * Endpoints are assumed to ramp up exponentially, with a time constant of [rampupInterval]. The part of the allocated
+ * endpoints which has not ramped up is tracked as an exponentially decaying count. The endpoints allocated (net of the
+ * expired ones) since the last report, and the part of the earlier ones which had not ramped up at the time of the
+ * report, are added to the reported stress.
+ *
+ * The stress added by an endpoint is learned from the change in reported stress relative to the change in the number
+ * of ramped up endpoints, and smoothed with an EWMA with weight [alpha]. Until there is a sample, the bridge's
+ * average participant stress is used.
+ */
+class EwmaStressEstimator @JvmOverloads constructor(
+    private val clock: Clock,
+    private val alpha: Double = BridgeConfig.config.stressEstimatorAlpha,
+    rampupInterval: Duration = BridgeConfig.config.participantRampupInterval()
+) : StressEstimator {
+    private val lock = ReentrantLock()
+
+    private val rampupMs = rampupInterval.toMillis().toDouble()
+
+    /** The net number of endpoints allocated. */
+    private var endpoints = 0L
+
+    /** The number of endpoints which have not ramped up, decaying with time. */
+    private var pending = 0.0
+    private var pendingUpdated: Instant = clock.instant()
+
+    /** The net number of endpoints allocated since the last report. */
+    private var endpointsSinceReport = 0L
+
+    /** The value of [pending] at the time of the last report. */
+    private var pendingAtReport = 0.0
+
+    /** The reported stress and number of ramped up endpoints at the time of the last sample. */
+    private var sampleStress: Double? = null
+    private var sampleRampedUp = 0.0
+    private var sampleTime: Instant = clock.instant()
+
+    /** The learned stress of a single endpoint, or `null` if there were no samples. */
+    private var endpointStress: Double? = null
+
+    override fun endpointAdded() {
+        lock.withLock {
+            decay()
+            endpoints++
+            pending++
+            endpointsSinceReport++
+        }
+    }
+
+    override fun endpointRemoved() {
+        lock.withLock {
+            decay()
+            endpoints--
+            pending--
+            endpointsSinceReport--
+        }
+    }
+
+    override fun stressReported(stress: Double) {
+        lock.withLock {
+            val now = decay()
+            val rampedUp = endpoints - pending
+            val previousSampleStress = sampleStress
+            val sampleAgeMs = Duration.between(sampleTime, now).toMillis()
+            // A sample taken over a long time is likely to be dominated by changes in the load of existing endpoints.
+            if (previousSampleStress == null || sampleAgeMs > MAX_SAMPLE_RAMPUPS * rampupMs) {
+                setSample(stress, rampedUp, now)
+            } else if (abs(rampedUp - sampleRampedUp) >= MIN_SAMPLE_ENDPOINTS) {
+                val sample = (stress - previousSampleStress) / (rampedUp - sampleRampedUp)
+                if (sample > 0 && sample <= 1) {
+                    endpointStress = endpointStress?.let { alpha * sample + (1 - alpha) * it } ?: sample
+                }
+                setSample(stress, rampedUp, now)
+            }
+            endpointsSinceReport = 0
+            pendingAtReport = pending
+        }
+    }
+
+    override fun getStress(stats: BridgeStats): Double = lock.withLock {
+        val unreported = endpointsSinceReport + pendingAtReport
+        (stats.stressLevel + unreported * (endpointStress ?: stats.averageParticipantStress)).coerceAtLeast(0.0)
+    }
+
+    override val debugState: OrderedJsonObject
+        get() = lock.withLock {
+            OrderedJsonObject().apply {
+                this["type"] = StressEstimatorType.Ewma.name
+                this["endpoints"] = endpoints
+                this["pending"] = pending
+                this["endpoints_since_report"] = endpointsSinceReport
+                this["endpoint_stress"] = endpointStress
+            }
+        }
+
+    private fun setSample(stress: Double, rampedUp: Double, now: Instant) {
+        sampleStress = stress
+        sampleRampedUp = rampedUp
+        sampleTime = now
+    }
+
+    /** Decay [pending] to the current time, and return the current time. */
+    private fun decay(): Instant {
+        val now = clock.instant()
+        val elapsedMs = Duration.between(pendingUpdated, now).toMillis()
+        if (elapsedMs > 0) {
+            pending *= exp(-elapsedMs / rampupMs)
+            pendingUpdated = now
+        }
+        return now
+    }
+
+    companion object {
+        /** The minimum change in the number of ramped up endpoints to take a sample. */
+        private const val MIN_SAMPLE_ENDPOINTS = 1.0
+
+        /** The maximum duration of a sample, in number of ramp-up intervals. */
+        private const val MAX_SAMPLE_RAMPUPS = 3
+    }
+}
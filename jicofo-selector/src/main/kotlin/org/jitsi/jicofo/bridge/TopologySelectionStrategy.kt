@@ -15,25 +15,31 @@
  */
 package org.jitsi.jicofo.bridge
 
-import org.jitsi.jicofo.bridge.colibri.Colibri2CascadeRepair
-import org.jitsi.jicofo.bridge.colibri.Colibri2Session
-import org.jitsi.jicofo.bridge.colibri.ColibriV2SessionManager
+/**
+ * A node in a cascade which is hosted on a [Bridge].
+ */
+interface BridgeCascadeNode<N : BridgeCascadeNode<N, L>, L : CascadeLink> : CascadeNode<N, L> {
+    val bridge: Bridge
+
+    /** Whether the node was created for visitors. */
+    val visitor: Boolean
+}
 
 /**
  * Represents a strategy for selecting bridge topologies.
  */
 abstract class TopologySelectionStrategy {
-    abstract fun connectNode(
-        cascade: ColibriV2SessionManager,
-        node: Colibri2Session
-    ): TopologySelectionResult
-    abstract fun repairMesh(
-        cascade: ColibriV2SessionManager,
-        disconnected: Set<Set<Colibri2Session>>
-    ): Set<Colibri2CascadeRepair>
+    abstract fun <N : BridgeCascadeNode<N, L>, L : CascadeLink> connectNode(
+        cascade: Cascade<N, L>,
+        node: N
+    ): TopologySelectionResult<N>
+    abstract fun <N : BridgeCascadeNode<N, L>, L : CascadeLink> repairMesh(
+        cascade: Cascade<N, L>,
+        disconnected: Set<Set<N>>
+    ): Set<CascadeRepair<N, L>>
 }
 
-data class TopologySelectionResult(
-    val existingNode: Colibri2Session?,
+data class TopologySelectionResult<N>(
+    val existingNode: N?,
     val meshId: String
 )
@@ -15,10 +15,6 @@
  */
 package org.jitsi.jicofo.bridge
 
-import org.jitsi.jicofo.bridge.colibri.Colibri2CascadeRepair
-import org.jitsi.jicofo.bridge.colibri.Colibri2Session
-import org.jitsi.jicofo.bridge.colibri.ColibriV2SessionManager
-
 /** Put participant bridges in a core mesh, and visitor bridges in region-based satellite trees. */
 class VisitorTopologyStrategy : TopologySelectionStrategy() {
     private var meshCounter = 1
@@ -26,11 +22,11 @@ class VisitorTopologyStrategy : TopologySelectionStrategy() {
     private fun nextMesh(): String = meshCounter.toString().also { meshCounter++ }
 
     /* Pick the best node to connect a node to from a set of existing nodes. */
-    private fun pickConnectionNode(
-        cascade: ColibriV2SessionManager,
-        node: Colibri2Session,
-        existingNodes: Collection<Colibri2Session>
-    ): Colibri2Session {
+    private fun <N : BridgeCascadeNode<N, L>, L : CascadeLink> pickConnectionNode(
+        cascade: Cascade<N, L>,
+        node: N,
+        existingNodes: Collection<N>
+    ): N {
         val nodesWithDistance = existingNodes.associateWith {
             cascade.getDistanceFrom(it) { node -> !node.visitor }
         }
@@ -53,10 +49,10 @@ class VisitorTopologyStrategy : TopologySelectionStrategy() {
             ?: existingNodes.first()
     }
 
-    override fun connectNode(
-        cascade: ColibriV2SessionManager,
-        node: Colibri2Session
-    ): TopologySelectionResult {
+    override fun <N : BridgeCascadeNode<N, L>, L : CascadeLink> connectNode(
+        cascade: Cascade<N, L>,
+        node: N
+    ): TopologySelectionResult<N> {
         val existingNodes = cascade.sessions.values
         if (!node.visitor) {
             return TopologySelectionResult(existingNodes.firstOrNull(), coreMesh)
@@ -72,13 +68,13 @@ class VisitorTopologyStrategy : TopologySelectionStrategy() {
         return TopologySelectionResult(best, nextMesh())
     }
 
-    override fun repairMesh(
-        cascade: ColibriV2SessionManager,
-        disconnected: Set<Set<Colibri2Session>>
-    ): Set<Colibri2CascadeRepair> {
+    override fun <N : BridgeCascadeNode<N, L>, L : CascadeLink> repairMesh(
+        cascade: Cascade<N, L>,
+        disconnected: Set<Set<N>>
+    ): Set<CascadeRepair<N, L>> {
         // Figure out which part of the disconnected topology contains the core.
 
-        val ret = HashSet<Colibri2CascadeRepair>()
+        val ret = HashSet<CascadeRepair<N, L>>()
 
         val core = disconnected.firstOrNull { set -> set.any { !it.visitor } }
             /* We don't have a core.  TODO: add one? */
@@ -89,7 +85,7 @@ class VisitorTopologyStrategy : TopologySelectionStrategy() {
         others.forEach {
             val connect = it.first() // Should I try to be smarter here?
             val best = pickConnectionNode(cascade, connect, core)
-            ret.add(Colibri2CascadeRepair(connect, best, nextMesh()))
+            ret.add(CascadeRepair(connect, best, nextMesh()))
         }
 
         return ret
@@ -0,0 +1,268 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.bridge.colibri
+
+import org.jitsi.jicofo.TaskPools
+import org.jitsi.jicofo.metrics.JicofoMetricsContainer
+import org.jitsi.utils.logging2.Logger
+import org.jitsi.utils.logging2.createChildLogger
+import org.jitsi.xmpp.extensions.colibri2.Colibri2Endpoint
+import org.jitsi.xmpp.extensions.colibri2.Colibri2Relay
+import org.jitsi.xmpp.extensions.colibri2.ConferenceModifyIQ
+import org.jitsi.xmpp.extensions.colibri2.Endpoints
+import org.jitsi.xmpp.extensions.colibri2.InitialLastN
+import org.jitsi.xmpp.extensions.colibri2.Sources
+import org.jitsi.xmpp.extensions.colibri2.Transport
+import org.jitsi.xmpp.extensions.jingle.IceUdpTransportPacketExtension
+import org.jivesoftware.smack.packet.IQ
+import java.time.Duration
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Accumulates the fire-and-forget updates for a [Colibri2Session] (endpoint, relay and expire updates) and sends them
+ * in a single [ConferenceModifyIQ] at most [window] after the first one was queued. Later updates to the same endpoint
+ * supersede earlier ones.
+ *
+ * To preserve the order of requests sent to the session, requests which are not coalesced (e.g. allocation requests)
+ * must be sent via [flushThen].
+ */
+internal class Colibri2RequestCoalescer(
+    /** How long to wait for more updates before sending. When zero, every update is sent immediately. */
+    private val window: Duration,
+    private val createRequest: () -> ConferenceModifyIQ.Builder,
+    private val sendRequest: (IQ, String) -> Unit,
+    parentLogger: Logger
+) {
+    private val logger = createChildLogger(parentLogger)
+
+    /** Protects the pending state, and is held while sending so that requests are sent in order. */
+    private val lock = ReentrantLock()
+
+    private val endpoints = LinkedHashMap<String, PendingEndpoint>()
+    private val relays = LinkedHashMap<String, PendingRelay>()
+
+    /** The names of the updates merged in the pending request (for logging). */
+    private val names = mutableListOf<String>()
+
+    private var flushTask: ScheduledFuture<*>? = null
+
+    fun updateEndpoint(
+        id: String,
+        statsId: String?,
+        transport: IceUdpTransportPacketExtension?,
+        sources: Sources?,
+        initialLastN: InitialLastN?
+    ) = add("updateParticipant", { endpoints[id]?.expire == true }) {
+        endpoints.getOrPut(id) { PendingEndpoint(id) }.apply {
+            this.statsId = statsId
+            transport?.let { this.transport = it }
+            sources?.let { this.sources = it }
+            initialLastN?.let { this.initialLastN = it }
+        }
+    }
+
+    fun updateForceMute(participants: Collection<ParticipantInfo>) =
+        add("updateForceMute", { participants.any { endpoints[it.id]?.expire == true } }) {
+            participants.forEach {
+                endpoints.getOrPut(it.id) { PendingEndpoint(it.id) }.forceMute = Pair(it.audioMuted, it.videoMuted)
+            }
+        }
+
+    /** Expire endpoints. This supersedes any pending updates for them. */
+    fun expireEndpoints(ids: Collection<String>) = add("expire(participantsToExpire)", { false }) {
+        ids.forEach { endpoints[it] = PendingEndpoint(it).apply { expire = true } }
+    }
+
+    fun updateRelayEndpoint(relayId: String, participant: ParticipantInfo, create: Boolean) = add(
+        "Relay.updateParticipant",
+        { relays[relayId]?.let { it.expire || it.endpoints[participant.id]?.expire == true } == true }
+    ) {
+        val relay = relays.getOrPut(relayId) { PendingRelay(relayId) }
+        // If the create hasn't been sent yet, it needs to be included.
+        val doCreate = create || relay.endpoints[participant.id]?.create == true
+        relay.endpoints[participant.id] =
+            PendingRelayEndpoint(doCreate, false, participant.toEndpoint(create = doCreate, expire = false).build())
+    }
+
+    /** Expire relay endpoints. This supersedes pending updates, and cancels out pending creates. */
+    fun expireRelayEndpoints(relayId: String, participants: Collection<ParticipantInfo>) = add(
+        "Relay.expireParticipants",
+        { relays[relayId]?.expire == true }
+    ) {
+        val relay = relays.getOrPut(relayId) { PendingRelay(relayId) }
+        participants.forEach {
+            if (relay.endpoints[it.id]?.create == true) {
+                relay.endpoints.remove(it.id)
+            } else {
+                relay.endpoints[it.id] =
+                    PendingRelayEndpoint(false, true, it.toEndpoint(create = false, expire = true).build())
+            }
+        }
+    }
+
+    fun setRelayTransport(relayId: String, transport: IceUdpTransportPacketExtension) =
+        add("Relay.setTransport", { relays[relayId]?.expire == true }) {
+            relays.getOrPut(relayId) { PendingRelay(relayId) }.transport = transport
+        }
+
+    /** Expire relays. This supersedes any pending updates for them. */
+    fun expireRelays(relayIds: Collection<String>) = add("expireRelays", { false }) {
+        relayIds.forEach { relays[it] = PendingRelay(it).apply { expire = true } }
+    }
+
+    /** Send any pending updates, and then run [block] (which sends a request that is not coalesced). */
+    fun <T> flushThen(block: () -> T): T = lock.withLock {
+        flushLocked()
+        block()
+    }
+
+    /** Send any pending updates. */
+    fun flush() = lock.withLock { flushLocked() }
+
+    /** Discard any pending updates (e.g. because the whole conference is being expired). */
+    fun clear() = lock.withLock {
+        if (names.isNotEmpty()) {
+            logger.debug { "Discarding pending updates: $names" }
+        }
+        reset()
+    }
+
+    private fun add(name: String, conflicts: () -> Boolean, update: () -> Unit) = lock.withLock {
+        // An update which can not be merged with the pending ones (e.g. an update for an endpoint which is pending
+        // expiration) needs to go in a separate request.
+        if (conflicts()) {
+            flushLocked()
+        }
+        update()
+        names.add(name)
+
+        if (window.isZero || window.isNegative) {
+            flushLocked()
+        } else if (flushTask == null) {
+            flushTask = TaskPools.scheduledPool.schedule({ flush() }, window.toMillis(), TimeUnit.MILLISECONDS)
+        }
+    }
+
+    private fun flushLocked() {
+        if (names.isEmpty()) {
+            return
+        }
+
+        val request = createRequest()
+        endpoints.values.forEach { request.addEndpoint(it.build()) }
+        var empty = endpoints.isEmpty()
+        relays.values.forEach { relay ->
+            relay.build()?.let {
+                request.addRelay(it)
+                empty = false
+            }
+        }
+
+        val count = names.size
+        val name = if (count == 1) names[0] else "coalesced$names"
+        reset()
+
+        batchSize.observe(count.toDouble())
+        if (empty) {
+            // Everything cancelled out.
+            logger.debug { "Nothing to send for $name" }
+            requestsSaved.addAndGet(count.toLong())
+            return
+        }
+        requestsSaved.addAndGet(count - 1L)
+        sendRequest(request.build(), name)
+    }
+
+    private fun reset() {
+        endpoints.clear()
+        relays.clear()
+        names.clear()
+        flushTask?.cancel(false)
+        flushTask = null
+    }
+
+    private class PendingEndpoint(val id: String) {
+        var statsId: String? = null
+        var transport: IceUdpTransportPacketExtension? = null
+        var sources: Sources? = null
+        var initialLastN: InitialLastN? = null
+        var forceMute: Pair<Boolean, Boolean>? = null
+        var expire = false
+
+        fun build(): Colibri2Endpoint = Colibri2Endpoint.getBuilder().apply {
+            setId(id)
+            if (expire) {
+                setExpire(true)
+            } else {
+                statsId?.let { setStatsId(it) }
+                transport?.let { setTransport(Transport.getBuilder().setIceUdpExtension(it).build()) }
+                sources?.let { setSources(it) }
+                initialLastN?.let { setInitialLastN(it) }
+                forceMute?.let { setForceMute(it.first, it.second) }
+            }
+        }.build()
+    }
+
+    private class PendingRelayEndpoint(val create: Boolean, val expire: Boolean, val endpoint: Colibri2Endpoint)
+
+    private class PendingRelay(val id: String) {
+        val endpoints = LinkedHashMap<String, PendingRelayEndpoint>()
+        var transport: IceUdpTransportPacketExtension? = null
+        var expire = false
+
+        /** Build the [Colibri2Relay] element, or return null if there is nothing to send. */
+        fun build(): Colibri2Relay? {
+            if (!expire && transport == null && endpoints.isEmpty()) {
+                return null
+            }
+            return Colibri2Relay.getBuilder().apply {
+                setId(id)
+                if (expire) {
+                    setExpire(true)
+                } else {
+                    transport?.let {
+                        setCreate(false)
+                        setTransport(Transport.getBuilder().apply { setIceUdpExtension(it) }.build())
+                    }
+                    if (endpoints.isNotEmpty()) {
+                        setEndpoints(
+                            Endpoints.getBuilder().apply {
+                                endpoints.values.forEach { addEndpoint(it.endpoint) }
+                            }.build()
+                        )
+                    }
+                }
+            }.build()
+        }
+    }
+
+    companion object {
+        val batchSize = JicofoMetricsContainer.instance.registerHistogram(
+            "colibri2_coalesced_batch_size",
+            "The number of colibri2 updates merged in a single request",
+            1.0, 2.0, 5.0, 10.0, 20.0, 50.0, 100.0
+        )
+        val requestsSaved = JicofoMetricsContainer.instance.registerCounter(
+            "colibri2_coalesced_requests_saved",
+            "The number of colibri2 requests that were not sent because they were merged with another request"
+        )
+    }
+}
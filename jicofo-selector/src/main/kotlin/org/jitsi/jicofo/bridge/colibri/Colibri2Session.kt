@@ -19,8 +19,9 @@ package org.jitsi.jicofo.bridge.colibri
 
 import org.jitsi.jicofo.OctoConfig
 import org.jitsi.jicofo.bridge.Bridge
+import org.jitsi.jicofo.bridge.BridgeCascadeNode
+import org.jitsi.jicofo.bridge.BridgeConfig
 import org.jitsi.jicofo.bridge.CascadeLink
-import org.jitsi.jicofo.bridge.CascadeNode
 import org.jitsi.jicofo.codec.CodecUtil
 import org.jitsi.jicofo.codec.Config
 import org.jitsi.jicofo.conference.source.ConferenceSourceMap
@@ -43,7 +44,6 @@ import org.jitsi.xmpp.extensions.colibri2.Transport
 import org.jitsi.xmpp.extensions.jingle.DtlsFingerprintPacketExtension
 import org.jitsi.xmpp.extensions.jingle.ExtmapAllowMixedPacketExtension
 import org.jitsi.xmpp.extensions.jingle.IceUdpTransportPacketExtension
-import org.jivesoftware.smack.StanzaCollector
 import org.jivesoftware.smack.packet.ErrorIQ
 import org.jivesoftware.smack.packet.IQ
 import org.jivesoftware.smackx.muc.MUCRole
@@ -53,11 +53,11 @@ import java.util.UUID
 /** Represents a colibri2 session with one specific bridge. */
 class Colibri2Session(
     val colibriSessionManager: ColibriV2SessionManager,
-    val bridge: Bridge,
+    override val bridge: Bridge,
     // Whether the session was constructed for the purpose of visitor nodes
-    val visitor: Boolean,
+    override val visitor: Boolean,
     parentLogger: Logger
-) : CascadeNode<Colibri2Session, Colibri2Session.Relay> {
+) : BridgeCascadeNode<Colibri2Session, Colibri2Session.Relay> {
     private val logger = createChildLogger(parentLogger).apply {
         bridge.jid.resourceOrNull?.toString()?.let { addContext("bridge", it) }
     }
@@ -85,8 +85,19 @@ class Colibri2Session(
     /** The set of (octo) relays for the session, mapped by their ID (i.e. the relayId of the remote bridge). */
     override val relays = mutableMapOf<String, Relay>()
 
-    /** Creates and sends a request to allocate a new endpoint. Returns a [StanzaCollector] for the response. */
-    internal fun sendAllocationRequest(participant: ParticipantInfo): StanzaCollector {
+    /** Merges the fire-and-forget updates for this session into fewer requests. */
+    private val coalescer = Colibri2RequestCoalescer(
+        BridgeConfig.config.colibriCoalescingWindow,
+        { createRequest() },
+        { iq, name -> sendRequest(iq, name) },
+        logger
+    )
+
+    /**
+     * Creates and sends a request to allocate a new endpoint. The response (or null on timeout) is passed to
+     * [responseHandler] asynchronously.
+     */
+    internal fun sendAllocationRequest(participant: ParticipantInfo, responseHandler: (IQ?) -> Unit) {
         val request = createRequest(!created)
         val endpoint = participant.toEndpoint(create = true, expire = false).apply {
             if (participant.audioMuted || participant.videoMuted) {
@@ -112,7 +123,7 @@ class Colibri2Session(
 
         logger.trace { "Sending allocation request for ${participant.id}: ${request.build().toXML()}" }
         created = true
-        return xmppConnection.createStanzaCollectorAndSend(request.build())
+        coalescer.flushThen { xmppConnection.sendIqAndHandleResponseAsync(request.build(), responseHandler) }
     }
 
     /** Updates the transport info and/or sources for an existing endpoint. */
@@ -129,45 +140,22 @@ class Colibri2Session(
             return
         }
 
-        val request = createRequest()
-        val endpoint = Colibri2Endpoint.getBuilder().apply {
-            setId(participant.id)
-            setStatsId(participant.statsId)
-        }
-
-        if (transport != null) {
-            endpoint.setTransport(Transport.getBuilder().setIceUdpExtension(transport).build())
-        }
-
-        if (sources != null) {
-            endpoint.setSources(sources.toColibriMediaSources(participant.id))
-        }
-
-        initialLastN?.let {
-            endpoint.setInitialLastN(it)
-        }
-
-        request.addEndpoint(endpoint.build())
-        sendRequest(request.build(), "updateParticipant")
+        coalescer.updateEndpoint(
+            participant.id,
+            participant.statsId,
+            transport,
+            sources?.toColibriMediaSources(participant.id),
+            initialLastN
+        )
     }
 
-    internal fun updateForceMute(participants: Set<ParticipantInfo>) {
-        val request = createRequest()
-        participants.forEach { participant ->
-            request.addEndpoint(
-                Colibri2Endpoint.getBuilder().apply {
-                    setId(participant.id)
-                    setForceMute(participant.audioMuted, participant.videoMuted)
-                }.build()
-            )
-        }
-
-        sendRequest(request.build(), "updateForceMute")
-    }
+    internal fun updateForceMute(participants: Set<ParticipantInfo>) = coalescer.updateForceMute(participants)
 
     /** Expire the entire conference. */
     internal fun expire() {
         relays.clear()
+        // Pending updates are irrelevant once the conference is expired.
+        coalescer.clear()
         val request = createRequest().setExpire(true)
         sendRequest(request.build(), "expire")
     }
@@ -181,11 +169,8 @@ class Colibri2Session(
             logger.debug { "No participants to expire." }
             return
         }
-        val request = createRequest()
-        participantsToExpire.forEach { request.addExpire(it.id) }
-
         logger.debug { "Expiring endpoint: ${participantsToExpire.map { it.id }}" }
-        sendRequest(request.build(), "expire(participantsToExpire)")
+        coalescer.expireEndpoints(participantsToExpire.map { it.id })
     }
 
     private fun createRequest(create: Boolean = false) = ConferenceModifyIQ.builder(xmppConnection).apply {
@@ -272,19 +257,9 @@ class Colibri2Session(
             return
         }
         logger.info("Expiring relays: $relayIds")
-        val request = createRequest()
-        relayIds.forEach {
-            request.addRelay(
-                Colibri2Relay.getBuilder().apply {
-                    setId(it)
-                    setExpire(true)
-                }.build()
-            )
-        }
-
         relayIds.forEach { relays.remove(it) }
 
-        sendRequest(request.build(), "expireRelays")
+        coalescer.expireRelays(relayIds)
     }
 
     /**
@@ -369,33 +344,37 @@ class Colibri2Session(
             val request = buildCreateRelayRequest(initialParticipants)
             logger.trace { "Sending create relay: ${request.toXML()}" }
 
-            xmppConnection.sendIqAndHandleResponseAsync(request) { response ->
-                // Wait for a response to the relay allocation request. When a response is received, parse the contained
-                // transport and forward it to the associated [Relay] for the remote side via [colibriSessionManager]
-                logger.trace { "Received response: ${response?.toXML()}" }
-                if (response !is ConferenceModifiedIQ) {
-                    logger.error("Received error: ${response?.toXML() ?: "timeout"}")
-                    colibriSessionManager.sessionFailed(this@Colibri2Session)
-                    return@sendIqAndHandleResponseAsync
-                }
+            coalescer.flushThen {
+                xmppConnection.sendIqAndHandleResponseAsync(request) { handleCreateRelayResponse(it) }
+            }
+        }
 
-                // TODO: We just assume that the response has a single [Colibri2Relay].
-                val transport = response.relays.firstOrNull()?.transport
-                    ?: run {
-                        logger.error("No transport in response: ${response.toXML()}")
-                        colibriSessionManager.sessionFailed(this@Colibri2Session)
-                        return@sendIqAndHandleResponseAsync
-                    }
-                val iceUdpTransport = transport.iceUdpTransport
-                if (iceUdpTransport == null) {
-                    logger.error("Response has no iceUdpTransport")
+        private fun handleCreateRelayResponse(response: IQ?) {
+            // Wait for a response to the relay allocation request. When a response is received, parse the contained
+            // transport and forward it to the associated [Relay] for the remote side via [colibriSessionManager]
+            logger.trace { "Received response: ${response?.toXML()}" }
+            if (response !is ConferenceModifiedIQ) {
+                logger.error("Received error: ${response?.toXML() ?: "timeout"}")
+                colibriSessionManager.sessionFailed(this@Colibri2Session)
+                return
+            }
+
+            // TODO: We just assume that the response has a single [Colibri2Relay].
+            val transport = response.relays.firstOrNull()?.transport
+                ?: run {
+                    logger.error("No transport in response: ${response.toXML()}")
                     colibriSessionManager.sessionFailed(this@Colibri2Session)
-                    return@sendIqAndHandleResponseAsync
+                    return
                 }
-
-                // Forward the response to the corresponding [Colibri2Session]
-                colibriSessionManager.setRelayTransport(this@Colibri2Session, iceUdpTransport, relayId)
+            val iceUdpTransport = transport.iceUdpTransport
+            if (iceUdpTransport == null) {
+                logger.error("Response has no iceUdpTransport")
+                colibriSessionManager.sessionFailed(this@Colibri2Session)
+                return
             }
+
+            // Forward the response to the corresponding [Colibri2Session]
+            colibriSessionManager.setRelayTransport(this@Colibri2Session, iceUdpTransport, relayId)
         }
 
         /** Sends a colibri2 message setting/updating the remote-side transport of this relay. */
@@ -426,15 +405,7 @@ class Colibri2Session(
                 }
             }
 
-            val request = createRequest()
-            val relay = Colibri2Relay.getBuilder().apply {
-                setId(relayId)
-                setCreate(false)
-            }
-            relay.setTransport(Transport.getBuilder().apply { setIceUdpExtension(transport) }.build())
-            request.addRelay(relay.build())
-
-            sendRequest(request.build(), "Relay.setTransport")
+            coalescer.setRelayTransport(relayId, transport)
         }
 
         fun toJson() = OrderedJsonObject().apply {
@@ -448,37 +419,15 @@ class Colibri2Session(
         }
 
         /** Update or create a relay endpoint for a specific participant. */
-        fun updateParticipant(participant: ParticipantInfo, create: Boolean) {
-            val request = createRequest()
-            val relay = Colibri2Relay.getBuilder().apply {
-                setId(relayId)
-            }
-            val endpoints = Endpoints.getBuilder()
-            endpoints.addEndpoint(participant.toEndpoint(create = create, expire = false).build())
-            relay.setEndpoints(endpoints.build())
-            request.addRelay(relay.build())
-            sendRequest(request.build(), "Relay.updateParticipant")
-        }
+        fun updateParticipant(participant: ParticipantInfo, create: Boolean) =
+            coalescer.updateRelayEndpoint(relayId, participant, create)
 
         /** Expire relay endpoints for a set of participants. */
         fun expireParticipants(participants: List<ParticipantInfo>) {
             if (participants.all { it.visitor }) {
                 return
             }
-            val request = createRequest()
-            val relay = Colibri2Relay.getBuilder().apply { setId(relayId) }
-            val endpoints = Endpoints.getBuilder()
-
-            participants.forEach {
-                if (!it.visitor) {
-                    endpoints.addEndpoint(it.toEndpoint(create = false, expire = true).build())
-                }
-            }
-
-            relay.setEndpoints(endpoints.build())
-            request.addRelay(relay.build())
-
-            sendRequest(request.build(), "Relay.expireParticipants")
+            coalescer.expireRelayEndpoints(relayId, participants.filter { !it.visitor })
         }
 
         /** Create a request to create a relay (this is just the initial request). */
@@ -535,10 +484,3 @@ class Colibri2Session(
         }
     }
 }
-
-private fun ConferenceModifyIQ.Builder.addExpire(endpointId: String) = addEndpoint(
-    Colibri2Endpoint.getBuilder().apply {
-        setId(endpointId)
-        setExpire(true)
-    }.build()
-)
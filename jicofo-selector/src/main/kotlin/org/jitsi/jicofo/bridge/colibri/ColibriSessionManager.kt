@@ -24,6 +24,8 @@ import org.jitsi.utils.OrderedJsonObject
 import org.jitsi.xmpp.extensions.colibri2.InitialLastN
 import org.jitsi.xmpp.extensions.colibri2.Media
 import org.jitsi.xmpp.extensions.jingle.IceUdpTransportPacketExtension
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
 
 interface ColibriSessionManager {
     fun addListener(listener: Listener)
@@ -41,8 +43,23 @@ interface ColibriSessionManager {
     val bridgeCount: Int
     val bridgeRegions: Set<String>
 
+    /**
+     * Allocate an endpoint for [participant]. Blocks until the response from the bridge is received, prefer
+     * [allocateAsync] when possible.
+     */
     @Throws(ColibriAllocationFailedException::class, BridgeSelectionFailedException::class)
-    fun allocate(participant: ParticipantAllocationParameters): ColibriAllocation
+    fun allocate(participant: ParticipantAllocationParameters): ColibriAllocation = try {
+        allocateAsync(participant).get()
+    } catch (e: ExecutionException) {
+        throw e.cause ?: e
+    }
+
+    /**
+     * Allocate an endpoint for [participant] without blocking for the response from the bridge. The returned future
+     * is completed exceptionally with [ColibriAllocationFailedException] or [BridgeSelectionFailedException] on
+     * failure.
+     */
+    fun allocateAsync(participant: ParticipantAllocationParameters): CompletableFuture<ColibriAllocation>
 
     fun updateParticipant(
         participantId: String,
@@ -60,6 +77,9 @@ interface ColibriSessionManager {
      */
     fun removeBridge(bridge: Bridge): List<String>
 
+    /** The number of participants using [bridge]. */
+    fun getParticipantCount(bridge: Bridge): Int
+
     val debugState: OrderedJsonObject
 
     /**
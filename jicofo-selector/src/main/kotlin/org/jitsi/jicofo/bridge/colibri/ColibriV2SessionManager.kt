@@ -25,6 +25,7 @@ import org.jitsi.jicofo.bridge.Bridge
 import org.jitsi.jicofo.bridge.BridgeConfig
 import org.jitsi.jicofo.bridge.BridgeSelector
 import org.jitsi.jicofo.bridge.Cascade
+import org.jitsi.jicofo.bridge.CascadePathCache
 import org.jitsi.jicofo.bridge.CascadeRepair
 import org.jitsi.jicofo.bridge.ConferenceBridgeProperties
 import org.jitsi.jicofo.bridge.ParticipantProperties
@@ -43,7 +44,6 @@ import org.jitsi.xmpp.extensions.colibri2.ConferenceModifiedIQ
 import org.jitsi.xmpp.extensions.colibri2.InitialLastN
 import org.jitsi.xmpp.extensions.jingle.IceUdpTransportPacketExtension
 import org.jivesoftware.smack.AbstractXMPPConnection
-import org.jivesoftware.smack.StanzaCollector
 import org.jivesoftware.smack.packet.ErrorIQ
 import org.jivesoftware.smack.packet.IQ
 import org.jivesoftware.smack.packet.StanzaError.Condition.bad_request
@@ -52,6 +52,9 @@ import org.jivesoftware.smack.packet.StanzaError.Condition.item_not_found
 import org.jivesoftware.smack.packet.StanzaError.Condition.service_unavailable
 import org.json.simple.JSONArray
 import java.util.Collections.singletonList
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
 
 /**
  * Implements [ColibriSessionManager] using colibri2.
@@ -68,7 +71,12 @@ class ColibriV2SessionManager(
     internal val meetingId: String,
     internal val rtcStatsEnabled: Boolean,
     private val bridgeVersion: String?,
-    parentLogger: Logger
+    parentLogger: Logger,
+    /**
+     * The conference's handler for bridge events. If set, it is registered with [bridgeSelector] for events about
+     * the bridges in use (or, while there are none, about bridges being added) as sessions are added and removed.
+     */
+    private val bridgeEventHandler: BridgeSelector.EventHandler? = null
 ) : ColibriSessionManager, Cascade<Colibri2Session, Colibri2Session.Relay> {
     private val logger = createChildLogger(parentLogger)
 
@@ -85,6 +93,12 @@ class ColibriV2SessionManager(
      */
     override val sessions = mutableMapOf<String?, Colibri2Session>()
 
+    /**
+     * The paths between [sessions], used for relay fan-out and topology selection without traversing the cascade on
+     * every allocation.
+     */
+    override val pathCache = CascadePathCache<Colibri2Session, Colibri2Session.Relay>()
+
     /**
      * The set of participants that have associated colibri2 endpoints allocated, mapped by their ID. A participant is
      * represented by a [ParticipantInfo] instance. Needs to be kept in sync with [participantsBySession].
@@ -98,25 +112,46 @@ class ColibriV2SessionManager(
     private val participantsBySession = mutableMapOf<Colibri2Session, MutableList<ParticipantInfo>>()
 
     /**
-     * Protects access to [sessions], [participants] and [participantsBySession].
+     * Protects access to [sessions], [participants] and [participantsBySession]. This is held while sending stanzas,
+     * so it is a [ReentrantLock] rather than a monitor in order to not pin the carrier when running on a virtual
+     * thread.
      */
-    private val syncRoot = Any()
+    private val syncRoot = ReentrantLock()
+
+    init {
+        bridgeEventHandler?.let { bridgeSelector.addBridgeWaiter(it) }
+    }
+
+    private fun sessionAdded(session: Colibri2Session) = bridgeEventHandler?.let {
+        bridgeSelector.addConferenceBridge(session.bridge, it)
+        bridgeSelector.removeBridgeWaiter(it)
+    }
+
+    private fun sessionRemoved(session: Colibri2Session) = bridgeEventHandler?.let {
+        bridgeSelector.removeConferenceBridge(session.bridge, it)
+        if (sessions.isEmpty()) {
+            bridgeSelector.addBridgeWaiter(it)
+        }
+    }
 
     /**
      * Expire everything.
      */
-    override fun expire() = synchronized(syncRoot) {
+    override fun expire() = syncRoot.withLock {
         logger.info("Expiring.")
-        sessions.values.forEach { session ->
+        val expired = sessions.values.toList()
+        expired.forEach { session ->
             logger.debug { "Expiring $session" }
             session.expire()
         }
         sessions.clear()
+        pathCache.invalidate()
+        expired.forEach { sessionRemoved(it) }
         eventEmitter.fireEvent { bridgeCountChanged(0) }
         clear()
     }
 
-    override fun removeParticipant(participantId: String) = synchronized(syncRoot) {
+    override fun removeParticipant(participantId: String) = syncRoot.withLock {
         logger.debug { "Asked to remove $participantId" }
 
         participants[participantId]?.let {
@@ -134,6 +169,7 @@ class ColibriV2SessionManager(
         session.expire()
         removeNode(session, ::repairMesh)
         sessions.remove(session.relayId)
+        sessionRemoved(session)
         participantsBySession.remove(session)
         participants.forEach { remove(it) }
         session.relayId?.let { removedRelayId ->
@@ -182,7 +218,7 @@ class ColibriV2SessionManager(
     }
 
     override fun mute(participantIds: Set<String>, doMute: Boolean, mediaType: MediaType): Boolean {
-        synchronized(syncRoot) {
+        syncRoot.withLock {
             val participantsToMuteBySession = mutableMapOf<Colibri2Session, MutableSet<ParticipantInfo>>()
 
             participantIds.forEach {
@@ -221,16 +257,16 @@ class ColibriV2SessionManager(
     }
 
     override val bridgeCount: Int
-        get() = synchronized(syncRoot) { sessions.size }
+        get() = syncRoot.withLock { sessions.size }
     override val bridgeRegions: Set<String>
-        get() = synchronized(syncRoot) { sessions.values.mapNotNull { it.bridge.region }.toSet() }
+        get() = syncRoot.withLock { sessions.values.mapNotNull { it.bridge.region }.toSet() }
 
     /**
      * Get the [Colibri2Session] for a specific [Bridge]. If one doesn't exist, create it. Returns the session and
      * a boolean indicating whether the session was just created (true) or existed (false).
      */
     private fun getOrCreateSession(bridge: Bridge, visitor: Boolean):
-        Pair<Colibri2Session, Boolean> = synchronized(syncRoot) {
+        Pair<Colibri2Session, Boolean> = syncRoot.withLock {
         var session = sessions[bridge.relayId]
         if (session != null) {
             return Pair(session, false)
@@ -241,7 +277,7 @@ class ColibriV2SessionManager(
     }
 
     /** Get the bridge-to-bridge-properties map needed for bridge selection. */
-    private fun getBridges(): Map<Bridge, ConferenceBridgeProperties> = synchronized(syncRoot) {
+    private fun getBridges(): Map<Bridge, ConferenceBridgeProperties> = syncRoot.withLock {
         return participantsBySession.entries
             .filter { it.key.bridge.isOperational }
             .associate {
@@ -271,99 +307,140 @@ class ColibriV2SessionManager(
         }
     }
 
-    @Throws(ColibriAllocationFailedException::class, BridgeSelectionFailedException::class)
-    override fun allocate(participant: ParticipantAllocationParameters): ColibriAllocation {
+    override fun allocateAsync(participant: ParticipantAllocationParameters): CompletableFuture<ColibriAllocation> {
         logger.info("Allocating for ${participant.id}")
-        val stanzaCollector: StanzaCollector
+        val future = CompletableFuture<ColibriAllocation>()
+        val created = try {
+            sendAllocationRequest(participant, future)
+        } catch (e: Exception) {
+            return CompletableFuture.failedFuture(e)
+        }
+
+        if (created) {
+            eventEmitter.fireEvent { bridgeCountChanged(sessions.size) }
+        }
+        return future
+    }
+
+    /**
+     * Select a bridge and send an allocation request for [participant], updating the local state (and any relays)
+     * accordingly. [future] is completed when the response is received. Returns true if a new session was created.
+     */
+    @Throws(BridgeSelectionFailedException::class)
+    private fun sendAllocationRequest(
+        participant: ParticipantAllocationParameters,
+        future: CompletableFuture<ColibriAllocation>
+    ): Boolean {
         val session: Colibri2Session
         val created: Boolean
         val participantInfo: ParticipantInfo
-        synchronized(syncRoot) {
-            if (participants.containsKey(participant.id)) {
-                throw IllegalStateException("participant already exists")
-            }
+        // The response may be delivered before the local state is updated below, even on this thread (the handler
+        // runs in the IO pool, which may run tasks in place, and [syncRoot] is reentrant). So it is only handled once
+        // we're done here.
+        val stateUpdated = CompletableFuture<Unit>()
+        try {
+            syncRoot.withLock {
+                if (participants.containsKey(participant.id)) {
+                    throw IllegalStateException("participant already exists")
+                }
 
-            if (bridgeVersion != null) {
-                logger.info("Selecting bridge. Conference is pinned to version \"$bridgeVersion\"")
-            }
+                if (bridgeVersion != null) {
+                    logger.info("Selecting bridge. Conference is pinned to version \"$bridgeVersion\"")
+                }
 
-            val visitor = participant.visitor
-
-            // The requests for each session need to be sent in order, but we don't want to hold the lock while
-            // waiting for a response. I am not sure if processing responses is guaranteed to be in the order in which
-            // the requests were sent.
-            val bridge = bridgeSelector.selectBridge(
-                getBridges(),
-                ParticipantProperties(participant.region, visitor),
-                bridgeVersion
-            ) ?: run {
-                eventEmitter.fireEvent { bridgeSelectionFailed() }
-                throw BridgeSelectionFailedException()
-            }
-            eventEmitter.fireEvent { bridgeSelectionSucceeded() }
-            if (sessions.isNotEmpty() && sessions.none { it.value.bridge == bridge }) {
-                // There is an existing session, and this is a new bridge.
-                if (!OctoConfig.config.enabled) {
-                    logger.error("A new bridge was selected, but Octo is disabled")
-                    // This is a bridge selection failure, because the selector should not have returned a different
-                    // bridge when Octo is not enabled.
-                    throw BridgeSelectionFailedException()
-                } else if (sessions.any { it.value.relayId == null } || bridge.relayId == null) {
-                    logger.error("Can not enable Octo: one of the selected bridges does not support Octo.")
-                    // This is a bridge selection failure, because the selector should not have returned a different
-                    // bridge when one of the bridges doesn't support Octo (does not have a relay ID).
+                val visitor = participant.visitor
+
+                // The requests for each session need to be sent in order, but we don't want to hold the lock while
+                // waiting for a response. I am not sure if processing responses is guaranteed to be in the order in
+                // which the requests were sent.
+                val bridge = bridgeSelector.selectBridge(
+                    getBridges(),
+                    ParticipantProperties(participant.region, visitor),
+                    bridgeVersion
+                ) ?: run {
+                    eventEmitter.fireEvent { bridgeSelectionFailed() }
                     throw BridgeSelectionFailedException()
                 }
-            }
-            getOrCreateSession(bridge, visitor).let {
-                session = it.first
-                created = it.second
-            }
-            logger.info("Selected ${bridge.jid.resourceOrNull}, session exists: ${!created}")
-            if (visitor != session.visitor) {
-                // Can happen if we're out of bridges for the specific class
-                logger.warn(
-                    "Session $session with visitor=${session.visitor} chosen for participant with visitor=$visitor"
-                )
-            }
-            participantInfo = ParticipantInfo(participant, session)
-            stanzaCollector = session.sendAllocationRequest(participantInfo)
-            add(participantInfo)
-            if (created) {
-                val topologySelectionResult = topologySelectionStrategy.connectNode(
-                    this,
-                    session
-                )
-                addNodeToMesh(session, topologySelectionResult.meshId, topologySelectionResult.existingNode)
-            } else {
-                if (!participantInfo.visitor) {
-                    getPathsFrom(session) { _, otherSession, from ->
-                        if (from != null) {
-                            logger.debug {
-                                "Adding a relayed endpoint to $otherSession for ${participantInfo.id} " +
-                                    "from ${from.relayId}."
+                eventEmitter.fireEvent { bridgeSelectionSucceeded() }
+                if (sessions.isNotEmpty() && sessions.none { it.value.bridge == bridge }) {
+                    // There is an existing session, and this is a new bridge.
+                    if (!OctoConfig.config.enabled) {
+                        logger.error("A new bridge was selected, but Octo is disabled")
+                        // This is a bridge selection failure, because the selector should not have returned a different
+                        // bridge when Octo is not enabled.
+                        throw BridgeSelectionFailedException()
+                    } else if (sessions.any { it.value.relayId == null } || bridge.relayId == null) {
+                        logger.error("Can not enable Octo: one of the selected bridges does not support Octo.")
+                        // This is a bridge selection failure, because the selector should not have returned a different
+                        // bridge when one of the bridges doesn't support Octo (does not have a relay ID).
+                        throw BridgeSelectionFailedException()
+                    }
+                }
+                getOrCreateSession(bridge, visitor).let {
+                    session = it.first
+                    created = it.second
+                }
+                logger.info("Selected ${bridge.jid.resourceOrNull}, session exists: ${!created}")
+                if (visitor != session.visitor) {
+                    // Can happen if we're out of bridges for the specific class
+                    logger.warn(
+                        "Session $session with visitor=${session.visitor} chosen for participant with visitor=$visitor"
+                    )
+                }
+                participantInfo = ParticipantInfo(participant, session)
+                session.sendAllocationRequest(participantInfo) { response ->
+                    stateUpdated.thenRun {
+                        // Complete outside the lock, so that dependent stages don't run while holding it.
+                        try {
+                            future.complete(handleAllocationResponse(response, session, created, participantInfo))
+                        } catch (e: Exception) {
+                            future.completeExceptionally(e)
+                        }
+                    }
+                }
+                add(participantInfo)
+                if (created) {
+                    val topologySelectionResult = topologySelectionStrategy.connectNode(
+                        this,
+                        session
+                    )
+                    addNodeToMesh(session, topologySelectionResult.meshId, topologySelectionResult.existingNode)
+                    sessionAdded(session)
+                } else {
+                    if (!participantInfo.visitor) {
+                        getPathsFrom(session) { _, otherSession, from ->
+                            if (from != null) {
+                                logger.debug {
+                                    "Adding a relayed endpoint to $otherSession for ${participantInfo.id} " +
+                                        "from ${from.relayId}."
+                                }
+                                // We already made sure that relayId is not null when there are multiple sessions.
+                                otherSession.updateRemoteParticipant(participantInfo, from.relayId!!, create = true)
                             }
-                            // We already made sure that relayId is not null when there are multiple sessions.
-                            otherSession.updateRemoteParticipant(participantInfo, from.relayId!!, create = true)
                         }
                     }
                 }
             }
-        }
-
-        if (created) {
-            eventEmitter.fireEvent { bridgeCountChanged(sessions.size) }
-        }
-
-        val response: IQ?
-        try {
-            response = stanzaCollector.nextResult()
-            logger.trace { "Received response: ${response?.toXML()}" }
         } finally {
-            stanzaCollector.cancel()
+            stateUpdated.complete(Unit)
         }
 
-        synchronized(syncRoot) {
+        return created
+    }
+
+    /**
+     * Handle the response to an allocation request, returning the resulting [ColibriAllocation] or throwing
+     * [ColibriAllocationFailedException] and updating the local state on failure.
+     */
+    @Throws(ColibriAllocationFailedException::class)
+    private fun handleAllocationResponse(
+        response: IQ?,
+        session: Colibri2Session,
+        created: Boolean,
+        participantInfo: ParticipantInfo
+    ): ColibriAllocation {
+        logger.trace { "Received response: ${response?.toXML()}" }
+        syncRoot.withLock {
             // We may have already removed the session and/or participant, for example due to a previous failure. In
             // that case we shouldn't act on this error (hence removeBridge=false).
             if (!sessions.containsValue(session)) {
@@ -519,7 +596,7 @@ class ColibriV2SessionManager(
         )
     }
 
-    internal fun sessionFailed(session: Colibri2Session) = synchronized(syncRoot) {
+    internal fun sessionFailed(session: Colibri2Session) = syncRoot.withLock {
         // Make sure the same instance is still in use. Especially with long timeouts (15s) it's possible that it's
         // already been removed
         if (sessions.values.contains(session)) {
@@ -544,7 +621,7 @@ class ColibriV2SessionManager(
         sources: EndpointSourceSet?,
         initialLastN: InitialLastN?,
         suppressLocalBridgeUpdate: Boolean
-    ) = synchronized(syncRoot) {
+    ) = syncRoot.withLock {
         logger.info("Updating $participantId with transport=$transport, sources=$sources")
 
         val participantInfo = participants[participantId]
@@ -570,11 +647,11 @@ class ColibriV2SessionManager(
         }
     }
 
-    override fun getBridgeSessionId(participantId: String): String? = synchronized(syncRoot) {
+    override fun getBridgeSessionId(participantId: String): String? = syncRoot.withLock {
         return participants[participantId]?.session?.id
     }
 
-    override fun removeBridge(bridge: Bridge): List<String> = synchronized(syncRoot) {
+    override fun removeBridge(bridge: Bridge): List<String> = syncRoot.withLock {
         val sessionToRemove = sessions.values.find { it.bridge.jid == bridge.jid } ?: return emptyList()
         logger.info("Removing bridges: $bridge")
         val participantsToRemove = getSessionParticipants(sessionToRemove)
@@ -585,9 +662,13 @@ class ColibriV2SessionManager(
         participantsToRemove.map { it.id }
     }
 
+    override fun getParticipantCount(bridge: Bridge): Int = syncRoot.withLock {
+        sessions.values.find { it.bridge.jid == bridge.jid }?.let { getSessionParticipants(it).size } ?: 0
+    }
+
     override val debugState
         get() = OrderedJsonObject().apply {
-            synchronized(syncRoot) {
+            syncRoot.withLock {
                 val participantsJson = OrderedJsonObject()
                 participants.values.forEach { participantsJson[it.id] = it.toJson() }
                 put("participants", participantsJson)
@@ -618,7 +699,7 @@ class ColibriV2SessionManager(
     ) {
         logger.info("Received transport from $session for relay $relayId")
         logger.debug { "Received transport from $session for relay $relayId: ${transport.toXML()}" }
-        synchronized(syncRoot) {
+        syncRoot.withLock {
             // It's possible a new session was started for the same bridge.
             if (!sessions.containsKey(session.bridge.relayId) || sessions[session.bridge.relayId] != session) {
                 logger.info("Received a response for a session that is no longer active. Ignoring.")
@@ -631,6 +712,7 @@ class ColibriV2SessionManager(
     }
 
     private fun clear() {
+        participants.values.forEach { it.session.bridge.endpointRemoved() }
         participants.clear()
         participantsBySession.clear()
     }
@@ -645,12 +727,18 @@ class ColibriV2SessionManager(
         participantsBySession[session]?.filter { !it.visitor }?.toList() ?: emptyList()
 
     private fun remove(participantInfo: ParticipantInfo) {
-        participants.remove(participantInfo.id)
+        if (participants.remove(participantInfo.id) != null) {
+            participantInfo.session.bridge.endpointRemoved()
+        }
         participantsBySession[participantInfo.session]?.remove(participantInfo)
     }
 
     private fun add(participantInfo: ParticipantInfo) {
-        participants[participantInfo.id] = participantInfo
+        // The bridge counts the endpoint here rather than when it is selected, so that each count has a matching
+        // [remove], even if the allocation fails early.
+        if (participants.put(participantInfo.id, participantInfo) == null) {
+            participantInfo.session.bridge.endpointAdded()
+        }
         participantsBySession.computeIfAbsent(participantInfo.session) { mutableListOf() }.add(participantInfo)
     }
 }
@@ -30,6 +30,7 @@ import org.jitsi.xmpp.extensions.colibri2.Sources
 import org.jitsi.xmpp.extensions.colibri2.Transport
 import org.jitsi.xmpp.extensions.jingle.IceUdpTransportPacketExtension
 import org.jivesoftware.smack.AbstractXMPPConnection
+import org.jivesoftware.smack.XMPPException
 import org.jivesoftware.smack.packet.IQ
 
 /** Read the [IceUdpTransportPacketExtension] for an endpoint with ID [endpointId] (or null if missing). */
@@ -120,15 +121,19 @@ internal fun ParticipantInfo.toEndpoint(
     }
 }
 
+/**
+ * Send [iq] and call [block] in the IO pool with the response, which may be an error response. [block] is called with
+ * null if there was no response within the reply timeout, or if the request failed otherwise. No thread is held while
+ * waiting for the response.
+ */
 internal fun AbstractXMPPConnection.sendIqAndHandleResponseAsync(iq: IQ, block: (IQ?) -> Unit) {
-    val stanzaCollector = createStanzaCollectorAndSend(iq)
-    TaskPools.ioPool.submit {
-        try {
-            block(stanzaCollector.nextResult())
-        } finally {
-            stanzaCollector.cancel()
+    sendIqRequestAsync(iq)
+        .onSuccess { response -> TaskPools.ioPool.execute { block(response) } }
+        .onError { e ->
+            // Smack fails the future for error responses, which the callers handle like other responses.
+            val response = (e as? XMPPException.XMPPErrorException)?.stanza as? IQ
+            TaskPools.ioPool.execute { block(response) }
         }
-    }
 }
 
 /**
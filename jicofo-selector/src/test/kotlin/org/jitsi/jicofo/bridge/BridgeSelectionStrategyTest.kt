@@ -20,7 +20,9 @@ package org.jitsi.jicofo.bridge
 import io.kotest.core.spec.style.ShouldSpec
 import io.kotest.matchers.shouldBe
 import org.jitsi.config.withNewConfig
+import org.json.simple.JSONArray
 import org.jxmpp.jid.impl.JidCreate
+import java.time.Instant
 
 class BridgeSelectionStrategyTest : ShouldSpec() {
     init {
@@ -158,6 +160,77 @@ class BridgeSelectionStrategyTest : ShouldSpec() {
             // conference bridge.
             strategy.select(allBridges, conferenceBridges, propsInvalid, true) shouldBe mediumStressBridge2
         }
+        context("Selection reasons") {
+            val strategy = RegionBasedBridgeSelectionStrategy()
+            val bridge1 = createBridge("region1", 0.1)
+            val bridge2 = createBridge("region2", 0.1)
+            val conferenceBridges = mutableMapOf<Bridge, ConferenceBridgeProperties>()
+
+            strategy.select(listOf(bridge1, bridge2), conferenceBridges, ParticipantProperties("region1"), true)
+            strategy.select(emptyList(), conferenceBridges, ParticipantProperties("region1"), true) shouldBe null
+            conferenceBridges[bridge1] = ConferenceBridgeProperties(1)
+            strategy.select(listOf(bridge1, bridge2), conferenceBridges, ParticipantProperties("region1"), false)
+
+            strategy.stats[SelectionReason.NotLoadedInRegion.statName] shouldBe 1L
+            strategy.stats[SelectionReason.NoBridge.statName] shouldBe 1L
+            strategy.stats[SelectionReason.ExistingBridgeWithoutRelay.statName] shouldBe 1L
+            strategy.stats[SelectionReason.LeastLoaded.statName] shouldBe 0L
+        }
+        context("Selection trace") {
+            val bridge = createBridge("region1", 0.1)
+            val decision = SelectionDecision(
+                Instant.now(),
+                "strategy",
+                SelectionReason.LeastLoaded,
+                bridge,
+                0.1,
+                null,
+                ParticipantProperties("region1"),
+                0
+            )
+            should("keep the most recent decisions") {
+                val trace = SelectionTrace(3, 1.0)
+                val reasons = listOf(
+                    SelectionReason.NotLoadedInRegion,
+                    SelectionReason.NotLoadedInRegionGroup,
+                    SelectionReason.LeastLoadedInRegion,
+                    SelectionReason.LeastLoaded,
+                    SelectionReason.NoBridge
+                )
+                val decisions = reasons.mapIndexed { i, reason ->
+                    SelectionDecision(
+                        Instant.ofEpochSecond(i.toLong()),
+                        "strategy",
+                        reason,
+                        if (reason == SelectionReason.NoBridge) null else bridge,
+                        0.1,
+                        null,
+                        ParticipantProperties("region1"),
+                        i
+                    )
+                }
+                decisions.forEach { trace.record(it) }
+
+                // The newest 3, oldest first.
+                trace.getDecisions() shouldBe decisions.takeLast(3)
+                trace.getDecisions().map { it.reason } shouldBe listOf(
+                    SelectionReason.LeastLoadedInRegion,
+                    SelectionReason.LeastLoaded,
+                    SelectionReason.NoBridge
+                )
+                trace.debugState["recorded"] shouldBe 5L
+                val json = (trace.debugState["decisions"] as JSONArray).map { it as Map<*, *> }
+                json.map { it["reason"] } shouldBe listOf("LeastLoadedInRegion", "LeastLoaded", "NoBridge")
+                json.map { it["conference_bridge_count"] } shouldBe listOf(2, 3, 4)
+            }
+            should("not record decisions when disabled") {
+                val trace = SelectionTrace(0, 1.0)
+                trace.enabled shouldBe false
+                trace.shouldSample() shouldBe false
+                trace.record(decision)
+                trace.getDecisions() shouldBe emptyList()
+            }
+        }
     }
 }
 
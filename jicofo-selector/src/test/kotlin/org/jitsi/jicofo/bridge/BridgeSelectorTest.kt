@@ -25,9 +25,11 @@ import io.kotest.matchers.shouldNotBe
 import org.jitsi.config.withNewConfig
 import org.jitsi.jicofo.util.context
 import org.jitsi.metaconfig.MetaconfigSettings
-import org.jitsi.utils.ms
 import org.jitsi.utils.time.FakeClock
+import org.jitsi.xmpp.extensions.colibri.ColibriStatsExtension
 import org.jxmpp.jid.impl.JidCreate
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
 
 class BridgeSelectorTest : ShouldSpec() {
     override fun isolationMode() = IsolationMode.InstancePerLeaf
@@ -43,8 +45,11 @@ class BridgeSelectorTest : ShouldSpec() {
             val bridgeSelector = BridgeSelector(clock)
             val bridge = bridgeSelector.addJvbAddress(jid1).apply { setStats() }
             bridge.stress shouldBe 0
-            bridgeSelector.selectBridge()
-            // The stress should increase because it was recently selected.
+            // Selecting the bridge does not count an endpoint, the allocation may still fail.
+            bridgeSelector.selectBridge() shouldBe bridge
+            bridge.stress shouldBe 0
+            bridge.endpointAdded()
+            // The stress should increase because an endpoint was recently added.
             bridge.stress shouldNotBe 0
         }
 
@@ -107,10 +112,42 @@ class BridgeSelectorTest : ShouldSpec() {
             jvb1.setStats(stress = .01)
             jvb2.setStats(stress = 0.0)
             jvb3.setStats(stress = .01)
-            // Reset recently added endpoints (100ms needed because of the bucket size).
-            clock.elapse(BridgeConfig.config.participantRampupInterval + 100.ms)
             bridgeSelector.selectBridge() shouldBe jvb2
         }
+        context("Changes in bridge state") {
+            val bridgeSelector = BridgeSelector(clock)
+            val jvb1 = bridgeSelector.addJvbAddress(jid1).apply { setStats(stress = 0.1) }
+            val jvb2 = bridgeSelector.addJvbAddress(jid2).apply { setStats(stress = 0.2) }
+            bridgeSelector.selectBridge() shouldBe jvb1
+
+            should("Prefer bridges which are not draining") {
+                jvb1.setStats(stress = 0.1, drain = true)
+                bridgeSelector.selectBridge() shouldBe jvb2
+                jvb1.setStats(stress = 0.1, drain = false)
+                bridgeSelector.selectBridge() shouldBe jvb1
+            }
+            should("Reorder the bridges when their stress changes") {
+                jvb2.setStats(stress = 0.05)
+                bridgeSelector.selectBridge() shouldBe jvb2
+                jvb1.setStats(stress = 0.0)
+                bridgeSelector.selectBridge() shouldBe jvb1
+            }
+            should("Select a bridge again once its failure expires") {
+                jvb1.isOperational = false
+                bridgeSelector.selectBridge() shouldBe jvb2
+                jvb1.isOperational = true
+                bridgeSelector.selectBridge() shouldBe jvb2
+                clock.elapse(BridgeConfig.config.failureResetThreshold)
+                bridgeSelector.selectBridge() shouldBe jvb1
+            }
+            should("Not select a bridge which was removed") {
+                bridgeSelector.removeJvbAddress(jid1)
+                bridgeSelector.selectBridge() shouldBe jvb2
+                // Changes to the removed bridge have no effect.
+                jvb1.setStats(stress = 0.0)
+                bridgeSelector.selectBridge() shouldBe jvb2
+            }
+        }
         context(config = regionBasedConfig, name = "Mixing versions") {
             val bridgeSelector = BridgeSelector(clock)
             val jvb1 = bridgeSelector.addJvbAddress(jid1).apply { setStats(version = "v1", stress = 0.9, region = "r") }
@@ -220,6 +257,35 @@ class BridgeSelectorTest : ShouldSpec() {
             )
             visitorBridge shouldNotBe participantBridge
         }
+        context("Targeted event dispatch") {
+            val selector = BridgeSelector(clock)
+            val jvb1 = selector.addJvbAddress(jid1).apply { setStats() }
+            val jvb2 = selector.addJvbAddress(jid2).apply { setStats() }
+            val conference1 = RecordingEventHandler()
+            val conference2 = RecordingEventHandler()
+            selector.addConferenceBridge(jvb1, conference1)
+            selector.addConferenceBridge(jvb2, conference2)
+            selector.addBridgeWaiter(conference2)
+
+            should("Deliver events about a bridge only to the conferences using it") {
+                selector.removeJvbAddress(jvb1.jid)
+                conference1.nextEvent() shouldBe "removed ${jvb1.jid}"
+                selector.addJvbAddress(jvb2.jid, ColibriStatsExtension().apply { addStat("shutting_down", "true") })
+                conference2.nextEvent() shouldBe "shutting down ${jvb2.jid}"
+
+                conference1.nextEvent() shouldBe null
+            }
+            should("Deliver added bridges only to the waiting conferences") {
+                selector.addJvbAddress(jid3)
+                conference2.nextEvent() shouldBe "added $jid3"
+                conference1.nextEvent() shouldBe null
+            }
+            should("Stop delivering events once removed") {
+                selector.removeConferenceBridge(jvb1, conference1)
+                selector.healthCheckFailed(jvb1.jid)
+                conference1.nextEvent() shouldBe null
+            }
+        }
         context("Lost bridges stats") {
             val selector = BridgeSelector(clock)
             // TODO use MetricsContainer.reset() instead
@@ -286,3 +352,13 @@ private val visitorConfig = """
     jicofo.bridge.visitor-selection-strategy=SingleBridgeSelectionStrategy
     jicofo.bridge.participant-selection-strategy=SingleBridgeSelectionStrategy
 """.trimIndent()
+
+private class RecordingEventHandler : BridgeSelector.EventHandler {
+    private val events = LinkedBlockingQueue<String>()
+    override fun bridgeRemoved(bridge: Bridge) = events.put("removed ${bridge.jid}")
+    override fun bridgeAdded(bridge: Bridge) = events.put("added ${bridge.jid}")
+    override fun bridgeIsShuttingDown(bridge: Bridge) = events.put("shutting down ${bridge.jid}")
+
+    /** The next event delivered to this handler, or null if there is none within a short time. */
+    fun nextEvent(): String? = events.poll(200, TimeUnit.MILLISECONDS)
+}
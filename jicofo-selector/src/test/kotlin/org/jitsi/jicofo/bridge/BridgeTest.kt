@@ -24,6 +24,7 @@ import org.jitsi.utils.time.FakeClock
 import org.jitsi.utils.times
 import org.jitsi.xmpp.extensions.colibri.ColibriStatsExtension
 import org.jxmpp.jid.impl.JidCreate
+import java.time.Duration
 
 class BridgeTest : ShouldSpec({
     context("when comparing two bridges") {
@@ -120,6 +121,42 @@ class BridgeTest : ShouldSpec({
         bridge.stress shouldBe 0.2
         bridge.region shouldBe "region"
     }
+    context("Stats snapshots") {
+        val bridge = Bridge(JidCreate.from("bridge"))
+        bridge.setStats(stress = 0.1, region = "region", version = "1.0", drain = true)
+        val snapshot = bridge.stats
+
+        bridge.setStats(stress = 0.2, region = "region2", drain = false)
+        bridge.isInGracefulShutdown = true
+
+        // A snapshot is not affected by later updates.
+        snapshot shouldBe BridgeStats(
+            stressLevel = 0.1,
+            draining = true,
+            version = "1.0",
+            region = "region",
+            relayId = "region",
+            lastPresenceReceived = snapshot.lastPresenceReceived
+        )
+        bridge.stats.stressLevel shouldBe 0.2
+        bridge.stats.region shouldBe "region2"
+        bridge.stats.version shouldBe "1.0"
+        bridge.stats.draining shouldBe false
+        bridge.stats.inGracefulShutdown shouldBe true
+    }
+    context("Health check RTT") {
+        val rtt = Bridge(JidCreate.from("bridge")).healthCheckRtt
+        listOf(3L, 7L, 40L, 10_000L).forEach { rtt.observe(Duration.ofMillis(it)) }
+
+        val state = rtt.debugState
+        state["le_5"] shouldBe 1L
+        state["le_10"] shouldBe 2L
+        state["le_50"] shouldBe 3L
+        state["le_5000"] shouldBe 3L
+        state["le_inf"] shouldBe 4L
+        state["sum_ms"] shouldBe 10_050L
+        state["last_ms"] shouldBe 10_000L
+    }
 })
 
 fun Bridge.setStats(
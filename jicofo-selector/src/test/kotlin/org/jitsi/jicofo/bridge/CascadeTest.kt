@@ -24,8 +24,11 @@ import io.kotest.core.spec.style.ShouldSpec
 import io.kotest.matchers.collections.shouldContainExactly
 import io.kotest.matchers.collections.shouldContainExactlyInAnyOrder
 import io.kotest.matchers.shouldBe
+import kotlin.random.Random
 
-class TestCascade : Cascade<TestCascadeNode, TestCascadeLink> {
+class TestCascade(
+    override val pathCache: CascadePathCache<TestCascadeNode, TestCascadeLink>? = null
+) : Cascade<TestCascadeNode, TestCascadeLink> {
     override val sessions = HashMap<String?, TestCascadeNode>()
 
     var linksRemoved = 0
@@ -410,5 +413,77 @@ class CascadeTest : ShouldSpec() {
                 cascade.validate()
             }
         }
+
+        context("the path cache") {
+            val random = Random(0)
+            // The same cascade with and without the cache.
+            val cascade = TestCascade()
+            val cached = TestCascade(CascadePathCache())
+            var meshes = 1
+
+            fun node(cascade: TestCascade, id: String) = cascade.sessions.getValue(id)
+            fun shouldMatch() {
+                cached.validate()
+                cascade.sessions.keys.forEach { id ->
+                    val paths = mutableMapOf<String?, String?>()
+                    cascade.getPathsFrom(node(cascade, id!!)) { _, n, from -> paths[n.relayId] = from?.relayId }
+                    val cachedPaths = mutableMapOf<String?, String?>()
+                    cached.getPathsFrom(node(cached, id)) { _, n, from -> cachedPaths[n.relayId] = from?.relayId }
+                    cachedPaths shouldBe paths
+
+                    cascade.sessions.keys.forEach { other ->
+                        cached.getDistanceFrom(node(cached, id)) { it.relayId == other } shouldBe
+                            cascade.getDistanceFrom(node(cascade, id)) { it.relayId == other }
+                    }
+                }
+            }
+            fun add(id: String) {
+                val existing = cascade.sessions.keys.randomOrNull(random)
+                // Either join an existing mesh, or create a new mesh linked to an existing node.
+                val meshId = if (existing == null || random.nextBoolean()) {
+                    cascade.sessions[existing]?.relays?.values?.firstOrNull()?.meshId ?: "0"
+                } else {
+                    (meshes++).toString()
+                }
+                cascade.addNodeToMesh(TestCascadeNode(id), meshId, existing?.let { node(cascade, it) })
+                cached.addNodeToMesh(TestCascadeNode(id), meshId, existing?.let { node(cached, it) })
+            }
+            fun remove(id: String) {
+                // Repair by connecting one node from each of the disconnected meshes in a new mesh.
+                val meshId = (meshes++).toString()
+                val repair = { _: TestCascade, disconnected: Set<Set<TestCascadeNode>> ->
+                    val nodes = disconnected.map { it.minByOrNull { n -> n.relayId }!! }
+                    nodes.flatMapIndexed { i, n ->
+                        nodes.drop(i + 1).map { CascadeRepair<TestCascadeNode, TestCascadeLink>(n, it, meshId) }
+                    }.toSet()
+                }
+                cascade.removeNode(node(cascade, id), repair)
+                cached.removeNode(node(cached, id), repair)
+            }
+
+            should("have the same paths as without the cache") {
+                for (i in 0 until 30) {
+                    add(i.toString())
+                    shouldMatch()
+                }
+                for (i in 0 until 30 step 3) {
+                    remove(i.toString())
+                    shouldMatch()
+                }
+                for (i in 30 until 40) {
+                    add(i.toString())
+                    shouldMatch()
+                }
+            }
+            should("recompute the paths when the cascade is cleared") {
+                for (i in 0 until 10) add(i.toString())
+                shouldMatch()
+                cascade.sessions.clear()
+                cached.sessions.clear()
+                add("a")
+                add("b")
+                shouldMatch()
+            }
+        }
     }
 }
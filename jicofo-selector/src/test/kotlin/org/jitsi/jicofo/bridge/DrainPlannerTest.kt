@@ -0,0 +1,105 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024-Present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.bridge
+
+import io.kotest.core.spec.IsolationMode
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.core.test.TestCase
+import io.kotest.core.test.TestResult
+import io.kotest.matchers.shouldBe
+import io.mockk.every
+import io.mockk.mockk
+import org.jitsi.jicofo.TaskPools
+import org.jitsi.utils.OrderedJsonObject
+import org.jitsi.utils.time.FakeClock
+import org.jxmpp.jid.impl.JidCreate
+import java.time.Duration
+import java.util.concurrent.ExecutorService
+
+class DrainPlannerTest : ShouldSpec() {
+    override fun isolationMode() = IsolationMode.InstancePerLeaf
+
+    override suspend fun beforeAny(testCase: TestCase) = super.beforeAny(testCase).also {
+        TaskPools.ioPool = mockk<ExecutorService> {
+            every { execute(any()) } answers { firstArg<Runnable>().run() }
+        }
+    }
+
+    override suspend fun afterAny(testCase: TestCase, result: TestResult) = super.afterAny(testCase, result).also {
+        TaskPools.resetIoPool()
+    }
+
+    init {
+        val clock = FakeClock()
+        val draining = Bridge(JidCreate.from("draining"), clock).apply { setStats(drain = true) }
+        val active = Bridge(JidCreate.from("active"), clock).apply { setStats() }
+        val bridges = mutableListOf(draining, active)
+        val conferences = mutableMapOf<Bridge, MutableList<TestConference>>()
+        val planner = DrainPlanner({ bridges }, { conferences[it] ?: emptyList() }, Duration.ofSeconds(10), 10)
+
+        fun addConference(bridge: Bridge, participants: Int) = TestConference(bridge, participants).also {
+            conferences.getOrPut(bridge) { mutableListOf() }.add(it)
+        }
+
+        context("Moving conferences") {
+            val large = addConference(draining, 8)
+            val small1 = addConference(draining, 3)
+            val small2 = addConference(draining, 4)
+            val onActive = addConference(active, 1)
+
+            planner.runRound() shouldBe 2
+            small1.moved shouldBe true
+            small2.moved shouldBe true
+            large.moved shouldBe false
+            onActive.moved shouldBe false
+
+            planner.runRound() shouldBe 1
+            large.moved shouldBe true
+            planner.runRound() shouldBe 0
+        }
+        context("A conference larger than a round") {
+            val huge = addConference(draining, 50)
+            planner.runRound() shouldBe 1
+            huge.moved shouldBe true
+        }
+        context("Without another bridge") {
+            bridges.remove(active)
+            val conference = addConference(draining, 1)
+            planner.runRound() shouldBe 0
+            conference.moved shouldBe false
+        }
+        context("Time to empty") {
+            addConference(draining, 8)
+            addConference(draining, 3)
+            addConference(draining, 4)
+            val state = planner.debugState["bridges"] as OrderedJsonObject
+            val drainingState = state[draining.jid.toString()] as OrderedJsonObject
+            drainingState["conferences"] shouldBe 3
+            drainingState["participants"] shouldBe 15
+            drainingState["time_to_empty_ms"] shouldBe 20_000L
+        }
+    }
+}
+
+private class TestConference(private val bridge: Bridge, private val participants: Int) : DrainableConference {
+    var moved = false
+    override fun getParticipantCount(bridge: Bridge) = if (moved || bridge != this.bridge) 0 else participants
+    override fun moveFrom(bridge: Bridge) {
+        moved = true
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024-Present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.bridge
+
+import io.kotest.core.spec.IsolationMode
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.longs.shouldBeInRange
+import io.kotest.matchers.shouldBe
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.verify
+import org.jitsi.jicofo.TaskPools
+import org.jitsi.jicofo.xmpp.XmppProvider
+import org.jitsi.xmpp.extensions.health.HealthCheckIQ
+import org.jivesoftware.smack.AbstractXMPPConnection
+import org.jivesoftware.smack.SmackException
+import org.jivesoftware.smack.SmackFuture
+import org.jivesoftware.smack.XMPPException
+import org.jivesoftware.smack.packet.IQ
+import org.jivesoftware.smack.packet.StanzaError
+import org.jivesoftware.smack.util.ExceptionCallback
+import org.jivesoftware.smack.util.SuccessCallback
+import org.jxmpp.jid.impl.JidCreate
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+class JvbDoctorTest : ShouldSpec() {
+    override fun isolationMode() = IsolationMode.InstancePerLeaf
+
+    /** The periodic health check tasks, and their initial delays. They only run when the test runs them. */
+    private val periodicTasks = mutableListOf<Runnable>()
+    private val initialDelays = mutableListOf<Long>()
+
+    /** The delayed (retry) tasks, and their delays. */
+    private val delayedTasks = mutableListOf<Runnable>()
+    private val delays = mutableListOf<Long>()
+
+    /** The health check requests sent, whose responses the test delivers. */
+    private val requests = mutableListOf<PendingRequest>()
+
+    init {
+        beforeTest {
+            TaskPools.scheduledPool = mockk<ScheduledExecutorService> {
+                every { scheduleAtFixedRate(any(), any(), any(), any()) } answers {
+                    periodicTasks.add(firstArg())
+                    initialDelays.add(TimeUnit.MILLISECONDS.convert(secondArg<Long>(), arg<TimeUnit>(3)))
+                    mockk(relaxed = true)
+                }
+                every { schedule(any<Runnable>(), any(), any()) } answers {
+                    delayedTasks.add(firstArg())
+                    delays.add(TimeUnit.MILLISECONDS.convert(secondArg<Long>(), thirdArg<TimeUnit>()))
+                    mockk(relaxed = true)
+                }
+            }
+        }
+        afterTest { TaskPools.resetScheduledPool() }
+
+        val connection = mockk<AbstractXMPPConnection> {
+            every { isConnected } returns true
+            every { sendIqRequestAsync(any()) } answers { PendingRequest(firstArg()).also { requests.add(it) }.future }
+        }
+        val listener = mockk<HealthCheckListener>(relaxed = true)
+        val bridge = Bridge(JidCreate.from("jvb@example.com/jvb1"))
+        val jvbDoctor = JvbDoctor(listener, mockk<XmppProvider> { every { xmppConnection } returns connection })
+        jvbDoctor.bridgeAdded(bridge)
+        val healthCheck = periodicTasks.single()
+        healthCheck.run()
+
+        should("Send a health check to the bridge") {
+            initialDelays.single() shouldBeInRange 1..BridgeConfig.config.healthChecksInterval.toMillis()
+            requests.size shouldBe 1
+            (requests[0].iq is HealthCheckIQ) shouldBe true
+            requests[0].iq.to shouldBe bridge.jid
+        }
+        should("Skip a health check while one is in progress") {
+            healthCheck.run()
+            requests.size shouldBe 1
+
+            requests[0].succeed()
+            healthCheck.run()
+            requests.size shouldBe 2
+        }
+        should("Record the RTT of a successful health check") {
+            requests[0].succeed()
+
+            verify { listener.healthCheckPassed(bridge.jid) }
+            bridge.healthCheckRtt.debugState["count"] shouldBe 1L
+        }
+        should("Record the RTT of an error response, and not retry") {
+            requests[0].fail(StanzaError.Condition.internal_server_error)
+
+            verify { listener.healthCheckFailed(bridge.jid) }
+            bridge.healthCheckRtt.debugState["count"] shouldBe 1L
+            delayedTasks.size shouldBe 0
+            healthCheck.run()
+            requests.size shouldBe 2
+        }
+        context("A health check which times out") {
+            requests[0].timeOut()
+
+            should("Schedule a retry") {
+                delays shouldBe listOf(BridgeConfig.config.healthChecksRetryDelay.toMillis())
+                verify(exactly = 0) { listener.healthCheckTimedOut(any()) }
+                bridge.healthCheckRtt.debugState["count"] shouldBe 0L
+
+                // The health check is still in progress until the retry completes.
+                healthCheck.run()
+                requests.size shouldBe 1
+                delayedTasks.single().run()
+                requests.size shouldBe 2
+            }
+            should("Report a timeout if the retry times out") {
+                delayedTasks.single().run()
+                requests[1].timeOut()
+
+                verify { listener.healthCheckTimedOut(bridge.jid) }
+                delayedTasks.size shouldBe 1
+                healthCheck.run()
+                requests.size shouldBe 3
+            }
+            should("Not report a timeout if the retry succeeds") {
+                delayedTasks.single().run()
+                requests[1].succeed()
+
+                verify(exactly = 0) { listener.healthCheckTimedOut(any()) }
+                verify { listener.healthCheckPassed(bridge.jid) }
+                bridge.healthCheckRtt.debugState["count"] shouldBe 1L
+            }
+        }
+        should("End the health check after another error") {
+            requests[0].errorCallback.processException(SmackException.NotConnectedException())
+
+            verify(exactly = 0) { listener.healthCheckTimedOut(any()) }
+            verify(exactly = 0) { listener.healthCheckFailed(any()) }
+            delayedTasks.size shouldBe 0
+            healthCheck.run()
+            requests.size shouldBe 2
+        }
+        should("Not send health checks after the bridge is removed") {
+            jvbDoctor.bridgeRemoved(bridge)
+            requests[0].succeed()
+            healthCheck.run()
+
+            requests.size shouldBe 1
+            verify(exactly = 0) { listener.healthCheckPassed(any()) }
+        }
+    }
+}
+
+/** A health check request sent with [AbstractXMPPConnection.sendIqRequestAsync], and the callbacks of its future. */
+private class PendingRequest(val iq: IQ) {
+    lateinit var successCallback: SuccessCallback<IQ>
+    lateinit var errorCallback: ExceptionCallback<Exception>
+
+    val future: SmackFuture<IQ, Exception> = mockk {
+        every { onSuccess(any()) } answers {
+            successCallback = firstArg()
+            self as SmackFuture<IQ, Exception>
+        }
+        every { onError(any()) } answers {
+            errorCallback = firstArg()
+            self as SmackFuture<IQ, Exception>
+        }
+    }
+
+    fun succeed() = successCallback.onSuccess(IQ.createResultIQ(iq))
+
+    fun fail(condition: StanzaError.Condition) = IQ.createErrorResponse(iq, condition).let {
+        errorCallback.processException(XMPPException.XMPPErrorException(it, it.error))
+    }
+
+    fun timeOut() = errorCallback.processException(mockk<SmackException.NoResponseException>(relaxed = true))
+}
@@ -0,0 +1,124 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024-Present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.bridge
+
+import io.kotest.core.spec.IsolationMode
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.shouldBe
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.slot
+import org.jitsi.utils.time.FakeClock
+import java.time.Duration
+import java.time.Instant
+import java.util.concurrent.Executor
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+class MigrationSchedulerTest : ShouldSpec() {
+    override fun isolationMode() = IsolationMode.InstancePerLeaf
+
+    init {
+        val clock = FakeClock()
+        val tick = slot<Runnable>()
+        val delayMs = slot<Long>()
+        val executor = mockk<ScheduledExecutorService> {
+            every { schedule(capture(tick), capture(delayMs), TimeUnit.MILLISECONDS) } returns mockk(relaxed = true)
+        }
+        // The tasks submitted to the IO pool. They only run when the test runs them.
+        val ioTasks = mutableListOf<Runnable>()
+        val ioExecutor = Executor { ioTasks.add(it) }
+        // 10 participants per second, up to 20 at once.
+        val scheduler = MigrationScheduler(clock, 10.0, 20, { ioExecutor }) { executor }
+        val migrated = mutableListOf<String>()
+        fun migration(id: String, participants: Int, hasModerator: Boolean = true, created: Instant = Instant.EPOCH) =
+            MigrationScheduler.Migration(id, participants, hasModerator, created) { migrated.add(id) }
+
+        fun runTick() {
+            clock.elapse(Duration.ofMillis(delayMs.captured))
+            tick.captured.run()
+            ioTasks.toList().also { ioTasks.clear() }.forEach { it.run() }
+        }
+
+        context("Migrations within the burst") {
+            scheduler.schedule(migration("c1", 10))
+            scheduler.schedule(migration("c2", 10))
+            migrated shouldBe listOf("c1", "c2")
+            scheduler.pendingCount shouldBe 0
+        }
+        context("Migrations exceeding the burst") {
+            scheduler.schedule(migration("c1", 15))
+            scheduler.schedule(migration("c2", 10))
+            migrated shouldBe listOf("c1")
+            scheduler.pendingCount shouldBe 1
+            // 5 tokens left, 5 more are needed.
+            delayMs.captured shouldBe 500
+            scheduler.estimatedTimeToRecovery shouldBe Duration.ofMillis(500)
+
+            runTick()
+            migrated shouldBe listOf("c1", "c2")
+            scheduler.pendingCount shouldBe 0
+            scheduler.estimatedTimeToRecovery shouldBe Duration.ZERO
+        }
+        context("Migrations which become ready in a tick") {
+            scheduler.schedule(migration("c1", 20))
+            scheduler.schedule(migration("c2", 10))
+            clock.elapse(Duration.ofMillis(delayMs.captured))
+            tick.captured.run()
+
+            should("Run in the IO pool, not in the scheduler") {
+                migrated shouldBe listOf("c1")
+                ioTasks.size shouldBe 1
+                ioTasks[0].run()
+                migrated shouldBe listOf("c1", "c2")
+            }
+        }
+        context("Priority") {
+            // Use up the tokens.
+            scheduler.schedule(migration("c0", 20))
+            scheduler.schedule(migration("small", 2))
+            scheduler.schedule(migration("no-moderator", 10, hasModerator = false))
+            scheduler.schedule(migration("large", 5))
+            scheduler.schedule(migration("new", 2, created = Instant.EPOCH.plusSeconds(10)))
+
+            repeat(5) { runTick() }
+            migrated shouldBe listOf("c0", "large", "small", "new", "no-moderator")
+        }
+        context("A conference larger than the burst") {
+            scheduler.schedule(migration("c1", 100))
+            migrated shouldBe listOf("c1")
+        }
+        context("Cancel") {
+            scheduler.schedule(migration("c1", 20))
+            scheduler.schedule(migration("c2", 10))
+            scheduler.cancel("c2")
+            scheduler.pendingCount shouldBe 0
+
+            runTick()
+            migrated shouldBe listOf("c1")
+        }
+        context("Without rate limiting") {
+            val unlimited = MigrationScheduler(clock, 0.0, 20, { ioExecutor }) { executor }
+            repeat(5) { unlimited.schedule(migration("c$it", 20)) }
+            // Run immediately in the calling thread.
+            migrated.size shouldBe 5
+            ioTasks.size shouldBe 0
+            unlimited.pendingCount shouldBe 0
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024-Present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.bridge
+
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.doubles.plusOrMinus
+import io.kotest.matchers.doubles.shouldBeLessThan
+import io.kotest.matchers.shouldBe
+import org.jitsi.utils.time.FakeClock
+import org.jxmpp.jid.impl.JidCreate
+import java.time.Duration
+import java.time.Instant
+import kotlin.math.exp
+
+class StressEstimatorTest : ShouldSpec() {
+    init {
+        context("EwmaStressEstimator") {
+            val clock = FakeClock()
+            val estimator = EwmaStressEstimator(clock, 0.5, Duration.ofSeconds(10))
+            val stats = BridgeStats(stressLevel = 0.1, averageParticipantStress = 0.01)
+            estimator.stressReported(0.1)
+
+            should("use the average participant stress before there are samples") {
+                estimator.endpointAdded()
+                estimator.getStress(stats) shouldBe (0.11 plusOrMinus 1e-9)
+                estimator.endpointAdded()
+                estimator.endpointRemoved()
+                estimator.getStress(stats) shouldBe (0.11 plusOrMinus 1e-9)
+            }
+            should("learn the stress of an endpoint") {
+                estimator.endpointAdded()
+                // The two endpoints ramp up for three ramp-up intervals, each adding 0.05 once fully ramped up.
+                clock.elapse(Duration.ofSeconds(30))
+                val reportedStress = 0.1 + 0.05 * (2 - 2 * exp(-3.0))
+                estimator.stressReported(reportedStress)
+                val reported = BridgeStats(stressLevel = reportedStress, averageParticipantStress = 0.01)
+                // The part which has not ramped up is still expected.
+                estimator.getStress(reported) shouldBe (0.2 plusOrMinus 1e-9)
+
+                estimator.endpointAdded()
+                estimator.getStress(reported) shouldBe (0.25 plusOrMinus 1e-9)
+                estimator.endpointRemoved()
+                estimator.endpointRemoved()
+                estimator.getStress(reported) shouldBe (0.15 plusOrMinus 1e-9)
+            }
+        }
+        context("Simulated burst of joins") {
+            val recentEndpointsMaxStress = BurstSimulation(StressEstimatorType.RecentEndpoints).run()
+            val ewmaMaxStress = BurstSimulation(StressEstimatorType.Ewma).run()
+
+            ewmaMaxStress shouldBeLessThan recentEndpointsMaxStress
+            // The burst is spread over all bridges.
+            ewmaMaxStress shouldBeLessThan 0.95
+        }
+    }
+}
+
+/**
+ * Simulates three bridges with different initial loads, whose actual stress increases by [ENDPOINT_STRESS] for each
+ * endpoint (ramping up exponentially over the ramp-up interval), and which report their stress every
+ * [PRESENCE_INTERVAL]. Each bridge first gets the same number of endpoints at a steady rate, and then a burst of
+ * endpoints is allocated to the bridge with the lowest estimated stress.
+ */
+private class BurstSimulation(type: StressEstimatorType) {
+    private val clock = FakeClock()
+    private val rampupMs = BridgeConfig.config.participantRampupInterval().toMillis().toDouble()
+    private val bridges = listOf(0.1, 0.3, 0.5).mapIndexed { i, load ->
+        SimulatedBridge(Bridge(JidCreate.from("bridge$i"), clock, StressEstimator.create(type, clock)), load)
+    }
+
+    /** Run the simulation and return the maximum actual stress of a bridge at the end. */
+    fun run(): Double {
+        for (step in 0..2000) {
+            if (step % PRESENCE_INTERVAL == 0) {
+                bridges.forEach { it.bridge.setStats(stress = it.actualStress()) }
+            }
+            // Steady joins, one every 5 seconds on each bridge.
+            if (step in 10 until 510 && (step - 10) % 50 % 5 == 0 && (step - 10) % 50 < 15) {
+                bridges[(step - 10) % 50 / 5].addEndpoint()
+            }
+            // A burst of 30 joins in 3 seconds.
+            if (step in 1200 until 1230) {
+                bridges.minByOrNull { it.bridge.stress }!!.addEndpoint()
+            }
+            clock.elapse(Duration.ofMillis(STEP_MS))
+        }
+        return bridges.maxOf { it.actualStress() }
+    }
+
+    private inner class SimulatedBridge(val bridge: Bridge, val initialLoad: Double) {
+        private val endpoints = mutableListOf<Instant>()
+
+        fun addEndpoint() {
+            endpoints.add(clock.instant())
+            bridge.endpointAdded()
+        }
+
+        fun actualStress(): Double = initialLoad + endpoints.sumOf {
+            val ageMs = Duration.between(it, clock.instant()).toMillis()
+            ENDPOINT_STRESS * (1 - exp(-ageMs / rampupMs))
+        }
+    }
+
+    companion object {
+        const val STEP_MS = 100L
+
+        /** The number of steps between presence updates. */
+        const val PRESENCE_INTERVAL = 50
+
+        /** The actual stress of an endpoint, higher than the configured average participant stress. */
+        const val ENDPOINT_STRESS = 0.03
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024-Present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.bridge.colibri
+
+import io.kotest.core.spec.IsolationMode
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.shouldNotBe
+import io.mockk.every
+import io.mockk.mockk
+import org.jitsi.utils.logging2.LoggerImpl
+import org.jitsi.xmpp.extensions.colibri2.ConferenceModifyIQ
+import org.jitsi.xmpp.extensions.colibri2.InitialLastN
+import org.jitsi.xmpp.extensions.jingle.IceUdpTransportPacketExtension
+import org.jivesoftware.smack.XMPPConnection
+import org.jivesoftware.smack.packet.IQ
+import org.jivesoftware.smack.packet.StanzaFactory
+import org.jivesoftware.smack.packet.id.StandardStanzaIdSource
+import java.time.Duration
+
+class Colibri2RequestCoalescerTest : ShouldSpec() {
+    override fun isolationMode() = IsolationMode.InstancePerLeaf
+
+    init {
+        val xmppConnection = mockk<XMPPConnection> {
+            every { stanzaFactory } returns StanzaFactory(StandardStanzaIdSource())
+        }
+        val sent = mutableListOf<ConferenceModifyIQ>()
+        fun createCoalescer(window: Duration) = Colibri2RequestCoalescer(
+            window,
+            { ConferenceModifyIQ.builder(xmppConnection).setMeetingId("meeting") },
+            { iq: IQ, _: String -> sent.add(iq as ConferenceModifyIQ) },
+            LoggerImpl("test")
+        )
+
+        context("With no window") {
+            val coalescer = createCoalescer(Duration.ZERO)
+            coalescer.updateEndpoint("e1", null, IceUdpTransportPacketExtension(), null, null)
+            coalescer.updateEndpoint("e1", null, null, null, InitialLastN(1))
+            should("Send each update immediately") {
+                sent.size shouldBe 2
+            }
+        }
+        context("With a window") {
+            val coalescer = createCoalescer(Duration.ofHours(1))
+            context("Updates for the same endpoint") {
+                coalescer.updateEndpoint("e1", null, IceUdpTransportPacketExtension(), null, null)
+                coalescer.updateEndpoint("e2", null, IceUdpTransportPacketExtension(), null, null)
+                coalescer.updateEndpoint("e1", null, null, null, InitialLastN(1))
+                sent.size shouldBe 0
+
+                coalescer.flush()
+                should("Be merged in a single request") {
+                    sent.size shouldBe 1
+                    val endpoints = sent[0].endpoints
+                    endpoints.map { it.id } shouldBe listOf("e1", "e2")
+                    endpoints[0].transport shouldNotBe null
+                    endpoints[0].initialLastN shouldNotBe null
+                }
+            }
+            context("Expire") {
+                coalescer.updateEndpoint("e1", null, IceUdpTransportPacketExtension(), null, null)
+                coalescer.expireEndpoints(listOf("e1"))
+                coalescer.flush()
+                should("Supersede earlier updates") {
+                    sent.size shouldBe 1
+                    sent[0].endpoints.size shouldBe 1
+                    sent[0].endpoints[0].expire shouldBe true
+                    sent[0].endpoints[0].transport shouldBe null
+                }
+            }
+            context("An update after expire") {
+                coalescer.expireEndpoints(listOf("e1"))
+                coalescer.updateEndpoint("e1", null, IceUdpTransportPacketExtension(), null, null)
+                coalescer.flush()
+                should("Be sent in a separate request") {
+                    sent.size shouldBe 2
+                    sent[0].endpoints[0].expire shouldBe true
+                    sent[1].endpoints[0].expire shouldBe false
+                }
+            }
+            context("Relay updates") {
+                coalescer.setRelayTransport("r1", IceUdpTransportPacketExtension())
+                coalescer.expireRelays(listOf("r1"))
+                coalescer.flush()
+                should("Be superseded by the relay expiring") {
+                    sent.size shouldBe 1
+                    sent[0].relays.size shouldBe 1
+                    sent[0].relays[0].expire shouldBe true
+                    sent[0].relays[0].transport shouldBe null
+                }
+            }
+            context("Requests which are not coalesced") {
+                coalescer.updateEndpoint("e1", null, IceUdpTransportPacketExtension(), null, null)
+                var sentBefore = -1
+                coalescer.flushThen { sentBefore = sent.size }
+                should("Be sent after the pending updates") {
+                    sentBefore shouldBe 1
+                }
+            }
+            context("Clear") {
+                coalescer.updateEndpoint("e1", null, IceUdpTransportPacketExtension(), null, null)
+                coalescer.clear()
+                coalescer.flush()
+                should("Discard the pending updates") {
+                    sent.size shouldBe 0
+                }
+            }
+        }
+    }
+}
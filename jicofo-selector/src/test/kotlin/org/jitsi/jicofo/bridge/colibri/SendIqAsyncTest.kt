@@ -0,0 +1,104 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024-Present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.bridge.colibri
+
+import io.kotest.core.spec.IsolationMode
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.shouldBe
+import io.mockk.Runs
+import io.mockk.every
+import io.mockk.just
+import io.mockk.mockk
+import io.mockk.slot
+import org.jitsi.jicofo.TaskPools
+import org.jivesoftware.smack.AbstractXMPPConnection
+import org.jivesoftware.smack.SmackFuture
+import org.jivesoftware.smack.XMPPException
+import org.jivesoftware.smack.packet.EmptyResultIQ
+import org.jivesoftware.smack.packet.IQ
+import org.jivesoftware.smack.packet.StanzaError
+import org.jivesoftware.smack.util.ExceptionCallback
+import org.jivesoftware.smack.util.SuccessCallback
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.TimeoutException
+
+class SendIqAsyncTest : ShouldSpec() {
+    override fun isolationMode() = IsolationMode.InstancePerLeaf
+
+    /** The tasks submitted to the IO pool. They only run when the test runs them. */
+    private val tasks = mutableListOf<Runnable>()
+
+    init {
+        beforeTest {
+            TaskPools.ioPool = mockk<ExecutorService> {
+                every { execute(capture(tasks)) } just Runs
+            }
+        }
+        afterTest { TaskPools.resetIoPool() }
+
+        val onSuccess = slot<SuccessCallback<IQ>>()
+        val onError = slot<ExceptionCallback<Exception>>()
+        val future = mockk<SmackFuture<IQ, Exception>> {
+            every { onSuccess(capture(onSuccess)) } answers { self as SmackFuture<IQ, Exception> }
+            every { onError(capture(onError)) } answers { self as SmackFuture<IQ, Exception> }
+        }
+        val connection = mockk<AbstractXMPPConnection> {
+            every { sendIqRequestAsync(any()) } returns future
+        }
+        val request = EmptyResultIQ().apply { type = IQ.Type.set }
+
+        var handled = false
+        var handledResponse: IQ? = null
+        connection.sendIqAndHandleResponseAsync(request) {
+            handled = true
+            handledResponse = it
+        }
+
+        should("Not hold a pool thread while the response is pending") {
+            tasks.size shouldBe 0
+            handled shouldBe false
+        }
+        should("Handle the response in the IO pool") {
+            val response = EmptyResultIQ(request)
+            onSuccess.captured.onSuccess(response)
+
+            handled shouldBe false
+            tasks.size shouldBe 1
+            tasks[0].run()
+            handled shouldBe true
+            handledResponse shouldBe response
+        }
+        should("Handle error responses like other responses") {
+            val response = IQ.createErrorResponse(request, StanzaError.Condition.item_not_found)
+            onError.captured.processException(XMPPException.XMPPErrorException(response, response.error))
+
+            tasks.size shouldBe 1
+            tasks[0].run()
+            handled shouldBe true
+            handledResponse shouldBe response
+        }
+        should("Handle a timeout as a null response") {
+            onError.captured.processException(TimeoutException())
+
+            tasks.size shouldBe 1
+            tasks[0].run()
+            handled shouldBe true
+            handledResponse shouldBe null
+        }
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024-Present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.bridge.simulation
+
+import org.jitsi.jicofo.bridge.Bridge
+import org.jitsi.jicofo.bridge.BridgeCascadeNode
+import org.jitsi.jicofo.bridge.BridgeConfig
+import org.jitsi.jicofo.bridge.BridgeSelector
+import org.jitsi.jicofo.bridge.Cascade
+import org.jitsi.jicofo.bridge.CascadeLink
+import org.jitsi.jicofo.bridge.CascadePathCache
+import org.jitsi.jicofo.bridge.ConferenceBridgeProperties
+import org.jitsi.jicofo.bridge.ParticipantProperties
+import org.jitsi.jicofo.bridge.TopologySelectionStrategy
+import org.jitsi.jicofo.bridge.addNodeToMesh
+import org.jitsi.jicofo.bridge.removeNode
+import org.jitsi.utils.OrderedJsonObject
+import org.jitsi.utils.time.FakeClock
+import org.jitsi.xmpp.extensions.colibri.ColibriStatsExtension
+import org.jxmpp.jid.Jid
+import org.jxmpp.jid.impl.JidCreate
+import java.io.File
+import java.time.Duration
+import kotlin.system.exitProcess
+
+/**
+ * Feeds a trace of bridge presence and conference join/leave events through a [BridgeSelector] and the configured
+ * [TopologySelectionStrategy], in-process and with a fake clock, and reports the resulting load balance, cascade
+ * sizes, relay counts and selection throughput. The selection strategy and its settings (e.g.
+ * max-bridge-participants) are read from the config, so they can be changed with `withNewConfig`.
+ *
+ * When [loadModel] is set the bridges report their stress periodically, computed from the endpoints allocated to them
+ * in the simulation (on top of the stress reported in the trace).
+ */
+class BridgeSelectionSimulator(
+    private val loadModel: LoadModel? = LoadModel()
+) {
+    private val clock = FakeClock()
+    private val bridgeSelector = BridgeSelector(clock)
+    private val topologyStrategy = BridgeConfig.config.topologyStrategy
+
+    private var now = Duration.ZERO
+    private var nextPresence = Duration.ZERO
+
+    private val bridges = mutableMapOf<Jid, SimulatedBridge>()
+    private val conferences = mutableMapOf<String, SimulatedConference>()
+
+    private var selections = 0
+    private var failedSelections = 0
+    private var movedParticipants = 0
+    private var selectionNanos = 0L
+    private var samples = 0
+    private var loadImbalanceSum = 0.0
+    private var maxLoadImbalance = 0.0
+    private var maxBridgeStress = 0.0
+    private var cascadeSizeSum = 0L
+    private var cascadeSizeSamples = 0L
+    private var maxCascadeSize = 0
+    private var maxRelayCount = 0
+    private var maxConferenceRelayCount = 0
+
+    fun run(events: List<SimulationEvent>): SimulationReport {
+        events.sortedBy { it.time }.forEach { event ->
+            advanceTo(event.time)
+            when (event) {
+                is SimulationEvent.BridgePresence -> bridgePresence(event)
+                is SimulationEvent.BridgeRemoved -> bridgeRemoved(event)
+                is SimulationEvent.Join -> join(event)
+                is SimulationEvent.Leave -> leave(event)
+            }
+            sample()
+        }
+
+        return SimulationReport(
+            selections = selections,
+            failedSelections = failedSelections,
+            movedParticipants = movedParticipants,
+            meanLoadImbalance = if (samples > 0) loadImbalanceSum / samples else 0.0,
+            maxLoadImbalance = maxLoadImbalance,
+            maxBridgeStress = maxBridgeStress,
+            meanCascadeSize = if (cascadeSizeSamples > 0) cascadeSizeSum.toDouble() / cascadeSizeSamples else 0.0,
+            maxCascadeSize = maxCascadeSize,
+            maxRelayCount = maxRelayCount,
+            maxConferenceRelayCount = maxConferenceRelayCount,
+            selectionsPerSecond = if (selectionNanos > 0) selections * 1e9 / selectionNanos else 0.0
+        )
+    }
+
+    /** Advance the clock to [time], sending presence from the bridges on the way if there is a load model. */
+    private fun advanceTo(time: Duration) {
+        if (loadModel != null) {
+            while (nextPresence <= time) {
+                elapseTo(nextPresence)
+                bridges.values.forEach { it.sendPresence(loadModel) }
+                nextPresence = nextPresence.plus(loadModel.presenceInterval)
+            }
+        }
+        elapseTo(time)
+    }
+
+    private fun elapseTo(time: Duration) {
+        if (time > now) {
+            clock.elapse(time.minus(now))
+            now = time
+        }
+    }
+
+    private fun bridgePresence(event: SimulationEvent.BridgePresence) {
+        val jid = JidCreate.from(event.bridge)
+        val stats = ColibriStatsExtension().apply { event.stats.forEach { (name, value) -> addStat(name, value) } }
+        val bridge = bridgeSelector.addJvbAddress(jid, stats)
+        bridges.getOrPut(jid) { SimulatedBridge(bridge) }.apply {
+            event.stats["stress_level"]?.toDoubleOrNull()?.let { reportedStress = it }
+        }
+    }
+
+    private fun bridgeRemoved(event: SimulationEvent.BridgeRemoved) {
+        val jid = JidCreate.from(event.bridge)
+        val bridge = bridges.remove(jid)?.bridge ?: return
+        bridgeSelector.removeJvbAddress(jid)
+        // Move the participants to other bridges, like jicofo does when a bridge fails.
+        conferences.values.forEach { conference ->
+            conference.removeBridge(bridge).forEach { (participant, visitor) ->
+                movedParticipants++
+                select(conference, participant, conference.regions[participant], visitor)
+            }
+        }
+    }
+
+    private fun join(event: SimulationEvent.Join) {
+        val conference = conferences.getOrPut(event.conference) { SimulatedConference(topologyStrategy) }
+        conference.regions[event.participant] = event.region
+        select(conference, event.participant, event.region, event.visitor)
+    }
+
+    private fun leave(event: SimulationEvent.Leave) {
+        val conference = conferences[event.conference] ?: return
+        conference.remove(event.participant)?.let { bridge ->
+            bridge.endpointRemoved()
+            bridges[bridge.jid]?.let { it.endpoints-- }
+        }
+        conference.regions.remove(event.participant)
+        if (conference.isEmpty()) {
+            conferences.remove(event.conference)
+        }
+    }
+
+    private fun select(conference: SimulatedConference, participant: String, region: String?, visitor: Boolean) {
+        selections++
+        val start = System.nanoTime()
+        val bridge = bridgeSelector.selectBridge(conference.getBridges(), ParticipantProperties(region, visitor))
+        selectionNanos += System.nanoTime() - start
+
+        if (bridge == null || !conference.add(participant, bridge, visitor)) {
+            failedSelections++
+            return
+        }
+        // Like jicofo, count the endpoint only once it is added.
+        bridge.endpointAdded()
+        bridges[bridge.jid]?.let { it.endpoints++ }
+    }
+
+    private fun sample() {
+        samples++
+        val loads = bridges.values.filter { it.bridge.isOperational }.map { it.getStress(loadModel) }
+        val meanLoad = loads.average()
+        if (loads.isNotEmpty() && meanLoad > 0) {
+            val imbalance = loads.maxOf { it } / meanLoad
+            loadImbalanceSum += imbalance
+            maxLoadImbalance = maxOf(maxLoadImbalance, imbalance)
+            maxBridgeStress = maxOf(maxBridgeStress, loads.maxOf { it })
+        } else {
+            // All bridges are idle, which is balanced.
+            loadImbalanceSum += 1.0
+        }
+
+        var relayCount = 0
+        conferences.values.forEach {
+            val size = it.size
+            if (size > 0) {
+                cascadeSizeSum += size
+                cascadeSizeSamples++
+            }
+            maxCascadeSize = maxOf(maxCascadeSize, size)
+            maxConferenceRelayCount = maxOf(maxConferenceRelayCount, it.relayCount)
+            relayCount += it.relayCount
+        }
+        maxRelayCount = maxOf(maxRelayCount, relayCount)
+    }
+
+    /**
+     * Generates stress for the simulated bridges: each bridge reports a stress of [endpointStress] per endpoint
+     * allocated to it (in addition to the stress reported in the trace) every [presenceInterval].
+     */
+    data class LoadModel(
+        val presenceInterval: Duration = Duration.ofSeconds(5),
+        val endpointStress: Double = 0.01
+    )
+
+    private inner class SimulatedBridge(val bridge: Bridge) {
+        /** The stress last reported in the trace. */
+        var reportedStress = 0.0
+
+        /** The number of endpoints allocated to the bridge in the simulation. */
+        var endpoints = 0
+
+        fun getStress(loadModel: LoadModel?) = reportedStress + endpoints * (loadModel?.endpointStress ?: 0.0)
+
+        fun sendPresence(loadModel: LoadModel) {
+            bridgeSelector.addJvbAddress(
+                bridge.jid,
+                ColibriStatsExtension().apply { addStat("stress_level", getStress(loadModel)) }
+            )
+        }
+    }
+}
+
+/**
+ * A conference's bridges and the links between them. Mirrors what
+ * [org.jitsi.jicofo.bridge.colibri.ColibriV2SessionManager] does with colibri2 sessions, without the signaling.
+ */
+private class SimulatedConference(
+    private val topologyStrategy: TopologySelectionStrategy
+) : Cascade<SimulatedNode, SimulatedLink> {
+    override val sessions = mutableMapOf<String?, SimulatedNode>()
+    override val pathCache = CascadePathCache<SimulatedNode, SimulatedLink>()
+
+    private val nodes = mutableMapOf<Bridge, SimulatedNode>()
+    private val participants = mutableMapOf<String, SimulatedNode>()
+
+    /** The region of each participant, used if it needs to be moved. */
+    val regions = mutableMapOf<String, String?>()
+
+    val size: Int
+        get() = nodes.size
+
+    val relayCount: Int
+        get() = nodes.values.sumOf { it.relays.size } / 2
+
+    fun isEmpty() = participants.isEmpty()
+
+    fun getBridges(): Map<Bridge, ConferenceBridgeProperties> = nodes.values
+        .filter { it.bridge.isOperational }
+        .associate { it.bridge to ConferenceBridgeProperties(it.participants.size, it.visitor) }
+
+    /** Add a participant to [bridge]. Returns false if the bridge can not be added to the cascade. */
+    fun add(participant: String, bridge: Bridge, visitor: Boolean): Boolean {
+        val node = nodes[bridge] ?: run {
+            // Multiple bridges can only be connected with relays.
+            if (nodes.isNotEmpty() && (bridge.relayId == null || nodes.keys.any { it.relayId == null })) {
+                return false
+            }
+            SimulatedNode(bridge, visitor).also {
+                val topology = topologyStrategy.connectNode(this, it)
+                addNodeToMesh(it, topology.meshId, topology.existingNode)
+                nodes[bridge] = it
+            }
+        }
+        node.participants[participant] = visitor
+        participants[participant] = node
+        return true
+    }
+
+    /** Remove a participant. Returns the bridge it was on. */
+    fun remove(participant: String): Bridge? {
+        val node = participants.remove(participant) ?: return null
+        node.participants.remove(participant)
+        if (node.participants.isEmpty()) {
+            removeFromCascade(node)
+        }
+        return node.bridge
+    }
+
+    /** Remove a bridge. Returns the participants which were on it, mapped to whether they are visitors. */
+    fun removeBridge(bridge: Bridge): Map<String, Boolean> {
+        val node = nodes[bridge] ?: return emptyMap()
+        node.participants.keys.forEach { participants.remove(it) }
+        removeFromCascade(node)
+        return node.participants
+    }
+
+    private fun removeFromCascade(node: SimulatedNode) {
+        nodes.remove(node.bridge)
+        removeNode(node) { cascade, disconnected -> topologyStrategy.repairMesh(cascade, disconnected) }
+    }
+
+    override fun addLinkBetween(session: SimulatedNode, otherSession: SimulatedNode, meshId: String) {
+        session.relays[otherSession.relayId!!] = SimulatedLink(otherSession.relayId, meshId)
+        otherSession.relays[session.relayId!!] = SimulatedLink(session.relayId, meshId)
+    }
+
+    override fun removeLinkTo(session: SimulatedNode, otherSession: SimulatedNode) {
+        // The link is removed from the relays of the node by removeNode, there is no other state.
+    }
+}
+
+private class SimulatedNode(
+    override val bridge: Bridge,
+    override val visitor: Boolean
+) : BridgeCascadeNode<SimulatedNode, SimulatedLink> {
+    override val relayId: String? = bridge.relayId
+    override val relays = mutableMapOf<String, SimulatedLink>()
+
+    /** The participants on this node, mapped to whether they are visitors. */
+    val participants = mutableMapOf<String, Boolean>()
+}
+
+private class SimulatedLink(override val relayId: String?, override val meshId: String?) : CascadeLink
+
+data class SimulationReport(
+    val selections: Int,
+    /** Selections which returned no bridge, or a bridge which could not be added to the conference. */
+    val failedSelections: Int,
+    /** Participants moved because their bridge was removed. */
+    val movedParticipants: Int,
+    /** The ratio of the maximum to the mean stress of the operational bridges, averaged over the events. */
+    val meanLoadImbalance: Double,
+    val maxLoadImbalance: Double,
+    val maxBridgeStress: Double,
+    /** The number of bridges in a conference, averaged over the events and conferences. */
+    val meanCascadeSize: Double,
+    val maxCascadeSize: Int,
+    /** The maximum number of relays (bridge-to-bridge links) in all conferences. */
+    val maxRelayCount: Int,
+    /** The maximum number of relays in a single conference. */
+    val maxConferenceRelayCount: Int,
+    val selectionsPerSecond: Double
+) {
+    fun toJson() = OrderedJsonObject().apply {
+        put("selections", selections)
+        put("failed_selections", failedSelections)
+        put("moved_participants", movedParticipants)
+        put("mean_load_imbalance", meanLoadImbalance)
+        put("max_load_imbalance", maxLoadImbalance)
+        put("max_bridge_stress", maxBridgeStress)
+        put("mean_cascade_size", meanCascadeSize)
+        put("max_cascade_size", maxCascadeSize)
+        put("max_relay_count", maxRelayCount)
+        put("max_conference_relay_count", maxConferenceRelayCount)
+        put("selections_per_second", selectionsPerSecond)
+    }
+}
+
+/**
+ * Runs a simulation and prints the report. Reads a trace (see [SimulationTrace.parse]) from the file given as the
+ * first argument, or generates a synthetic trace with the default [SyntheticTraceParams]. The config is read as usual,
+ * e.g. from the file given with -Dconfig.file.
+ */
+fun main(args: Array<String>) {
+    val events = if (args.isNotEmpty()) {
+        SimulationTrace.parse(File(args[0]).readLines().asSequence())
+    } else {
+        SimulationTrace.synthetic(SyntheticTraceParams())
+    }
+    println(BridgeSelectionSimulator().run(events).toJson().toJSONString())
+    // The bridge selector's event thread is not a daemon.
+    exitProcess(0)
+}
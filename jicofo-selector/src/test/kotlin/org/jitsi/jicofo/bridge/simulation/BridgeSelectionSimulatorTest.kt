@@ -0,0 +1,76 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024-Present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.bridge.simulation
+
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.doubles.plusOrMinus
+import io.kotest.matchers.doubles.shouldBeGreaterThan
+import io.kotest.matchers.ints.shouldBeGreaterThan
+import io.kotest.matchers.shouldBe
+import org.jitsi.config.withNewConfig
+import java.time.Duration
+
+class BridgeSelectionSimulatorTest : ShouldSpec() {
+    init {
+        val params = SyntheticTraceParams(bridgesPerRegion = 3, conferences = 50, seed = 1)
+        val events = SimulationTrace.synthetic(params)
+
+        context("With SingleBridgeSelectionStrategy") {
+            val report = BridgeSelectionSimulator().run(events)
+
+            report.selections shouldBe events.count { it is SimulationEvent.Join }
+            report.failedSelections shouldBe 0
+            report.maxCascadeSize shouldBe 1
+            report.maxRelayCount shouldBe 0
+            report.selectionsPerSecond shouldBeGreaterThan 0.0
+        }
+        context("With SplitBridgeSelectionStrategy") {
+            withNewConfig("jicofo.bridge.selection-strategy=SplitBridgeSelectionStrategy") {
+                val report = BridgeSelectionSimulator().run(events)
+
+                report.failedSelections shouldBe 0
+                // Conferences use all bridges, connected in a single mesh.
+                report.maxCascadeSize shouldBe params.regions.size * params.bridgesPerRegion
+                report.maxConferenceRelayCount shouldBe report.maxCascadeSize * (report.maxCascadeSize - 1) / 2
+                report.maxRelayCount shouldBeGreaterThan 0
+            }
+        }
+        context("Replaying a recorded trace") {
+            val trace = """
+                {"time_ms": 0, "type": "presence", "bridge": "jvb1", "stats": {"stress_level": "0.1", "drain": "false"}}
+                {"time_ms": 0, "type": "presence", "bridge": "jvb2", "stats": {"stress_level": "0.5", "drain": "false"}}
+                {"time_ms": 100, "type": "join", "conference": "c1", "participant": "p1"}
+                {"time_ms": 200, "type": "join", "conference": "c1", "participant": "p2", "visitor": true}
+
+                {"time_ms": 5000, "type": "leave", "conference": "c1", "participant": "p1"}
+                {"time_ms": 6000, "type": "bridge_removed", "bridge": "jvb1"}
+            """.trimIndent()
+            val recorded = SimulationTrace.parse(trace.lineSequence())
+            recorded.size shouldBe 6
+            recorded[3] shouldBe SimulationEvent.Join(Duration.ofMillis(200), "c1", "p2", null, true)
+
+            val report = BridgeSelectionSimulator(loadModel = null).run(recorded)
+            report.selections shouldBe 3
+            // The remaining participant was moved from the removed bridge.
+            report.movedParticipants shouldBe 1
+            report.failedSelections shouldBe 0
+            report.maxBridgeStress shouldBe 0.5
+            report.maxLoadImbalance shouldBe (0.5 / 0.3 plusOrMinus 1e-9)
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024-Present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.bridge.simulation
+
+import org.json.simple.JSONObject
+import org.json.simple.parser.JSONParser
+import java.time.Duration
+import kotlin.random.Random
+
+/**
+ * An event in a simulation trace. The [time] is relative to the start of the simulation.
+ */
+sealed class SimulationEvent {
+    abstract val time: Duration
+
+    /** A bridge sent presence with the given [stats] (the values of a ColibriStatsExtension). */
+    data class BridgePresence(
+        override val time: Duration,
+        val bridge: String,
+        val stats: Map<String, String>
+    ) : SimulationEvent()
+
+    /** A bridge left the brewery. */
+    data class BridgeRemoved(override val time: Duration, val bridge: String) : SimulationEvent()
+
+    data class Join(
+        override val time: Duration,
+        val conference: String,
+        val participant: String,
+        val region: String? = null,
+        val visitor: Boolean = false
+    ) : SimulationEvent()
+
+    data class Leave(override val time: Duration, val conference: String, val participant: String) : SimulationEvent()
+}
+
+/**
+ * Parameters for a synthetic trace: bridges spread over [regions] report presence at the start, and [conferences]
+ * start at random times during the first half of [duration]. Participants join a conference within [joinWindow] of
+ * its start, and leave after a random fraction (between a half and one) of [conferenceDuration].
+ */
+data class SyntheticTraceParams(
+    val bridgesPerRegion: Int = 5,
+    val regions: List<String> = listOf("us-east", "us-west", "eu-central"),
+    val conferences: Int = 200,
+    val participantsPerConference: IntRange = 2..30,
+    val visitorFraction: Double = 0.0,
+    val duration: Duration = Duration.ofMinutes(30),
+    val joinWindow: Duration = Duration.ofSeconds(30),
+    val conferenceDuration: Duration = Duration.ofMinutes(10),
+    val seed: Long = 0
+)
+
+object SimulationTrace {
+    /**
+     * Parses a trace with one JSON object per line (empty lines are ignored), for example:
+     *
+     * {"time_ms": 0, "type": "presence", "bridge": "jvb1", "stats": {"stress_level": "0.1", "region": "us-east"}}
+     * {"time_ms": 100, "type": "join", "conference": "c1", "participant": "p1", "region": "us-east"}
+     * {"time_ms": 200, "type": "join", "conference": "c1", "participant": "p2", "visitor": true}
+     * {"time_ms": 5000, "type": "leave", "conference": "c1", "participant": "p1"}
+     * {"time_ms": 9000, "type": "bridge_removed", "bridge": "jvb1"}
+     */
+    fun parse(lines: Sequence<String>): List<SimulationEvent> {
+        val parser = JSONParser()
+        return lines.filter { it.isNotBlank() }.map { line ->
+            val json = parser.parse(line) as JSONObject
+            val time = Duration.ofMillis((json["time_ms"] as Number).toLong())
+            when (val type = json["type"]) {
+                "presence" -> SimulationEvent.BridgePresence(
+                    time,
+                    json["bridge"] as String,
+                    (json["stats"] as? Map<*, *>)?.entries?.associate { it.key.toString() to it.value.toString() }
+                        ?: emptyMap()
+                )
+                "bridge_removed" -> SimulationEvent.BridgeRemoved(time, json["bridge"] as String)
+                "join" -> SimulationEvent.Join(
+                    time,
+                    json["conference"] as String,
+                    json["participant"] as String,
+                    json["region"] as String?,
+                    json["visitor"] as Boolean? ?: false
+                )
+                "leave" -> SimulationEvent.Leave(time, json["conference"] as String, json["participant"] as String)
+                else -> throw IllegalArgumentException("Unknown event type: $type")
+            }
+        }.toList()
+    }
+
+    /** Generate a synthetic trace, ordered by time. */
+    fun synthetic(params: SyntheticTraceParams): List<SimulationEvent> {
+        val random = Random(params.seed)
+        val events = mutableListOf<SimulationEvent>()
+        params.regions.forEach { region ->
+            repeat(params.bridgesPerRegion) { i ->
+                val bridge = "jvb-$region-$i"
+                val stats = mapOf("region" to region, "relay_id" to bridge, "stress_level" to "0", "drain" to "false")
+                events.add(SimulationEvent.BridgePresence(Duration.ZERO, bridge, stats))
+            }
+        }
+        repeat(params.conferences) { c ->
+            val conference = "conference-$c"
+            val start = params.duration.dividedBy(2).multipliedBy(random.nextLong(1000)).dividedBy(1000)
+            repeat(params.participantsPerConference.random(random)) { p ->
+                val participant = "$conference-$p"
+                val join = start.plus(params.joinWindow.multipliedBy(random.nextLong(1000)).dividedBy(1000))
+                val stay = params.conferenceDuration.multipliedBy(500L + random.nextLong(500)).dividedBy(1000)
+                events.add(
+                    SimulationEvent.Join(
+                        join,
+                        conference,
+                        participant,
+                        params.regions.random(random),
+                        random.nextDouble() < params.visitorFraction
+                    )
+                )
+                events.add(SimulationEvent.Leave(join.plus(stay), conference, participant))
+            }
+        }
+        return events.sortedBy { it.time }
+    }
+}
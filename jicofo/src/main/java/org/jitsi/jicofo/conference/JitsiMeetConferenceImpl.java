@@ -28,6 +28,7 @@
 import org.jitsi.jicofo.visitors.*;
 import org.jitsi.jicofo.xmpp.*;
 import org.jitsi.jicofo.xmpp.UtilKt;
+import org.jitsi.jicofo.xmpp.jingle.SourcePayloadCache;
 import org.jitsi.jicofo.xmpp.muc.*;
 import org.jitsi.utils.*;
 import org.jitsi.utils.logging2.*;
@@ -46,9 +47,11 @@
 import org.jivesoftware.smackx.caps.packet.*;
 import org.jxmpp.jid.*;
 
+import java.time.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
 import java.util.logging.*;
 import java.util.stream.*;
 
@@ -60,7 +63,7 @@
  * participants, as well as the COLIBRI session with the jitsi-videobridge
  * instances used for the conference.
  * <p/>
- * A note on synchronization: this class uses a lot of 'synchronized' blocks,
+ * A note on synchronization: this class uses a lot of locking,
  * on 3 different objects {@link #participantLock}, {@code this} and {@code BridgeSession#octoParticipant}).
  * <p/>
  * This seems safe, but it is hard to maintain this way, and we should
@@ -118,9 +121,17 @@
     private final Map<Jid, Participant> participants = new ConcurrentHashMap<>();
 
     /**
-     * This lock is used to synchronise write access to {@link #participants}.
+     * Colibri allocations started for joining members (by endpoint ID) while their features are being discovered, see
+     * {@link ConferenceConfig#getPipelinedJoin()}.
      */
-    private final Object participantLock = new Object();
+    private final Map<String, SpeculativeAllocation> speculativeAllocations = new ConcurrentHashMap<>();
+
+    /**
+     * This lock is used to synchronise write access to {@link #participants}. Some of the code paths holding it send
+     * stanzas, so this is a {@link ReentrantLock} rather than a monitor in order to not pin carrier threads when
+     * running on virtual threads.
+     */
+    private final ReentrantLock participantLock = new ReentrantLock();
 
     /**
      * A stat number of conference participants with a visitor muc role.
@@ -187,6 +198,11 @@
      */
     private final String etherpadName;
 
+    /**
+     * When this conference was created, used to prioritize migrations away from failed bridges.
+     */
+    private final Instant creationTime = Instant.now();
+
     /**
      * Maintains all colibri sessions for this conference.
      */
@@ -248,6 +264,24 @@
     @Nullable
     private String meetingId;
 
+    /**
+     * Signals queued remote sources to the participants of this conference.
+     */
+    @NotNull
+    private final SourceSignalingScheduler sourceSignalingScheduler;
+
+    /**
+     * The sources of this conference filtered for each of the participants' filter profiles.
+     */
+    @NotNull
+    private final FilteredSourcesCache filteredSourcesCache = new FilteredSourcesCache();
+
+    /**
+     * The encoded source-add and source-remove payloads recently sent to participants in this conference.
+     */
+    @NotNull
+    private final SourcePayloadCache sourcePayloadCache = new SourcePayloadCache();
+
     /**
      * Creates new instance of {@link JitsiMeetConferenceImpl}.
      *
@@ -276,6 +310,9 @@ public JitsiMeetConferenceImpl(
 
         this.jicofoServices = jicofoServices;
         this.jvbVersion = jvbVersion;
+        this.sourceSignalingScheduler = new SourceSignalingScheduler(
+                () -> ConferenceConfig.config.getSourceSignalingDelayMs(getParticipantCount()),
+                logger);
 
         conferenceStartTimeout = TaskPools.getScheduledPool().schedule(
                 () ->
@@ -323,7 +360,8 @@ private ColibriSessionManager getColibriSessionManager()
                     meetingId,
                     config.getRtcStatsEnabled(),
                     jvbVersion,
-                    logger);
+                    logger,
+                    bridgeSelectorEventHandler);
             colibriSessionManager.addListener(colibriSessionManagerListener);
         }
         return colibriSessionManager;
@@ -350,8 +388,9 @@ public void start()
         {
             XmppProvider clientXmppProvider = getClientXmppProvider();
 
-            BridgeSelector bridgeSelector = jicofoServices.getBridgeSelector();
-            bridgeSelector.addHandler(bridgeSelectorEventHandler);
+            // Bridge events are delivered only to the conferences that use the bridge (registered by the colibri
+            // session manager as sessions come and go), or that wait for a bridge, as we do until we have sessions.
+            jicofoServices.getBridgeSelector().addBridgeWaiter(bridgeSelectorEventHandler);
 
             if (clientXmppProvider.getRegistered())
             {
@@ -405,6 +444,8 @@ public void stop()
         }
 
         visitorCount.stop();
+        sourceSignalingScheduler.stop();
+        sourcePayloadCache.clear();
 
         if (jibriSipGateway != null)
         {
@@ -432,9 +473,6 @@ public void stop()
             jibriRecorder = null;
         }
 
-        BridgeSelector bridgeSelector = jicofoServices.getBridgeSelector();
-        bridgeSelector.removeHandler(bridgeSelectorEventHandler);
-
         if (colibriSessionManager != null)
         {
             colibriSessionManager.removeListener(colibriSessionManagerListener);
@@ -448,6 +486,11 @@ public void stop()
         {
             logger.error("disposeConference error", e);
         }
+        // The speculative allocations were expired with the sessions.
+        speculativeAllocations.clear();
+        // Expiring the sessions unregisters us from the bridges, but leaves us waiting for one.
+        jicofoServices.getBridgeSelector().removeBridgeWaiter(bridgeSelectorEventHandler);
+        jicofoServices.getBridgeSelector().getMigrationScheduler().cancel(roomName.toString());
 
         try
         {
@@ -553,7 +596,7 @@ else if (ConferenceConfig.config.enableAutoOwner() && mainRoomJid == null)
         presenceExtensions.add(createConferenceProperties());
 
         // updates presence with presenceExtensions and sends it
-        chatRoom.addPresenceExtensions(presenceExtensions);
+        chatRoom.addPresenceExtensions(presenceExtensions, true);
     }
 
     /**
@@ -583,7 +626,7 @@ private void setConferenceProperty(@NotNull String key, @NotNull String value, b
         ChatRoom chatRoom = this.chatRoom;
         if (updatePresence && chatRoom != null && !value.equals(oldValue))
         {
-            chatRoom.setPresenceExtension(createConferenceProperties());
+            chatRoom.setPresenceExtension(createConferenceProperties(), false);
         }
     }
 
@@ -679,6 +722,7 @@ private void leaveTheRoom()
      */
     private void onMemberJoined(@NotNull ChatRoomMember chatRoomMember)
     {
+        Instant joinStarted = Instant.now();
         // Detect a race condition in which this thread runs before EntityCapsManager's async StanzaListener that
         // populates the JID to NodeVerHash cache. If that's the case calling getFeatures() would result in an
         // unnecessary disco#info request being sent. That's not an unrecoverable problem, but just yielding should
@@ -692,11 +736,19 @@ private void onMemberJoined(@NotNull ChatRoomMember chatRoomMember)
             Thread.yield();
         }
 
+        if (ConferenceConfig.config.getPipelinedJoin())
+        {
+            maybeStartSpeculativeAllocation(chatRoomMember);
+        }
+
         // Trigger feature discovery before we acquire the lock. The features will be saved in the ChatRoomMember
         // instance, and the call might block for a disco#info request.
+        Instant discoStarted = Instant.now();
         chatRoomMember.getFeatures();
+        JoinMetrics.observeSince(JoinMetrics.disco, discoStarted);
 
-        synchronized (participantLock)
+        participantLock.lock();
+        try
         {
             if (conferenceStartTimeout != null)
             {
@@ -751,30 +803,83 @@ private void onMemberJoined(@NotNull ChatRoomMember chatRoomMember)
             {
                 for (final ChatRoomMember member : chatRoom.getMembers())
                 {
-                    inviteChatMember(member, member == chatRoomMember);
+                    inviteChatMember(member, member == chatRoomMember ? joinStarted : null);
                 }
             }
             // Only the one who has just joined
             else
             {
-                inviteChatMember(chatRoomMember, true);
+                inviteChatMember(chatRoomMember, joinStarted);
+            }
+        }
+        finally
+        {
+            participantLock.unlock();
+
+            // A speculative allocation which was not taken by an invite will not be used.
+            SpeculativeAllocation unused = speculativeAllocations.remove(chatRoomMember.getName());
+            if (unused != null && colibriSessionManager != null)
+            {
+                logger.info("Discarding the speculative allocation for " + chatRoomMember.getName());
+                unused.discard(colibriSessionManager);
             }
         }
     }
 
+    /**
+     * Start allocating colibri endpoints for a member which just joined, guessing its features, so that the allocation
+     * overlaps with the discovery of its features. Only done when the features are not already known, and the member
+     * is going to be invited.
+     */
+    private void maybeStartSpeculativeAllocation(@NotNull ChatRoomMember chatRoomMember)
+    {
+        if (chatRoomMember.getCachedFeatures() != null || !checkMinParticipants()
+                || participants.containsKey(chatRoomMember.getOccupantJid())
+                || (chatRoomMember.getRole() == MemberRole.VISITOR && !VisitorsConfig.config.getEnabled()))
+        {
+            return;
+        }
+
+        // Most members use one of a few clients, so guess that this one has the most common features.
+        Set<Features> features = XmppCapsStats.getMostCommonFeatures();
+        if (features == null)
+        {
+            features = Features.Companion.getDefaultFeatures();
+        }
+
+        try
+        {
+            AllocationParametersBuilder builder
+                    = new AllocationParametersBuilder(chatRoomMember, features, chatRoom, logger);
+            // A member which just joined has no sources yet.
+            ParticipantAllocationParameters parameters
+                    = builder.build(builder.createOffer(), EndpointSourceSet.EMPTY);
+            ColibriSessionManager colibriSessionManager = getColibriSessionManager();
+
+            logger.info("Starting a speculative allocation for " + chatRoomMember.getName());
+            SpeculativeAllocation speculativeAllocation
+                    = new SpeculativeAllocation(parameters, colibriSessionManager.allocateAsync(parameters));
+            speculativeAllocations.put(chatRoomMember.getName(), speculativeAllocation);
+        }
+        catch (Exception e)
+        {
+            logger.warn("Failed to start a speculative allocation for " + chatRoomMember.getName(), e);
+        }
+    }
+
     /**
      * Adds a {@link ChatRoomMember} to the conference. Creates the
      * {@link Participant} instance corresponding to the {@link ChatRoomMember}.
      * established and videobridge channels being allocated.
      *
      * @param chatRoomMember the chat member to be invited into the conference.
-     * @param justJoined whether the chat room member should be invited as a
-     * result of just having joined (as opposed to e.g. another participant
-     * joining triggering the invite).
+     * @param joinStarted when the chat room member joined, if it should be invited as a result of just having joined
+     * (as opposed to e.g. another participant joining triggering the invite), otherwise null.
      */
-    private void inviteChatMember(ChatRoomMember chatRoomMember, boolean justJoined)
+    private void inviteChatMember(ChatRoomMember chatRoomMember, @Nullable Instant joinStarted)
     {
-        synchronized (participantLock)
+        participantLock.lock();
+        try
         {
             // Participant already connected ?
             if (participants.get(chatRoomMember.getOccupantJid()) != null)
@@ -818,7 +923,11 @@ else if (participant.getChatMember().getRole() == MemberRole.VISITOR)
                 }
             }
 
-            inviteParticipant(participant, false, justJoined);
+            inviteParticipant(participant, false, joinStarted != null, joinStarted);
+        }
+        finally
+        {
+            participantLock.unlock();
         }
     }
 
@@ -831,6 +940,21 @@ else if (participant.getChatMember().getRole() == MemberRole.VISITOR)
      */
     private void inviteParticipant(@NotNull Participant participant, boolean reInvite, boolean justJoined)
     {
+        inviteParticipant(participant, reInvite, justJoined, null);
+    }
+
+    /**
+     * Invites a {@link Participant} to the conference, see {@link #inviteParticipant(Participant, boolean, boolean)}.
+     * @param joinStarted when the participant's member joined, if it is invited as a result of joining.
+     */
+    private void inviteParticipant(
+            @NotNull Participant participant,
+            boolean reInvite,
+            boolean justJoined,
+            @Nullable Instant joinStarted)
+    {
+        SpeculativeAllocation speculativeAllocation
+                = reInvite ? null : speculativeAllocations.remove(participant.getEndpointId());
         // Colibri channel allocation and jingle invitation take time, so schedule them on a separate thread.
         ParticipantInviteRunnable channelAllocator = new ParticipantInviteRunnable(
                 this,
@@ -839,6 +963,8 @@ private void inviteParticipant(@NotNull Participant participant, boolean reInvit
                 hasToStartAudioMuted(justJoined),
                 hasToStartVideoMuted(justJoined),
                 reInvite,
+                speculativeAllocation,
+                joinStarted,
                 logger
         );
 
@@ -919,17 +1045,23 @@ private void expireBridgeSessions()
 
     private void onMemberKicked(ChatRoomMember chatRoomMember)
     {
-        synchronized (participantLock)
+        participantLock.lock();
+        try
         {
             logger.info("Member kicked: " + chatRoomMember.getName());
 
             onMemberLeft(chatRoomMember);
         }
+        finally
+        {
+            participantLock.unlock();
+        }
     }
 
     private void onMemberLeft(ChatRoomMember chatRoomMember)
     {
-        synchronized (participantLock)
+        participantLock.lock();
+        try
         {
             logger.info("Member left:" + chatRoomMember.getName());
             Participant leftParticipant = participants.get(chatRoomMember.getOccupantJid());
@@ -960,6 +1092,10 @@ else if (participants.size() == 0)
                 expireBridgeSessions();
             }
         }
+        finally
+        {
+            participantLock.unlock();
+        }
 
         maybeStop();
     }
@@ -1016,7 +1152,8 @@ private void terminateParticipant(
                 reason,
                 sendSessionTerminate));
 
-        synchronized (participantLock)
+        participantLock.lock();
+        try
         {
             participant.terminateJingleSession(reason, message, sendSessionTerminate);
 
@@ -1024,6 +1161,8 @@ private void terminateParticipant(
             removeParticipantSources(participant, sendSourceRemove, false);
 
             Participant removed = participants.remove(participant.getChatMember().getOccupantJid());
+            sourceSignalingScheduler.remove(participant);
+            filteredSourcesCache.invalidate(participant.getEndpointId());
             logger.info(
                     "Removed participant " + participant.getChatMember().getName() + " removed=" + (removed != null));
             if (!willReinvite && removed != null)
@@ -1038,6 +1177,10 @@ else if (removed.getChatMember().getRole() == MemberRole.VISITOR)
                 }
             }
         }
+        finally
+        {
+            participantLock.unlock();
+        }
 
         getColibriSessionManager().removeParticipant(participant.getEndpointId());
     }
@@ -1146,7 +1289,8 @@ void terminateSession(
             throw new InvalidBridgeSessionIdException(bridgeSessionId + " is not a currently active session");
         }
 
-        synchronized (participantLock)
+        participantLock.lock();
+        try
         {
             terminateParticipant(
                     participant,
@@ -1162,6 +1306,10 @@ void terminateSession(
                 inviteParticipant(participant, false, false);
             }
         }
+        finally
+        {
+            participantLock.unlock();
+        }
     }
 
     /**
@@ -1401,7 +1549,7 @@ public EntityBareJid getRoomName()
     @NotNull
     public XmppProvider getClientXmppProvider()
     {
-        return jicofoServices.getXmppServices().getClientConnection();
+        return jicofoServices.getXmppServices().getClientConnection(roomName);
     }
 
     /**
@@ -1545,7 +1693,8 @@ private OrderedJsonObject getDebugState(boolean full)
         int jibriCount = 0;
         int jigasiCount = 0;
         int transcriberCount = 0;
-        synchronized (participantLock)
+        participantLock.lock();
+        try
         {
             for (Participant p : participants.values())
             {
@@ -1570,6 +1719,10 @@ else if (member.isJigasi())
                 }
             }
         }
+        finally
+        {
+            participantLock.unlock();
+        }
         o.put("visitor_count", visitorCount);
         o.put("participant_count", participantCount);
         o.put("jibri_count", jibriCount);
@@ -1585,7 +1738,8 @@ else if (member.isJigasi())
     public void muteAllParticipants(MediaType mediaType)
     {
         Set<Participant> participantsToMute = new HashSet<>();
-        synchronized (participantLock)
+        participantLock.lock();
+        try
         {
             for (Participant participant : participants.values())
             {
@@ -1599,6 +1753,10 @@ public void muteAllParticipants(MediaType mediaType)
                 participantsToMute.add(participant);
             }
         }
+        finally
+        {
+            participantLock.unlock();
+        }
 
         // Force mute at the backend. We assume this was successful. If for some reason it wasn't the colibri layer
         // should handle it (e.g. remove a broken bridge).
@@ -1651,15 +1809,38 @@ public int getParticipantCount()
         return participants.size();
     }
 
+    @NotNull
+    public SourceSignalingScheduler getSourceSignalingScheduler()
+    {
+        return sourceSignalingScheduler;
+    }
+
+    @NotNull
+    public FilteredSourcesCache getFilteredSourcesCache()
+    {
+        return filteredSourcesCache;
+    }
+
+    @NotNull
+    public SourcePayloadCache getSourcePayloadCache()
+    {
+        return sourcePayloadCache;
+    }
+
     @Override
     public long getVisitorCount()
     {
-        synchronized (participantLock)
+        participantLock.lock();
+        try
         {
             return participants.values().stream()
                     .filter(p -> p.getChatMember().getRole() == MemberRole.VISITOR)
                     .count();
         }
+        finally
+        {
+            participantLock.unlock();
+        }
     }
 
     /**
@@ -1701,15 +1882,21 @@ public String redirectVisitor(boolean visitorRequested)
 
     private void userParticipantAdded()
     {
-        synchronized (participantLock)
+        participantLock.lock();
+        try
         {
             userParticipantCount++;
         }
+        finally
+        {
+            participantLock.unlock();
+        }
     }
 
     private void userParticipantRemoved()
     {
-        synchronized(participantLock)
+        participantLock.lock();
+        try
         {
             if (userParticipantCount <= 0)
             {
@@ -1721,6 +1908,10 @@ private void userParticipantRemoved()
                 userParticipantCount--;
             }
         }
+        finally
+        {
+            participantLock.unlock();
+        }
     }
 
     /**
@@ -1729,10 +1920,15 @@ private void userParticipantRemoved()
      */
     private long getUserParticipantCount()
     {
-        synchronized (participantLock)
+        participantLock.lock();
+        try
         {
             return userParticipantCount;
         }
+        finally
+        {
+            participantLock.unlock();
+        }
     }
 
     /**
@@ -1780,7 +1976,7 @@ private String selectVisitorNode()
 
             EntityBareJid visitorMucJid = getVisitorMucJid(
                     roomName,
-                    jicofoServices.getXmppServices().getClientConnection(),
+                    getClientXmppProvider(),
                     xmppProvider);
 
             // Will call join after releasing the lock
@@ -1806,7 +2002,7 @@ private String selectVisitorNode()
         presenceExtensions.add(createConferenceProperties());
 
         // updates presence with presenceExtensions and sends it
-        chatRoomToJoin.addPresenceExtensions(presenceExtensions);
+        chatRoomToJoin.addPresenceExtensions(presenceExtensions, true);
 
         if (this.visitorsBroadcastEnabled)
         {
@@ -1838,10 +2034,15 @@ private void onBridgeUp(Jid bridgeJid)
         {
             logger.info("New bridge available, will try to restart: " + bridgeJid);
 
-            synchronized (participantLock)
+            participantLock.lock();
+            try
             {
                 reInviteParticipants(participants.values());
             }
+            finally
+            {
+                participantLock.unlock();
+            }
         }
     }
 
@@ -1855,7 +2056,8 @@ private void reInviteParticipantsById(@NotNull List<String> participantIdsToRein
         if (!participantIdsToReinvite.isEmpty())
         {
             ConferenceMetrics.participantsMoved.addAndGet(participantIdsToReinvite.size());
-            synchronized (participantLock)
+            participantLock.lock();
+            try
             {
                 List<Participant> participantsToReinvite = new ArrayList<>();
                 for (Participant participant : participants.values())
@@ -1871,6 +2073,10 @@ private void reInviteParticipantsById(@NotNull List<String> participantIdsToRein
                 }
                 reInviteParticipants(participantsToReinvite, updateParticipant);
             }
+            finally
+            {
+                participantLock.unlock();
+            }
         }
     }
 
@@ -1951,7 +2157,8 @@ private void reInviteParticipants(Collection<Participant> participants)
      */
     private void reInviteParticipants(Collection<Participant> participants, boolean updateParticipant)
     {
-        synchronized (participantLock)
+        participantLock.lock();
+        try
         {
             for (Participant participant : participants)
             {
@@ -1969,6 +2176,10 @@ private void reInviteParticipants(Collection<Participant> participants, boolean
                 inviteParticipant(participant, !restartJingle, false);
             }
         }
+        finally
+        {
+            participantLock.unlock();
+        }
     }
 
     /**
@@ -2121,7 +2332,8 @@ public boolean isRtcStatsEnabled()
         @Override
         public void run()
         {
-            synchronized (participantLock)
+            participantLock.lock();
+            try
             {
                 if (participants.size() == 1)
                 {
@@ -2144,10 +2356,14 @@ public void run()
                 }
                 singleParticipantTout = null;
             }
+            finally
+            {
+                participantLock.unlock();
+            }
         }
     }
 
-    private class BridgeSelectorEventHandler implements BridgeSelector.EventHandler
+    private class BridgeSelectorEventHandler implements BridgeSelector.EventHandler, DrainableConference
     {
         @Override
         public void bridgeIsShuttingDown(@NotNull Bridge bridge)
@@ -2158,7 +2374,7 @@ public void bridgeIsShuttingDown(@NotNull Bridge bridge)
             if (!participantIdsToReinvite.isEmpty())
             {
                 logger.info("Bridge " + bridge.getJid() + " is shutting down, re-inviting " + participantIdsToReinvite);
-                reInviteParticipantsById(participantIdsToReinvite);
+                scheduleMigration(participantIdsToReinvite);
             }
         }
 
@@ -2171,15 +2387,50 @@ public void bridgeRemoved(@NotNull Bridge bridge)
             if (!participantIdsToReinvite.isEmpty())
             {
                 logger.info("Removed " + bridge.getJid() + ", re-inviting " + participantIdsToReinvite);
-                reInviteParticipantsById(participantIdsToReinvite);
+                scheduleMigration(participantIdsToReinvite);
             }
         }
 
+        /**
+         * Re-invite participants whose bridge was removed, rate limited across all conferences.
+         */
+        private void scheduleMigration(@NotNull List<String> participantIds)
+        {
+            boolean hasModerator = participants.values().stream().anyMatch(Participant::hasModeratorRights);
+            jicofoServices.getBridgeSelector().getMigrationScheduler().schedule(
+                    new MigrationScheduler.Migration(
+                            roomName.toString(),
+                            participantIds.size(),
+                            hasModerator,
+                            creationTime,
+                            () -> reInviteParticipantsById(participantIds)));
+        }
+
         @Override
         public void bridgeAdded(Bridge bridge)
         {
             onBridgeUp(bridge.getJid());
         }
+
+        @Override
+        public int getParticipantCount(@NotNull Bridge bridge)
+        {
+            return colibriSessionManager != null ? colibriSessionManager.getParticipantCount(bridge) : 0;
+        }
+
+        @Override
+        public void moveFrom(@NotNull Bridge bridge)
+        {
+            List<String> participantIdsToReinvite
+                    = colibriSessionManager != null
+                        ? colibriSessionManager.removeBridge(bridge) : Collections.emptyList();
+            if (!participantIdsToReinvite.isEmpty())
+            {
+                logger.info("Moving away from draining " + bridge.getJid() + ", re-inviting "
+                        + participantIdsToReinvite);
+                reInviteParticipantsById(participantIdsToReinvite);
+            }
+        }
     }
 
     /**
@@ -2368,7 +2619,7 @@ public void bridgeSelectionFailed()
             ChatRoom chatRoom = getChatRoom();
             if (chatRoom != null)
             {
-                chatRoom.addPresenceExtensionIfMissing(new BridgeNotAvailablePacketExt());
+                chatRoom.addPresenceExtensionIfMissing(new BridgeNotAvailablePacketExt(), true);
             }
         }
 
@@ -2383,7 +2634,7 @@ public void bridgeSelectionSucceeded()
             if (chatRoom != null)
             {
                 // Remove any "bridge not available" extensions.
-                chatRoom.removePresenceExtensions(e -> e instanceof BridgeNotAvailablePacketExt);
+                chatRoom.removePresenceExtensions(e -> e instanceof BridgeNotAvailablePacketExt, true);
             }
         }
 
@@ -35,7 +35,9 @@
 import org.jivesoftware.smack.packet.*;
 import org.jxmpp.jid.*;
 
+import java.time.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * An {@link Runnable} which invites a participant to a conference.
@@ -72,6 +74,11 @@ public class ParticipantInviteRunnable implements Runnable, Cancelable
      */
     private final boolean startVideoMuted;
 
+    /**
+     * Computes the offer and allocation parameters from the participant's features.
+     */
+    @NotNull private final AllocationParametersBuilder allocationParametersBuilder;
+
     /**
      * Whether the participant should be force muted (audio).
      */
@@ -96,6 +103,18 @@ public class ParticipantInviteRunnable implements Runnable, Cancelable
      */
     @NotNull private final Participant participant;
 
+    /**
+     * An allocation for the participant which was started before its features were discovered, to be used if it
+     * matches the discovered features.
+     */
+    @Nullable private final SpeculativeAllocation speculativeAllocation;
+
+    /**
+     * When the participant's member joined, if this invite is a result of it joining. Used for the end-to-end join
+     * latency.
+     */
+    @Nullable private final Instant joinStarted;
+
     /**
      * {@inheritDoc}
      */
@@ -108,59 +127,80 @@ public ParticipantInviteRunnable(
             boolean reInvite,
             Logger parentLogger)
     {
+        this(
+                meetConference,
+                colibriSessionManager,
+                participant,
+                startAudioMuted,
+                startVideoMuted,
+                reInvite,
+                null,
+                null,
+                parentLogger);
+    }
+
+    public ParticipantInviteRunnable(
+            JitsiMeetConferenceImpl meetConference,
+            @NotNull ColibriSessionManager colibriSessionManager,
+            @NotNull Participant participant,
+            boolean startAudioMuted,
+            boolean startVideoMuted,
+            boolean reInvite,
+            @Nullable SpeculativeAllocation speculativeAllocation,
+            @Nullable Instant joinStarted,
+            Logger parentLogger)
+    {
+        logger = parentLogger.createChildLogger(getClass().getName());
+        logger.addContext("participant", participant.getChatMember().getName());
         this.meetConference = meetConference;
         this.colibriSessionManager = colibriSessionManager;
 
-        boolean forceMuteAudio = false;
-        boolean forceMuteVideo = false;
-        ChatRoom chatRoom = meetConference.getChatRoom();
-        if (chatRoom != null && !participant.hasModeratorRights() && !participant.shouldSuppressForceMute())
-        {
-            if (chatRoom.isAvModerationEnabled(MediaType.AUDIO))
-            {
-                forceMuteAudio = true;
-            }
-
-            if (chatRoom.isAvModerationEnabled(MediaType.VIDEO))
-            {
-                forceMuteVideo = true;
-            }
-        }
-
-        this.forceMuteAudio = forceMuteAudio;
-        this.forceMuteVideo = forceMuteVideo;
+        this.allocationParametersBuilder = new AllocationParametersBuilder(
+                participant.getChatMember(),
+                participant.getSupportedFeatures(),
+                meetConference.getChatRoom(),
+                logger);
+        this.forceMuteAudio = allocationParametersBuilder.getForceMuteAudio();
+        this.forceMuteVideo = allocationParametersBuilder.getForceMuteVideo();
 
         // If the participant is force muted, communicate it from the start instead of sending MuteIqs later.
         this.startAudioMuted = startAudioMuted || forceMuteAudio;
         this.startVideoMuted = startVideoMuted || forceMuteVideo;
         this.reInvite = reInvite;
         this.participant = participant;
-        logger = parentLogger.createChildLogger(getClass().getName());
-        logger.addContext("participant", participant.getChatMember().getName());
+        this.speculativeAllocation = speculativeAllocation;
+        this.joinStarted = joinStarted;
     }
 
     /**
-     * Entry point for the {@link ParticipantInviteRunnable} task.
+     * Entry point for the {@link ParticipantInviteRunnable} task. This only blocks until the colibri allocation request
+     * is sent, the rest of the invite process is chained on the response.
      */
     @Override
     public void run()
     {
+        CompletableFuture<Void> future;
         try
         {
-            doRun();
+            future = doRun();
         }
         catch (Throwable e)
         {
-            logger.error("Channel allocator failed: ", e);
-            cancel();
+            future = CompletableFuture.failedFuture(e);
         }
-        finally
+
+        future.whenComplete((result, e) ->
         {
+            if (e != null)
+            {
+                logger.error("Channel allocator failed: ", e);
+                cancel();
+            }
             participant.inviteRunnableCompleted(this);
-        }
+        });
     }
 
-    private void doRun()
+    private CompletableFuture<Void> doRun()
     {
         Offer offer;
 
@@ -171,67 +211,84 @@ private void doRun()
         catch (UnsupportedFeatureConfigurationException e)
         {
             logger.error("Error creating offer", e);
-            return;
+            discardSpeculativeAllocation();
+            return CompletableFuture.completedFuture(null);
         }
         if (canceled)
         {
-            return;
+            discardSpeculativeAllocation();
+            return CompletableFuture.completedFuture(null);
         }
 
-        ColibriAllocation colibriAllocation;
-        try
+        ParticipantAllocationParameters participantOptions
+                = allocationParametersBuilder.build(offer, participant.getSources());
+        CompletableFuture<ColibriAllocation> allocation;
+        Instant allocationStarted;
+        if (speculativeAllocation != null && speculativeAllocation.matches(participantOptions))
         {
-            Set<Media> medias = new HashSet<>();
-            offer.getContents().forEach(content -> {
-                // Ignore the "data" content here (SCTP).
-                if (!"audio".equals(content.getName()) && !"video".equals(content.getName()))
-                {
-                    return;
-                }
-                Media media = ConferenceUtilKt.toMedia(content);
-                if (media != null)
-                {
-                    medias.add(media);
-                }
-                else
-                {
-                    logger.warn("Failed to convert ContentPacketExtension to Media: " + content.toXML());
-                }
-            });
-            ParticipantAllocationParameters participantOptions = new ParticipantAllocationParameters(
-                    participant.getEndpointId(),
-                    participant.getStatId(),
-                    participant.getChatMember().getRegion(),
-                    participant.getSources(),
-                    participant.hasSourceNameSupport(),
-                    participant.useSsrcRewriting(),
-                    forceMuteAudio,
-                    forceMuteVideo,
-                    offer.getContents().stream().anyMatch(c -> c.getName() == "data"),
-                    (participant.getChatMember().getRole() == MemberRole.VISITOR),
-                    medias);
-            colibriAllocation = colibriSessionManager.allocate(participantOptions);
+            logger.debug("Using the speculative allocation.");
+            JoinMetrics.speculativeAllocationsUsed.inc();
+            allocation = speculativeAllocation.getAllocation();
+            allocationStarted = speculativeAllocation.getStarted();
         }
-        catch (BridgeSelectionFailedException e)
+        else
+        {
+            if (speculativeAllocation != null)
+            {
+                // The discovered features require different parameters.
+                logger.info("The speculative allocation does not match the features, allocating again.");
+                JoinMetrics.speculativeAllocationsRedone.inc();
+                colibriSessionManager.removeParticipant(participant.getEndpointId());
+            }
+            allocation = colibriSessionManager.allocateAsync(participantOptions);
+            allocationStarted = Instant.now();
+        }
+
+        return allocation.handle((colibriAllocation, e) ->
+        {
+            if (e != null)
+            {
+                allocationFailed(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                return null;
+            }
+
+            JoinMetrics.observeSince(JoinMetrics.allocation, allocationStarted);
+            allocationSucceeded(offer, colibriAllocation);
+            return null;
+        });
+    }
+
+    private void discardSpeculativeAllocation()
+    {
+        if (speculativeAllocation != null)
+        {
+            speculativeAllocation.discard(colibriSessionManager);
+        }
+    }
+
+    private void allocationFailed(Throwable e)
+    {
+        if (e instanceof BridgeSelectionFailedException)
         {
             logger.error("Can not invite participant, no bridge available.");
-            cancel();
-            return;
         }
-        catch (ConferenceAlreadyExistsException e)
+        else if (e instanceof ConferenceAlreadyExistsException)
         {
             logger.warn("Can not allocate colibri channels, conference already exists.");
-            cancel();
-            return;
         }
-        catch (ColibriAllocationFailedException e)
+        else if (e instanceof ColibriAllocationFailedException)
         {
             logger.error("Failed to allocate colibri channels", e);
-            cancel();
-            return;
         }
+        else
+        {
+            logger.error("Channel allocator failed: ", e);
+        }
+        cancel();
+    }
 
-
+    private void allocationSucceeded(Offer offer, ColibriAllocation colibriAllocation)
+    {
         if (canceled)
         {
             return;
@@ -281,15 +338,7 @@ public String toString()
     private Offer createOffer()
         throws UnsupportedFeatureConfigurationException
     {
-        OfferOptions offerOptions = new OfferOptions();
-        OfferOptionsUtilKt.applyConstraints(offerOptions, participant);
-        // Enable REMB only when TCC is not enabled.
-        if (!offerOptions.getTcc() && participant.hasRembSupport())
-        {
-            offerOptions.setRemb(true);
-        }
-
-        return new Offer(new ConferenceSourceMap(), JingleOfferFactory.INSTANCE.createOffer(offerOptions));
+        return allocationParametersBuilder.createOffer();
     }
 
     /**
@@ -386,11 +435,20 @@ private boolean doInviteOrReinvite(Offer offer, ColibriAllocation colibriAllocat
         {
             jingleSession = participant.createNewJingleSession();
             logger.info("Sending session-initiate to: " + participant.getMucJid() + " sources=" + sources);
+            Instant sessionInitiateStarted = Instant.now();
             ack = jingleSession.initiateSession(
                     offer.getContents(),
                     additionalExtensions,
                     sources
             );
+            if (ack)
+            {
+                JoinMetrics.observeSince(JoinMetrics.sessionInitiate, sessionInitiateStarted);
+                if (joinStarted != null)
+                {
+                    JoinMetrics.observeSince(JoinMetrics.total, joinStarted);
+                }
+            }
         }
         else
         {
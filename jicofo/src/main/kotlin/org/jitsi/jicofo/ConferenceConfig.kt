@@ -90,6 +90,15 @@ class ConferenceConfig private constructor() {
     fun getSourceSignalingDelayMs(conferenceSize: Int) =
         sourceSignalingDelays.floorEntry(conferenceSize)?.value ?: 0
 
+    /**
+     * Whether to allocate colibri endpoints for a joining member concurrently with the discovery of its features, when
+     * they are not already known. The allocation is made assuming the most common features (or the default features),
+     * and is redone if the discovered features require different parameters.
+     */
+    val pipelinedJoin: Boolean by config {
+        "jicofo.conference.pipelined-join".from(newConfig)
+    }
+
     val reinviteMethod: ReinviteMethod by config {
         "jicofo.conference.reinvite-method".from(newConfig)
     }
@@ -98,6 +107,14 @@ class ConferenceConfig private constructor() {
         "jicofo.conference.enable-multi-stream-backward-compat".from(newConfig)
     }
 
+    /**
+     * Whether to keep track of the endpoints whose sources changed since the last source signaling to a participant,
+     * and only compare their sources when signaling (instead of all sources in the conference).
+     */
+    val sourceSignalingTrackDeltas: Boolean by config {
+        "jicofo.conference.source-signaling-track-deltas".from(newConfig)
+    }
+
     /**
      * Whether to strip simulcast streams when signaling receivers. This option requires that jitsi-videobridge
      * uses the first SSRC in the SIM group as the target SSRC when rewriting streams, as this is the only SSRC
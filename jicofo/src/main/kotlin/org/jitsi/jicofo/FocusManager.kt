@@ -51,7 +51,7 @@ class FocusManager(
     private val jicofoServices: JicofoServices,
     /** Clock to use for pin timeouts. */
     private val clock: Clock = Clock.systemUTC(),
-) : ConferenceListener, ConferenceStore, XmppProvider.Listener {
+) : ConferenceListener, ConferenceStore {
 
     val logger = createLogger()
 
@@ -73,6 +73,9 @@ class FocusManager(
     /** Holds the conferences that are currently pinned to a specific bridge version. */
     private val pinnedConferences: MutableMap<EntityBareJid, PinnedConference> = HashMap()
 
+    /** The listeners added to the client XMPP connections, see [addClientConnection]. */
+    private val clientConnectionListeners: MutableMap<XmppProvider, XmppProvider.Listener> = ConcurrentHashMap()
+
     fun start() {
         metricsContainer.addUpdateTask { updateMetrics() }
     }
@@ -373,7 +376,23 @@ class FocusManager(
         val expiresAt: Instant = clock.instant().plus(duration).truncatedTo(ChronoUnit.SECONDS)
     }
 
-    override fun registrationChanged(registered: Boolean) {
-        conferencesCache.forEach { it.registrationChanged(registered) }
+    /**
+     * Deliver the registration changes of [xmppProvider], one of the client connections over which conferences are
+     * sharded, to the conferences which use it.
+     */
+    fun addClientConnection(xmppProvider: XmppProvider) {
+        val listener = object : XmppProvider.Listener {
+            override fun registrationChanged(registered: Boolean) {
+                conferences.values.filter { it.clientXmppProvider == xmppProvider }.forEach {
+                    it.registrationChanged(registered)
+                }
+            }
+        }
+        clientConnectionListeners[xmppProvider] = listener
+        xmppProvider.addListener(listener)
+    }
+
+    fun removeClientConnection(xmppProvider: XmppProvider) {
+        clientConnectionListeners.remove(xmppProvider)?.let { xmppProvider.removeListener(it) }
     }
 }
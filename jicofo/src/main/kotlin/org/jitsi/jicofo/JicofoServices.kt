@@ -75,10 +75,14 @@ class JicofoServices {
         focusManager = focusManager, // TODO do not use FocusManager directly
         authenticationAuthority = authenticationAuthority
     ).also {
-        it.clientConnection.addListener(focusManager)
+        it.clientConnectionPool.connections.forEach { connection -> focusManager.addClientConnection(connection) }
     }
 
-    val bridgeSelector = BridgeSelector()
+    val bridgeSelector = BridgeSelector().apply {
+        if (BridgeConfig.config.drainPlannerEnabled) {
+            drainPlanner.start()
+        }
+    }
     private val jvbDoctor = if (BridgeConfig.config.healthChecksEnabled) {
         JvbDoctor(bridgeSelector, xmppServices.serviceConnection).apply {
             bridgeSelector.addHandler(this)
@@ -130,7 +134,7 @@ class JicofoServices {
             HealthConfig.config,
             focusManager,
             bridgeSelector,
-            setOf(xmppServices.clientConnection)
+            xmppServices.clientConnectionPool.connections.toSet()
         ).apply {
             start()
         }
@@ -167,6 +171,7 @@ class JicofoServices {
     init {
         logger.info("Registering GlobalMetrics periodic updates.")
         JicofoMetricsContainer.instance.addUpdateTask { GlobalMetrics.update() }
+        GlobalMetrics.startPinningMonitor()
     }
 
     fun shutdown() {
@@ -181,10 +186,11 @@ class JicofoServices {
             bridgeSelector.removeHandler(it)
             it.shutdown()
         }
+        bridgeSelector.drainPlanner.stop()
         bridgeDetector?.shutdown()
         jibriDetector?.shutdown()
         sipJibriDetector?.shutdown()
-        xmppServices.clientConnection.removeListener(focusManager)
+        xmppServices.clientConnectionPool.connections.forEach { focusManager.removeClientConnection(it) }
         xmppServices.shutdown()
     }
 
@@ -220,6 +226,9 @@ class JicofoServices {
         xmppServices.jigasiDetector?.let { put("jigasi_detector", it.stats) }
         put("jigasi", xmppServices.jigasiStats)
         put("threads", GlobalMetrics.threadsMetrics.get())
+        put("threads_peak", GlobalMetrics.peakThreadsMetrics.get())
+        put("virtual_threads", GlobalMetrics.virtualThreadsEnabled.get())
+        put("virtual_threads_pinned", GlobalMetrics.virtualThreadsPinned.get())
         put("jingle", JingleStats.toJson())
         put("version", CurrentVersionImpl.VERSION.toString())
         healthChecker?.let {
@@ -245,7 +254,8 @@ class JicofoServices {
         put("jibri_detector", jibriDetector?.debugState ?: "null")
         put("sip_jibri_detector", sipJibriDetector?.debugState ?: "null")
         put("jigasi_detector", xmppServices.jigasiDetector?.debugState ?: "null")
-        put("av_moderation", xmppServices.avModerationHandler.debugState)
+        put("av_moderation", xmppServices.avModerationDebugState)
+        put("client_connections", xmppServices.clientConnectionPool.debugState)
         put("conference_iq_handler", xmppServices.conferenceIqHandler.debugState)
     }
 
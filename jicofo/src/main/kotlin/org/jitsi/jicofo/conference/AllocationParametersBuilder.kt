@@ -0,0 +1,110 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.conference
+
+import org.jitsi.jicofo.ConferenceConfig
+import org.jitsi.jicofo.Offer
+import org.jitsi.jicofo.bridge.colibri.ParticipantAllocationParameters
+import org.jitsi.jicofo.codec.JingleOfferFactory
+import org.jitsi.jicofo.codec.OfferOptions
+import org.jitsi.jicofo.conference.source.ConferenceSourceMap
+import org.jitsi.jicofo.conference.source.EndpointSourceSet
+import org.jitsi.jicofo.util.applyConstraints
+import org.jitsi.jicofo.xmpp.Features
+import org.jitsi.jicofo.xmpp.muc.ChatRoom
+import org.jitsi.jicofo.xmpp.muc.ChatRoomMember
+import org.jitsi.jicofo.xmpp.muc.MemberRole
+import org.jitsi.jicofo.xmpp.muc.hasModeratorRights
+import org.jitsi.utils.MediaType
+import org.jitsi.utils.logging2.Logger
+import org.jitsi.xmpp.extensions.colibri2.Media
+
+/**
+ * Computes the offer and the colibri allocation parameters for a [ChatRoomMember] with a given set of [features]. This
+ * does not need a [Participant], so it is also used to allocate before the features of a member are discovered (see
+ * [SpeculativeAllocation]).
+ */
+class AllocationParametersBuilder(
+    private val chatMember: ChatRoomMember,
+    private val features: Set<Features>,
+    /** The conference's chat room, used to check whether A/V moderation is enabled. */
+    chatRoom: ChatRoom?,
+    private val logger: Logger
+) {
+    private val forceMute = chatRoom != null && !chatMember.role.hasModeratorRights() &&
+        !shouldSuppressForceMute(chatMember, features)
+
+    /** Whether the participant should be force muted (audio). */
+    val forceMuteAudio = forceMute && chatRoom?.isAvModerationEnabled(MediaType.AUDIO) == true
+
+    /** Whether the participant should be force muted (video). */
+    val forceMuteVideo = forceMute && chatRoom?.isAvModerationEnabled(MediaType.VIDEO) == true
+
+    /** Create the offer to send to the participant, without transport or sources. */
+    @Throws(UnsupportedFeatureConfigurationException::class)
+    fun createOffer(): Offer {
+        val offerOptions = OfferOptions().apply {
+            applyConstraints(features)
+            // Enable REMB only when TCC is not enabled.
+            if (!tcc && features.contains(Features.REMB)) {
+                remb = true
+            }
+        }
+
+        return Offer(ConferenceSourceMap(), JingleOfferFactory.INSTANCE.createOffer(offerOptions))
+    }
+
+    /**
+     * Create the parameters with which to allocate colibri endpoints for the participant, given the [offer] that will
+     * be sent to it and its [sources].
+     */
+    fun build(offer: Offer, sources: EndpointSourceSet): ParticipantAllocationParameters {
+        val medias = mutableSetOf<Media>()
+        offer.contents.forEach { content ->
+            // Ignore the "data" content here (SCTP).
+            if (content.name != "audio" && content.name != "video") {
+                return@forEach
+            }
+            content.toMedia()?.let { medias.add(it) }
+                ?: logger.warn("Failed to convert ContentPacketExtension to Media: ${content.toXML()}")
+        }
+        return ParticipantAllocationParameters(
+            chatMember.name,
+            chatMember.statsId,
+            chatMember.region,
+            sources,
+            features.contains(Features.SOURCE_NAMES),
+            ConferenceConfig.config.useSsrcRewriting && features.contains(Features.SSRC_REWRITING_V1),
+            forceMuteAudio,
+            forceMuteVideo,
+            offer.contents.any { it.name == "data" },
+            chatMember.role == MemberRole.VISITOR,
+            medias
+        )
+    }
+
+    companion object {
+        /**
+         * Whether force-muting should be suppressed for [chatMember] with [features] (it is a trusted participant and
+         * doesn't support unmuting, or is a visitor and muting is redundant).
+         */
+        fun shouldSuppressForceMute(chatMember: ChatRoomMember, features: Set<Features>) =
+            (chatMember.isJigasi && !features.contains(Features.AUDIO_MUTE)) || chatMember.isJibri ||
+                chatMember.role == MemberRole.VISITOR
+    }
+}
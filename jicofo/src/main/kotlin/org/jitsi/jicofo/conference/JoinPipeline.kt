@@ -0,0 +1,118 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.conference
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings
+import org.jitsi.jicofo.bridge.colibri.ColibriAllocation
+import org.jitsi.jicofo.bridge.colibri.ColibriSessionManager
+import org.jitsi.jicofo.bridge.colibri.ParticipantAllocationParameters
+import org.jitsi.metrics.HistogramMetric
+import java.time.Duration
+import java.time.Instant
+import java.util.concurrent.CompletableFuture
+import org.jitsi.jicofo.metrics.JicofoMetricsContainer.Companion.instance as metricsContainer
+
+/**
+ * A colibri allocation for a joining member which was started before its features were discovered, with guessed
+ * features (see [org.jitsi.jicofo.ConferenceConfig.pipelinedJoin]).
+ */
+class SpeculativeAllocation(
+    /** The parameters used for the allocation. */
+    val parameters: ParticipantAllocationParameters,
+    val allocation: CompletableFuture<ColibriAllocation>,
+    /** When the allocation was started. */
+    val started: Instant = Instant.now()
+) {
+    /**
+     * Whether this allocation can be used for [parameters] (computed with the discovered features), i.e. they are the
+     * same as the ones it was made with.
+     */
+    fun matches(parameters: ParticipantAllocationParameters) =
+        this.parameters.copy(medias = emptySet()) == parameters.copy(medias = emptySet()) &&
+            this.parameters.medias.map { it.toXML().toString() }.toSet() ==
+            parameters.medias.map { it.toXML().toString() }.toSet()
+
+    /** Remove this allocation, because it will not be used. */
+    fun discard(colibriSessionManager: ColibriSessionManager) {
+        JoinMetrics.speculativeAllocationsDiscarded.inc()
+        colibriSessionManager.removeParticipant(parameters.id)
+    }
+}
+
+/**
+ * Latency of the stages of a member joining a conference: feature discovery, colibri allocation and the Jingle
+ * session-initiate (until it is acknowledged). When [org.jitsi.jicofo.ConferenceConfig.pipelinedJoin] is enabled the
+ * first two overlap, and [total] shows the gain.
+ */
+@SuppressFBWarnings("MS_CANNOT_BE_FINAL")
+class JoinMetrics {
+    companion object {
+        private val latencyBuckets = doubleArrayOf(5.0, 10.0, 25.0, 50.0, 100.0, 250.0, 500.0, 1000.0, 2500.0, 5000.0)
+
+        @JvmField
+        val disco = metricsContainer.registerHistogram(
+            "join_disco_latency_ms",
+            "Time to discover the features of a joining member, in milliseconds",
+            *latencyBuckets
+        )
+
+        @JvmField
+        val allocation = metricsContainer.registerHistogram(
+            "join_allocation_latency_ms",
+            "Time to allocate colibri endpoints for a participant, in milliseconds",
+            *latencyBuckets
+        )
+
+        @JvmField
+        val sessionInitiate = metricsContainer.registerHistogram(
+            "join_session_initiate_latency_ms",
+            "Time for a participant to acknowledge session-initiate, in milliseconds",
+            *latencyBuckets
+        )
+
+        @JvmField
+        val total = metricsContainer.registerHistogram(
+            "join_latency_ms",
+            "Time from a member joining until it acknowledged session-initiate, in milliseconds",
+            *latencyBuckets
+        )
+
+        @JvmField
+        val speculativeAllocationsUsed = metricsContainer.registerCounter(
+            "join_speculative_allocations_used",
+            "Number of speculative allocations which matched the discovered features"
+        )
+
+        @JvmField
+        val speculativeAllocationsRedone = metricsContainer.registerCounter(
+            "join_speculative_allocations_redone",
+            "Number of speculative allocations which had to be redone because of the discovered features"
+        )
+
+        @JvmField
+        val speculativeAllocationsDiscarded = metricsContainer.registerCounter(
+            "join_speculative_allocations_discarded",
+            "Number of speculative allocations which were not used, e.g. because the member was not invited"
+        )
+
+        /** Observe the time since [start] in [histogram]. */
+        @JvmStatic
+        fun observeSince(histogram: HistogramMetric, start: Instant) =
+            histogram.observe(Duration.between(start, Instant.now()).toMillis().toDouble())
+    }
+}
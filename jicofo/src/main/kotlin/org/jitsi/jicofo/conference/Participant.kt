@@ -18,7 +18,6 @@
 package org.jitsi.jicofo.conference
 
 import org.jitsi.jicofo.ConferenceConfig
-import org.jitsi.jicofo.TaskPools.Companion.scheduledPool
 import org.jitsi.jicofo.conference.JitsiMeetConferenceImpl.InvalidBridgeSessionIdException
 import org.jitsi.jicofo.conference.JitsiMeetConferenceImpl.SenderCountExceededException
 import org.jitsi.jicofo.conference.source.ConferenceSourceMap
@@ -49,8 +48,6 @@ import org.jitsi.xmpp.extensions.jitsimeet.IceStatePacketExtension
 import org.jivesoftware.smack.packet.StanzaError
 import org.jxmpp.jid.EntityFullJid
 import java.time.Clock
-import java.util.concurrent.ScheduledFuture
-import java.util.concurrent.TimeUnit
 
 /**
  * Class represent Jitsi Meet conference participant. Stores information about
@@ -68,7 +65,7 @@ open class Participant @JvmOverloads constructor(
     private val jingleIqRequestHandler: JingleIqRequestHandler,
     parentLogger: Logger? = null,
     /** The list of XMPP features supported by this participant. */
-    private val supportedFeatures: Set<Features> = Features.defaultFeatures,
+    val supportedFeatures: Set<Features> = Features.defaultFeatures,
     /** The [Clock] used by this participant. */
     clock: Clock = Clock.systemUTC()
 ) {
@@ -94,7 +91,9 @@ open class Participant @JvmOverloads constructor(
         audio = hasAudioSupport(),
         video = hasVideoSupport(),
         ConferenceConfig.config.stripSimulcast(),
-        supportsReceivingMultipleVideoStreams() || !ConferenceConfig.config.multiStreamBackwardCompat
+        supportsReceivingMultipleVideoStreams() || !ConferenceConfig.config.multiStreamBackwardCompat,
+        ConferenceConfig.config.sourceSignalingTrackDeltas,
+        conference.filteredSourcesCache
     )
 
     /**
@@ -115,17 +114,6 @@ open class Participant @JvmOverloads constructor(
     var jingleSession: JingleSession? = null
         private set
 
-    /**
-     * The task, if any, currently scheduled to signal queued remote sources.
-     */
-    private var signalQueuedSourcesTask: ScheduledFuture<*>? = null
-
-    /**
-     * The lock used when queueing remote sources to be signaled with a delay, i.e. when setting
-     * [.signalQueuedSourcesTask].
-     */
-    private val signalQueuedSourcesTaskSyncRoot = Any()
-
     /**
      * Whether the screensharing source of this participant (if it exists) is muted. If a screensharing source doesn't
      * exists this stays false (though the source and the mute status are communicated separately so they may not
@@ -178,7 +166,7 @@ open class Participant @JvmOverloads constructor(
         }
         sourceSignaling.remoteDesktopSourceIsMutedChanged(owner, muted)
         // Signal updates, if any, immediately.
-        synchronized(signalQueuedSourcesTaskSyncRoot) { scheduleSignalingOfQueuedSources() }
+        scheduleSignalingOfQueuedSources()
     }
 
     /**
@@ -273,7 +261,7 @@ open class Participant @JvmOverloads constructor(
         }
         synchronized(sourceSignaling) { sourceSignaling.addSources(sources) }
         if (jingleSession?.isActive() == true) {
-            synchronized(signalQueuedSourcesTaskSyncRoot) { scheduleSignalingOfQueuedSources() }
+            scheduleSignalingOfQueuedSources()
         }
         // No need to schedule, the queued sources will be signaled when the session becomes active.
     }
@@ -288,31 +276,10 @@ open class Participant @JvmOverloads constructor(
     }
 
     /**
-     * Schedule a task to signal all queued remote sources to the remote side. If a task is already scheduled, does
-     * not schedule a new one (the existing task will send all latest queued sources).
+     * Schedule signaling of all queued remote sources to the remote side. The conference's [SourceSignalingScheduler]
+     * signals the queued sources of all participants which need it in a single task.
      */
-    private fun scheduleSignalingOfQueuedSources() {
-        val delayMs = ConferenceConfig.config.getSourceSignalingDelayMs(conference.participantCount)
-        synchronized(signalQueuedSourcesTaskSyncRoot) {
-            if (signalQueuedSourcesTask == null) {
-                logger.debug("Scheduling a task to signal queued remote sources after $delayMs ms.")
-                signalQueuedSourcesTask = scheduledPool.schedule(
-                    {
-                        synchronized(signalQueuedSourcesTaskSyncRoot) {
-                            sendQueuedRemoteSources()
-                            signalQueuedSourcesTask = null
-                        }
-                    },
-                    delayMs.toLong(),
-                    TimeUnit.MILLISECONDS
-                )
-                if (signalQueuedSourcesTask?.isDone == true) {
-                    // In case the executor ran immediately in the same thread (i.e. in tests).
-                    signalQueuedSourcesTask = null
-                }
-            }
-        }
-    }
+    private fun scheduleSignalingOfQueuedSources() = conference.sourceSignalingScheduler.schedule(this)
 
     /**
      * Remove a set of remote sources, which are to be signaled as removed to the remote side. The sources may be
@@ -325,7 +292,7 @@ open class Participant @JvmOverloads constructor(
         }
         synchronized(sourceSignaling) { sourceSignaling.removeSources(sources) }
         if (jingleSession?.isActive() == true) {
-            synchronized(signalQueuedSourcesTaskSyncRoot) { scheduleSignalingOfQueuedSources() }
+            scheduleSignalingOfQueuedSources()
         }
         // No need to schedule, the queued sources will be signaled when the session becomes active.
     }
@@ -357,8 +324,7 @@ open class Participant @JvmOverloads constructor(
      * Whether force-muting should be suppressed for this participant (it is a trusted participant and doesn't
      * support unmuting, or is a visitor and muting is redundant).
      */
-    fun shouldSuppressForceMute() = (chatMember.isJigasi && !hasAudioMuteSupport()) || chatMember.isJibri ||
-        chatMember.role == MemberRole.VISITOR
+    fun shouldSuppressForceMute() = AllocationParametersBuilder.shouldSuppressForceMute(chatMember, supportedFeatures)
 
     /** Checks whether this [Participant]'s role has moderator rights. */
     fun hasModeratorRights() = chatMember.role.hasModeratorRights()
@@ -389,7 +355,8 @@ open class Participant @JvmOverloads constructor(
             jingleIqRequestHandler,
             chatMember.chatRoom.xmppProvider.xmppConnection,
             JingleRequestHandlerImpl(),
-            ConferenceConfig.config.useJsonEncodedSources && supportsJsonEncodedSources()
+            ConferenceConfig.config.useJsonEncodedSources && supportsJsonEncodedSources(),
+            conference.sourcePayloadCache
         ).also {
             jingleSession = it
         }
@@ -0,0 +1,125 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.conference
+
+import org.jitsi.jicofo.conference.source.ConferenceSourceMap
+import org.jitsi.jicofo.conference.source.EndpointSourceSet
+import org.jitsi.jicofo.conference.source.VideoType
+import org.jitsi.utils.MediaType
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Describes which sources should be signaled to an endpoint. Most endpoints in a conference have the same profile.
+ */
+data class SourceFilterProfile(
+    /** The set of media types supported by the endpoint. */
+    val supportedMediaTypes: Set<MediaType>,
+    val stripSimulcast: Boolean,
+    /**
+     * Whether the endpoint supports receiving multiple video streams. If it doesn't, we make sure to only signal the
+     * screensharing (desktop) source when another endpoint has both camera and screensharing.
+     */
+    val supportsReceivingMultipleStreams: Boolean
+) {
+    /**
+     * Filter out certain sources which should not be signaled to this endpoint. E.g. filter out video for endpoints
+     * which don't support video. Returns null if no sources remain.
+     */
+    fun filter(endpointSourceSet: EndpointSourceSet): EndpointSourceSet? {
+        var filtered = endpointSourceSet.stripByMediaType(supportedMediaTypes) ?: return null
+        if (stripSimulcast) {
+            filtered = filtered.stripSimulcast.takeUnless { it.isEmpty() } ?: return null
+        }
+        if (!supportsReceivingMultipleStreams) {
+            filtered = filtered.filterMultiStream().takeUnless { it.isEmpty() } ?: return null
+        }
+        return filtered
+    }
+}
+
+/**
+ * Caches the result of [SourceFilterProfile.filter] for the sources of each endpoint in a conference, so that
+ * participants with the same profile share the filtered sources instead of each computing them.
+ *
+ * An entry is only used if the input sources are the same (usually the same instance, since the participants'
+ * sources are derived from the same maps), so stale entries are never returned. Entries for an endpoint should be
+ * removed with [invalidate] once the endpoint leaves.
+ */
+class FilteredSourcesCache {
+    private val cache = ConcurrentHashMap<SourceFilterProfile, ConcurrentHashMap<String, Entry>>()
+
+    /** Get the sources of [owner] filtered according to [profile]. */
+    fun filter(profile: SourceFilterProfile, owner: String, endpointSourceSet: EndpointSourceSet): EndpointSourceSet? {
+        val entries = cache.computeIfAbsent(profile) { ConcurrentHashMap() }
+        val entry = entries[owner]
+        entry?.get(endpointSourceSet)?.let { return it.filtered }
+
+        val filtered = profile.filter(endpointSourceSet)
+        // Keep the previous result too, since participants compare the previously signaled and the updated sources.
+        entries[owner] = Entry(Result(endpointSourceSet, filtered), entry?.current)
+        return filtered
+    }
+
+    /** Remove the cached entries for [owner]. */
+    fun invalidate(owner: String) = cache.values.forEach { it.remove(owner) }
+
+    private class Result(val input: EndpointSourceSet, val filtered: EndpointSourceSet?) {
+        fun matches(endpointSourceSet: EndpointSourceSet) = input === endpointSourceSet || input == endpointSourceSet
+    }
+
+    private class Entry(val current: Result, val previous: Result?) {
+        fun get(endpointSourceSet: EndpointSourceSet) = when {
+            current.matches(endpointSourceSet) -> current
+            previous?.matches(endpointSourceSet) == true -> previous
+            else -> null
+        }
+    }
+}
+
+/**
+ * Remove all sources unless their media type is in [retain]. Returns null if no sources remain (same as
+ * [ConferenceSourceMap.stripByMediaType]).
+ */
+private fun EndpointSourceSet.stripByMediaType(retain: Set<MediaType>): EndpointSourceSet? {
+    if (retain.contains(MediaType.AUDIO) && retain.contains(MediaType.VIDEO)) {
+        return takeUnless { it.isEmpty() }
+    }
+    val strippedSources = sources.filter { retain.contains(it.mediaType) }.toSet()
+    return if (strippedSources.isEmpty()) {
+        null
+    } else {
+        EndpointSourceSet(strippedSources, ssrcGroups.filter { retain.contains(it.mediaType) }.toSet())
+    }
+}
+
+/**
+ * If an endpoint has a screensharing (desktop) source, filter out all other video sources.
+ */
+private fun EndpointSourceSet.filterMultiStream(): EndpointSourceSet {
+    val desktopSourceName = sources.find { it.videoType == VideoType.Desktop }?.name
+    return if (desktopSourceName != null) {
+        val remainingSources = sources.filter {
+            it.mediaType != MediaType.VIDEO || it.name == desktopSourceName
+        }.toSet()
+        val remainingSsrcs = remainingSources.map { it.ssrc }.toSet()
+        val remainingGroups = ssrcGroups.filter { it.ssrcs.any { it in remainingSsrcs } }.toSet()
+        EndpointSourceSet(remainingSources, remainingGroups)
+    } else {
+        this
+    }
+}
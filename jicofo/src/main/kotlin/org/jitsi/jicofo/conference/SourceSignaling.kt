@@ -21,6 +21,7 @@ import org.jitsi.jicofo.conference.AddOrRemove.Add
 import org.jitsi.jicofo.conference.AddOrRemove.Remove
 import org.jitsi.jicofo.conference.source.ConferenceSourceMap
 import org.jitsi.jicofo.conference.source.EndpointSourceSet
+import org.jitsi.jicofo.conference.source.PersistentConferenceSourceMap
 import org.jitsi.jicofo.conference.source.Source
 import org.jitsi.jicofo.conference.source.VideoType
 import org.jitsi.utils.MediaType
@@ -30,32 +31,43 @@ import org.json.simple.JSONObject
 class SourceSignaling(
     audio: Boolean = true,
     video: Boolean = true,
-    private val stripSimulcast: Boolean = true,
+    stripSimulcast: Boolean = true,
     /**
      * Whether the endpoint supports receiving multiple video streams. If it doesn't, we make sure to only signal the
      * screensharing (desktop) source when another endpoint has both camera and screensharing.
      *
      * We assume at most one desktop source and at most one camera source.
      */
-    private val supportsReceivingMultipleStreams: Boolean = true
+    supportsReceivingMultipleStreams: Boolean = true,
+    /**
+     * Whether to track the endpoints affected by [addSources] and [removeSources] and only compare their sources in
+     * [update], instead of comparing the full maps.
+     */
+    private val trackDeltas: Boolean = true,
+    /** A cache of filtered sources shared with the other participants in the conference, if any. */
+    private val filterCache: FilteredSourcesCache? = null
 ) {
-    /** The set of media types supported by the endpoint. */
-    private val supportedMediaTypes: Set<MediaType> = buildSet {
-        if (audio) add(MediaType.AUDIO)
-        if (video) add(MediaType.VIDEO)
-    }
+    private val filterProfile = SourceFilterProfile(
+        buildSet {
+            if (audio) add(MediaType.AUDIO)
+            if (video) add(MediaType.VIDEO)
+        },
+        stripSimulcast,
+        supportsReceivingMultipleStreams
+    )
 
     /**
      * The pre-filtered set of sources that have been signaled to the endpoint.
      * The actual set of sources that have been signaled are the result of [filter] applied to [signaledSources].
      */
-    private var signaledSources = ConferenceSourceMap()
+    private var signaledSources = PersistentConferenceSourceMap.EMPTY
 
     /**
      * The pre-filtered set of updated sources, i.e. [signaledSources] with any requested changes made via [addSources]
-     * or [removeSources].
+     * or [removeSources]. Since [updatedSources] is derived from [signaledSources] the two share structure, and only
+     * the entries which changed need to be compared in [update].
      */
-    private var updatedSources = ConferenceSourceMap()
+    private var updatedSources = PersistentConferenceSourceMap.EMPTY
 
     /**
      * In the case when [supportsReceivingMultipleStreams] is false, stores any screensharing sources which are
@@ -63,6 +75,12 @@ class SourceSignaling(
      */
     private val mutedDesktopSources = ConferenceSourceMap()
 
+    /**
+     * The owners whose sources were added or removed since the last [update], or null if the next [update] needs to
+     * compare the full maps (e.g. after [reset] or a desktop source was muted or unmuted).
+     */
+    private var changedOwners: MutableSet<String>? = if (trackDeltas) mutableSetOf() else null
+
     fun addSources(sourcesToAdd: ConferenceSourceMap) {
         sourcesToAdd.copy().entries.forEach { (owner, ess) ->
             if (mutedDesktopSources[owner] == NO_SOURCES) {
@@ -76,11 +94,13 @@ class SourceSignaling(
                 }
             }
         }
-        updatedSources.add(sourcesToAdd)
+        updatedSources += sourcesToAdd
+        changedOwners?.addAll(sourcesToAdd.keys)
     }
 
     fun removeSources(sourcesToRemove: ConferenceSourceMap) {
-        updatedSources.remove(sourcesToRemove)
+        updatedSources -= sourcesToRemove
+        changedOwners?.addAll(sourcesToRemove.keys)
         mutedDesktopSources.remove(sourcesToRemove)
     }
 
@@ -89,11 +109,37 @@ class SourceSignaling(
      * signaled to the endpoint to accomplish the update.
      */
     fun update(): List<SourcesToAddOrRemove> {
-        val ss = signaledSources.filter()
-        val us = updatedSources.filter()
-        val sourcesToAdd = us - ss
-        val sourcesToRemove = ss - us
-        reset(updatedSources)
+        val sourcesToAdd = ConferenceSourceMap()
+        val sourcesToRemove = ConferenceSourceMap()
+        fun diff(owner: String, signaled: EndpointSourceSet?, updated: EndpointSourceSet?) {
+            val ss = signaled?.let { filter(owner, it) }
+            val us = updated?.let { filter(owner, it) }
+            if (us != null) {
+                val added = if (ss == null) us else us - ss
+                if (!added.isEmpty()) sourcesToAdd.add(owner, added)
+            }
+            if (ss != null) {
+                val removed = if (us == null) ss else ss - us
+                if (!removed.isEmpty()) sourcesToRemove.add(owner, removed)
+            }
+        }
+
+        val changedOwners = changedOwners
+        if (changedOwners == null) {
+            signaledSources.forEachDifference(updatedSources, ::diff)
+        } else {
+            changedOwners.forEach { owner ->
+                val signaled = signaledSources[owner]
+                val updated = updatedSources[owner]
+                // Operations which cancel each other out (e.g. a source added and then removed) leave the entry
+                // unchanged.
+                if (signaled !== updated && signaled != updated) {
+                    diff(owner, signaled, updated)
+                }
+            }
+        }
+        signaledSources = updatedSources
+        this.changedOwners = if (trackDeltas) mutableSetOf() else null
         return buildList {
             if (sourcesToRemove.isNotEmpty()) {
                 add(SourcesToAddOrRemove(Remove, sourcesToRemove))
@@ -108,32 +154,37 @@ class SourceSignaling(
         get() = JSONObject().apply {
             this["signaled_sources"] = signaledSources.toJson()
             this["sources"] = updatedSources.toJson()
-            this["supported_media_types"] = JSONArray().apply { supportedMediaTypes.forEach { add(it.toString()) } }
+            this["supported_media_types"] = JSONArray().apply {
+                filterProfile.supportedMediaTypes.forEach { add(it.toString()) }
+            }
         }
 
     fun reset(s: ConferenceSourceMap): ConferenceSourceMap {
-        signaledSources = s.copy()
-        updatedSources = signaledSources.copy()
-        return s.filter()
+        signaledSources = PersistentConferenceSourceMap(s)
+        updatedSources = signaledSources
+        changedOwners = null
+        return ConferenceSourceMap().apply {
+            s.forEach { (owner, ess) -> filter(owner, ess)?.let { add(owner, it) } }
+        }
     }
 
     /**
-     * Filter out certain sources which should not be signaled to this endpoint. E.g. filter out video for endpoints
-     * which don't support video.
+     * Filter out certain sources which should not be signaled to this endpoint (see [SourceFilterProfile.filter]).
+     * Returns null if no sources remain.
      */
-    private fun ConferenceSourceMap.filter(): ConferenceSourceMap = copy().apply {
-        stripByMediaType(supportedMediaTypes)
-        if (stripSimulcast) stripSimulcast()
-        if (!supportsReceivingMultipleStreams) {
-            filterMultiStream()
+    private fun filter(owner: String, endpointSourceSet: EndpointSourceSet): EndpointSourceSet? =
+        if (filterCache != null) {
+            filterCache.filter(filterProfile, owner, endpointSourceSet)
+        } else {
+            filterProfile.filter(endpointSourceSet)
         }
-    }
 
     /**
      * Notifies this instance that a remote participant (identified by [owner]) has muted or unmuted their screensharing
      * source.
      */
     fun remoteDesktopSourceIsMutedChanged(owner: String, muted: Boolean) {
+        changedOwners = null
         if (muted) {
             // so that we can fall back to the video source
             val allParticipantSources = updatedSources[owner] ?: EndpointSourceSet()
@@ -141,7 +192,7 @@ class SourceSignaling(
 
             // The source was muted. If there was a screensharing source signaled (desktopSources is not empty)
             // we remove it from [updatedSources], so that we can signal a source-remove with the next update.
-            updatedSources.remove(ConferenceSourceMap(owner, desktopSources))
+            updatedSources -= ConferenceSourceMap(owner, desktopSources)
             // If the source was not signaled yet, save NO_SOURCES in the map to remember that it is muted once it
             // is signaled.
             mutedDesktopSources.add(owner, if (desktopSources.isEmpty()) NO_SOURCES else desktopSources)
@@ -153,29 +204,12 @@ class SourceSignaling(
             // If there was a screensharing source previously signaled, and it is not the NO_SOURCES placeholder, add
             // it to [updatedSources] so that is signaled with the next update.
             if (unmutedDesktopSources != null && unmutedDesktopSources != NO_SOURCES) {
-                updatedSources.add(owner, unmutedDesktopSources)
+                updatedSources = updatedSources.plus(owner, unmutedDesktopSources)
             }
         }
     }
 }
 
-/**
- * If an endpoint has a screensharing (desktop) source, filter out all other video sources.
- */
-private fun ConferenceSourceMap.filterMultiStream() = map { ess ->
-    val desktopSourceName = ess.sources.find { it.videoType == VideoType.Desktop }?.name
-    if (desktopSourceName != null) {
-        val remainingSources = ess.sources.filter {
-            it.mediaType != MediaType.VIDEO || it.name == desktopSourceName
-        }.toSet()
-        val remainingSsrcs = remainingSources.map { it.ssrc }.toSet()
-        val remainingGroups = ess.ssrcGroups.filter { it.ssrcs.any { it in remainingSsrcs } }.toSet()
-        EndpointSourceSet(remainingSources, remainingGroups)
-    } else {
-        ess
-    }
-}
-
 private fun EndpointSourceSet.getDesktopSources(): EndpointSourceSet {
     val desktopSourceName = sources.find { it.videoType == VideoType.Desktop }?.name
     return if (desktopSourceName != null) {
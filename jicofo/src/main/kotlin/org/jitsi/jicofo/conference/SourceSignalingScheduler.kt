@@ -0,0 +1,127 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.conference
+
+import org.jitsi.jicofo.TaskPools
+import org.jitsi.jicofo.metrics.JicofoMetricsContainer
+import org.jitsi.utils.logging2.Logger
+import org.jitsi.utils.logging2.createChildLogger
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Signals queued remote sources for the participants of a conference. Instead of each participant scheduling its own
+ * task when its sources change, participants are marked as dirty and a single task ("tick") for the whole conference
+ * signals the queued sources of all dirty participants after the delay.
+ *
+ * Ticks do not overlap, so the updates for a participant are always sent in order.
+ */
+class SourceSignalingScheduler(
+    /** The delay in milliseconds to use (based on the current size of the conference). */
+    private val getDelayMs: () -> Int,
+    parentLogger: Logger
+) {
+    private val logger = createChildLogger(parentLogger)
+
+    private val lock = ReentrantLock()
+
+    /** The participants with queued sources, in the order in which they were scheduled. */
+    private val dirtyParticipants = LinkedHashSet<Participant>()
+
+    /** The scheduled tick, if any. */
+    private var tick: ScheduledFuture<*>? = null
+
+    /** Whether a tick is currently running. */
+    private var running = false
+
+    /**
+     * Schedule signaling of [participant]'s queued sources. If a tick is already scheduled, [participant] will be
+     * handled by it.
+     */
+    fun schedule(participant: Participant) = lock.withLock {
+        dirtyParticipants.add(participant)
+        scheduleTick()
+    }
+
+    /** Stop tracking [participant] (e.g. because it left). */
+    fun remove(participant: Participant) = lock.withLock {
+        dirtyParticipants.remove(participant)
+    }
+
+    /** Cancel any scheduled tick and discard the queued participants. */
+    fun stop() = lock.withLock {
+        tick?.cancel(false)
+        tick = null
+        dirtyParticipants.clear()
+    }
+
+    private fun scheduleTick() {
+        if (tick != null || running || dirtyParticipants.isEmpty()) {
+            return
+        }
+        val delayMs = getDelayMs()
+        logger.debug { "Scheduling a tick to signal queued remote sources after $delayMs ms." }
+        tick = TaskPools.scheduledPool.schedule(::runTick, delayMs.toLong(), TimeUnit.MILLISECONDS)
+        if (tick?.isDone == true) {
+            // In case the executor ran immediately in the same thread (i.e. in tests).
+            tick = null
+        }
+    }
+
+    private fun runTick() {
+        val participants = lock.withLock {
+            tick = null
+            running = true
+            dirtyParticipants.toList().also { dirtyParticipants.clear() }
+        }
+
+        val start = System.nanoTime()
+        try {
+            participants.forEach {
+                try {
+                    it.sendQueuedRemoteSources()
+                } catch (e: Exception) {
+                    logger.error("Failed to signal queued sources for ${it.endpointId}", e)
+                }
+            }
+        } finally {
+            tickDuration.observe((System.nanoTime() - start) / 1_000_000.0)
+            participantsPerTick.observe(participants.size.toDouble())
+            lock.withLock {
+                running = false
+                // Participants marked dirty while the tick was running.
+                scheduleTick()
+            }
+        }
+    }
+
+    companion object {
+        val tickDuration = JicofoMetricsContainer.instance.registerHistogram(
+            "source_signaling_tick_duration_ms",
+            "The time it took to signal queued sources to the participants of a conference in one tick, in milliseconds",
+            1.0, 5.0, 10.0, 50.0, 100.0, 500.0, 1000.0
+        )
+        val participantsPerTick = JicofoMetricsContainer.instance.registerHistogram(
+            "source_signaling_participants_per_tick",
+            "The number of participants whose queued sources were signaled in one tick",
+            1.0, 2.0, 5.0, 10.0, 50.0, 100.0, 500.0
+        )
+    }
+}
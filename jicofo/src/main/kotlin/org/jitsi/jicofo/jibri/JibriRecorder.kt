@@ -185,6 +185,6 @@ class JibriRecorder(
         }
         logger.info("Publishing new jibri-recording-status: ${recordingStatus.toXML()} in: " + conference.roomName)
 
-        conference.chatRoom?.setPresenceExtension(recordingStatus)
+        conference.chatRoom?.setPresenceExtension(recordingStatus, priority = true)
     }
 }
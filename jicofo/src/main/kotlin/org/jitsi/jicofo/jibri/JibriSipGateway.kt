@@ -143,6 +143,6 @@ class JibriSipGateway(
         logger.info("Publishing new state: ${session.sipAddress} ${sipCallState.toXML()}")
 
         // Publish that in the presence
-        conference.chatRoom?.setPresenceExtension(sipCallState) ?: logger.warn("chatRoom is null")
+        conference.chatRoom?.setPresenceExtension(sipCallState, priority = true) ?: logger.warn("chatRoom is null")
     }
 }
@@ -18,14 +18,14 @@
 package org.jitsi.jicofo.util
 
 import org.jitsi.jicofo.codec.OfferOptions
-import org.jitsi.jicofo.conference.Participant
+import org.jitsi.jicofo.xmpp.Features
 
-fun OfferOptions.applyConstraints(participant: Participant) {
-    audio = audio && participant.hasAudioSupport()
-    video = video && participant.hasVideoSupport()
-    sctp = sctp && participant.hasSctpSupport()
-    rtx = rtx && participant.hasRtxSupport()
-    remb = remb && participant.hasRembSupport()
-    tcc = tcc && participant.hasTccSupport()
-    opusRed = opusRed && participant.hasOpusRedSupport()
+fun OfferOptions.applyConstraints(features: Set<Features>) {
+    audio = audio && features.contains(Features.AUDIO)
+    video = video && features.contains(Features.VIDEO)
+    sctp = sctp && features.contains(Features.SCTP)
+    rtx = rtx && features.contains(Features.RTX)
+    remb = remb && features.contains(Features.REMB)
+    tcc = tcc && features.contains(Features.TCC)
+    opusRed = opusRed && features.contains(Features.OPUS_RED)
 }
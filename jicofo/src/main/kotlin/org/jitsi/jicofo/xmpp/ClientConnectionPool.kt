@@ -0,0 +1,71 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.xmpp
+
+import org.jitsi.utils.OrderedJsonObject
+import org.jxmpp.jid.EntityBareJid
+import org.jxmpp.jid.parts.Resourcepart
+
+/**
+ * The client XMPP connections, over which conferences are sharded by the JID of their room (see
+ * [XmppClientConnectionConfig.connectionCount]). Each connection has its own socket, reader thread and writer queue,
+ * so this spreads the XML parsing and sending over multiple threads, and a stalled connection only affects the
+ * conferences using it.
+ *
+ * The first connection is the main one, which handles the requests which are not specific to a conference.
+ */
+class ClientConnectionPool(
+    val connections: List<XmppProvider>
+) {
+    init {
+        require(connections.isNotEmpty()) { "At least one connection is required" }
+    }
+
+    val main: XmppProvider
+        get() = connections.first()
+
+    /** Get the connection to use for the conference in [room]. The same room always uses the same connection. */
+    fun get(room: EntityBareJid): XmppProvider = connections[index(room)]
+
+    private fun index(room: EntityBareJid): Int {
+        // Spread the bits of the hash, so that similar room names are not correlated.
+        var h = room.toString().hashCode()
+        h = (h xor (h ushr 16)) * 0x45d9f3b
+        h = h xor (h ushr 16)
+        return Math.floorMod(h, connections.size)
+    }
+
+    val debugState: OrderedJsonObject
+        get() = OrderedJsonObject().apply {
+            connections.forEach { this[it.config.name] = it.registered }
+        }
+}
+
+/**
+ * The config for an additional client connection: the same as [base], except for the resource (which has to be
+ * unique) and the name.
+ */
+class ClientShardConnectionConfig(
+    private val base: XmppConnectionConfig,
+    index: Int
+) : XmppConnectionConfig by base {
+    override val resource: Resourcepart = Resourcepart.from("${base.resource}-$index")
+    override val name = "${base.name}-$index"
+
+    override fun toString(): String = "ClientShardConnectionConfig[base=$base, resource=$resource]"
+}
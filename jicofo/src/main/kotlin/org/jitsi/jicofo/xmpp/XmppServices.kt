@@ -26,21 +26,37 @@ import org.jitsi.jicofo.metrics.JicofoMetricsContainer
 import org.jitsi.jicofo.xmpp.jingle.JingleIqRequestHandler
 import org.jitsi.utils.OrderedJsonObject
 import org.jitsi.utils.logging2.createLogger
+import org.jxmpp.jid.EntityBareJid
 
 class XmppServices(
     conferenceStore: ConferenceStore,
     authenticationAuthority: AbstractAuthAuthority?,
-    focusManager: FocusManager
+    focusManager: FocusManager,
+    /** Creates and starts the [XmppProvider] for a connection config. Tests use it to provide mock connections. */
+    private val xmppProviderFactory: ((XmppConnectionConfig) -> XmppProvider)? = null
 ) {
     private val logger = createLogger()
 
-    val clientConnection: XmppProvider = XmppProvider(XmppConfig.client, logger).apply {
-        start()
-    }
+    private fun createXmppProvider(config: XmppConnectionConfig): XmppProvider =
+        xmppProviderFactory?.invoke(config) ?: XmppProvider(config, logger).apply { start() }
+
+    val clientConnection: XmppProvider = createXmppProvider(XmppConfig.client)
+
+    /** All client connections, [clientConnection] and the additional ones used for sharding conferences. */
+    val clientConnectionPool = ClientConnectionPool(
+        listOf(clientConnection) + (1 until XmppConfig.client.connectionCount).map {
+            logger.info("Using an additional client XMPP connection with index $it.")
+            createXmppProvider(ClientShardConnectionConfig(XmppConfig.client, it))
+        }
+    )
+    private val clientXmppConnections = clientConnectionPool.connections.map { it.xmppConnection }.toSet()
+
+    /** Get the client connection to use for the conference in [room]. */
+    fun getClientConnection(room: EntityBareJid) = clientConnectionPool.get(room)
 
     val serviceConnection: XmppProvider = if (XmppConfig.service.enabled) {
         logger.info("Using a dedicated Service XMPP connection.")
-        XmppProvider(XmppConfig.service, logger).apply { start() }
+        createXmppProvider(XmppConfig.service)
     } else {
         logger.info("No dedicated Service XMPP connection configured, re-using the client XMPP connection.")
         clientConnection
@@ -49,7 +65,7 @@ class XmppServices(
     val visitorConnections: List<XmppProvider> = XmppConfig.visitors.values.mapNotNull { config ->
         if (config.enabled) {
             logger.info("Using XMPP visitor connection ${config.name}")
-            XmppProvider(config, logger).apply { start() }
+            createXmppProvider(config)
         } else {
             logger.info("Visitor connection ${config.name} is disabled.")
             null
@@ -77,13 +93,13 @@ class XmppServices(
     }
 
     private val jibriIqHandler = JibriIqHandler(
-        setOf(clientConnection.xmppConnection, serviceConnection.xmppConnection),
+        clientXmppConnections + serviceConnection.xmppConnection,
         conferenceStore
     )
 
     private val jigasiIqHandler = if (jigasiDetector != null) {
         JigasiIqHandler(
-            setOf(clientConnection.xmppConnection, serviceConnection.xmppConnection),
+            clientXmppConnections + serviceConnection.xmppConnection,
             conferenceStore,
             jigasiDetector
         )
@@ -93,12 +109,24 @@ class XmppServices(
     val jigasiStats: OrderedJsonObject
         get() = jigasiIqHandler?.statsJson ?: OrderedJsonObject()
 
-    val avModerationHandler = AvModerationHandler(clientConnection, conferenceStore)
-    val configurationChangeHandler = ConfigurationChangeHandler(clientConnection, conferenceStore)
-    private val audioMuteHandler = AudioMuteIqHandler(setOf(clientConnection.xmppConnection), conferenceStore)
-    private val videoMuteHandler = VideoMuteIqHandler(setOf(clientConnection.xmppConnection), conferenceStore)
+    // Messages from the MUC and its components are sent to the connection which joined the room.
+    private val avModerationHandlers = clientConnectionPool.connections.associateWith {
+        AvModerationHandler(it, conferenceStore)
+    }
+
+    /** The state of the A/V moderation handlers of all client connections, by connection name. */
+    val avModerationDebugState: OrderedJsonObject
+        get() = OrderedJsonObject().apply {
+            avModerationHandlers.forEach { (connection, handler) -> this[connection.config.name] = handler.debugState }
+        }
+
+    private val configurationChangeHandlers = clientConnectionPool.connections.map {
+        ConfigurationChangeHandler(it, conferenceStore)
+    }
+    private val audioMuteHandler = AudioMuteIqHandler(clientXmppConnections, conferenceStore)
+    private val videoMuteHandler = VideoMuteIqHandler(clientXmppConnections, conferenceStore)
     val jingleHandler = JingleIqRequestHandler(
-        visitorConnections.map { it.xmppConnection }.toSet() + clientConnection.xmppConnection
+        visitorConnections.map { it.xmppConnection }.toSet() + clientXmppConnections
     )
     val visitorsManager = VisitorsManager(clientConnection, focusManager)
 
@@ -123,7 +151,7 @@ class XmppServices(
     }
 
     fun shutdown() {
-        clientConnection.shutdown()
+        clientConnectionPool.connections.forEach { it.shutdown() }
         if (serviceConnection != clientConnection) {
             serviceConnection.shutdown()
         }
@@ -132,7 +160,7 @@ class XmppServices(
         jigasiIqHandler?.shutdown()
         audioMuteHandler.shutdown()
         videoMuteHandler.shutdown()
-        avModerationHandler.shutdown()
+        avModerationHandlers.values.forEach { it.shutdown() }
         jingleHandler.shutdown()
 
         clientConnection.xmppConnection.unregisterIQRequestHandler(conferenceIqHandler)
@@ -18,6 +18,7 @@
 package org.jitsi.jicofo
 
 import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.comparables.shouldBeLessThan
 import io.kotest.matchers.shouldBe
 import org.jitsi.jicofo.conference.source.EndpointSourceSet
 import org.jitsi.jicofo.conference.source.Source
@@ -32,7 +33,12 @@ import java.time.Duration
 class SsrcValidationPerfTest : ShouldSpec() {
     init {
         val numEndpoints = 500
-        xcontext("ValidatingConferenceSourceMap") {
+        // The thresholds are far above the expected times (well under a millisecond per operation), so that they do
+        // not fail on slow or loaded machines. They catch regressions in complexity, e.g. an operation becoming
+        // linear (or the whole run quadratic) in the size of the conference.
+        val singleOperationThreshold = Duration.ofMillis(500)
+        val allEndpointsThreshold = Duration.ofSeconds(10)
+        context("ValidatingConferenceSourceMap") {
             context("Add/Remove a source to a large conference") {
                 val conferenceSources = createConferenceSourceMap(numEndpoints)
                 conferenceSources.size shouldBe numEndpoints
@@ -44,14 +50,14 @@ class SsrcValidationPerfTest : ShouldSpec() {
                 var added: EndpointSourceSet? = null
                 measureAndLog("Single add") {
                     added = conferenceSources.tryToAdd(newEndpointId, newEndpointSourceSet)
-                }
+                } shouldBeLessThan singleOperationThreshold
                 added shouldBe newEndpointSourceSet
                 conferenceSources.size shouldBe numEndpoints + 1
 
                 var removed: EndpointSourceSet? = null
                 measureAndLog("Single remove") {
                     removed = conferenceSources.tryToRemove(newEndpointId, newEndpointSourceSet)
-                }
+                } shouldBeLessThan singleOperationThreshold
                 conferenceSources.size shouldBe numEndpoints
                 removed shouldBe newEndpointSourceSet
             }
@@ -65,22 +71,16 @@ class SsrcValidationPerfTest : ShouldSpec() {
                         val endpointId = "endpoint-$i"
                         val sourceSet = createEndpointSourceSet(endpointId, ssrcCount)
                         ssrcCount += sourceSet.sources.size
-                        measureAndLog("Adding endpoint $i") {
-                            conferenceSources.tryToAdd(endpointId, sourceSet)
-                        }
+                        conferenceSources.tryToAdd(endpointId, sourceSet)
                     }
-                }
+                } shouldBeLessThan allEndpointsThreshold
                 conferenceSources.size shouldBe numEndpoints
                 measureAndLog("Removing all endpoints") {
-                    var i = 0
                     while (conferenceSources.isNotEmpty()) {
                         val sourceToRemove = conferenceSources.entries.first()
-                        measureAndLog("Removing endpoint $i") {
-                            conferenceSources.tryToRemove(sourceToRemove.key, sourceToRemove.value)
-                        }
-                        i++
+                        conferenceSources.tryToRemove(sourceToRemove.key, sourceToRemove.value)
                     }
-                }
+                } shouldBeLessThan allEndpointsThreshold
                 conferenceSources.size shouldBe 0
             }
         }
@@ -118,9 +118,8 @@ class SsrcValidationPerfTest : ShouldSpec() {
     }
 
     private val logger = createLogger()
-    private fun measureAndLog(name: String, clock: Clock = Clock.systemUTC(), block: () -> Unit) {
-        logger.info("$name took ${measure(clock, block).toMillis()}")
-    }
+    private fun measureAndLog(name: String, clock: Clock = Clock.systemUTC(), block: () -> Unit): Duration =
+        measure(clock, block).also { logger.info("$name took ${it.toMillis()}") }
 }
 
 fun measure(clock: Clock = Clock.systemUTC(), block: () -> Unit): Duration {
@@ -79,6 +79,7 @@ class ConferenceTest : ShouldSpec() {
         mockk(relaxed = true) {
             every { xmppServices } returns mockk(relaxed = true) {
                 every { clientConnection } returns xmppProvider.xmppProvider
+                every { getClientConnection(any()) } returns xmppProvider.xmppProvider
                 every { serviceConnection } returns xmppProvider.xmppProvider
                 every { bridgeSelector } returns mockk(relaxed = true) {
                     every { selectBridge(any(), any(), any()) } returns mockk(relaxed = true) {
@@ -23,6 +23,7 @@ import io.kotest.matchers.shouldBe
 import io.mockk.every
 import io.mockk.mockk
 import io.mockk.slot
+import io.mockk.verify
 import org.jitsi.jicofo.bridge.colibri.ColibriAllocation
 import org.jitsi.jicofo.bridge.colibri.ColibriSessionManager
 import org.jitsi.jicofo.bridge.colibri.SSRC_OWNER_JVB
@@ -33,12 +34,14 @@ import org.jitsi.jicofo.conference.source.SsrcGroup
 import org.jitsi.jicofo.conference.source.SsrcGroupSemantics
 import org.jitsi.jicofo.xmpp.Features
 import org.jitsi.jicofo.xmpp.jingle.JingleSession
+import org.jitsi.jicofo.xmpp.muc.ChatRoomMember
 import org.jitsi.jicofo.xmpp.muc.MemberRole
 import org.jitsi.utils.MediaType
 import org.jitsi.utils.logging2.LoggerImpl
 import org.jitsi.xmpp.extensions.jingle.ContentPacketExtension
 import org.jitsi.xmpp.extensions.jingle.IceUdpTransportPacketExtension
 import org.jxmpp.jid.impl.JidCreate
+import java.util.concurrent.CompletableFuture
 
 class ParticipantInviteRunnableTest : ShouldSpec({
     context("Creating and sending an offer") {
@@ -78,12 +81,14 @@ class ParticipantInviteRunnableTest : ShouldSpec({
             )
         )
         val colibriSessionManager = mockk<ColibriSessionManager> {
-            every { allocate(any()) } returns ColibriAllocation(
-                feedbackSources,
-                IceUdpTransportPacketExtension(),
-                null,
-                null,
-                null
+            every { allocateAsync(any()) } returns CompletableFuture.completedFuture(
+                ColibriAllocation(
+                    feedbackSources,
+                    IceUdpTransportPacketExtension(),
+                    null,
+                    null,
+                    null
+                )
             )
         }
 
@@ -96,6 +101,7 @@ class ParticipantInviteRunnableTest : ShouldSpec({
                 every { hasMember(any()) } returns true
             }
             every { getSourcesForParticipant(any()) } returns EndpointSourceSet.EMPTY
+            every { filteredSourcesCache } returns FilteredSourcesCache()
         }
         listOf(true, false).forEach { supportsVideo ->
             val features = Features.defaultFeatures.toMutableSet().apply {
@@ -174,4 +180,86 @@ class ParticipantInviteRunnableTest : ShouldSpec({
             }
         }
     }
+    context("Using a speculative allocation") {
+        val colibriAllocation = ColibriAllocation(
+            ConferenceSourceMap(),
+            IceUdpTransportPacketExtension(),
+            null,
+            null,
+            null
+        )
+        val colibriSessionManager = mockk<ColibriSessionManager>(relaxed = true) {
+            every { allocateAsync(any()) } returns CompletableFuture.completedFuture(colibriAllocation)
+        }
+        val conference = mockk<JitsiMeetConferenceImpl> {
+            every { sources } returns ConferenceSourceMap()
+            every { chatRoom } returns mockk {
+                every { hasMember(any()) } returns true
+            }
+            every { hasMember(any()) } returns true
+            every { getSourcesForParticipant(any()) } returns EndpointSourceSet.EMPTY
+            every { filteredSourcesCache } returns FilteredSourcesCache()
+        }
+        val chatMember = mockk<ChatRoomMember> {
+            every { occupantJid } returns JidCreate.entityFullFrom("conference@example.com/participant")
+            every { name } returns "participant"
+            every { role } returns MemberRole.OWNER
+            every { sourceInfos } returns emptySet()
+            every { statsId } returns "statsId"
+            every { region } returns "region"
+            every { isJibri } returns false
+            every { isTranscriber } returns false
+        }
+        var sessionInitiated = false
+        fun createParticipant(features: Set<Features>) = object : Participant(
+            chatMember,
+            conference,
+            mockk(),
+            supportedFeatures = features,
+        ) {
+            override fun createNewJingleSession(): JingleSession = mockk {
+                every { initiateSession(any(), any(), any()) } answers {
+                    sessionInitiated = true
+                    true
+                }
+            }
+        }
+        fun createRunnable(participant: Participant, speculativeAllocation: SpeculativeAllocation?) =
+            ParticipantInviteRunnable(
+                conference,
+                colibriSessionManager,
+                participant,
+                false,
+                false,
+                false,
+                speculativeAllocation,
+                null,
+                LoggerImpl("test")
+            )
+
+        // Allocated with the default features, like the conference does before the features are discovered.
+        val builder = AllocationParametersBuilder(chatMember, Features.defaultFeatures, null, LoggerImpl("test"))
+        val speculativeAllocation = SpeculativeAllocation(
+            builder.build(builder.createOffer(), EndpointSourceSet.EMPTY),
+            CompletableFuture.completedFuture(colibriAllocation)
+        )
+
+        context("When the features match") {
+            sessionInitiated = false
+            createRunnable(createParticipant(Features.defaultFeatures), speculativeAllocation).run()
+
+            sessionInitiated shouldBe true
+            verify(exactly = 0) { colibriSessionManager.allocateAsync(any()) }
+            verify(exactly = 0) { colibriSessionManager.removeParticipant(any()) }
+        }
+        context("When the features do not match") {
+            sessionInitiated = false
+            val features = Features.defaultFeatures + Features.TCC + Features.RTX
+            createRunnable(createParticipant(features), speculativeAllocation).run()
+
+            sessionInitiated shouldBe true
+            verify(exactly = 1) { colibriSessionManager.removeParticipant("participant") }
+            verify(exactly = 1) { colibriSessionManager.allocateAsync(any()) }
+        }
+    }
 })
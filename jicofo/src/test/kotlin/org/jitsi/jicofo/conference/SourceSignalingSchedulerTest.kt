@@ -0,0 +1,183 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024-Present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.conference
+
+import io.kotest.core.spec.IsolationMode
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.collections.shouldBeEmpty
+import io.kotest.matchers.shouldBe
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.verify
+import org.jitsi.jicofo.TaskPools
+import org.jitsi.jicofo.conference.AddOrRemove.Add
+import org.jitsi.jicofo.conference.AddOrRemove.Remove
+import org.jitsi.jicofo.conference.source.ConferenceSourceMap
+import org.jitsi.jicofo.conference.source.EndpointSourceSet
+import org.jitsi.jicofo.conference.source.Source
+import org.jitsi.utils.MediaType
+import org.jitsi.utils.logging2.LoggerImpl
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+class SourceSignalingSchedulerTest : ShouldSpec() {
+    override fun isolationMode() = IsolationMode.InstancePerLeaf
+
+    /** A scheduled executor which only runs the tasks when the test calls [runScheduled]. */
+    private val scheduled = mutableListOf<Pair<Runnable, ScheduledFuture<*>>>()
+    private val delays = mutableListOf<Long>()
+    private fun runScheduled() {
+        val tasks = scheduled.toList()
+        scheduled.clear()
+        tasks.forEach { (task, future) -> if (!future.isCancelled) task.run() }
+    }
+
+    init {
+        beforeTest {
+            TaskPools.scheduledPool = mockk {
+                every { schedule(any(), any(), any()) } answers {
+                    delays.add(TimeUnit.MILLISECONDS.convert(secondArg<Long>(), thirdArg<TimeUnit>()))
+                    val future = mockk<ScheduledFuture<*>>(relaxed = true) {
+                        var cancelled = false
+                        every { cancel(any()) } answers {
+                            cancelled = true
+                            true
+                        }
+                        every { isCancelled } answers { cancelled }
+                        every { isDone } returns false
+                    }
+                    scheduled.add(firstArg<Runnable>() to future)
+                    future
+                }
+            }
+        }
+        afterTest { TaskPools.resetScheduledPool() }
+
+        val scheduler = SourceSignalingScheduler({ 100 }, LoggerImpl("test"))
+        val p1 = TestParticipant("p1")
+        val p2 = TestParticipant("p2")
+
+        val s1 = ConferenceSourceMap("e1" to EndpointSourceSet(Source(1, MediaType.AUDIO)))
+        val s2 = ConferenceSourceMap("e2" to EndpointSourceSet(Source(2, MediaType.AUDIO)))
+        val s3 = ConferenceSourceMap("e3" to EndpointSourceSet(Source(3, MediaType.VIDEO)))
+
+        context("Multiple updates within one tick") {
+            p1.addSources(s1, scheduler)
+            p1.addSources(s2, scheduler)
+            p2.addSources(s1, scheduler)
+            p1.addSources(s3, scheduler)
+            p1.removeSources(s2, scheduler)
+
+            should("Schedule a single tick with the delay") {
+                scheduled.size shouldBe 1
+                delays shouldBe listOf(100L)
+            }
+            should("Be signaled as a single source-add") {
+                p1.sent.shouldBeEmpty()
+                runScheduled()
+
+                p1.sent.map { it.action } shouldBe listOf(Add)
+                p1.sent[0].sources.toMap() shouldBe (s1 + s3).toMap()
+                p2.sent.map { it.action } shouldBe listOf(Add)
+                p2.sent[0].sources.toMap() shouldBe s1.toMap()
+                scheduled.shouldBeEmpty()
+            }
+        }
+        context("Updates in consecutive ticks") {
+            p1.addSources(s1 + s2, scheduler)
+            runScheduled()
+            p1.removeSources(s1, scheduler)
+            p1.addSources(s3, scheduler)
+            runScheduled()
+            p1.removeSources(s3, scheduler)
+            runScheduled()
+
+            should("Preserve the order of the source-add and source-remove") {
+                p1.sent.map { it.action } shouldBe listOf(Add, Remove, Add, Remove)
+                p1.sent.map { it.sources.toMap() } shouldBe listOf(
+                    (s1 + s2).toMap(),
+                    s1.toMap(),
+                    s3.toMap(),
+                    s3.toMap()
+                )
+            }
+        }
+        context("Updates while a tick is running") {
+            p1.onSend = { p2.addSources(s2, scheduler) }
+            p1.addSources(s1, scheduler)
+            runScheduled()
+
+            should("Be signaled in a new tick, after the running one") {
+                p1.sent.size shouldBe 1
+                p2.sent.shouldBeEmpty()
+                scheduled.size shouldBe 1
+
+                runScheduled()
+                p2.sent.map { it.action } shouldBe listOf(Add)
+                p2.sent[0].sources.toMap() shouldBe s2.toMap()
+            }
+        }
+        context("A participant which leaves") {
+            p1.addSources(s1, scheduler)
+            p2.addSources(s1, scheduler)
+            scheduler.remove(p1.participant)
+            runScheduled()
+
+            should("Not be signaled") {
+                verify(exactly = 0) { p1.participant.sendQueuedRemoteSources() }
+                p1.sent.shouldBeEmpty()
+                p2.sent.size shouldBe 1
+            }
+        }
+        context("Stopping") {
+            p1.addSources(s1, scheduler)
+            scheduler.stop()
+
+            should("Cancel the scheduled tick") {
+                scheduled.single().second.isCancelled shouldBe true
+                runScheduled()
+                p1.sent.shouldBeEmpty()
+            }
+        }
+    }
+}
+
+/** A [Participant] mock which signals the updates of a real [SourceSignaling] and records them. */
+private class TestParticipant(id: String) {
+    private val sourceSignaling = SourceSignaling()
+    val sent = mutableListOf<SourcesToAddOrRemove>()
+    var onSend: () -> Unit = {}
+
+    val participant: Participant = mockk {
+        every { endpointId } returns id
+        every { sendQueuedRemoteSources() } answers {
+            sent.addAll(sourceSignaling.update())
+            onSend()
+        }
+    }
+
+    fun addSources(sources: ConferenceSourceMap, scheduler: SourceSignalingScheduler) {
+        sourceSignaling.addSources(sources)
+        scheduler.schedule(participant)
+    }
+
+    fun removeSources(sources: ConferenceSourceMap, scheduler: SourceSignalingScheduler) {
+        sourceSignaling.removeSources(sources)
+        scheduler.schedule(participant)
+    }
+}
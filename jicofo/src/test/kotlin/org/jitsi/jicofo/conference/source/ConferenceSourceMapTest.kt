@@ -167,6 +167,16 @@ class ConferenceSourceMapTest : ShouldSpec() {
             val b = ConferenceSourceMap(jid1 to endpoint1SourceSet)
             (a - b) shouldBe ConferenceSourceMap(jid2 to endpoint2SourceSet)
         }
+        context("PersistentConferenceSourceMap") {
+            val conferenceSourceMap = ConferenceSourceMap(jid1 to endpoint1SourceSet, jid2 to endpoint2SourceSet)
+            val persistent = PersistentConferenceSourceMap(conferenceSourceMap)
+
+            (persistent == PersistentConferenceSourceMap(conferenceSourceMap)) shouldBe true
+            persistent.equals(conferenceSourceMap) shouldBe true
+            persistent.hashCode() shouldBe HashMap(conferenceSourceMap).hashCode()
+            (persistent.entries == HashMap(conferenceSourceMap).entries) shouldBe true
+            (persistent == PersistentConferenceSourceMap(ConferenceSourceMap(jid1 to endpoint1SourceSet))) shouldBe false
+        }
         context("To Jingle") {
             val conferenceSourceMap = ConferenceSourceMap(jid1 to endpoint1SourceSet)
             val contents = conferenceSourceMap.toJingle()
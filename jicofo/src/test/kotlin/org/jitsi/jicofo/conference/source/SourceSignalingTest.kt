@@ -20,8 +20,10 @@ import io.kotest.core.spec.style.ShouldSpec
 import io.kotest.matchers.collections.shouldBeEmpty
 import io.kotest.matchers.shouldBe
 import io.kotest.matchers.shouldNotBe
+import io.kotest.matchers.types.shouldBeSameInstanceAs
 import org.jitsi.jicofo.conference.AddOrRemove.Add
 import org.jitsi.jicofo.conference.AddOrRemove.Remove
+import org.jitsi.jicofo.conference.FilteredSourcesCache
 import org.jitsi.jicofo.conference.SourceSignaling
 import org.jitsi.utils.MediaType
 import org.json.simple.JSONObject
@@ -167,6 +169,73 @@ class SourceSignalingTest : ShouldSpec() {
 
             sourceSignaling.debugState.shouldBeValidJson()
         }
+        context("Without tracking deltas") {
+            // The same operations should result in the same updates as when tracking deltas.
+            val scenarios = mapOf(
+                "Resetting" to listOf<SourceSignaling.() -> Unit>(
+                    { addSources(s1) },
+                    { reset(s2) },
+                    { addSources(s3) }
+                ),
+                "Adding multiple sources in multiple API calls" to listOf<SourceSignaling.() -> Unit>(
+                    {
+                        addSources(s1)
+                        addSources(s2)
+                        addSources(s2new)
+                    }
+                ),
+                "Adding, removing, then adding again" to listOf<SourceSignaling.() -> Unit>(
+                    {
+                        addSources(s1)
+                        addSources(s2)
+                        addSources(s2new)
+                        removeSources(s2new)
+                        addSources(s3)
+                    }
+                ),
+                "Adding and removing the same source" to listOf<SourceSignaling.() -> Unit>(
+                    {
+                        addSources(s1)
+                        removeSources(s1)
+                    }
+                ),
+                "Removing previously signaled sources" to listOf<SourceSignaling.() -> Unit>(
+                    {
+                        addSources(s1)
+                        addSources(s2)
+                    },
+                    {
+                        removeSources(s1)
+                        addSources(s2new)
+                    },
+                    { removeSources(s2) }
+                ),
+                "Adding and removing sources with simulcast" to listOf<SourceSignaling.() -> Unit>(
+                    { addSources(s4) },
+                    { removeSources(s4video) },
+                    {
+                        removeSources(s4ss)
+                        addSources(s4video)
+                    }
+                )
+            )
+            scenarios.forEach { (name, steps) ->
+                should(name) {
+                    val withDeltas = SourceSignaling(trackDeltas = true)
+                    val withoutDeltas = SourceSignaling(trackDeltas = false)
+                    steps.forEach { step ->
+                        withDeltas.step()
+                        withoutDeltas.step()
+                        val expected = withDeltas.update()
+                        withoutDeltas.update().let {
+                            it.map { update -> update.action } shouldBe expected.map { update -> update.action }
+                            it.map { update -> update.sources.toMap() } shouldBe
+                                expected.map { update -> update.sources.toMap() }
+                        }
+                    }
+                }
+            }
+        }
         listOf(true, false).forEach { supportsReceivingMultipleStreams ->
             context("Filtering (supportsReceivingMultipleStreams=$supportsReceivingMultipleStreams)") {
                 val sourceSignaling = SourceSignaling(audio = true, video = false, stripSimulcast = true)
@@ -271,6 +340,33 @@ class SourceSignalingTest : ShouldSpec() {
                 add!!.sources shouldBe s4ss.stripSimulcast()
             }
         }
+        context("With a shared filter cache") {
+            val cache = FilteredSourcesCache()
+            val sourceSignaling1 = SourceSignaling(audio = true, video = true, filterCache = cache)
+            val sourceSignaling2 = SourceSignaling(audio = true, video = true, filterCache = cache)
+
+            sourceSignaling1.addSources(s4)
+            sourceSignaling2.addSources(s4)
+            val update1 = sourceSignaling1.update()
+            val update2 = sourceSignaling2.update()
+
+            should("Produce the same updates") {
+                update1.size shouldBe 1
+                update1[0].action shouldBe Add
+                update1[0].sources shouldBe s4.copy().stripSimulcast()
+                update2.size shouldBe 1
+                update2[0].sources[e4] shouldBeSameInstanceAs update1[0].sources[e4]
+            }
+            should("Use the correct updates after a removal") {
+                sourceSignaling1.removeSources(s4)
+                sourceSignaling1.update().let {
+                    it.size shouldBe 1
+                    it[0].action shouldBe Remove
+                    it[0].sources shouldBe s4.copy().stripSimulcast()
+                }
+                sourceSignaling2.update().shouldBeEmpty()
+            }
+        }
     }
 }
 
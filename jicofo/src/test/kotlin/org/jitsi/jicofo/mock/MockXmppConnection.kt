@@ -18,10 +18,15 @@ package org.jitsi.jicofo.mock
 import io.mockk.every
 import io.mockk.mockk
 import org.jivesoftware.smack.AbstractXMPPConnection
+import org.jivesoftware.smack.SmackFuture
+import org.jivesoftware.smack.XMPPException
 import org.jivesoftware.smack.packet.IQ
 import org.jivesoftware.smack.packet.Stanza
 import org.jivesoftware.smack.packet.StanzaFactory
 import org.jivesoftware.smack.packet.id.StanzaIdSource
+import org.jivesoftware.smack.util.ExceptionCallback
+import org.jivesoftware.smack.util.SuccessCallback
+import java.util.concurrent.TimeoutException
 
 open class MockXmppConnection {
     val xmppConnection: AbstractXMPPConnection = mockk(relaxed = true) {
@@ -32,6 +37,8 @@ open class MockXmppConnection {
             }
         }
 
+        every { sendIqRequestAsync(any()) } answers { completedSmackFuture(handleIq(arg(0))) }
+
         every { trySendStanza(any()) } answers {
             val request = arg<Stanza>(0)
             if (request is IQ) handleIq(request)
@@ -52,3 +59,26 @@ open class MockXmppConnection {
 
     open fun handleIq(iq: IQ): IQ? = null
 }
+
+/**
+ * A [SmackFuture] completed with [response], which invokes callbacks in place. Like with Smack, an error response
+ * fails the future with an [XMPPException.XMPPErrorException], and a null response (no response) fails it with a
+ * timeout.
+ */
+fun completedSmackFuture(response: IQ?): SmackFuture<IQ, Exception> = mockk {
+    every { onSuccess(any()) } answers {
+        if (response != null && response.type != IQ.Type.error) {
+            firstArg<SuccessCallback<IQ>>().onSuccess(response)
+        }
+        self as SmackFuture<IQ, Exception>
+    }
+    every { onError(any()) } answers {
+        when {
+            response == null -> firstArg<ExceptionCallback<Exception>>().processException(TimeoutException())
+            response.type == IQ.Type.error -> firstArg<ExceptionCallback<Exception>>().processException(
+                XMPPException.XMPPErrorException(response, response.error)
+            )
+        }
+        self as SmackFuture<IQ, Exception>
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024-Present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.mock
+
+import io.mockk.mockk
+import org.jivesoftware.smack.AbstractXMPPConnection
+import org.jivesoftware.smack.packet.Nonza
+import org.jivesoftware.smack.packet.Stanza
+import org.jxmpp.jid.parts.Resourcepart
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+
+/**
+ * A Smack connection without a socket. Stanzas passed to [mockProcessStanza] are processed by Smack (on its own
+ * executors) like received stanzas, and the stanzas sent are recorded in [sent]. Sending blocks while the connection
+ * is stalled (see [stall]).
+ */
+class TestXmppConnection : AbstractXMPPConnection(mockk(relaxed = true)) {
+    val sent = LinkedBlockingQueue<Stanza>()
+
+    @Volatile
+    private var stalled: CountDownLatch? = null
+
+    /** Block the threads which send on this connection until [resume] is called. */
+    fun stall() {
+        stalled = CountDownLatch(1)
+    }
+
+    fun resume() {
+        stalled?.countDown()
+        stalled = null
+    }
+
+    override fun isSecureConnection(): Boolean = true
+    override fun isUsingCompression(): Boolean = false
+    override fun sendNonza(p0: Nonza?) { }
+    override fun sendStanzaInternal(p0: Stanza) {
+        stalled?.await()
+        sent.add(p0)
+    }
+    override fun connectInternal() { connected = true }
+    override fun loginInternal(p0: String?, p1: String?, p2: Resourcepart?) { }
+    override fun instantShutdown() { }
+    override fun shutdown() { }
+
+    /** Expose as public. */
+    fun mockProcessStanza(stanza: Stanza) = invokeStanzaCollectorsAndNotifyRecvListeners(stanza)
+}
@@ -20,12 +20,10 @@ package org.jitsi.jicofo.xmpp
 import io.kotest.core.spec.style.ShouldSpec
 import io.kotest.matchers.shouldBe
 import io.mockk.mockk
+import org.jitsi.jicofo.mock.TestXmppConnection
 import org.jivesoftware.smack.AbstractXMPPConnection
 import org.jivesoftware.smack.packet.IQ
-import org.jivesoftware.smack.packet.Nonza
-import org.jivesoftware.smack.packet.Stanza
 import org.jxmpp.jid.impl.JidCreate
-import org.jxmpp.jid.parts.Resourcepart
 import java.util.concurrent.CountDownLatch
 import java.util.concurrent.TimeUnit
 
@@ -33,9 +31,9 @@ import java.util.concurrent.TimeUnit
  * This tests the bridge between Smack and our [AbstractIqHandler]. [AbstractXMPPConnection] uses its own executors
  * to process stanzas, and since it's impossible to mock them we're forced to just wait.
  *
- * The intention is to leave this as the only test that requires blindly waiting for other threads, while the rest
- * of the tests can assume that the Smack layer works and can pass IQs directly and synchronously to the intended
- * IQ handler.
+ * The intention is to keep the tests which wait for other threads to a minimum (see also [ClientConnectionPoolTest]),
+ * while the rest of the tests can assume that the Smack layer works and can pass IQs directly and synchronously to
+ * the intended IQ handler.
  */
 class AbstractIqHandlerTest : ShouldSpec() {
     init {
@@ -99,17 +97,3 @@ class AbstractIqHandlerTest : ShouldSpec() {
             IqProcessingResult.AcceptedWithNoResponse().also { latch.countDown() }
     }
 }
-
-private class TestXmppConnection : AbstractXMPPConnection(mockk(relaxed = true)) {
-    override fun isSecureConnection(): Boolean = true
-    override fun isUsingCompression(): Boolean = false
-    override fun sendNonza(p0: Nonza?) { }
-    override fun sendStanzaInternal(p0: Stanza?) { }
-    override fun connectInternal() { connected = true }
-    override fun loginInternal(p0: String?, p1: String?, p2: Resourcepart?) { }
-    override fun instantShutdown() { }
-    override fun shutdown() { }
-
-    /** Expose as public. */
-    fun mockProcessStanza(stanza: Stanza) = invokeStanzaCollectorsAndNotifyRecvListeners(stanza)
-}
@@ -0,0 +1,143 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024-Present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.xmpp
+
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.ints.shouldBeInRange
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.types.shouldBeSameInstanceAs
+import io.mockk.every
+import io.mockk.mockk
+import org.jitsi.config.withNewConfig
+import org.jitsi.jicofo.FocusManager
+import org.jitsi.jicofo.JicofoServices
+import org.jitsi.jicofo.mock.MockXmppProvider
+import org.jitsi.jicofo.mock.TestXmppConnection
+import org.jitsi.xmpp.extensions.jitsimeet.MuteIq
+import org.jivesoftware.smack.packet.IQ
+import org.jxmpp.jid.impl.JidCreate
+
+class ClientConnectionPoolTest : ShouldSpec() {
+    init {
+        val rooms = (0 until 1000).map { JidCreate.entityBareFrom("room$it@conference.example.com") }
+
+        context("Distribution") {
+            val providers = List(4) { MockXmppProvider().xmppProvider }
+            val pool = ClientConnectionPool(providers)
+
+            should("Use the same connection for a room") {
+                rooms.forEach {
+                    pool.get(it) shouldBeSameInstanceAs pool.get(JidCreate.entityBareFrom(it.toString()))
+                }
+            }
+            should("Distribute the rooms evenly") {
+                val counts = rooms.groupingBy { pool.get(it) }.eachCount()
+                counts.size shouldBe providers.size
+                counts.values.forEach { it shouldBeInRange 200..300 }
+            }
+        }
+        context("A single connection") {
+            val provider = MockXmppProvider().xmppProvider
+            val pool = ClientConnectionPool(listOf(provider))
+            rooms.forEach { pool.get(it) shouldBeSameInstanceAs provider }
+            pool.main shouldBeSameInstanceAs provider
+        }
+        context("Without connections") {
+            shouldThrow<IllegalArgumentException> { ClientConnectionPool(emptyList()) }
+        }
+        context("Conferences on a stalled connection") {
+            val clientConfig = """
+                jicofo.xmpp.client.connection-count = 3
+                jicofo.xmpp.client.domain = example.com
+            """.trimIndent()
+
+            should("Not delay the IQs of the conferences on other connections") {
+                withNewConfig(clientConfig) {
+                    val connections = mutableListOf<TestXmppConnection>()
+                    lateinit var xmppServices: XmppServices
+                    val jicofoServices = mockk<JicofoServices>(relaxed = true) {
+                        every { this@mockk.xmppServices } answers { xmppServices }
+                        every { jibriDetector } returns null
+                        every { sipJibriDetector } returns null
+                    }
+                    val focusManager = FocusManager(jicofoServices)
+                    xmppServices = XmppServices(focusManager, null, focusManager) { connectionConfig ->
+                        val connection = TestXmppConnection().apply { connect() }
+                        connections.add(connection)
+                        MockXmppProvider(connection).xmppProvider.apply {
+                            every { registered } returns false
+                            every { components } returns emptySet()
+                            every { config.name } returns connectionConfig.name
+                        }
+                    }
+                    connections.size shouldBe 3
+                    // Each connection has its own A/V moderation handler.
+                    xmppServices.avModerationDebugState.size shouldBe 3
+
+                    val sampleRooms = rooms.take(30)
+                    sampleRooms.forEach { focusManager.conferenceRequest(it, emptyMap()) }
+                    // The conferences use the connection that XmppServices assigns to their room.
+                    val roomConnections = sampleRooms.associateWith { room ->
+                        val provider = focusManager.getConference(room)!!.clientXmppProvider
+                        provider shouldBeSameInstanceAs xmppServices.getClientConnection(room)
+                        provider.xmppConnection as TestXmppConnection
+                    }
+                    val stalledConnection = connections[0]
+                    val (stalledRooms, otherRooms) = sampleRooms.partition { roomConnections[it] == stalledConnection }
+                    stalledRooms.isEmpty() shouldBe false
+                    otherRooms.isEmpty() shouldBe false
+
+                    // There are no participants, so each request is handled by the conference with an error response.
+                    stalledConnection.stall()
+                    val requests = sampleRooms.associateWith { room ->
+                        MuteIq().apply {
+                            from = JidCreate.entityFullFrom("$room/occupant")
+                            to = JidCreate.from(XmppConfig.client.jid)
+                            type = IQ.Type.set
+                            jid = from
+                            mute = true
+                        }.also { roomConnections[room]!!.mockProcessStanza(it) }
+                    }
+
+                    otherRooms.forEach { room ->
+                        roomConnections[room]!!.awaitResponse(requests[room]!!).type shouldBe IQ.Type.error
+                    }
+                    stalledConnection.sent.isEmpty() shouldBe true
+
+                    stalledConnection.resume()
+                    stalledRooms.forEach { room ->
+                        stalledConnection.awaitResponse(requests[room]!!).type shouldBe IQ.Type.error
+                    }
+
+                    xmppServices.shutdown()
+                }
+            }
+        }
+    }
+}
+
+/** Wait for the response to [request] to be sent, keeping the other sent stanzas. */
+private fun TestXmppConnection.awaitResponse(request: IQ): IQ {
+    val deadline = System.currentTimeMillis() + 10_000
+    while (System.currentTimeMillis() < deadline) {
+        sent.find { it is IQ && it.stanzaId == request.stanzaId }?.let { return it as IQ }
+        Thread.sleep(10)
+    }
+    throw AssertionError("No response to ${request.stanzaId}")
+}
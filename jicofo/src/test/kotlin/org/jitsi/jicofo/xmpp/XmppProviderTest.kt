@@ -0,0 +1,122 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024-Present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.xmpp
+
+import io.kotest.core.spec.IsolationMode
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.collections.shouldBeEmpty
+import io.kotest.matchers.shouldBe
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.mockkConstructor
+import io.mockk.unmockkConstructor
+import io.mockk.verify
+import org.jitsi.config.withNewConfig
+import org.jitsi.utils.logging2.LoggerImpl
+import org.jivesoftware.smack.StanzaCollector
+import org.jivesoftware.smack.packet.IQ
+import org.jivesoftware.smack.tcp.XMPPTCPConnection
+import org.jivesoftware.smackx.caps.EntityCapsManager
+import org.jivesoftware.smackx.caps.cache.EntityCapsPersistentCache
+import org.jivesoftware.smackx.caps.packet.CapsExtension
+import org.jivesoftware.smackx.disco.packet.DiscoverInfo
+import org.jxmpp.jid.impl.JidCreate
+
+/**
+ * Tests that [XmppProvider.discoverFeatures] takes the features advertised with entity caps from Smack's caps cache,
+ * without sending a disco#info request.
+ */
+class XmppProviderTest : ShouldSpec() {
+    override fun isolationMode() = IsolationMode.InstancePerLeaf
+
+    /** The disco#info requests sent on the connection. */
+    private val requests = mutableListOf<IQ>()
+
+    init {
+        // Only the connection's network operations are mocked.
+        mockkConstructor(XMPPTCPConnection::class)
+        every { anyConstructed<XMPPTCPConnection>().isConnected } returns true
+        every { anyConstructed<XMPPTCPConnection>().createStanzaCollectorAndSend(any<IQ>()) } answers {
+            val request = firstArg<IQ>()
+            requests.add(request)
+            mockk<StanzaCollector>(relaxed = true) {
+                every { nextResultOrThrow<DiscoverInfo>() } returns discoverInfo(request.stanzaId, Features.AUDIO)
+            }
+        }
+        afterTest {
+            unmockkConstructor(XMPPTCPConnection::class)
+            EntityCapsManager.setPersistentCache(null)
+            EntityCapsManager.clearMemoryCache()
+        }
+
+        lateinit var xmppProvider: XmppProvider
+        withNewConfig("jicofo.xmpp.client.domain = example.com") {
+            xmppProvider = XmppProvider(XmppConfig.client, LoggerImpl("test"))
+        }
+
+        val jid = JidCreate.entityFullFrom("room@conference.example.com/member")
+        val caps = CapsExtension("https://jitsi.org", "cached-ver", "sha-1")
+        // Seed Smack's caps cache, which only contains verified node#ver entries.
+        EntityCapsManager.setPersistentCache(
+            mockk<EntityCapsPersistentCache>(relaxed = true) {
+                every { lookup(any()) } returns null
+                every { lookup(caps.nodeVer) } returns discoverInfo("cached", Features.AUDIO, Features.VIDEO)
+            }
+        )
+
+        context("Caps which are in the cache") {
+            should("Use the cached features without sending a disco#info request") {
+                xmppProvider.hasCachedFeatures(caps) shouldBe true
+                xmppProvider.discoverFeatures(jid, caps) shouldBe setOf(Features.AUDIO, Features.VIDEO)
+
+                requests.shouldBeEmpty()
+                verify(exactly = 0) { anyConstructed<XMPPTCPConnection>().sendIqRequestAsync(any()) }
+            }
+            should("Send a disco#info request when the caps cache is disabled") {
+                withNewConfig("jicofo.xmpp.caps-cache.enabled = false") {
+                    xmppProvider.hasCachedFeatures(caps) shouldBe false
+                    xmppProvider.discoverFeatures(jid, caps) shouldBe setOf(Features.AUDIO)
+                }
+                requests.size shouldBe 1
+            }
+        }
+        context("Caps which are not in the cache") {
+            val otherCaps = CapsExtension("https://jitsi.org", "other-ver", "sha-1")
+
+            should("Send a disco#info request") {
+                xmppProvider.hasCachedFeatures(otherCaps) shouldBe false
+                xmppProvider.discoverFeatures(jid, otherCaps) shouldBe setOf(Features.AUDIO)
+
+                requests.size shouldBe 1
+                requests[0].to shouldBe jid
+            }
+        }
+        context("Without caps") {
+            should("Send a disco#info request") {
+                xmppProvider.discoverFeatures(jid) shouldBe setOf(Features.AUDIO)
+                requests.size shouldBe 1
+            }
+        }
+    }
+}
+
+private fun discoverInfo(id: String, vararg features: Features): DiscoverInfo = DiscoverInfo.builder(id).apply {
+    ofType(IQ.Type.result)
+    addIdentity(DiscoverInfo.Identity("client", "web", "Jitsi Meet"))
+    features.forEach { addFeature(it.value) }
+}.build()
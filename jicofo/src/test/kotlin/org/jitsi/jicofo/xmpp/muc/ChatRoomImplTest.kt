@@ -0,0 +1,270 @@
+/*
+ * Jicofo, the Jitsi Conference Focus.
+ *
+ * Copyright @ 2024-Present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jicofo.xmpp.muc
+
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.collections.shouldBeEmpty
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.shouldNotBe
+import io.mockk.Runs
+import io.mockk.every
+import io.mockk.just
+import io.mockk.mockk
+import io.mockk.mockkStatic
+import io.mockk.slot
+import io.mockk.unmockkStatic
+import org.jitsi.config.withNewConfig
+import org.jitsi.jicofo.TaskPools
+import org.jitsi.jicofo.xmpp.XmppProvider
+import org.jivesoftware.smack.AbstractXMPPConnection
+import org.jivesoftware.smack.packet.ExtensionElement
+import org.jivesoftware.smack.packet.Presence
+import org.jivesoftware.smack.packet.PresenceBuilder
+import org.jivesoftware.smack.packet.StandardExtensionElement
+import org.jivesoftware.smack.packet.Stanza
+import org.jivesoftware.smack.packet.StanzaBuilder
+import org.jivesoftware.smack.util.Consumer
+import org.jivesoftware.smackx.muc.MultiUserChat
+import org.jivesoftware.smackx.muc.MultiUserChatManager
+import org.jxmpp.jid.EntityFullJid
+import org.jxmpp.jid.impl.JidCreate
+import org.jxmpp.jid.parts.Resourcepart
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+class ChatRoomImplTest : ShouldSpec() {
+    init {
+        context("Processing presence") {
+            val chatRoom = ChatRoomImpl(mockk(relaxed = true), JidCreate.entityBareFrom("room1@example.com")) { }
+            val listener = RecordingListener().also { chatRoom.addListener(it) }
+            val jid = JidCreate.entityFullFrom("room1@example.com/member")
+
+            chatRoom.processPresence(presence(jid, Presence.Type.available))
+            chatRoom.processPresence(presence(jid, Presence.Type.available))
+            chatRoom.processPresence(presence(jid, Presence.Type.unavailable))
+
+            should("Fire the events in order") {
+                listener.nextEvent() shouldBe "joined $jid"
+                listener.nextEvent() shouldBe "presence $jid"
+                listener.nextEvent() shouldBe "presence $jid"
+                listener.nextEvent() shouldBe "left $jid"
+                listener.nextEvent() shouldBe null
+            }
+            should("Not fire the events in the calling thread") {
+                synchronized(listener.threads) {
+                    listener.threads.isEmpty() shouldBe false
+                    listener.threads.forEach { it shouldNotBe Thread.currentThread() }
+                }
+            }
+        }
+        context("A slow listener") {
+            val chatRoom1 = ChatRoomImpl(mockk(relaxed = true), JidCreate.entityBareFrom("room1@example.com")) { }
+            val chatRoom2 = ChatRoomImpl(mockk(relaxed = true), JidCreate.entityBareFrom("room2@example.com")) { }
+            val release = CountDownLatch(1)
+            val listener1 = RecordingListener(release).also { chatRoom1.addListener(it) }
+            val listener2 = RecordingListener().also { chatRoom2.addListener(it) }
+            val jid1 = JidCreate.entityFullFrom("room1@example.com/member")
+            val jid2 = JidCreate.entityFullFrom("room2@example.com/member")
+
+            chatRoom1.processPresence(presence(jid1, Presence.Type.available))
+            chatRoom2.processPresence(presence(jid2, Presence.Type.available))
+
+            should("Not delay the events of other rooms") {
+                listener2.nextEvent() shouldBe "joined $jid2"
+                listener2.nextEvent() shouldBe "presence $jid2"
+                // The first event of room1 is still being processed.
+                listener1.nextEvent() shouldBe "joined $jid1"
+                listener1.nextEvent() shouldBe null
+
+                release.countDown()
+                listener1.nextEvent() shouldBe "presence $jid1"
+            }
+        }
+        context("Coalescing updates to our presence") {
+            val config = "jicofo.xmpp.presence-min-interval = 1 minute"
+
+            should("Send the changes made within the interval in a single presence") {
+                withNewConfig(config) {
+                    JoinedRoom().use { room ->
+                        // Nothing was sent since joining, so this is sent right away.
+                        room.chatRoom.setPresenceExtension(extension("a", "1"))
+                        room.sent.size shouldBe 1
+
+                        room.chatRoom.setPresenceExtension(extension("a", "2"))
+                        room.chatRoom.addPresenceExtensions(listOf(extension("b", "1")))
+                        room.chatRoom.removePresenceExtensions({ it.elementName == "c" })
+                        room.chatRoom.setPresenceExtension(extension("a", "3"))
+                        room.sent.size shouldBe 1
+                        room.scheduled.size shouldBe 1
+
+                        room.runScheduled()
+                        room.sent.size shouldBe 2
+                        room.sent.last().text("a") shouldBe "3"
+                        room.sent.last().text("b") shouldBe "1"
+                        room.scheduled.shouldBeEmpty()
+                    }
+                }
+            }
+            should("Send a priority change immediately, with the pending changes") {
+                withNewConfig(config) {
+                    JoinedRoom().use { room ->
+                        room.chatRoom.setPresenceExtension(extension("a", "1"))
+                        room.chatRoom.setPresenceExtension(extension("a", "2"))
+                        room.sent.size shouldBe 1
+                        val flush = room.scheduled.single().second
+
+                        room.chatRoom.setPresenceExtension(extension("b", "1"), priority = true)
+                        room.sent.size shouldBe 2
+                        room.sent.last().text("a") shouldBe "2"
+                        room.sent.last().text("b") shouldBe "1"
+                        flush.isCancelled shouldBe true
+
+                        room.runScheduled()
+                        room.sent.size shouldBe 2
+                    }
+                }
+            }
+            should("Cancel the pending presence when leaving") {
+                withNewConfig(config) {
+                    JoinedRoom().use { room ->
+                        room.chatRoom.setPresenceExtension(extension("a", "1"))
+                        room.chatRoom.setPresenceExtension(extension("a", "2"))
+                        val flush = room.scheduled.single().second
+
+                        room.chatRoom.leave()
+                        flush.isCancelled shouldBe true
+                        room.runScheduled()
+                        room.sent.size shouldBe 1
+                    }
+                }
+            }
+            should("Cancel the pending presence when joining again") {
+                withNewConfig(config) {
+                    JoinedRoom().use { room ->
+                        room.chatRoom.setPresenceExtension(extension("a", "1"))
+                        room.chatRoom.setPresenceExtension(extension("a", "2"))
+                        val flush = room.scheduled.single().second
+
+                        room.chatRoom.join()
+                        flush.isCancelled shouldBe true
+                        room.runScheduled()
+                        room.sent.size shouldBe 1
+                        // The state was reset, so the next change is sent right away.
+                        room.chatRoom.setPresenceExtension(extension("a", "3"))
+                        room.sent.size shouldBe 2
+                        room.sent.last().text("a") shouldBe "3"
+                    }
+                }
+            }
+        }
+    }
+}
+
+private const val TEST_NAMESPACE = "urn:jicofo:test"
+
+private fun extension(name: String, text: String): ExtensionElement =
+    StandardExtensionElement.builder(name, TEST_NAMESPACE).setText(text).build()
+
+private fun Presence.text(name: String): String? =
+    getExtension<StandardExtensionElement>(name, TEST_NAMESPACE)?.text
+
+/**
+ * A [ChatRoomImpl] which has joined its MUC. The presence stanzas it sends are recorded in [sent], and the tasks it
+ * schedules only run when the test calls [runScheduled].
+ */
+private class JoinedRoom : AutoCloseable {
+    val sent = mutableListOf<Presence>()
+    val scheduled = mutableListOf<Pair<Runnable, ScheduledFuture<*>>>()
+    val chatRoom: ChatRoomImpl
+
+    init {
+        val roomJid = JidCreate.entityBareFrom("room@example.com")
+        val occupantJid = JidCreate.entityFullFrom("$roomJid/focus")
+        val interceptor = slot<Consumer<PresenceBuilder>>()
+        val muc = mockk<MultiUserChat>(relaxed = true) {
+            every { addPresenceInterceptor(capture(interceptor)) } just Runs
+            every { createOrJoin(any<Resourcepart>()) } answers {
+                // Smack sends the initial presence itself, and passes it through the interceptor.
+                interceptor.captured.accept(StanzaBuilder.buildPresence().to(occupantJid))
+                null
+            }
+        }
+        mockkStatic(MultiUserChatManager::class)
+        every { MultiUserChatManager.getInstanceFor(any()) } returns mockk {
+            every { getMultiUserChat(any()) } returns muc
+        }
+        TaskPools.scheduledPool = mockk {
+            every { schedule(any(), any(), any()) } answers {
+                val future = mockk<ScheduledFuture<*>>(relaxed = true) {
+                    var cancelled = false
+                    every { cancel(any()) } answers {
+                        cancelled = true
+                        true
+                    }
+                    every { isCancelled } answers { cancelled }
+                }
+                scheduled.add(firstArg<Runnable>() to future)
+                future
+            }
+        }
+        val connection = mockk<AbstractXMPPConnection>(relaxed = true) {
+            every { sendStanza(any()) } answers { sent.add(firstArg<Stanza>() as Presence) }
+        }
+        val xmppProvider = mockk<XmppProvider>(relaxed = true) {
+            every { xmppConnection } returns connection
+            every { config.username } returns Resourcepart.from("focus")
+        }
+        chatRoom = ChatRoomImpl(xmppProvider, roomJid) { }
+        chatRoom.join()
+    }
+
+    fun runScheduled() {
+        val tasks = scheduled.toList()
+        scheduled.clear()
+        tasks.forEach { (task, future) -> if (!future.isCancelled) task.run() }
+    }
+
+    override fun close() {
+        TaskPools.resetScheduledPool()
+        unmockkStatic(MultiUserChatManager::class)
+    }
+}
+
+private fun presence(jid: EntityFullJid, type: Presence.Type): Presence =
+    StanzaBuilder.buildPresence().ofType(type).from(jid).build()
+
+/** Records the events fired by a room, optionally blocking in the first event until [release] is released. */
+private class RecordingListener(private val release: CountDownLatch? = null) : ChatRoomListener {
+    private val events = LinkedBlockingQueue<String>()
+    val threads: MutableList<Thread> = mutableListOf()
+
+    private fun record(event: String) {
+        synchronized(threads) { threads.add(Thread.currentThread()) }
+        events.put(event)
+        release?.await(5, TimeUnit.SECONDS)
+    }
+
+    override fun memberJoined(member: ChatRoomMember) = record("joined ${member.occupantJid}")
+    override fun memberLeft(member: ChatRoomMember) = record("left ${member.occupantJid}")
+    override fun memberPresenceChanged(member: ChatRoomMember) = record("presence ${member.occupantJid}")
+
+    /** The next event delivered to this listener, or null if there is none within a short time. */
+    fun nextEvent(): String? = events.poll(200, TimeUnit.MILLISECONDS)
+}